@@ -0,0 +1,1197 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Typed abstract syntax tree lowered from the CParser parse tree by
+ * {@link AstLowering}.
+ *
+ * Nodes are immutable and carry only what later passes need: the grammar's
+ * pass-through levels are gone and operators are enums instead of tokens.
+ * Every node has a source span packed into one long (begin and end
+ * character offsets, see {@link Node#begin()} and {@link Node#end()}).
+ * Every expression has a dense {@code id} unique within its translation
+ * unit, so analyses keep per-expression results in plain arrays indexed by
+ * id instead of maps.
+ */
+public final class Ast {
+    private Ast() {
+    }
+
+    public static long span(int begin, int end) {
+        return ((long) begin << 32) | (end & 0xffffffffL);
+    }
+
+    public abstract static class Node {
+        public final long span;
+
+        Node(long span) {
+            this.span = span;
+        }
+
+        /** Offset of the first character of the node. */
+        public int begin() {
+            return (int) (span >>> 32);
+        }
+
+        /** Offset one past the last character of the node. */
+        public int end() {
+            return (int) span;
+        }
+
+        public abstract <R> R accept(Visitor<R> v);
+    }
+
+    // ---------------------------------------------------------------- types
+
+    /** Type as written in the source, before semantic analysis. */
+    public abstract static class TypeRef {
+        public static final int CONST = 1;
+        public static final int VOLATILE = 2;
+        public static final int RESTRICT = 4;
+
+        public final int qualifiers;
+
+        TypeRef(int qualifiers) {
+            this.qualifiers = qualifiers;
+        }
+    }
+
+    public static final class BuiltinTypeRef extends TypeRef {
+        public static final int VOID = 1;
+        public static final int CHAR = 1 << 1;
+        public static final int SHORT = 1 << 2;
+        public static final int INT = 1 << 3;
+        public static final int LONG = 1 << 4;
+        public static final int LONG_LONG = 1 << 5;
+        public static final int FLOAT = 1 << 6;
+        public static final int DOUBLE = 1 << 7;
+        public static final int SIGNED = 1 << 8;
+        public static final int UNSIGNED = 1 << 9;
+        public static final int BOOL = 1 << 10;
+        public static final int COMPLEX = 1 << 11;
+
+        /** Set of the specifier bits above. */
+        public final int specifiers;
+
+        public BuiltinTypeRef(int specifiers, int qualifiers) {
+            super(qualifiers);
+            this.specifiers = specifiers;
+        }
+    }
+
+    /**
+     * struct, union or enum type; {@code decl} is a StructDecl or EnumDecl.
+     * A definition written inside a specifier is also emitted as a separate
+     * declaration ahead of its first use, so walkers reach it exactly once
+     * through the declaration lists and never through the TagTypeRef.
+     */
+    public static final class TagTypeRef extends TypeRef {
+        public final Decl decl;
+
+        public TagTypeRef(Decl decl, int qualifiers) {
+            super(qualifiers);
+            this.decl = decl;
+        }
+    }
+
+    public static final class TypedefTypeRef extends TypeRef {
+        public final String name;
+
+        public TypedefTypeRef(String name, int qualifiers) {
+            super(qualifiers);
+            this.name = name;
+        }
+    }
+
+    public static final class PointerTypeRef extends TypeRef {
+        public final TypeRef target;
+
+        public PointerTypeRef(TypeRef target, int qualifiers) {
+            super(qualifiers);
+            this.target = target;
+        }
+    }
+
+    public static final class ArrayTypeRef extends TypeRef {
+        public final TypeRef element;
+        /** Declared size, or null for {@code []}. */
+        public final Expr size;
+
+        public ArrayTypeRef(TypeRef element, Expr size) {
+            super(0);
+            this.element = element;
+            this.size = size;
+        }
+    }
+
+    public static final class FunctionTypeRef extends TypeRef {
+        public final TypeRef result;
+        public final List<ParamDecl> params;
+        /** True for {@code f()} and identifier lists, which do not fix the parameters. */
+        public final boolean oldStyle;
+
+        public FunctionTypeRef(TypeRef result, List<ParamDecl> params, boolean oldStyle) {
+            super(0);
+            this.result = result;
+            this.params = params;
+            this.oldStyle = oldStyle;
+        }
+    }
+
+    // ---------------------------------------------------------- declarations
+
+    public abstract static class Decl extends Node {
+        public static final int TYPEDEF = 1;
+        public static final int EXTERN = 1 << 1;
+        public static final int STATIC = 1 << 2;
+        public static final int AUTO = 1 << 3;
+        public static final int REGISTER = 1 << 4;
+        public static final int INLINE = 1 << 5;
+        public static final int NORETURN = 1 << 6;
+
+        /** Declared name; null for anonymous tags, fields and parameters. */
+        public final String name;
+
+        Decl(long span, String name) {
+            super(span);
+            this.name = name;
+        }
+    }
+
+    public static final class TranslationUnit extends Node {
+        public final List<Decl> decls;
+        /** Number of expression ids handed out, the size for per-expression arrays. */
+        public final int exprCount;
+        private final int[] lineStarts;
+
+        public TranslationUnit(long span, List<Decl> decls, int exprCount, int[] lineStarts) {
+            super(span);
+            this.decls = decls;
+            this.exprCount = exprCount;
+            this.lineStarts = lineStarts;
+        }
+
+        /** 1-based line of a character offset. */
+        public int line(int offset) {
+            int i = Arrays.binarySearch(lineStarts, offset);
+            return i >= 0 ? i + 1 : -i - 1;
+        }
+
+        /** 0-based column of a character offset. */
+        public int column(int offset) {
+            int line = line(offset);
+            return line == 0 ? offset : offset - lineStarts[line - 1];
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitTranslationUnit(this);
+        }
+    }
+
+    public static final class FunctionDecl extends Decl {
+        public final FunctionTypeRef type;
+        /** Storage class and function specifier flags. */
+        public final int flags;
+        /** Body, or null for a prototype. */
+        public final CompoundStmt body;
+
+        public FunctionDecl(long span, String name, FunctionTypeRef type, int flags, CompoundStmt body) {
+            super(span, name);
+            this.type = type;
+            this.flags = flags;
+            this.body = body;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitFunctionDecl(this);
+        }
+    }
+
+    public static final class VarDecl extends Decl {
+        public final TypeRef type;
+        public final int flags;
+        /** Initializer, an {@link InitList} for braces, or null. */
+        public final Expr init;
+        /** _Alignas operand: an Expr, a TypeRef or null. */
+        public final Object alignment;
+
+        public VarDecl(long span, String name, TypeRef type, int flags, Expr init, Object alignment) {
+            super(span, name);
+            this.type = type;
+            this.flags = flags;
+            this.init = init;
+            this.alignment = alignment;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitVarDecl(this);
+        }
+    }
+
+    public static final class ParamDecl extends Decl {
+        public final TypeRef type;
+
+        public ParamDecl(long span, String name, TypeRef type) {
+            super(span, name);
+            this.type = type;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitParamDecl(this);
+        }
+    }
+
+    public static final class TypedefDecl extends Decl {
+        public final TypeRef type;
+
+        public TypedefDecl(long span, String name, TypeRef type) {
+            super(span, name);
+            this.type = type;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitTypedefDecl(this);
+        }
+    }
+
+    /**
+     * struct or union. {@code fields} is null for a reference to a tag
+     * declared elsewhere ({@code struct s x;}).
+     */
+    public static final class StructDecl extends Decl {
+        public final boolean union;
+        public final List<FieldDecl> fields;
+
+        public StructDecl(long span, String name, boolean union, List<FieldDecl> fields) {
+            super(span, name);
+            this.union = union;
+            this.fields = fields;
+        }
+
+        public boolean isDefinition() {
+            return fields != null;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitStructDecl(this);
+        }
+    }
+
+    public static final class FieldDecl extends Decl {
+        public final TypeRef type;
+        /** Bit-field width, or null. */
+        public final Expr width;
+        public final Object alignment;
+
+        public FieldDecl(long span, String name, TypeRef type, Expr width, Object alignment) {
+            super(span, name);
+            this.type = type;
+            this.width = width;
+            this.alignment = alignment;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitFieldDecl(this);
+        }
+    }
+
+    /** enum; {@code constants} is null for a reference. */
+    public static final class EnumDecl extends Decl {
+        public final List<EnumConstantDecl> constants;
+
+        public EnumDecl(long span, String name, List<EnumConstantDecl> constants) {
+            super(span, name);
+            this.constants = constants;
+        }
+
+        public boolean isDefinition() {
+            return constants != null;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitEnumDecl(this);
+        }
+    }
+
+    public static final class EnumConstantDecl extends Decl {
+        /** Explicit value, or null for previous + 1. */
+        public final Expr value;
+
+        public EnumConstantDecl(long span, String name, Expr value) {
+            super(span, name);
+            this.value = value;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitEnumConstantDecl(this);
+        }
+    }
+
+    // ------------------------------------------------------------ statements
+
+    public abstract static class Stmt extends Node {
+        Stmt(long span) {
+            super(span);
+        }
+    }
+
+    public static final class CompoundStmt extends Stmt {
+        public final List<Stmt> items;
+
+        public CompoundStmt(long span, List<Stmt> items) {
+            super(span);
+            this.items = items;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitCompoundStmt(this);
+        }
+    }
+
+    /** A declaration inside a block. */
+    public static final class DeclStmt extends Stmt {
+        public final List<Decl> decls;
+
+        public DeclStmt(long span, List<Decl> decls) {
+            super(span);
+            this.decls = decls;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitDeclStmt(this);
+        }
+    }
+
+    public static final class ExprStmt extends Stmt {
+        /** Null for the empty statement. */
+        public final Expr expr;
+
+        public ExprStmt(long span, Expr expr) {
+            super(span);
+            this.expr = expr;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitExprStmt(this);
+        }
+    }
+
+    public static final class IfStmt extends Stmt {
+        public final Expr cond;
+        public final Stmt then;
+        public final Stmt otherwise;
+
+        public IfStmt(long span, Expr cond, Stmt then, Stmt otherwise) {
+            super(span);
+            this.cond = cond;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitIfStmt(this);
+        }
+    }
+
+    public static final class SwitchStmt extends Stmt {
+        public final Expr cond;
+        public final Stmt body;
+
+        public SwitchStmt(long span, Expr cond, Stmt body) {
+            super(span);
+            this.cond = cond;
+            this.body = body;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitSwitchStmt(this);
+        }
+    }
+
+    public static final class WhileStmt extends Stmt {
+        public final Expr cond;
+        public final Stmt body;
+
+        public WhileStmt(long span, Expr cond, Stmt body) {
+            super(span);
+            this.cond = cond;
+            this.body = body;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitWhileStmt(this);
+        }
+    }
+
+    public static final class DoWhileStmt extends Stmt {
+        public final Stmt body;
+        public final Expr cond;
+
+        public DoWhileStmt(long span, Stmt body, Expr cond) {
+            super(span);
+            this.body = body;
+            this.cond = cond;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitDoWhileStmt(this);
+        }
+    }
+
+    /** for; each of the three clauses may be null. */
+    public static final class ForStmt extends Stmt {
+        public final Expr init;
+        public final Expr cond;
+        public final Expr step;
+        public final Stmt body;
+
+        public ForStmt(long span, Expr init, Expr cond, Expr step, Stmt body) {
+            super(span);
+            this.init = init;
+            this.cond = cond;
+            this.step = step;
+            this.body = body;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitForStmt(this);
+        }
+    }
+
+    public static final class LabeledStmt extends Stmt {
+        public final String label;
+        public final Stmt body;
+
+        public LabeledStmt(long span, String label, Stmt body) {
+            super(span);
+            this.label = label;
+            this.body = body;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitLabeledStmt(this);
+        }
+    }
+
+    public static final class CaseStmt extends Stmt {
+        public final Expr value;
+        public final Stmt body;
+
+        public CaseStmt(long span, Expr value, Stmt body) {
+            super(span);
+            this.value = value;
+            this.body = body;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitCaseStmt(this);
+        }
+    }
+
+    public static final class DefaultStmt extends Stmt {
+        public final Stmt body;
+
+        public DefaultStmt(long span, Stmt body) {
+            super(span);
+            this.body = body;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitDefaultStmt(this);
+        }
+    }
+
+    public static final class GotoStmt extends Stmt {
+        public final String label;
+
+        public GotoStmt(long span, String label) {
+            super(span);
+            this.label = label;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitGotoStmt(this);
+        }
+    }
+
+    public static final class BreakStmt extends Stmt {
+        public BreakStmt(long span) {
+            super(span);
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitBreakStmt(this);
+        }
+    }
+
+    public static final class ContinueStmt extends Stmt {
+        public ContinueStmt(long span) {
+            super(span);
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitContinueStmt(this);
+        }
+    }
+
+    public static final class ReturnStmt extends Stmt {
+        public final Expr value;
+
+        public ReturnStmt(long span, Expr value) {
+            super(span);
+            this.value = value;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitReturnStmt(this);
+        }
+    }
+
+    // ----------------------------------------------------------- expressions
+
+    public abstract static class Expr extends Node {
+        /** Dense index within the translation unit. */
+        public final int id;
+
+        Expr(long span, int id) {
+            super(span);
+            this.id = id;
+        }
+    }
+
+    public enum UnaryOp {
+        PLUS("+"), MINUS("-"), BIT_NOT("~"), NOT("!"), ADDRESS("&"), DEREF("*"),
+        PRE_INC("++"), PRE_DEC("--"), POST_INC("++"), POST_DEC("--"), SIZEOF("sizeof");
+
+        public final String symbol;
+
+        UnaryOp(String symbol) {
+            this.symbol = symbol;
+        }
+    }
+
+    public enum BinaryOp {
+        MUL("*"), DIV("/"), MOD("%"), ADD("+"), SUB("-"), SHL("<<"), SHR(">>"),
+        LT("<"), GT(">"), LE("<="), GE(">="), EQ("=="), NE("!="),
+        BIT_AND("&"), BIT_XOR("^"), BIT_OR("|"), AND("&&"), OR("||"), COMMA(",");
+
+        public final String symbol;
+
+        BinaryOp(String symbol) {
+            this.symbol = symbol;
+        }
+
+        public boolean isComparison() {
+            return compareTo(LT) >= 0 && compareTo(NE) <= 0;
+        }
+
+        public boolean isLogical() {
+            return this == AND || this == OR;
+        }
+    }
+
+    public static final class IntLiteral extends Expr {
+        public static final int UNSIGNED = 1;
+        public static final int LONG = 2;
+        public static final int LONG_LONG = 4;
+        /** Character constant such as {@code 'a'}. */
+        public static final int CHAR = 8;
+
+        public final long value;
+        public final int flags;
+
+        public IntLiteral(long span, int id, long value, int flags) {
+            super(span, id);
+            this.value = value;
+            this.flags = flags;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitIntLiteral(this);
+        }
+    }
+
+    public static final class FloatLiteral extends Expr {
+        public final double value;
+        /** True for an {@code f} suffix. */
+        public final boolean single;
+
+        public FloatLiteral(long span, int id, double value, boolean single) {
+            super(span, id);
+            this.value = value;
+            this.single = single;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitFloatLiteral(this);
+        }
+    }
+
+    public static final class StringLiteral extends Expr {
+        /** Decoded bytes, without the terminating NUL. */
+        private final byte[] bytes;
+
+        public StringLiteral(long span, int id, byte[] bytes) {
+            super(span, id);
+            this.bytes = bytes;
+        }
+
+        public int length() {
+            return bytes.length;
+        }
+
+        public byte byteAt(int i) {
+            return bytes[i];
+        }
+
+        public byte[] toByteArray() {
+            return bytes.clone();
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitStringLiteral(this);
+        }
+    }
+
+    public static final class NameExpr extends Expr {
+        public final String name;
+
+        public NameExpr(long span, int id, String name) {
+            super(span, id);
+            this.name = name;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitNameExpr(this);
+        }
+    }
+
+    public static final class UnaryExpr extends Expr {
+        public final UnaryOp op;
+        public final Expr operand;
+
+        public UnaryExpr(long span, int id, UnaryOp op, Expr operand) {
+            super(span, id);
+            this.op = op;
+            this.operand = operand;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitUnaryExpr(this);
+        }
+    }
+
+    public static final class BinaryExpr extends Expr {
+        public final BinaryOp op;
+        public final Expr left;
+        public final Expr right;
+
+        public BinaryExpr(long span, int id, BinaryOp op, Expr left, Expr right) {
+            super(span, id);
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitBinaryExpr(this);
+        }
+    }
+
+    /** Assignment; {@code op} is null for plain {@code =}, else the compound operator. */
+    public static final class AssignExpr extends Expr {
+        public final BinaryOp op;
+        public final Expr target;
+        public final Expr value;
+
+        public AssignExpr(long span, int id, BinaryOp op, Expr target, Expr value) {
+            super(span, id);
+            this.op = op;
+            this.target = target;
+            this.value = value;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitAssignExpr(this);
+        }
+    }
+
+    public static final class ConditionalExpr extends Expr {
+        public final Expr cond;
+        public final Expr then;
+        public final Expr otherwise;
+
+        public ConditionalExpr(long span, int id, Expr cond, Expr then, Expr otherwise) {
+            super(span, id);
+            this.cond = cond;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitConditionalExpr(this);
+        }
+    }
+
+    public static final class CallExpr extends Expr {
+        public final Expr callee;
+        public final List<Expr> args;
+
+        public CallExpr(long span, int id, Expr callee, List<Expr> args) {
+            super(span, id);
+            this.callee = callee;
+            this.args = args;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitCallExpr(this);
+        }
+    }
+
+    public static final class IndexExpr extends Expr {
+        public final Expr base;
+        public final Expr index;
+
+        public IndexExpr(long span, int id, Expr base, Expr index) {
+            super(span, id);
+            this.base = base;
+            this.index = index;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitIndexExpr(this);
+        }
+    }
+
+    /** {@code base.member}, or {@code base->member} when {@code arrow}. */
+    public static final class MemberExpr extends Expr {
+        public final Expr base;
+        public final String member;
+        public final boolean arrow;
+
+        public MemberExpr(long span, int id, Expr base, String member, boolean arrow) {
+            super(span, id);
+            this.base = base;
+            this.member = member;
+            this.arrow = arrow;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitMemberExpr(this);
+        }
+    }
+
+    public static final class CastExpr extends Expr {
+        public final TypeRef type;
+        public final Expr operand;
+
+        public CastExpr(long span, int id, TypeRef type, Expr operand) {
+            super(span, id);
+            this.type = type;
+            this.operand = operand;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitCastExpr(this);
+        }
+    }
+
+    /** {@code sizeof(type-name)}; {@code sizeof expr} is a UnaryExpr. */
+    public static final class SizeofTypeExpr extends Expr {
+        public final TypeRef type;
+
+        public SizeofTypeExpr(long span, int id, TypeRef type) {
+            super(span, id);
+            this.type = type;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitSizeofTypeExpr(this);
+        }
+    }
+
+    /** Brace-enclosed initializer. */
+    public static final class InitList extends Expr {
+        public final List<Expr> items;
+
+        public InitList(long span, int id, List<Expr> items) {
+            super(span, id);
+            this.items = items;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> v) {
+            return v.visitInitList(this);
+        }
+    }
+
+    // --------------------------------------------------------------- visitors
+
+    public interface Visitor<R> {
+        R visitTranslationUnit(TranslationUnit n);
+
+        R visitFunctionDecl(FunctionDecl n);
+
+        R visitVarDecl(VarDecl n);
+
+        R visitParamDecl(ParamDecl n);
+
+        R visitTypedefDecl(TypedefDecl n);
+
+        R visitStructDecl(StructDecl n);
+
+        R visitFieldDecl(FieldDecl n);
+
+        R visitEnumDecl(EnumDecl n);
+
+        R visitEnumConstantDecl(EnumConstantDecl n);
+
+        R visitCompoundStmt(CompoundStmt n);
+
+        R visitDeclStmt(DeclStmt n);
+
+        R visitExprStmt(ExprStmt n);
+
+        R visitIfStmt(IfStmt n);
+
+        R visitSwitchStmt(SwitchStmt n);
+
+        R visitWhileStmt(WhileStmt n);
+
+        R visitDoWhileStmt(DoWhileStmt n);
+
+        R visitForStmt(ForStmt n);
+
+        R visitLabeledStmt(LabeledStmt n);
+
+        R visitCaseStmt(CaseStmt n);
+
+        R visitDefaultStmt(DefaultStmt n);
+
+        R visitGotoStmt(GotoStmt n);
+
+        R visitBreakStmt(BreakStmt n);
+
+        R visitContinueStmt(ContinueStmt n);
+
+        R visitReturnStmt(ReturnStmt n);
+
+        R visitIntLiteral(IntLiteral n);
+
+        R visitFloatLiteral(FloatLiteral n);
+
+        R visitStringLiteral(StringLiteral n);
+
+        R visitNameExpr(NameExpr n);
+
+        R visitUnaryExpr(UnaryExpr n);
+
+        R visitBinaryExpr(BinaryExpr n);
+
+        R visitAssignExpr(AssignExpr n);
+
+        R visitConditionalExpr(ConditionalExpr n);
+
+        R visitCallExpr(CallExpr n);
+
+        R visitIndexExpr(IndexExpr n);
+
+        R visitMemberExpr(MemberExpr n);
+
+        R visitCastExpr(CastExpr n);
+
+        R visitSizeofTypeExpr(SizeofTypeExpr n);
+
+        R visitInitList(InitList n);
+    }
+
+    /**
+     * Visitor that walks every child and returns null. Subclasses override
+     * the nodes they care about and call super to keep descending. Types
+     * are walked too, so expressions inside array sizes and parameter lists
+     * are reached; tag types are not, see {@link TagTypeRef}.
+     */
+    public static class Scanner<R> implements Visitor<R> {
+        public R scan(Node n) {
+            return n == null ? null : n.accept(this);
+        }
+
+        public R scan(List<? extends Node> nodes) {
+            if (nodes != null) {
+                for (Node n : nodes) {
+                    scan(n);
+                }
+            }
+            return null;
+        }
+
+        public R scan(TypeRef t) {
+            if (t instanceof PointerTypeRef) {
+                scan(((PointerTypeRef) t).target);
+            } else if (t instanceof ArrayTypeRef) {
+                scan(((ArrayTypeRef) t).element);
+                scan(((ArrayTypeRef) t).size);
+            } else if (t instanceof FunctionTypeRef) {
+                scan(((FunctionTypeRef) t).result);
+                scan(((FunctionTypeRef) t).params);
+            }
+            return null;
+        }
+
+        private void scanAlignment(Object alignment) {
+            if (alignment instanceof Expr) {
+                scan((Expr) alignment);
+            } else if (alignment instanceof TypeRef) {
+                scan((TypeRef) alignment);
+            }
+        }
+
+        @Override
+        public R visitTranslationUnit(TranslationUnit n) {
+            return scan(n.decls);
+        }
+
+        @Override
+        public R visitFunctionDecl(FunctionDecl n) {
+            scan(n.type);
+            return scan(n.body);
+        }
+
+        @Override
+        public R visitVarDecl(VarDecl n) {
+            scan(n.type);
+            scanAlignment(n.alignment);
+            return scan(n.init);
+        }
+
+        @Override
+        public R visitParamDecl(ParamDecl n) {
+            return scan(n.type);
+        }
+
+        @Override
+        public R visitTypedefDecl(TypedefDecl n) {
+            return scan(n.type);
+        }
+
+        @Override
+        public R visitStructDecl(StructDecl n) {
+            return scan(n.fields);
+        }
+
+        @Override
+        public R visitFieldDecl(FieldDecl n) {
+            scan(n.type);
+            scanAlignment(n.alignment);
+            return scan(n.width);
+        }
+
+        @Override
+        public R visitEnumDecl(EnumDecl n) {
+            return scan(n.constants);
+        }
+
+        @Override
+        public R visitEnumConstantDecl(EnumConstantDecl n) {
+            return scan(n.value);
+        }
+
+        @Override
+        public R visitCompoundStmt(CompoundStmt n) {
+            return scan(n.items);
+        }
+
+        @Override
+        public R visitDeclStmt(DeclStmt n) {
+            return scan(n.decls);
+        }
+
+        @Override
+        public R visitExprStmt(ExprStmt n) {
+            return scan(n.expr);
+        }
+
+        @Override
+        public R visitIfStmt(IfStmt n) {
+            scan(n.cond);
+            scan(n.then);
+            return scan(n.otherwise);
+        }
+
+        @Override
+        public R visitSwitchStmt(SwitchStmt n) {
+            scan(n.cond);
+            return scan(n.body);
+        }
+
+        @Override
+        public R visitWhileStmt(WhileStmt n) {
+            scan(n.cond);
+            return scan(n.body);
+        }
+
+        @Override
+        public R visitDoWhileStmt(DoWhileStmt n) {
+            scan(n.body);
+            return scan(n.cond);
+        }
+
+        @Override
+        public R visitForStmt(ForStmt n) {
+            scan(n.init);
+            scan(n.cond);
+            scan(n.step);
+            return scan(n.body);
+        }
+
+        @Override
+        public R visitLabeledStmt(LabeledStmt n) {
+            return scan(n.body);
+        }
+
+        @Override
+        public R visitCaseStmt(CaseStmt n) {
+            scan(n.value);
+            return scan(n.body);
+        }
+
+        @Override
+        public R visitDefaultStmt(DefaultStmt n) {
+            return scan(n.body);
+        }
+
+        @Override
+        public R visitGotoStmt(GotoStmt n) {
+            return null;
+        }
+
+        @Override
+        public R visitBreakStmt(BreakStmt n) {
+            return null;
+        }
+
+        @Override
+        public R visitContinueStmt(ContinueStmt n) {
+            return null;
+        }
+
+        @Override
+        public R visitReturnStmt(ReturnStmt n) {
+            return scan(n.value);
+        }
+
+        @Override
+        public R visitIntLiteral(IntLiteral n) {
+            return null;
+        }
+
+        @Override
+        public R visitFloatLiteral(FloatLiteral n) {
+            return null;
+        }
+
+        @Override
+        public R visitStringLiteral(StringLiteral n) {
+            return null;
+        }
+
+        @Override
+        public R visitNameExpr(NameExpr n) {
+            return null;
+        }
+
+        @Override
+        public R visitUnaryExpr(UnaryExpr n) {
+            return scan(n.operand);
+        }
+
+        @Override
+        public R visitBinaryExpr(BinaryExpr n) {
+            scan(n.left);
+            return scan(n.right);
+        }
+
+        @Override
+        public R visitAssignExpr(AssignExpr n) {
+            scan(n.target);
+            return scan(n.value);
+        }
+
+        @Override
+        public R visitConditionalExpr(ConditionalExpr n) {
+            scan(n.cond);
+            scan(n.then);
+            return scan(n.otherwise);
+        }
+
+        @Override
+        public R visitCallExpr(CallExpr n) {
+            scan(n.callee);
+            return scan(n.args);
+        }
+
+        @Override
+        public R visitIndexExpr(IndexExpr n) {
+            scan(n.base);
+            return scan(n.index);
+        }
+
+        @Override
+        public R visitMemberExpr(MemberExpr n) {
+            return scan(n.base);
+        }
+
+        @Override
+        public R visitCastExpr(CastExpr n) {
+            scan(n.type);
+            return scan(n.operand);
+        }
+
+        @Override
+        public R visitSizeofTypeExpr(SizeofTypeExpr n) {
+            return scan(n.type);
+        }
+
+        @Override
+        public R visitInitList(InitList n) {
+            return scan(n.items);
+        }
+    }
+}
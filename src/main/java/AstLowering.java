@@ -0,0 +1,909 @@
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lowers a CParser parse tree into the typed {@link Ast}.
+ *
+ * Grammar quirks handled here rather than in later passes:
+ * <ul>
+ * <li>{@code a * b} parses as the postfix alternative {@code '*' IDENTIFIER};
+ * it is lowered as a multiplication, with the postfix operators after the
+ * identifier and any unary prefixes before {@code a} bound the way C binds
+ * them.</li>
+ * <li>Every literal lexes as CONSTANT, so literals are classified by their
+ * spelling.</li>
+ * <li>struct, union and enum definitions written inside specifiers are
+ * emitted as declarations of their own just before the declaration (or
+ * statement) that contains them.</li>
+ * </ul>
+ */
+public final class AstLowering {
+    private final List<Ast.Decl> hoisted = new ArrayList<>();
+    private int exprIds;
+
+    private AstLowering() {
+    }
+
+    /** Lowers a parse tree; the parse must have completed without syntax errors. */
+    public static Ast.TranslationUnit lower(CParser.Translation_unitContext ctx) {
+        return new AstLowering().translationUnit(ctx);
+    }
+
+    /** Descriptor produced by a declarator: the declared name and its full type. */
+    private static final class Declared {
+        final String name;
+        final Ast.TypeRef type;
+
+        Declared(String name, Ast.TypeRef type) {
+            this.name = name;
+            this.type = type;
+        }
+    }
+
+    /** Lowered declaration specifiers. */
+    private static final class Specifiers {
+        Ast.TypeRef type;
+        int flags;
+        Object alignment;
+        /** A tag named without a body, which declares the tag on its own. */
+        Ast.Decl tagReference;
+    }
+
+    // ------------------------------------------------------------ utilities
+
+    private static long span(ParserRuleContext ctx) {
+        Token stop = ctx.getStop() == null ? ctx.getStart() : ctx.getStop();
+        return Ast.span(ctx.getStart().getStartIndex(), Math.max(stop.getStopIndex() + 1, ctx.getStart().getStartIndex()));
+    }
+
+    private static long span(Token t) {
+        return Ast.span(t.getStartIndex(), t.getStopIndex() + 1);
+    }
+
+    private static long span(Ast.Node from, Ast.Node to) {
+        return Ast.span(from.begin(), to.end());
+    }
+
+    private static boolean hasToken(ParserRuleContext ctx, String text) {
+        for (int i = 0; i < ctx.getChildCount(); i++) {
+            ParseTree c = ctx.getChild(i);
+            if (c instanceof TerminalNode && c.getText().equals(text)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] lineStarts(CParser.Translation_unitContext ctx) {
+        List<Integer> starts = new ArrayList<>();
+        starts.add(0);
+        CharStream input = ctx.getStart().getInputStream();
+        if (input != null && input.size() > 0) {
+            String text = input.getText(Interval.of(0, input.size() - 1));
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == '\n') {
+                    starts.add(i + 1);
+                }
+            }
+        }
+        int[] result = new int[starts.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = starts.get(i);
+        }
+        return result;
+    }
+
+    private void flushHoisted(List<Ast.Decl> out) {
+        out.addAll(hoisted);
+        hoisted.clear();
+    }
+
+    // ---------------------------------------------------------- declarations
+
+    private Ast.TranslationUnit translationUnit(CParser.Translation_unitContext ctx) {
+        List<Ast.Decl> decls = new ArrayList<>();
+        for (CParser.External_declarationContext ext : ctx.external_declaration()) {
+            if (ext.function_definition() != null) {
+                Ast.FunctionDecl f = functionDefinition(ext.function_definition());
+                flushHoisted(decls);
+                decls.add(f);
+            } else if (ext.declaration() != null) {
+                declaration(ext.declaration(), decls);
+            }
+        }
+        return new Ast.TranslationUnit(span(ctx), Collections.unmodifiableList(decls), exprIds, lineStarts(ctx));
+    }
+
+    private Ast.FunctionDecl functionDefinition(CParser.Function_definitionContext ctx) {
+        Specifiers specs = ctx.declaration_specifiers() == null
+                ? implicitInt() : specifiers(ctx.declaration_specifiers().declaration_specifier());
+        Declared d = declarator(ctx.declarator(), specs.type);
+        Ast.FunctionTypeRef type = d.type instanceof Ast.FunctionTypeRef
+                ? (Ast.FunctionTypeRef) d.type
+                : new Ast.FunctionTypeRef(d.type, Collections.<Ast.ParamDecl>emptyList(), true);
+        if (ctx.declaration_list() != null) {
+            type = oldStyleParameters(type, ctx.declaration_list());
+        }
+        Ast.CompoundStmt body = compoundStatement(ctx.compound_statement());
+        return new Ast.FunctionDecl(span(ctx), d.name, type, specs.flags, body);
+    }
+
+    /** Applies a K&amp;R declaration list to the identifier-list parameters. */
+    private Ast.FunctionTypeRef oldStyleParameters(Ast.FunctionTypeRef type, CParser.Declaration_listContext list) {
+        List<Ast.Decl> decls = new ArrayList<>();
+        for (CParser.DeclarationContext d : list.declaration()) {
+            declaration(d, decls);
+        }
+        Map<String, Ast.TypeRef> types = new HashMap<>();
+        for (Ast.Decl d : decls) {
+            if (d instanceof Ast.VarDecl) {
+                types.put(d.name, ((Ast.VarDecl) d).type);
+            }
+        }
+        List<Ast.ParamDecl> params = new ArrayList<>();
+        for (Ast.ParamDecl p : type.params) {
+            Ast.TypeRef t = types.get(p.name);
+            params.add(t == null ? p : new Ast.ParamDecl(p.span, p.name, t));
+        }
+        return new Ast.FunctionTypeRef(type.result, Collections.unmodifiableList(params), false);
+    }
+
+    private void declaration(CParser.DeclarationContext ctx, List<Ast.Decl> out) {
+        Specifiers specs = specifiers(ctx.declaration_specifiers().declaration_specifier());
+        List<Ast.Decl> decls = new ArrayList<>();
+        if (ctx.init_declarator_list() == null) {
+            if (specs.tagReference != null) {
+                decls.add(specs.tagReference);
+            }
+        } else {
+            for (CParser.Init_declaratorContext init : ctx.init_declarator_list().init_declarator()) {
+                Declared d = declarator(init.declarator(), specs.type);
+                long span = span(init);
+                if ((specs.flags & Ast.Decl.TYPEDEF) != 0) {
+                    decls.add(new Ast.TypedefDecl(span, d.name, d.type));
+                } else if (d.type instanceof Ast.FunctionTypeRef) {
+                    decls.add(new Ast.FunctionDecl(span, d.name, (Ast.FunctionTypeRef) d.type, specs.flags, null));
+                } else {
+                    Ast.Expr value = init.initializer() == null ? null : initializer(init.initializer());
+                    decls.add(new Ast.VarDecl(span, d.name, d.type, specs.flags, value, specs.alignment));
+                }
+            }
+        }
+        flushHoisted(out);
+        out.addAll(decls);
+    }
+
+    private Specifiers implicitInt() {
+        Specifiers specs = new Specifiers();
+        specs.type = new Ast.BuiltinTypeRef(Ast.BuiltinTypeRef.INT, 0);
+        return specs;
+    }
+
+    private Specifiers specifiers(List<CParser.Declaration_specifierContext> list) {
+        Specifiers specs = new Specifiers();
+        List<CParser.Type_specifierContext> types = new ArrayList<>();
+        int qualifiers = 0;
+        for (CParser.Declaration_specifierContext s : list) {
+            if (s.storage_class_specifier() != null) {
+                specs.flags |= storageClass(s.storage_class_specifier().getStart().getType());
+            } else if (s.type_specifier() != null) {
+                types.add(s.type_specifier());
+            } else if (s.type_qualifier() != null) {
+                qualifiers |= qualifier(s.type_qualifier());
+            } else if (s.function_specifier() != null) {
+                specs.flags |= s.function_specifier().INLINE() != null ? Ast.Decl.INLINE : Ast.Decl.NORETURN;
+            } else if (s.alignment_specifier() != null) {
+                specs.alignment = alignment(s.alignment_specifier());
+            }
+        }
+        typeSpecifiers(types, qualifiers, specs);
+        return specs;
+    }
+
+    private Specifiers specifierQualifiers(CParser.Specifier_qualifier_listContext ctx) {
+        Specifiers specs = new Specifiers();
+        int qualifiers = 0;
+        for (CParser.Type_qualifierContext q : ctx.type_qualifier()) {
+            qualifiers |= qualifier(q);
+        }
+        typeSpecifiers(ctx.type_specifier(), qualifiers, specs);
+        return specs;
+    }
+
+    private static int storageClass(int token) {
+        switch (token) {
+            case CParser.TYPEDEF:
+                return Ast.Decl.TYPEDEF;
+            case CParser.EXTERN:
+                return Ast.Decl.EXTERN;
+            case CParser.STATIC:
+                return Ast.Decl.STATIC;
+            case CParser.AUTO:
+                return Ast.Decl.AUTO;
+            default:
+                return Ast.Decl.REGISTER;
+        }
+    }
+
+    private static int qualifier(CParser.Type_qualifierContext ctx) {
+        switch (ctx.getStart().getType()) {
+            case CParser.CONST:
+                return Ast.TypeRef.CONST;
+            case CParser.VOLATILE:
+                return Ast.TypeRef.VOLATILE;
+            default:
+                return Ast.TypeRef.RESTRICT;
+        }
+    }
+
+    private static int qualifiers(CParser.Type_qualifier_listContext ctx) {
+        int qualifiers = 0;
+        if (ctx != null) {
+            for (CParser.Type_qualifierContext q : ctx.type_qualifier()) {
+                qualifiers |= qualifier(q);
+            }
+        }
+        return qualifiers;
+    }
+
+    private Object alignment(CParser.Alignment_specifierContext ctx) {
+        if (ctx.type_name() != null) {
+            return typeName(ctx.type_name());
+        }
+        return expr(ctx.constant_expression());
+    }
+
+    private void typeSpecifiers(List<CParser.Type_specifierContext> list, int qualifiers, Specifiers specs) {
+        int bits = 0;
+        for (CParser.Type_specifierContext t : list) {
+            if (t.struct_or_union_specifier() != null) {
+                specs.type = structSpecifier(t.struct_or_union_specifier(), qualifiers, specs);
+                return;
+            }
+            if (t.enum_specifier() != null) {
+                specs.type = enumSpecifier(t.enum_specifier(), qualifiers, specs);
+                return;
+            }
+            switch (t.getStart().getType()) {
+                case CParser.VOID:
+                    bits |= Ast.BuiltinTypeRef.VOID;
+                    break;
+                case CParser.CHAR:
+                    bits |= Ast.BuiltinTypeRef.CHAR;
+                    break;
+                case CParser.SHORT:
+                    bits |= Ast.BuiltinTypeRef.SHORT;
+                    break;
+                case CParser.INT:
+                    bits |= Ast.BuiltinTypeRef.INT;
+                    break;
+                case CParser.LONG:
+                    bits |= (bits & Ast.BuiltinTypeRef.LONG) != 0 ? Ast.BuiltinTypeRef.LONG_LONG : Ast.BuiltinTypeRef.LONG;
+                    break;
+                case CParser.FLOAT:
+                    bits |= Ast.BuiltinTypeRef.FLOAT;
+                    break;
+                case CParser.DOUBLE:
+                    bits |= Ast.BuiltinTypeRef.DOUBLE;
+                    break;
+                case CParser.SIGNED:
+                    bits |= Ast.BuiltinTypeRef.SIGNED;
+                    break;
+                case CParser.UNSIGNED:
+                    bits |= Ast.BuiltinTypeRef.UNSIGNED;
+                    break;
+                case CParser.BOOL:
+                    bits |= Ast.BuiltinTypeRef.BOOL;
+                    break;
+                case CParser.COMPLEX:
+                    bits |= Ast.BuiltinTypeRef.COMPLEX;
+                    break;
+                default:
+                    specs.type = new Ast.TypedefTypeRef(t.getText(), qualifiers);
+                    return;
+            }
+        }
+        specs.type = new Ast.BuiltinTypeRef(bits == 0 ? Ast.BuiltinTypeRef.INT : bits, qualifiers);
+    }
+
+    private Ast.TypeRef structSpecifier(CParser.Struct_or_union_specifierContext ctx, int qualifiers, Specifiers specs) {
+        boolean union = ctx.struct_or_union().UNION() != null;
+        String tag = ctx.IDENTIFIER() == null ? null : ctx.IDENTIFIER().getText();
+        if (ctx.struct_declaration_list() == null) {
+            Ast.StructDecl ref = new Ast.StructDecl(span(ctx), tag, union, null);
+            specs.tagReference = ref;
+            return new Ast.TagTypeRef(ref, qualifiers);
+        }
+        List<Ast.FieldDecl> fields = new ArrayList<>();
+        for (CParser.Struct_declarationContext sd : ctx.struct_declaration_list().struct_declaration()) {
+            Specifiers fieldSpecs = specifierQualifiers(sd.specifier_qualifier_list());
+            if (sd.struct_declarator_list() == null) {
+                fields.add(new Ast.FieldDecl(span(sd), null, fieldSpecs.type, null, null));
+                continue;
+            }
+            for (CParser.Struct_declaratorContext d : sd.struct_declarator_list().struct_declarator()) {
+                Declared declared = declarator(d.declarator(), fieldSpecs.type);
+                Ast.Expr width = d.constant_expression() == null ? null : expr(d.constant_expression());
+                fields.add(new Ast.FieldDecl(span(d), declared.name, declared.type, width, null));
+            }
+        }
+        Ast.StructDecl def = new Ast.StructDecl(span(ctx), tag, union, Collections.unmodifiableList(fields));
+        hoisted.add(def);
+        return new Ast.TagTypeRef(def, qualifiers);
+    }
+
+    private Ast.TypeRef enumSpecifier(CParser.Enum_specifierContext ctx, int qualifiers, Specifiers specs) {
+        String tag = ctx.IDENTIFIER() == null ? null : ctx.IDENTIFIER().getText();
+        if (ctx.enumerator_list() == null) {
+            Ast.EnumDecl ref = new Ast.EnumDecl(span(ctx), tag, null);
+            specs.tagReference = ref;
+            return new Ast.TagTypeRef(ref, qualifiers);
+        }
+        // enumerator_list is left-recursive; collect from the innermost list outwards.
+        List<CParser.EnumeratorContext> enumerators = new ArrayList<>();
+        for (CParser.Enumerator_listContext l = ctx.enumerator_list(); l != null; l = l.enumerator_list()) {
+            enumerators.add(l.enumerator());
+        }
+        Collections.reverse(enumerators);
+        List<Ast.EnumConstantDecl> constants = new ArrayList<>();
+        for (CParser.EnumeratorContext e : enumerators) {
+            Ast.Expr value = e.constant_expression() == null ? null : expr(e.constant_expression());
+            constants.add(new Ast.EnumConstantDecl(span(e), e.IDENTIFIER().getText(), value));
+        }
+        Ast.EnumDecl def = new Ast.EnumDecl(span(ctx), tag, Collections.unmodifiableList(constants));
+        hoisted.add(def);
+        return new Ast.TagTypeRef(def, qualifiers);
+    }
+
+    private Declared declarator(CParser.DeclaratorContext ctx, Ast.TypeRef base) {
+        if (ctx.pointer() != null) {
+            base = new Ast.PointerTypeRef(base, qualifiers(ctx.pointer().type_qualifier_list()));
+        }
+        return directDeclarator(ctx.direct_declarator(), base);
+    }
+
+    /**
+     * Suffixes are applied outermost first: in {@code a[2][3]} the [3] wraps
+     * the element type before [2] does.
+     */
+    private Declared directDeclarator(CParser.Direct_declaratorContext ctx, Ast.TypeRef base) {
+        while (true) {
+            if (ctx.direct_declarator() == null) {
+                if (ctx.declarator() != null) {
+                    return declarator(ctx.declarator(), base);
+                }
+                return new Declared(ctx.IDENTIFIER().getText(), base);
+            }
+            if (hasToken(ctx, "[")) {
+                Ast.Expr size = ctx.assignment_expression() == null ? null : expr(ctx.assignment_expression());
+                base = new Ast.ArrayTypeRef(base, size);
+            } else if (ctx.parameter_type_list() != null) {
+                base = parameters(ctx.parameter_type_list(), base);
+            } else {
+                base = identifierParameters(ctx.identifier_list(), base);
+            }
+            ctx = ctx.direct_declarator();
+        }
+    }
+
+    private Ast.FunctionTypeRef parameters(CParser.Parameter_type_listContext ctx, Ast.TypeRef result) {
+        List<Ast.ParamDecl> params = new ArrayList<>();
+        for (CParser.Parameter_listContext list : ctx.parameter_list()) {
+            for (CParser.Parameter_declarationContext p : list.parameter_declaration()) {
+                Specifiers specs = specifiers(p.declaration_specifiers().declaration_specifier());
+                if (p.declarator() != null) {
+                    Declared d = declarator(p.declarator(), specs.type);
+                    params.add(new Ast.ParamDecl(span(p), d.name, d.type));
+                } else {
+                    Ast.TypeRef t = p.abstract_declarator() == null
+                            ? specs.type : abstractDeclarator(p.abstract_declarator(), specs.type);
+                    params.add(new Ast.ParamDecl(span(p), null, t));
+                }
+            }
+        }
+        if (params.size() == 1 && params.get(0).name == null && params.get(0).type instanceof Ast.BuiltinTypeRef
+                && ((Ast.BuiltinTypeRef) params.get(0).type).specifiers == Ast.BuiltinTypeRef.VOID) {
+            params.clear();
+        }
+        return new Ast.FunctionTypeRef(result, Collections.unmodifiableList(params), false);
+    }
+
+    private Ast.FunctionTypeRef identifierParameters(CParser.Identifier_listContext ctx, Ast.TypeRef result) {
+        List<Ast.ParamDecl> params = new ArrayList<>();
+        if (ctx != null) {
+            for (TerminalNode id : ctx.IDENTIFIER()) {
+                params.add(new Ast.ParamDecl(span(id.getSymbol()), id.getText(),
+                        new Ast.BuiltinTypeRef(Ast.BuiltinTypeRef.INT, 0)));
+            }
+        }
+        return new Ast.FunctionTypeRef(result, Collections.unmodifiableList(params), true);
+    }
+
+    private Ast.TypeRef typeName(CParser.Type_nameContext ctx) {
+        Specifiers specs = specifierQualifiers(ctx.specifier_qualifier_list());
+        return ctx.abstract_declarator() == null ? specs.type : abstractDeclarator(ctx.abstract_declarator(), specs.type);
+    }
+
+    private Ast.TypeRef abstractDeclarator(CParser.Abstract_declaratorContext ctx, Ast.TypeRef base) {
+        if (ctx.pointer() != null) {
+            base = new Ast.PointerTypeRef(base, qualifiers(ctx.pointer().type_qualifier_list()));
+        }
+        CParser.Direct_abstract_declaratorContext d = ctx.direct_abstract_declarator();
+        while (d != null) {
+            if (d.abstract_declarator() != null) {
+                return abstractDeclarator(d.abstract_declarator(), base);
+            }
+            if (hasToken(d, "[")) {
+                Ast.Expr size = d.assignment_expression() == null ? null : expr(d.assignment_expression());
+                base = new Ast.ArrayTypeRef(base, size);
+            } else if (d.parameter_type_list() != null) {
+                base = parameters(d.parameter_type_list(), base);
+            } else {
+                base = identifierParameters(d.identifier_list(), base);
+            }
+            d = d.direct_abstract_declarator();
+        }
+        return base;
+    }
+
+    private Ast.Expr initializer(CParser.InitializerContext ctx) {
+        if (ctx.assignment_expression() != null) {
+            return expr(ctx.assignment_expression());
+        }
+        List<Ast.Expr> items = new ArrayList<>();
+        for (CParser.InitializerContext i : ctx.initializer_list().initializer()) {
+            items.add(initializer(i));
+        }
+        return new Ast.InitList(span(ctx), exprIds++, Collections.unmodifiableList(items));
+    }
+
+    // ------------------------------------------------------------ statements
+
+    private Ast.Stmt statement(CParser.StatementContext ctx) {
+        if (ctx.compound_statement() != null) {
+            return compoundStatement(ctx.compound_statement());
+        }
+        if (ctx.expression_statement() != null) {
+            return expressionStatement(ctx.expression_statement());
+        }
+        if (ctx.selection_statement() != null) {
+            return selectionStatement(ctx.selection_statement());
+        }
+        if (ctx.iteration_statement() != null) {
+            return iterationStatement(ctx.iteration_statement());
+        }
+        if (ctx.jump_statement() != null) {
+            return jumpStatement(ctx.jump_statement());
+        }
+        return labeledStatement(ctx.labeled_statement());
+    }
+
+    private Ast.Stmt labeledStatement(CParser.Labeled_statementContext ctx) {
+        Ast.Stmt body = statement(ctx.statement());
+        if (ctx.CASE() != null) {
+            return new Ast.CaseStmt(span(ctx), expr(ctx.constant_expression()), body);
+        }
+        if (ctx.DEFAULT() != null) {
+            return new Ast.DefaultStmt(span(ctx), body);
+        }
+        return new Ast.LabeledStmt(span(ctx), ctx.IDENTIFIER().getText(), body);
+    }
+
+    private Ast.CompoundStmt compoundStatement(CParser.Compound_statementContext ctx) {
+        List<Ast.Stmt> items = new ArrayList<>();
+        if (ctx.block_item_list() != null) {
+            for (CParser.Block_itemContext item : ctx.block_item_list().block_item()) {
+                if (item.declaration() != null) {
+                    List<Ast.Decl> decls = new ArrayList<>();
+                    declaration(item.declaration(), decls);
+                    items.add(new Ast.DeclStmt(span(item), Collections.unmodifiableList(decls)));
+                } else {
+                    Ast.Stmt s = statement(item.statement());
+                    if (!hoisted.isEmpty()) {
+                        List<Ast.Decl> decls = new ArrayList<>();
+                        flushHoisted(decls);
+                        items.add(new Ast.DeclStmt(s.span, Collections.unmodifiableList(decls)));
+                    }
+                    items.add(s);
+                }
+            }
+        }
+        return new Ast.CompoundStmt(span(ctx), Collections.unmodifiableList(items));
+    }
+
+    private Ast.Stmt expressionStatement(CParser.Expression_statementContext ctx) {
+        return new Ast.ExprStmt(span(ctx), ctx.expression() == null ? null : expr(ctx.expression()));
+    }
+
+    private Ast.Stmt selectionStatement(CParser.Selection_statementContext ctx) {
+        Ast.Expr cond = expr(ctx.expression());
+        if (ctx.SWITCH() != null) {
+            return new Ast.SwitchStmt(span(ctx), cond, statement(ctx.statement(0)));
+        }
+        Ast.Stmt otherwise = ctx.ELSE() == null ? null : statement(ctx.statement(1));
+        return new Ast.IfStmt(span(ctx), cond, statement(ctx.statement(0)), otherwise);
+    }
+
+    private Ast.Stmt iterationStatement(CParser.Iteration_statementContext ctx) {
+        if (ctx.WHILE() != null && ctx.DO() == null) {
+            return new Ast.WhileStmt(span(ctx), expr(ctx.expression()), statement(ctx.statement()));
+        }
+        if (ctx.DO() != null) {
+            Ast.Stmt body = statement(ctx.statement());
+            return new Ast.DoWhileStmt(span(ctx), body, expr(ctx.expression()));
+        }
+        CParser.ExpressionContext init = ctx.expression_statement(0).expression();
+        CParser.ExpressionContext cond = ctx.expression_statement(1).expression();
+        return new Ast.ForStmt(span(ctx),
+                init == null ? null : expr(init),
+                cond == null ? null : expr(cond),
+                ctx.expression() == null ? null : expr(ctx.expression()),
+                statement(ctx.statement()));
+    }
+
+    private Ast.Stmt jumpStatement(CParser.Jump_statementContext ctx) {
+        switch (ctx.getStart().getType()) {
+            case CParser.GOTO:
+                return new Ast.GotoStmt(span(ctx), ctx.IDENTIFIER().getText());
+            case CParser.CONTINUE:
+                return new Ast.ContinueStmt(span(ctx));
+            case CParser.BREAK:
+                return new Ast.BreakStmt(span(ctx));
+            default:
+                return new Ast.ReturnStmt(span(ctx), ctx.expression() == null ? null : expr(ctx.expression()));
+        }
+    }
+
+    // ----------------------------------------------------------- expressions
+
+    private Ast.Expr expr(ParserRuleContext ctx) {
+        // Skip the single-child levels of the precedence chain without recursing.
+        while (ctx.getChildCount() == 1 && ctx.getChild(0) instanceof ParserRuleContext) {
+            ctx = (ParserRuleContext) ctx.getChild(0);
+        }
+        switch (ctx.getRuleIndex()) {
+            case CParser.RULE_expression:
+            case CParser.RULE_multiplicative_expression:
+            case CParser.RULE_additive_expression:
+            case CParser.RULE_shift_expression:
+            case CParser.RULE_relational_expression:
+            case CParser.RULE_equality_expression:
+            case CParser.RULE_and_expression:
+            case CParser.RULE_exclusive_or_expression:
+            case CParser.RULE_inclusive_or_expression:
+            case CParser.RULE_logical_and_expression:
+            case CParser.RULE_logical_or_expression:
+                return binary(ctx);
+            case CParser.RULE_conditional_expression: {
+                CParser.Conditional_expressionContext c = (CParser.Conditional_expressionContext) ctx;
+                return new Ast.ConditionalExpr(span(c), exprIds++, expr(c.logical_or_expression()),
+                        expr(c.expression()), expr(c.conditional_expression()));
+            }
+            case CParser.RULE_assignment_expression: {
+                CParser.Assignment_expressionContext a = (CParser.Assignment_expressionContext) ctx;
+                Ast.Expr target = product(factors(a.unary_expression()));
+                Ast.Expr value = expr(a.assignment_expression());
+                String op = a.assignment_operator().getText();
+                Ast.BinaryOp binary = op.equals("=") ? null : binaryOp(op.substring(0, op.length() - 1));
+                return new Ast.AssignExpr(span(a), exprIds++, binary, target, value);
+            }
+            case CParser.RULE_primary_expression:
+                return primary((CParser.Primary_expressionContext) ctx);
+            default:
+                return product(factors(ctx));
+        }
+    }
+
+    /** Left-associative fold of {@code operand (op operand)*}. */
+    private Ast.Expr binary(ParserRuleContext ctx) {
+        Ast.Expr left = expr((ParserRuleContext) ctx.getChild(0));
+        for (int i = 1; i + 1 < ctx.getChildCount(); i += 2) {
+            Ast.BinaryOp op = binaryOp(ctx.getChild(i).getText());
+            Ast.Expr right = expr((ParserRuleContext) ctx.getChild(i + 1));
+            left = new Ast.BinaryExpr(span(left, right), exprIds++, op, left, right);
+        }
+        return left;
+    }
+
+    private static Ast.BinaryOp binaryOp(String symbol) {
+        for (Ast.BinaryOp op : Ast.BinaryOp.values()) {
+            if (op.symbol.equals(symbol)) {
+                return op;
+            }
+        }
+        throw new IllegalArgumentException("unknown operator " + symbol);
+    }
+
+    private Ast.Expr product(List<Ast.Expr> factors) {
+        Ast.Expr left = factors.get(0);
+        for (int i = 1; i < factors.size(); i++) {
+            Ast.Expr right = factors.get(i);
+            left = new Ast.BinaryExpr(span(left, right), exprIds++, Ast.BinaryOp.MUL, left, right);
+        }
+        return left;
+    }
+
+    /**
+     * Lowers a cast, unary or postfix expression into the factors of the
+     * multiplication hidden in postfix {@code '*' IDENTIFIER}; prefix
+     * operators and casts apply to the first factor only.
+     */
+    private List<Ast.Expr> factors(ParserRuleContext ctx) {
+        while (ctx.getChildCount() == 1 && ctx.getChild(0) instanceof ParserRuleContext
+                && ctx.getRuleIndex() != CParser.RULE_primary_expression) {
+            ctx = (ParserRuleContext) ctx.getChild(0);
+        }
+        switch (ctx.getRuleIndex()) {
+            case CParser.RULE_cast_expression: {
+                CParser.Cast_expressionContext c = (CParser.Cast_expressionContext) ctx;
+                List<Ast.Expr> f = factors(c.cast_expression());
+                Ast.Expr first = f.get(0);
+                f.set(0, new Ast.CastExpr(Ast.span(c.getStart().getStartIndex(), first.end()), exprIds++,
+                        typeName(c.type_name()), first));
+                return f;
+            }
+            case CParser.RULE_unary_expression:
+                return unary((CParser.Unary_expressionContext) ctx);
+            case CParser.RULE_postfix_expression:
+                return postfix((CParser.Postfix_expressionContext) ctx);
+            case CParser.RULE_primary_expression: {
+                List<Ast.Expr> f = new ArrayList<>(1);
+                f.add(primary((CParser.Primary_expressionContext) ctx));
+                return f;
+            }
+            default: {
+                List<Ast.Expr> f = new ArrayList<>(1);
+                f.add(expr(ctx));
+                return f;
+            }
+        }
+    }
+
+    private List<Ast.Expr> unary(CParser.Unary_expressionContext ctx) {
+        List<Ast.Expr> f;
+        int prefixEnd;
+        if (ctx.type_name() != null) {
+            // ... 'sizeof' '(' type_name ')'
+            prefixEnd = ctx.getChildCount() - 4;
+            f = new ArrayList<>(1);
+            Token sizeof = ((TerminalNode) ctx.getChild(prefixEnd)).getSymbol();
+            f.add(new Ast.SizeofTypeExpr(Ast.span(sizeof.getStartIndex(), ctx.getStop().getStopIndex() + 1),
+                    exprIds++, typeName(ctx.type_name())));
+        } else if (ctx.unary_operator() != null) {
+            prefixEnd = ctx.getChildCount() - 2;
+            f = factors(ctx.cast_expression());
+            Ast.Expr first = f.get(0);
+            Ast.UnaryOp op = unaryOp(ctx.unary_operator().getText());
+            f.set(0, new Ast.UnaryExpr(Ast.span(ctx.unary_operator().getStart().getStartIndex(), first.end()),
+                    exprIds++, op, first));
+        } else {
+            prefixEnd = ctx.getChildCount() - 1;
+            f = postfix(ctx.postfix_expression());
+        }
+        for (int i = prefixEnd - 1; i >= 0; i--) {
+            Token t = ((TerminalNode) ctx.getChild(i)).getSymbol();
+            Ast.UnaryOp op = t.getText().equals("++") ? Ast.UnaryOp.PRE_INC
+                    : t.getText().equals("--") ? Ast.UnaryOp.PRE_DEC : Ast.UnaryOp.SIZEOF;
+            Ast.Expr first = f.get(0);
+            f.set(0, new Ast.UnaryExpr(Ast.span(t.getStartIndex(), first.end()), exprIds++, op, first));
+        }
+        return f;
+    }
+
+    private static Ast.UnaryOp unaryOp(String symbol) {
+        switch (symbol) {
+            case "&":
+                return Ast.UnaryOp.ADDRESS;
+            case "*":
+                return Ast.UnaryOp.DEREF;
+            case "+":
+                return Ast.UnaryOp.PLUS;
+            case "-":
+                return Ast.UnaryOp.MINUS;
+            case "~":
+                return Ast.UnaryOp.BIT_NOT;
+            default:
+                return Ast.UnaryOp.NOT;
+        }
+    }
+
+    private List<Ast.Expr> postfix(CParser.Postfix_expressionContext ctx) {
+        List<Ast.Expr> factors = new ArrayList<>(1);
+        Ast.Expr current = primary(ctx.primary_expression());
+        int i = 1;
+        int n = ctx.getChildCount();
+        while (i < n) {
+            Token op = ((TerminalNode) ctx.getChild(i)).getSymbol();
+            switch (op.getText()) {
+                case "[": {
+                    CParser.ExpressionContext index = (CParser.ExpressionContext) ctx.getChild(i + 1);
+                    Token close = ((TerminalNode) ctx.getChild(i + 2)).getSymbol();
+                    current = new Ast.IndexExpr(Ast.span(current.begin(), close.getStopIndex() + 1), exprIds++,
+                            current, expr(index));
+                    i += 3;
+                    break;
+                }
+                case "(": {
+                    List<Ast.Expr> args = new ArrayList<>();
+                    if (ctx.getChild(i + 1) instanceof CParser.Argument_expression_listContext) {
+                        for (CParser.Assignment_expressionContext a
+                                : ((CParser.Argument_expression_listContext) ctx.getChild(i + 1)).assignment_expression()) {
+                            args.add(expr(a));
+                        }
+                        i++;
+                    }
+                    Token close = ((TerminalNode) ctx.getChild(i + 1)).getSymbol();
+                    current = new Ast.CallExpr(Ast.span(current.begin(), close.getStopIndex() + 1), exprIds++,
+                            current, Collections.unmodifiableList(args));
+                    i += 2;
+                    break;
+                }
+                case ".":
+                case "->": {
+                    Token member = ((TerminalNode) ctx.getChild(i + 1)).getSymbol();
+                    current = new Ast.MemberExpr(Ast.span(current.begin(), member.getStopIndex() + 1), exprIds++,
+                            current, member.getText(), op.getText().equals("->"));
+                    i += 2;
+                    break;
+                }
+                case "*": {
+                    Token name = ((TerminalNode) ctx.getChild(i + 1)).getSymbol();
+                    factors.add(current);
+                    current = new Ast.NameExpr(span(name), exprIds++, name.getText());
+                    i += 2;
+                    break;
+                }
+                default: {
+                    Ast.UnaryOp unary = op.getText().equals("++") ? Ast.UnaryOp.POST_INC : Ast.UnaryOp.POST_DEC;
+                    current = new Ast.UnaryExpr(Ast.span(current.begin(), op.getStopIndex() + 1), exprIds++,
+                            unary, current);
+                    i++;
+                    break;
+                }
+            }
+        }
+        factors.add(current);
+        return factors;
+    }
+
+    private Ast.Expr primary(CParser.Primary_expressionContext ctx) {
+        if (ctx.expression() != null) {
+            return expr(ctx.expression());
+        }
+        Token t = ctx.getStart();
+        if (t.getType() == CParser.IDENTIFIER) {
+            return new Ast.NameExpr(span(t), exprIds++, t.getText());
+        }
+        return literal(t);
+    }
+
+    // -------------------------------------------------------------- literals
+
+    private Ast.Expr literal(Token t) {
+        String text = t.getText();
+        long span = span(t);
+        int quote = text.indexOf('"');
+        if (quote >= 0) {
+            return new Ast.StringLiteral(span, exprIds++, unescape(text, quote + 1, text.length() - 1));
+        }
+        int apostrophe = text.indexOf('\'');
+        if (apostrophe >= 0) {
+            byte[] bytes = unescape(text, apostrophe + 1, text.length() - 1);
+            long value = 0;
+            for (byte b : bytes) {
+                value = (value << 8) | (b & 0xff);
+            }
+            if (bytes.length == 1) {
+                value = bytes[0];
+            }
+            return new Ast.IntLiteral(span, exprIds++, (int) value, Ast.IntLiteral.CHAR);
+        }
+        String lower = text.toLowerCase();
+        boolean hex = lower.startsWith("0x");
+        if (lower.indexOf('.') >= 0 || (hex ? lower.indexOf('p') >= 0 : lower.indexOf('e') >= 0)) {
+            boolean single = lower.endsWith("f");
+            String digits = single || lower.endsWith("l") ? text.substring(0, text.length() - 1) : text;
+            double value = hex ? Double.parseDouble(digits + (lower.indexOf('p') >= 0 ? "" : "p0")) : Double.parseDouble(digits);
+            return new Ast.FloatLiteral(span, exprIds++, value, single);
+        }
+        int end = lower.length();
+        int flags = 0;
+        while (end > 0 && (lower.charAt(end - 1) == 'u' || lower.charAt(end - 1) == 'l')) {
+            end--;
+        }
+        String suffix = lower.substring(end);
+        if (suffix.indexOf('u') >= 0) {
+            flags |= Ast.IntLiteral.UNSIGNED;
+        }
+        if (suffix.contains("ll")) {
+            flags |= Ast.IntLiteral.LONG_LONG;
+        } else if (suffix.indexOf('l') >= 0) {
+            flags |= Ast.IntLiteral.LONG;
+        }
+        String digits = lower.substring(0, end);
+        long value;
+        if (hex) {
+            value = Long.parseUnsignedLong(digits.substring(2), 16);
+        } else if (digits.length() > 1 && digits.charAt(0) == '0') {
+            value = Long.parseUnsignedLong(digits.substring(1), 8);
+        } else {
+            value = Long.parseUnsignedLong(digits);
+        }
+        return new Ast.IntLiteral(span, exprIds++, value, flags);
+    }
+
+    /** Decodes the escapes of a string or character body into bytes (UTF-8 for plain characters). */
+    static byte[] unescape(String text, int from, int to) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(to - from);
+        int i = from;
+        while (i < to) {
+            char c = text.charAt(i++);
+            if (c != '\\' || i >= to) {
+                if (c < 0x80) {
+                    out.write(c);
+                } else {
+                    int cp = Character.isHighSurrogate(c) && i < to ? Character.toCodePoint(c, text.charAt(i++)) : c;
+                    byte[] utf8 = new String(Character.toChars(cp)).getBytes(StandardCharsets.UTF_8);
+                    out.write(utf8, 0, utf8.length);
+                }
+                continue;
+            }
+            char e = text.charAt(i++);
+            switch (e) {
+                case 'n':
+                    out.write('\n');
+                    break;
+                case 't':
+                    out.write('\t');
+                    break;
+                case 'r':
+                    out.write('\r');
+                    break;
+                case 'a':
+                    out.write(7);
+                    break;
+                case 'b':
+                    out.write('\b');
+                    break;
+                case 'f':
+                    out.write('\f');
+                    break;
+                case 'v':
+                    out.write(11);
+                    break;
+                case 'x': {
+                    int v = 0;
+                    while (i < to && Character.digit(text.charAt(i), 16) >= 0) {
+                        v = v * 16 + Character.digit(text.charAt(i++), 16);
+                    }
+                    out.write(v);
+                    break;
+                }
+                default:
+                    if (e >= '0' && e <= '7') {
+                        int v = e - '0';
+                        for (int k = 0; k < 2 && i < to && text.charAt(i) >= '0' && text.charAt(i) <= '7'; k++) {
+                            v = v * 8 + (text.charAt(i++) - '0');
+                        }
+                        out.write(v);
+                    } else {
+                        out.write(e);
+                    }
+                    break;
+            }
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,179 @@
+import java.util.Arrays;
+
+/**
+ * The expressions available on entry to each block: those computed on
+ * every path from the entry with none of their operands written since.
+ *
+ * An expression is an arithmetic, comparison or conversion instruction
+ * identified by its opcode, kind and operands, so two instructions that
+ * compute {@code add.i32 r1, r2} are the same expression. Loads are left
+ * out, their value depending on memory as well. Writing a register kills
+ * every expression that reads it, found through a per-register list, and
+ * the problem is a forward intersection {@link Dataflow}. In SSA form a
+ * register is written once, so an expression stays available wherever
+ * its instruction dominates; before SSA construction this finds the
+ * redundant computations that survive reassignments.
+ *
+ * An expression is also dropped where one of its operands dies, since
+ * recomputing it further on would read the operand and keep it live; the
+ * sets stay the size of the live sets instead of growing with every
+ * computation upstream. The queries answer for instructions whose operands
+ * are live on entry to the block, the only ones that can be redundant
+ * there.
+ */
+public final class AvailableExpressions {
+    public final ControlFlowGraph cfg;
+    private final IrFunction f;
+    private final Liveness live;
+    private final Dataflow flow;
+    /** Expression of each instruction, -1 where it computes none. */
+    private final int[] expressionOf;
+    private int expressionCount;
+    /** First instruction computing each expression, the one its fields are compared with. */
+    private int[] representative;
+    /** Open-addressing index from expression fields to expression + 1. */
+    private int[] table;
+    /** Expressions reading register r are {@code readers[readerStart[r] .. readerStart[r + 1]]}. */
+    private final int[] readerStart;
+    private final int[] readers;
+
+    private AvailableExpressions(Liveness live) {
+        this.cfg = live.cfg;
+        this.f = cfg.function;
+        this.live = live;
+        int n = f.size();
+        expressionOf = new int[n];
+        representative = new int[16];
+        table = new int[Integer.highestOneBit(Math.max(n, 8)) * 4];
+        for (int i = 0; i < n; i++) {
+            expressionOf[i] = isExpression(f.op(i)) && f.dst(i) >= 0 ? number(i) : -1;
+        }
+
+        // the expressions reading each register
+        int registers = f.registerCount();
+        readerStart = new int[registers + 1];
+        for (int e = 0; e < expressionCount; e++) {
+            int i = representative[e];
+            for (int k = 0; k < f.operandCount(i); k++) {
+                if (Ir.isRegister(f.operand(i, k))) {
+                    readerStart[f.operand(i, k) + 1]++;
+                }
+            }
+        }
+        for (int r = 0; r < registers; r++) {
+            readerStart[r + 1] += readerStart[r];
+        }
+        readers = new int[readerStart[registers]];
+        int[] fill = Arrays.copyOf(readerStart, registers);
+        for (int e = 0; e < expressionCount; e++) {
+            int i = representative[e];
+            for (int k = 0; k < f.operandCount(i); k++) {
+                if (Ir.isRegister(f.operand(i, k))) {
+                    readers[fill[f.operand(i, k)]++] = e;
+                }
+            }
+        }
+
+        flow = Dataflow.forward(cfg, expressionCount, true);
+        int[] dying = new int[live.globalCount()];
+        for (int b = 0; b < cfg.blockCount(); b++) {
+            int count = live.dying(b, dying);
+            for (int k = 0; k < count; k++) {
+                killReaders(b, dying[k]);
+            }
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                if (expressionOf[i] >= 0 && operandsLiveOut(b, i)) {
+                    flow.gen(b, expressionOf[i]);
+                }
+                int dst = f.dst(i);
+                if (Ir.defines(f.op(i)) && dst >= 0) {
+                    killReaders(b, dst);
+                }
+            }
+        }
+        flow.solve();
+    }
+
+    public static AvailableExpressions compute(ControlFlowGraph cfg) {
+        return new AvailableExpressions(Liveness.compute(cfg));
+    }
+
+    public static AvailableExpressions compute(Liveness live) {
+        return new AvailableExpressions(live);
+    }
+
+    private void killReaders(int b, int r) {
+        for (int k = readerStart[r]; k < readerStart[r + 1]; k++) {
+            flow.kill(b, readers[k]);
+        }
+    }
+
+    private boolean operandsLiveOut(int b, int i) {
+        for (int k = 0; k < f.operandCount(i); k++) {
+            int x = f.operand(i, k);
+            if (Ir.isRegister(x) && !live.isLiveOut(b, x)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isExpression(int op) {
+        return op >= Ir.ADD && op <= Ir.NOT || Ir.isCompare(op) || op == Ir.CONV;
+    }
+
+    /** The expression instruction {@code i} computes, numbering it if it is new. */
+    private int number(int i) {
+        int mask = table.length - 1;
+        int h = hash(i) & mask;
+        while (table[h] != 0) {
+            if (sameExpression(representative[table[h] - 1], i)) {
+                return table[h] - 1;
+            }
+            h = (h + 1) & mask;
+        }
+        if (expressionCount == representative.length) {
+            representative = Arrays.copyOf(representative, expressionCount * 2);
+        }
+        representative[expressionCount] = i;
+        table[h] = ++expressionCount;
+        return expressionCount - 1;
+    }
+
+    private int hash(int i) {
+        int h = f.op(i) * 31 + f.kind(i);
+        h = h * 0x9e3779b9 + f.a(i);
+        h = h * 0x9e3779b9 + f.b(i);
+        return h ^ h >>> 16;
+    }
+
+    private boolean sameExpression(int i, int j) {
+        return f.op(i) == f.op(j) && f.kind(i) == f.kind(j) && f.a(i) == f.a(j) && f.b(i) == f.b(j);
+    }
+
+    public int expressionCount() {
+        return expressionCount;
+    }
+
+    /** Expression computed by instruction {@code i}, or -1. */
+    public int expressionOf(int i) {
+        return expressionOf[i];
+    }
+
+    /**
+     * Whether the value instruction {@code i} computes is available on entry
+     * to block {@code b}, its register operands being live there.
+     */
+    public boolean isAvailableIn(int b, int i) {
+        if (expressionOf[i] < 0) {
+            return false;
+        }
+        for (int k = 0; k < f.operandCount(i); k++) {
+            int x = f.operand(i, k);
+            if (Ir.isRegister(x) && !live.isLiveIn(b, x)) {
+                return false;
+            }
+        }
+        return flow.isIn(b, expressionOf[i]);
+    }
+}
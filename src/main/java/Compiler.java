@@ -0,0 +1,178 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+
+/**
+ * Compiles a C file to x86-64 assembly with {@link X64Generator} and
+ * links it with the system's {@code gcc}.
+ *
+ * Usage: {@code Compiler [-O] [-S] [-o output] file.c}. {@code -O} inlines
+ * and optimizes the IR first; {@code -S} stops at the assembly, written
+ * to the output or to file.s. Otherwise the executable goes to the output,
+ * or to a.out. Syntax, name and type errors are printed to standard error
+ * and the exit status is 1.
+ */
+public class Compiler {
+    public static void main(String[] args) throws Exception {
+        boolean optimize = false;
+        boolean assemble = true;
+        String output = null;
+        String input = null;
+        for (int k = 0; k < args.length; k++) {
+            switch (args[k]) {
+                case "-O":
+                    optimize = true;
+                    break;
+                case "-S":
+                    assemble = false;
+                    break;
+                case "-o":
+                    output = args[++k];
+                    break;
+                default:
+                    input = args[k];
+            }
+        }
+        if (input == null) {
+            System.err.println("usage: Compiler [-O] [-S] [-o output] file.c");
+            System.exit(2);
+        }
+        String assembly;
+        try {
+            assembly = compile(CharStreams.fromFileName(input), optimize);
+        } catch (Errors e) {
+            e.print(input);
+            System.exit(1);
+            return;
+        }
+        if (!assemble) {
+            String name = output != null ? output : input.replaceAll("\\.c$", "") + ".s";
+            Files.write(Paths.get(name), assembly.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        System.exit(link(assembly, output != null ? output : "a.out"));
+    }
+
+    /** Assembly for a C translation unit; {@code optimize} runs the inliner and the scalar passes first. */
+    public static String compile(CharStream input, boolean optimize) {
+        return X64Generator.generate(module(input, optimize));
+    }
+
+    /**
+     * The IR of a C translation unit, optimized as for {@code -O} if
+     * {@code optimize} is set.
+     *
+     * @throws Errors if the unit has syntax errors, or names or types that
+     *     do not check; a tree the parser recovered is never lowered
+     */
+    public static IrModule module(CharStream input, boolean optimize) {
+        List<String> errors = new ArrayList<>();
+        BaseErrorListener listener = new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int column,
+                    String message, RecognitionException e) {
+                errors.add("line " + line + ":" + column + " " + message);
+            }
+        };
+        CLexer lexer = new CLexer(input);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(listener);
+        CParser parser = new CParser(new CommonTokenStream(lexer));
+        parser.removeErrorListeners();
+        parser.addErrorListener(listener);
+        CParser.Translation_unitContext tree = parser.translation_unit();
+        if (!errors.isEmpty()) {
+            throw new Errors(errors);
+        }
+        TypeChecker checker = TypeChecker.check(NameResolver.resolve(AstLowering.lower(tree)));
+        errors.addAll(checker.getResolver().getErrors());
+        errors.addAll(checker.getErrors());
+        if (!errors.isEmpty()) {
+            throw new Errors(errors);
+        }
+        IrModule module = IrGenerator.generate(checker).getModule();
+        if (optimize) {
+            optimize(module);
+        }
+        return module;
+    }
+
+    /** The passes of {@code -O}, in the order each one sets up the next. */
+    public static void optimize(IrModule module) {
+        optimize(module, null);
+    }
+
+    /**
+     * The passes of {@code -O} except {@code without}, which is one of
+     * {@link Inliner}, {@link ConstantPropagation}, {@link ValueNumbering},
+     * {@link LoopOptimizer} or {@link DeadStoreElimination}, for measuring
+     * what that pass is worth; null leaves out none.
+     */
+    static void optimize(IrModule module, Class<?> without) {
+        if (without != Inliner.class) {
+            Inliner.run(module);
+        }
+        for (IrFunction f : module.getFunctions()) {
+            SsaBuilder.build(f);
+            if (without != ConstantPropagation.class) {
+                ConstantPropagation.run(f);
+            }
+            if (without != ValueNumbering.class) {
+                ValueNumbering.run(f);
+            }
+            if (without != LoopOptimizer.class) {
+                LoopOptimizer.run(f);
+            }
+            if (without != DeadStoreElimination.class) {
+                DeadStoreElimination.run(f);
+            }
+            DeadCodeElimination.run(f);
+        }
+    }
+
+    /** Assembles and links {@code assembly} into {@code output} with gcc; returns gcc's exit status. */
+    public static int link(String assembly, String output) throws IOException, InterruptedException {
+        File source = File.createTempFile("compiler", ".s");
+        try {
+            Files.write(source.toPath(), assembly.getBytes(StandardCharsets.UTF_8));
+            Process gcc = new ProcessBuilder("gcc", "-o", output, source.getPath(), "-lm").inheritIO().start();
+            return gcc.waitFor();
+        } finally {
+            source.delete();
+        }
+    }
+
+    /** The diagnostics of a translation unit that did not compile, each as {@code line L:C message}. */
+    public static final class Errors extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+        private final List<String> errors;
+
+        Errors(List<String> errors) {
+            super(errors.size() + (errors.size() == 1 ? " error" : " errors") + " in translation unit");
+            this.errors = Collections.unmodifiableList(new ArrayList<>(errors));
+        }
+
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        /** Prints the diagnostics to standard error, each prefixed with {@code file}. */
+        public void print(String file) {
+            for (String error : errors) {
+                System.err.println(file + ": " + error);
+            }
+        }
+    }
+}
@@ -0,0 +1,395 @@
+import java.math.BigInteger;
+
+/**
+ * Evaluates integer and floating constant expressions (C11 6.6) on the
+ * typed AST: enumerator values, array bounds, bit-field widths, _Alignas
+ * operands and case labels.
+ *
+ * Arithmetic is done in the type the {@link TypeChecker} gave each
+ * operation, with C's conversions: unsigned results wrap modulo 2^n, signed
+ * overflow, division by zero and out-of-range shifts are reported. Results
+ * are memoized per expression id, so every node is folded at most once and
+ * a file full of enumerators that refer to each other folds in one linear
+ * pass. Address constants are not folded.
+ */
+public final class ConstantEvaluator {
+    private static final byte UNKNOWN = 0;
+    private static final byte INTEGER = 1;
+    private static final byte FLOATING = 2;
+    private static final byte NOT_CONSTANT = 3;
+
+    private final TypeChecker checker;
+    private final LayoutEngine layout;
+    private final byte[] state;
+    /** Integer value, or the raw bits of the double value, of each folded expression. */
+    private final long[] values;
+    private final long[] enumValues;
+
+    ConstantEvaluator(TypeChecker checker, LayoutEngine layout, int exprCount, int symbolCount) {
+        this.checker = checker;
+        this.layout = layout;
+        this.state = new byte[exprCount];
+        this.values = new long[exprCount];
+        this.enumValues = new long[symbolCount];
+    }
+
+    /** Whether {@code e} is an integer constant expression. {@code e} must have been type checked. */
+    public boolean isIntegerConstant(Ast.Expr e) {
+        return evaluate(e) == INTEGER;
+    }
+
+    /** Whether {@code e} is an arithmetic constant expression. */
+    public boolean isConstant(Ast.Expr e) {
+        byte s = evaluate(e);
+        return s == INTEGER || s == FLOATING;
+    }
+
+    /**
+     * Value of an integer constant expression, sign- or zero-extended from
+     * its type; the bit pattern for unsigned long values above Long.MAX_VALUE.
+     */
+    public long longValue(Ast.Expr e) {
+        if (evaluate(e) != INTEGER) {
+            throw new IllegalArgumentException("not an integer constant expression");
+        }
+        return values[e.id];
+    }
+
+    public double doubleValue(Ast.Expr e) {
+        switch (evaluate(e)) {
+            case INTEGER:
+                return toDouble(values[e.id], checker.typeOf(e));
+            case FLOATING:
+                return Double.longBitsToDouble(values[e.id]);
+            default:
+                throw new IllegalArgumentException("not an arithmetic constant expression");
+        }
+    }
+
+    /** Value of an enumeration constant. */
+    public long valueOf(Symbol enumerator) {
+        return enumValues[enumerator.id];
+    }
+
+    void defineEnumerator(Symbol enumerator, long value) {
+        enumValues[enumerator.id] = value;
+    }
+
+    private byte evaluate(Ast.Expr e) {
+        byte s = state[e.id];
+        if (s == UNKNOWN) {
+            Type t = checker.typeOf(e);
+            s = t == null || !t.isArithmetic() ? NOT_CONSTANT : fold(e, t);
+            state[e.id] = s;
+        }
+        return s;
+    }
+
+    private byte integer(Ast.Expr e, long value) {
+        values[e.id] = value;
+        return INTEGER;
+    }
+
+    private byte floating(Ast.Expr e, double value, Type t) {
+        values[e.id] = Double.doubleToRawLongBits(t.kind == Type.Kind.FLOAT ? (double) (float) value : value);
+        return FLOATING;
+    }
+
+    /** Stores the value of {@code e} converted to {@code t}, which must be arithmetic. */
+    private byte convert(Ast.Expr e, Ast.Expr operand, Type t) {
+        byte s = evaluate(operand);
+        if (s == INTEGER) {
+            long v = values[operand.id];
+            if (t.isFloating()) {
+                return floating(e, toDouble(v, checker.typeOf(operand)), t);
+            }
+            return integer(e, normalize(v, t));
+        }
+        if (s == FLOATING) {
+            double d = Double.longBitsToDouble(values[operand.id]);
+            if (t.isFloating()) {
+                return floating(e, d, t);
+            }
+            if (t.kind == Type.Kind.BOOL) {
+                return integer(e, d != 0 ? 1 : 0);
+            }
+            if (Double.isNaN(d) || d <= -0x1p63 || d >= 0x1p64 || !t.isUnsigned() && d >= 0x1p63) {
+                checker.error(e, "conversion of " + d + " to '" + t + "' overflows");
+                return NOT_CONSTANT;
+            }
+            long v = d >= 0x1p63 ? (long) (d - 0x1p63) ^ Long.MIN_VALUE : (long) d;
+            return integer(e, normalize(v, t));
+        }
+        return NOT_CONSTANT;
+    }
+
+    private byte fold(Ast.Expr e, Type t) {
+        if (e instanceof Ast.IntLiteral) {
+            return integer(e, normalize(((Ast.IntLiteral) e).value, t));
+        }
+        if (e instanceof Ast.FloatLiteral) {
+            return floating(e, ((Ast.FloatLiteral) e).value, t);
+        }
+        if (e instanceof Ast.NameExpr) {
+            Symbol s = checker.getResolver().symbolOf((Ast.NameExpr) e);
+            return s != null && s.kind == Symbol.Kind.ENUM_CONSTANT ? integer(e, enumValues[s.id]) : NOT_CONSTANT;
+        }
+        if (e instanceof Ast.SizeofTypeExpr) {
+            Type operand = checker.writtenTypeOf(e);
+            return operand == null || !TypeChecker.isComplete(operand) ? NOT_CONSTANT
+                    : integer(e, layout.sizeOf(operand));
+        }
+        if (e instanceof Ast.CastExpr) {
+            return convert(e, ((Ast.CastExpr) e).operand, t);
+        }
+        if (e instanceof Ast.UnaryExpr) {
+            return unary((Ast.UnaryExpr) e, t);
+        }
+        if (e instanceof Ast.BinaryExpr) {
+            return binary((Ast.BinaryExpr) e, t);
+        }
+        if (e instanceof Ast.ConditionalExpr) {
+            Ast.ConditionalExpr c = (Ast.ConditionalExpr) e;
+            Boolean cond = truth(c.cond);
+            if (cond == null) {
+                return NOT_CONSTANT;
+            }
+            return convert(e, cond ? c.then : c.otherwise, t);
+        }
+        return NOT_CONSTANT;
+    }
+
+    /** Truth value of a scalar constant, null if {@code e} is not constant. */
+    private Boolean truth(Ast.Expr e) {
+        switch (evaluate(e)) {
+            case INTEGER:
+                return values[e.id] != 0;
+            case FLOATING:
+                return Double.longBitsToDouble(values[e.id]) != 0;
+            default:
+                return null;
+        }
+    }
+
+    private byte unary(Ast.UnaryExpr e, Type t) {
+        switch (e.op) {
+            case SIZEOF: {
+                Type operand = checker.typeOf(e.operand);
+                return operand == null || !TypeChecker.isComplete(operand) ? NOT_CONSTANT
+                        : integer(e, layout.sizeOf(operand));
+            }
+            case NOT: {
+                Boolean b = truth(e.operand);
+                return b == null ? NOT_CONSTANT : integer(e, b ? 0 : 1);
+            }
+            case PLUS:
+                return convert(e, e.operand, t);
+            case MINUS:
+                if (convert(e, e.operand, t) == NOT_CONSTANT) {
+                    return NOT_CONSTANT;
+                }
+                if (t.isFloating()) {
+                    return floating(e, -Double.longBitsToDouble(values[e.id]), t);
+                }
+                return integer(e, arithmetic(e, Ast.BinaryOp.SUB, 0, values[e.id], t));
+            case BIT_NOT:
+                if (convert(e, e.operand, t) == NOT_CONSTANT) {
+                    return NOT_CONSTANT;
+                }
+                return integer(e, normalize(~values[e.id], t));
+            default:
+                return NOT_CONSTANT;
+        }
+    }
+
+    private byte binary(Ast.BinaryExpr e, Type t) {
+        if (e.op.isLogical()) {
+            Boolean l = truth(e.left);
+            if (l == null) {
+                return NOT_CONSTANT;
+            }
+            if (e.op == Ast.BinaryOp.AND ? !l : l) {
+                return integer(e, l ? 1 : 0);
+            }
+            Boolean r = truth(e.right);
+            return r == null ? NOT_CONSTANT : integer(e, r ? 1 : 0);
+        }
+        if (e.op == Ast.BinaryOp.COMMA) {
+            return NOT_CONSTANT;
+        }
+        byte ls = evaluate(e.left);
+        byte rs = evaluate(e.right);
+        if (ls == NOT_CONSTANT || rs == NOT_CONSTANT) {
+            return NOT_CONSTANT;
+        }
+        Type lt = checker.typeOf(e.left);
+        Type rt = checker.typeOf(e.right);
+        if (e.op == Ast.BinaryOp.SHL || e.op == Ast.BinaryOp.SHR) {
+            return integer(e, shift(e, normalize(values[e.left.id], t), values[e.right.id], rt, t));
+        }
+        // comparisons happen in the common type, arithmetic in the result type
+        Type common = e.op.isComparison() ? Types.usualArithmetic(lt, rt) : t;
+        if (common.isFloating()) {
+            double l = ls == FLOATING ? Double.longBitsToDouble(values[e.left.id]) : toDouble(values[e.left.id], lt);
+            double r = rs == FLOATING ? Double.longBitsToDouble(values[e.right.id]) : toDouble(values[e.right.id], rt);
+            if (common.kind == Type.Kind.FLOAT) {
+                l = (float) l;
+                r = (float) r;
+            }
+            switch (e.op) {
+                case MUL:
+                    return floating(e, l * r, t);
+                case DIV:
+                    return floating(e, l / r, t);
+                case ADD:
+                    return floating(e, l + r, t);
+                case SUB:
+                    return floating(e, l - r, t);
+                case LT:
+                    return integer(e, l < r ? 1 : 0);
+                case GT:
+                    return integer(e, l > r ? 1 : 0);
+                case LE:
+                    return integer(e, l <= r ? 1 : 0);
+                case GE:
+                    return integer(e, l >= r ? 1 : 0);
+                case EQ:
+                    return integer(e, l == r ? 1 : 0);
+                case NE:
+                    return integer(e, l != r ? 1 : 0);
+                default:
+                    return NOT_CONSTANT;
+            }
+        }
+        long l = normalize(values[e.left.id], common);
+        long r = normalize(values[e.right.id], common);
+        boolean unsigned = common.isUnsigned();
+        switch (e.op) {
+            case LT:
+                return integer(e, compare(l, r, unsigned) < 0 ? 1 : 0);
+            case GT:
+                return integer(e, compare(l, r, unsigned) > 0 ? 1 : 0);
+            case LE:
+                return integer(e, compare(l, r, unsigned) <= 0 ? 1 : 0);
+            case GE:
+                return integer(e, compare(l, r, unsigned) >= 0 ? 1 : 0);
+            case EQ:
+                return integer(e, l == r ? 1 : 0);
+            case NE:
+                return integer(e, l != r ? 1 : 0);
+            case BIT_AND:
+                return integer(e, l & r);
+            case BIT_XOR:
+                return integer(e, l ^ r);
+            case BIT_OR:
+                return integer(e, l | r);
+            case DIV:
+            case MOD:
+                if (r == 0) {
+                    checker.error(e, "division by zero in constant expression");
+                    return NOT_CONSTANT;
+                }
+                return integer(e, arithmetic(e, e.op, l, r, common));
+            default:
+                return integer(e, arithmetic(e, e.op, l, r, common));
+        }
+    }
+
+    private static int compare(long l, long r, boolean unsigned) {
+        return unsigned ? Long.compareUnsigned(l, r) : Long.compare(l, r);
+    }
+
+    /** {@code l op r} for +, -, *, / and % in integer type {@code t}, reporting signed overflow. */
+    private long arithmetic(Ast.Expr at, Ast.BinaryOp op, long l, long r, Type t) {
+        boolean unsigned = t.isUnsigned();
+        if (t.scalarSize() == 8 && !unsigned) {
+            try {
+                switch (op) {
+                    case ADD:
+                        return Math.addExact(l, r);
+                    case SUB:
+                        return Math.subtractExact(l, r);
+                    case MUL:
+                        return Math.multiplyExact(l, r);
+                    case DIV:
+                        if (l == Long.MIN_VALUE && r == -1) {
+                            throw new ArithmeticException();
+                        }
+                        return l / r;
+                    default:
+                        return r == -1 ? 0 : l % r;
+                }
+            } catch (ArithmeticException overflow) {
+                checker.error(at, "overflow in expression of type '" + t + "'");
+                return normalize(wrapping(op, l, r, false), t);
+            }
+        }
+        long result = normalize(wrapping(op, l, r, unsigned), t);
+        if (!unsigned && result != wrapping(op, l, r, false)) {
+            checker.error(at, "overflow in expression of type '" + t + "'");
+        }
+        return result;
+    }
+
+    private static long wrapping(Ast.BinaryOp op, long l, long r, boolean unsigned) {
+        switch (op) {
+            case ADD:
+                return l + r;
+            case SUB:
+                return l - r;
+            case MUL:
+                return l * r;
+            case DIV:
+                return unsigned ? Long.divideUnsigned(l, r) : r == -1 ? -l : l / r;
+            default:
+                return unsigned ? Long.remainderUnsigned(l, r) : r == -1 ? 0 : l % r;
+        }
+    }
+
+    private long shift(Ast.Expr at, long l, long count, Type countType, Type t) {
+        int bits = t.scalarSize() * 8;
+        if (!countType.isUnsigned() && count < 0 || Long.compareUnsigned(count, bits) >= 0) {
+            checker.error(at, "shift count " + count + " is out of range for type '" + t + "'");
+            return 0;
+        }
+        int n = (int) count;
+        if (((Ast.BinaryExpr) at).op == Ast.BinaryOp.SHR) {
+            return t.isUnsigned() ? normalize(l >>> n, t) : l >> n;
+        }
+        long result = normalize(l << n, t);
+        if (!t.isUnsigned() && (l < 0 || n > 0 && (result >> n) != l || result < 0)) {
+            checker.error(at, "overflow in left shift of type '" + t + "'");
+        }
+        return result;
+    }
+
+    /** Truncates {@code v} to the width of integer type {@code t}, then sign- or zero-extends. */
+    static long normalize(long v, Type t) {
+        switch (t.kind) {
+            case BOOL:
+                return v != 0 ? 1 : 0;
+            case CHAR:
+            case SCHAR:
+                return (byte) v;
+            case UCHAR:
+                return v & 0xff;
+            case SHORT:
+                return (short) v;
+            case USHORT:
+                return v & 0xffff;
+            case INT:
+                return (int) v;
+            case UINT:
+                return v & 0xffffffffL;
+            default:
+                return v;
+        }
+    }
+
+    static double toDouble(long v, Type from) {
+        if (from.isUnsigned() && v < 0) {
+            return new BigInteger(Long.toUnsignedString(v)).doubleValue();
+        }
+        return v;
+    }
+}
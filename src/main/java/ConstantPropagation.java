@@ -0,0 +1,334 @@
+import java.util.Arrays;
+
+/**
+ * Sparse conditional constant propagation (Wegman and Zadeck) over a
+ * function in SSA form.
+ *
+ * Every register starts undefined and can only move down the lattice to a
+ * single constant and then to overdefined. Two worklists drive the
+ * propagation: CFG edges that have just become executable, and
+ * instructions whose operands have just changed, reached through def-use
+ * lists. A block is evaluated only once some edge into it is executable,
+ * and a phi meets only its operands on executable edges, so a value that
+ * is constant on every path that can actually run is found even through
+ * loops. A branch or switch whose operands fold marks only the edge it
+ * takes.
+ *
+ * Afterwards constant registers are replaced by their values and their
+ * definitions deleted, folded branches become jumps, phis drop operands of
+ * edges that never run (a phi left with one becomes a move) and blocks that
+ * are never reached are removed. An {@code if (CONFIG_X)} with the macro
+ * expanded to 0 thus leaves no code behind.
+ */
+public final class ConstantPropagation {
+    private static final byte UNDEFINED = 0;
+    private static final byte CONSTANT = 1;
+    private static final byte OVERDEFINED = 2;
+
+    private final IrFunction f;
+    private final ControlFlowGraph cfg;
+    private final byte[] states;
+    private final long[] values;
+    private final boolean[] executableBlocks;
+    private final boolean[] executableEdges;
+    /** Instructions reading each register: {@code users[userStart[r] .. userStart[r + 1])}. */
+    private int[] userStart;
+    private int[] users;
+
+    private int[] edgeWork = new int[32];
+    private int edgeTop;
+    private int[] instructionWork = new int[32];
+    private int instructionTop;
+
+    private ConstantPropagation(IrFunction f) {
+        this.f = f;
+        this.cfg = ControlFlowGraph.build(f);
+        this.states = new byte[f.registerCount()];
+        this.values = new long[f.registerCount()];
+        this.executableBlocks = new boolean[cfg.blockCount()];
+        this.executableEdges = new boolean[cfg.edgeCount()];
+    }
+
+    /** Propagates constants through {@code f} and returns whether the code changed. */
+    public static boolean run(IrFunction f) {
+        if (f.size() == 0) {
+            return false;
+        }
+        ConstantPropagation p = new ConstantPropagation(f);
+        p.findUsers();
+        p.propagate();
+        return p.rewrite();
+    }
+
+    private void findUsers() {
+        int n = f.registerCount();
+        userStart = new int[n + 1];
+        for (int i = 0; i < f.size(); i++) {
+            for (int k = 0; k < f.operandCount(i); k++) {
+                int r = f.operand(i, k);
+                if (Ir.isRegister(r)) {
+                    userStart[r + 1]++;
+                }
+            }
+        }
+        for (int r = 0; r < n; r++) {
+            userStart[r + 1] += userStart[r];
+        }
+        users = new int[userStart[n]];
+        int[] fill = Arrays.copyOf(userStart, n);
+        for (int i = 0; i < f.size(); i++) {
+            for (int k = 0; k < f.operandCount(i); k++) {
+                int r = f.operand(i, k);
+                if (Ir.isRegister(r)) {
+                    users[fill[r]++] = i;
+                }
+            }
+        }
+    }
+
+    private void propagate() {
+        executableBlocks[0] = true;
+        visitBlock(0);
+        while (edgeTop > 0 || instructionTop > 0) {
+            if (edgeTop > 0) {
+                int e = edgeWork[--edgeTop];
+                if (executableEdges[e]) {
+                    continue;
+                }
+                executableEdges[e] = true;
+                int b = cfg.edgeTarget(e);
+                if (!executableBlocks[b]) {
+                    executableBlocks[b] = true;
+                    visitBlock(b);
+                } else {
+                    for (int i = cfg.start(b); i < cfg.end(b) && f.op(i) == Ir.PHI; i++) {
+                        visit(i);
+                    }
+                }
+            } else {
+                int i = instructionWork[--instructionTop];
+                if (executableBlocks[cfg.blockOf(i)]) {
+                    visit(i);
+                }
+            }
+        }
+    }
+
+    private void visitBlock(int b) {
+        for (int i = cfg.start(b); i < cfg.end(b); i++) {
+            visit(i);
+        }
+        if (!Ir.endsBlock(f.op(cfg.end(b) - 1)) && cfg.successorCount(b) > 0) {
+            markEdge(cfg.successorEdge(b, 0));
+        }
+    }
+
+    private void markEdge(int e) {
+        if (executableEdges[e]) {
+            return;
+        }
+        if (edgeTop == edgeWork.length) {
+            edgeWork = Arrays.copyOf(edgeWork, edgeTop * 2);
+        }
+        edgeWork[edgeTop++] = e;
+    }
+
+    private void visit(int i) {
+        int op = f.op(i);
+        int b = cfg.blockOf(i);
+        if (op == Ir.JMP) {
+            markEdge(cfg.successorEdge(b, 0));
+            return;
+        }
+        if (Ir.isBranch(op)) {
+            visitBranch(i, b);
+            return;
+        }
+        if (op == Ir.SWITCH) {
+            visitSwitch(i, b);
+            return;
+        }
+        int dst = f.dst(i);
+        if (!Ir.defines(op) || dst < 0) {
+            return;
+        }
+        switch (op) {
+            case Ir.PHI: {
+                byte state = UNDEFINED;
+                long value = 0;
+                for (int k = 0; k < f.phiCount(i) && state != OVERDEFINED; k++) {
+                    if (!executableEdges[cfg.predecessorEdge(b, k)]) {
+                        continue;
+                    }
+                    int x = f.phiArg(i, k);
+                    byte s = stateOf(x);
+                    if (s == OVERDEFINED || s == CONSTANT && state == CONSTANT && valueOf(x) != value) {
+                        state = OVERDEFINED;
+                    } else if (s == CONSTANT && state == UNDEFINED) {
+                        state = CONSTANT;
+                        value = valueOf(x);
+                    }
+                }
+                update(dst, state, value);
+                return;
+            }
+            case Ir.CONV: {
+                byte s = stateOf(f.a(i));
+                update(dst, s, s == CONSTANT ? Ir.convert(valueOf(f.a(i)), f.b(i), f.kind(i)) : 0);
+                return;
+            }
+            case Ir.LOAD:
+            case Ir.LOCAL:
+            case Ir.GLOBAL:
+            case Ir.PARAM:
+            case Ir.CALL:
+            case Ir.CALLI:
+                update(dst, OVERDEFINED, 0);
+                return;
+            default: {
+                int a = f.a(i);
+                int x = Ir.hasOperandB(op) ? f.b(i) : a;
+                byte s = (byte) Math.max(stateOf(a), stateOf(x));
+                if (s != CONSTANT) {
+                    update(dst, s, 0);
+                } else if (!Ir.canFold(op, f.kind(i), valueOf(x))) {
+                    update(dst, OVERDEFINED, 0);
+                } else {
+                    update(dst, CONSTANT, Ir.fold(op, f.kind(i), valueOf(a), valueOf(x)));
+                }
+            }
+        }
+    }
+
+    private void visitBranch(int i, int b) {
+        byte s = (byte) Math.max(stateOf(f.a(i)), stateOf(f.b(i)));
+        if (s == UNDEFINED) {
+            return;
+        }
+        if (s == OVERDEFINED || cfg.successorCount(b) == 1) {
+            for (int k = 0; k < cfg.successorCount(b); k++) {
+                markEdge(cfg.successorEdge(b, k));
+            }
+            return;
+        }
+        boolean taken = Ir.fold(Ir.compareOf(f.op(i)), f.kind(i), valueOf(f.a(i)), valueOf(f.b(i))) != 0;
+        // a conditional branch lists its taken successor first
+        markEdge(cfg.successorEdge(b, taken ? 0 : 1));
+    }
+
+    /** A switch on a constant takes the edge to the block its table entry names. */
+    private void visitSwitch(int i, int b) {
+        byte s = stateOf(f.a(i));
+        if (s == UNDEFINED) {
+            return;
+        }
+        long index = valueOf(f.a(i));
+        boolean all = s == OVERDEFINED || index < 0 || index >= f.targetCount(i);
+        int target = all ? -1 : cfg.blockOf(f.target(i, (int) index));
+        for (int k = 0; k < cfg.successorCount(b); k++) {
+            if (all || cfg.successor(b, k) == target) {
+                markEdge(cfg.successorEdge(b, k));
+            }
+        }
+    }
+
+    private byte stateOf(int operand) {
+        return Ir.isRegister(operand) ? states[operand] : CONSTANT;
+    }
+
+    private long valueOf(int operand) {
+        return Ir.isRegister(operand) ? values[operand] : f.constantValue(operand);
+    }
+
+    /** Lowers register {@code r} to the given state and queues its users if it moved. */
+    private void update(int r, byte state, long value) {
+        byte old = states[r];
+        if (state == UNDEFINED || old == OVERDEFINED || old == CONSTANT && state == CONSTANT && values[r] == value) {
+            return;
+        }
+        if (old == CONSTANT && state == CONSTANT) {
+            state = OVERDEFINED;
+        }
+        states[r] = state;
+        values[r] = value;
+        for (int u = userStart[r]; u < userStart[r + 1]; u++) {
+            if (instructionTop == instructionWork.length) {
+                instructionWork = Arrays.copyOf(instructionWork, instructionTop * 2);
+            }
+            instructionWork[instructionTop++] = users[u];
+        }
+    }
+
+    private boolean rewrite() {
+        boolean changed = false;
+        for (int b = 0; b < cfg.blockCount(); b++) {
+            if (!executableBlocks[b]) {
+                for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                    f.remove(i);
+                }
+                changed = true;
+                continue;
+            }
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                int op = f.op(i);
+                int dst = f.dst(i);
+                if (Ir.defines(op) && dst >= 0 && states[dst] == CONSTANT) {
+                    f.remove(i);
+                    changed = true;
+                    continue;
+                }
+                for (int k = 0; k < f.operandCount(i); k++) {
+                    int x = f.operand(i, k);
+                    if (Ir.isRegister(x) && states[x] == CONSTANT) {
+                        f.setOperand(i, k, f.constant(values[x]));
+                        changed = true;
+                    }
+                }
+                if (op == Ir.PHI) {
+                    changed |= prunePhi(i, b);
+                } else if (op == Ir.SWITCH) {
+                    int taken = -1;
+                    int count = 0;
+                    for (int k = 0; k < cfg.successorCount(b); k++) {
+                        if (executableEdges[cfg.successorEdge(b, k)]) {
+                            taken = cfg.successor(b, k);
+                            count++;
+                        }
+                    }
+                    if (count == 1) {
+                        f.set(i, Ir.JMP, Ir.VOID, cfg.start(taken), Ir.NONE, Ir.NONE);
+                        changed = true;
+                    }
+                } else if (Ir.isBranch(op) && cfg.successorCount(b) == 2) {
+                    boolean taken = executableEdges[cfg.successorEdge(b, 0)];
+                    if (taken != executableEdges[cfg.successorEdge(b, 1)]) {
+                        int target = cfg.successor(b, taken ? 0 : 1);
+                        f.set(i, Ir.JMP, Ir.VOID, cfg.start(target), Ir.NONE, Ir.NONE);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        if (changed) {
+            f.removeNops();
+        }
+        return changed;
+    }
+
+    /** Drops the operands of a phi in block {@code b} that arrive over edges that never run. */
+    private boolean prunePhi(int i, int b) {
+        int n = f.phiCount(i);
+        int kept = 0;
+        for (int k = 0; k < n; k++) {
+            if (executableEdges[cfg.predecessorEdge(b, k)]) {
+                f.setPhiArg(i, kept++, f.phiArg(i, k));
+            }
+        }
+        if (kept == 1) {
+            f.set(i, Ir.MOV, f.kind(i), f.dst(i), f.phiArg(i, 0), Ir.NONE);
+            return true;
+        }
+        f.setAux(f.b(i), kept);
+        return kept != n;
+    }
+}
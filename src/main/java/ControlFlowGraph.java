@@ -0,0 +1,300 @@
+import java.util.Arrays;
+
+/**
+ * Basic blocks of an {@link IrFunction} and the control-flow edges between
+ * them.
+ *
+ * A block is a maximal run of instructions entered only at its first one
+ * and left only after its last one. Leaders are the entry, every jump
+ * target (goto and labels, case and default entries, loop heads, break and
+ * continue destinations, the arms of conditions) and every instruction that
+ * follows a jump or a return, so blocks are numbered in instruction order
+ * with block 0 as the entry. Construction is linear: one pass marks
+ * leaders, one assigns blocks and successors, and predecessors are filled
+ * in by counting sort.
+ *
+ * Edges are kept in compressed adjacency arrays, the successors of block b
+ * being {@code succs[succStart[b] .. succStart[b + 1])} and likewise for
+ * predecessors; there are no edge or block objects. A conditional branch
+ * lists its taken successor first and its fall-through second, and a branch
+ * to the very next block contributes a single edge. A switch lists the
+ * blocks of its table once each, in order of first appearance. Blocks
+ * reachable from the entry are also numbered in reverse postorder, the
+ * iteration order forward dataflow problems and dominator computation want.
+ */
+public final class ControlFlowGraph {
+    public final IrFunction function;
+    private final int blockCount;
+    /** First instruction of each block; {@code starts[blockCount]} is the function size. */
+    private final int[] starts;
+    private final int[] blockOf;
+    private final int[] succStart;
+    private final int[] succs;
+    /** For each successor edge, the position of its source among the target's predecessors. */
+    private final int[] succPredIndex;
+    private final int[] predStart;
+    private final int[] preds;
+    /** Edge number of each predecessor entry, the index of the edge among all successor entries. */
+    private final int[] predEdges;
+    /** Reachable blocks in reverse postorder. */
+    private final int[] order;
+    /** Position of each block in {@link #order}, -1 for an unreachable block. */
+    private final int[] orderIndex;
+
+    private ControlFlowGraph(IrFunction function, int blockCount, int[] starts, int[] blockOf,
+            int[] succStart, int[] succs, int[] succPredIndex, int[] predStart, int[] preds, int[] predEdges) {
+        this.function = function;
+        this.blockCount = blockCount;
+        this.starts = starts;
+        this.blockOf = blockOf;
+        this.succStart = succStart;
+        this.succs = succs;
+        this.succPredIndex = succPredIndex;
+        this.predStart = predStart;
+        this.preds = preds;
+        this.predEdges = predEdges;
+        this.orderIndex = new int[blockCount];
+        this.order = reversePostorder();
+    }
+
+    public static ControlFlowGraph build(IrFunction f) {
+        int n = f.size();
+        boolean[] leader = new boolean[n + 1];
+        leader[0] = true;
+        int capacity = 0;
+        for (int i = 0; i < n; i++) {
+            int op = f.op(i);
+            for (int k = 0; k < f.targetCount(i); k++) {
+                leader[f.target(i, k)] = true;
+            }
+            if (Ir.endsBlock(op)) {
+                leader[i + 1] = true;
+            }
+            capacity += op == Ir.SWITCH ? f.targetCount(i) : 0;
+        }
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (leader[i]) {
+                count++;
+            }
+        }
+        int[] starts = new int[count + 1];
+        int[] blockOf = new int[n];
+        int b = -1;
+        for (int i = 0; i < n; i++) {
+            if (leader[i]) {
+                starts[++b] = i;
+            }
+            blockOf[i] = b;
+        }
+        starts[count] = n;
+
+        int[] succStart = new int[count + 1];
+        int[] succs = new int[2 * count + capacity];
+        int[] predCount = new int[count + 1];
+        // the last block a switch table entry was seen for, to list each target once
+        int[] listed = new int[count];
+        Arrays.fill(listed, -1);
+        int edges = 0;
+        for (b = 0; b < count; b++) {
+            succStart[b] = edges;
+            int last = starts[b + 1] - 1;
+            int op = f.op(last);
+            int next = b + 1 < count ? b + 1 : -1;
+            if (op == Ir.JMP) {
+                succs[edges++] = blockOf[f.dst(last)];
+            } else if (Ir.isBranch(op)) {
+                int target = blockOf[f.dst(last)];
+                succs[edges++] = target;
+                if (next >= 0 && next != target) {
+                    succs[edges++] = next;
+                }
+            } else if (op == Ir.SWITCH) {
+                for (int k = 0; k < f.targetCount(last); k++) {
+                    int target = blockOf[f.target(last, k)];
+                    if (listed[target] != b) {
+                        listed[target] = b;
+                        succs[edges++] = target;
+                    }
+                }
+            } else if (op != Ir.RET && next >= 0) {
+                succs[edges++] = next;
+            }
+            for (int k = succStart[b]; k < edges; k++) {
+                predCount[succs[k] + 1]++;
+            }
+        }
+        succStart[count] = edges;
+
+        int[] predStart = predCount;
+        for (b = 0; b < count; b++) {
+            predStart[b + 1] += predStart[b];
+        }
+        int[] fill = Arrays.copyOf(predStart, count);
+        int[] preds = new int[edges];
+        int[] succPredIndex = new int[edges];
+        int[] predEdges = new int[edges];
+        for (b = 0; b < count; b++) {
+            for (int k = succStart[b]; k < succStart[b + 1]; k++) {
+                int s = succs[k];
+                succPredIndex[k] = fill[s] - predStart[s];
+                predEdges[fill[s]] = k;
+                preds[fill[s]++] = b;
+            }
+        }
+        return new ControlFlowGraph(f, count, starts, blockOf, succStart, Arrays.copyOf(succs, edges),
+                succPredIndex, predStart, preds, predEdges);
+    }
+
+    /** Depth-first search from the entry with an explicit stack, so deep graphs do not overflow. */
+    private int[] reversePostorder() {
+        Arrays.fill(orderIndex, -1);
+        if (blockCount == 0) {
+            return new int[0];
+        }
+        int[] postorder = new int[blockCount];
+        int[] stack = new int[blockCount];
+        int[] nextEdge = new int[blockCount];
+        boolean[] visited = new boolean[blockCount];
+        int done = 0;
+        int depth = 0;
+        stack[depth++] = 0;
+        visited[0] = true;
+        nextEdge[0] = succStart[0];
+        while (depth > 0) {
+            int b = stack[depth - 1];
+            if (nextEdge[b] < succStart[b + 1]) {
+                int s = succs[nextEdge[b]++];
+                if (!visited[s]) {
+                    visited[s] = true;
+                    nextEdge[s] = succStart[s];
+                    stack[depth++] = s;
+                }
+            } else {
+                postorder[done++] = b;
+                depth--;
+            }
+        }
+        int[] rpo = new int[done];
+        for (int i = 0; i < done; i++) {
+            rpo[i] = postorder[done - 1 - i];
+            orderIndex[rpo[i]] = i;
+        }
+        return rpo;
+    }
+
+    public int blockCount() {
+        return blockCount;
+    }
+
+    /** Index of the first instruction of block {@code b}. */
+    public int start(int b) {
+        return starts[b];
+    }
+
+    /** Index one past the last instruction of block {@code b}. */
+    public int end(int b) {
+        return starts[b + 1];
+    }
+
+    /** Block holding instruction {@code i}. */
+    public int blockOf(int i) {
+        return blockOf[i];
+    }
+
+    public int successorCount(int b) {
+        return succStart[b + 1] - succStart[b];
+    }
+
+    public int successor(int b, int k) {
+        return succs[succStart[b] + k];
+    }
+
+    /** Number of edges; edges are numbered by source block, then successor position. */
+    public int edgeCount() {
+        return succs.length;
+    }
+
+    /** Block edge {@code e} leads to. */
+    public int edgeTarget(int e) {
+        return succs[e];
+    }
+
+    /** Number of the edge to {@code successor(b, k)}. */
+    public int successorEdge(int b, int k) {
+        return succStart[b] + k;
+    }
+
+    /** Number of the edge from {@code predecessor(b, k)}. */
+    public int predecessorEdge(int b, int k) {
+        return predEdges[predStart[b] + k];
+    }
+
+    /** Position of {@code b} among the predecessors of {@code successor(b, k)}. */
+    public int predecessorIndexOfSuccessor(int b, int k) {
+        return succPredIndex[succStart[b] + k];
+    }
+
+    public int predecessorCount(int b) {
+        return predStart[b + 1] - predStart[b];
+    }
+
+    public int predecessor(int b, int k) {
+        return preds[predStart[b] + k];
+    }
+
+    /** Position of {@code p} among the predecessors of {@code b}, or -1. */
+    public int predecessorIndex(int b, int p) {
+        for (int k = predStart[b]; k < predStart[b + 1]; k++) {
+            if (preds[k] == p) {
+                return k - predStart[b];
+            }
+        }
+        return -1;
+    }
+
+    /** Number of blocks reachable from the entry. */
+    public int reachableCount() {
+        return order.length;
+    }
+
+    /** The {@code k}-th reachable block in reverse postorder; the entry is first. */
+    public int blockInOrder(int k) {
+        return order[k];
+    }
+
+    /** Position of block {@code b} in reverse postorder, -1 if it is unreachable. */
+    public int orderOf(int b) {
+        return orderIndex[b];
+    }
+
+    public boolean isReachable(int b) {
+        return orderIndex[b] >= 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int b = 0; b < blockCount; b++) {
+            sb.append("B").append(b).append(':');
+            if (!isReachable(b)) {
+                sb.append(" unreachable");
+            }
+            sb.append(" preds");
+            for (int k = predStart[b]; k < predStart[b + 1]; k++) {
+                sb.append(" B").append(preds[k]);
+            }
+            sb.append(" succs");
+            for (int k = succStart[b]; k < succStart[b + 1]; k++) {
+                sb.append(" B").append(succs[k]);
+            }
+            sb.append('\n');
+            for (int i = starts[b]; i < starts[b + 1]; i++) {
+                sb.append(String.format("%5d: ", i));
+                function.format(sb, i);
+                sb.append('\n');
+            }
+        }
+        return sb.toString();
+    }
+}
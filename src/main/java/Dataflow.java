@@ -0,0 +1,516 @@
+import java.util.Arrays;
+
+/**
+ * An iterative bit-vector dataflow problem over a {@link ControlFlowGraph}.
+ *
+ * Every block's effect is a gen and a kill set, its output being
+ * {@code gen | input & ~kill}; a forward problem meets the outputs of a
+ * block's predecessors into its input, a backward problem the inputs of
+ * its successors into its output, by union or by intersection. Clients
+ * describe each block by calling {@link #gen}, {@link #kill} and
+ * {@link #killRange} for its instructions in the direction of the
+ * problem, later calls overriding earlier ones, then {@link #solve}; the
+ * calls for one block must come together.
+ *
+ * Sets are sequences of 64-bit words, but a block keeps only its nonzero
+ * words, as a sorted array of word indices beside an array of the words.
+ * In a function with ten thousand registers and blocks a dense matrix
+ * would be tens of megabytes swept on every pass, while a live set or the
+ * gen and kill sets of a block touch a handful of words; the cost of a
+ * visit is the size of the neighbouring sets, not the universe. Only a
+ * block's output is stored: its input is met again from the neighbours
+ * when asked for, which halves the memory and the copying. Meets are
+ * accumulated in one dense scratch array whose touched words are tracked
+ * in a bitset, so the nonzero words come out in order without sorting.
+ *
+ * The worklist is a bitset over positions in reverse postorder (postorder
+ * for a backward problem): the lowest pending position is taken next, so
+ * each sweep visits blocks in the order that carries information
+ * furthest, and only blocks whose neighbours changed are revisited. An
+ * acyclic graph is solved in one sweep and a loop nest in about one more
+ * per level of nesting. In an intersection problem a block not yet
+ * visited stands for the full set and is left out of the meet, so
+ * unreachable predecessors never narrow it.
+ */
+public final class Dataflow {
+    private static final int[] NO_INDICES = new int[0];
+    private static final long[] NO_WORDS = new long[0];
+
+    public final ControlFlowGraph cfg;
+    private final boolean forward;
+    private final boolean intersect;
+    private final int bits;
+    private final int words;
+
+    /** Nonzero words of each block's sets: word {@code setIndex[b][k]} is {@code setWords[b][k]}. */
+    private final int[][] genIndex;
+    private final long[][] genWords;
+    private final int[][] killIndex;
+    private final long[][] killWords;
+    /** The output of each block: its exit set in a forward problem, its entry set in a backward one. */
+    private final int[][] outputIndex;
+    private final long[][] outputWords;
+    /** Blocks of an intersection problem not yet visited, whose sets are all full; unreachable ones stay so. */
+    private final boolean[] full;
+
+    /** Block being described, whose gen set is in the scratch words and kill set in {@code kills}, or -1. */
+    private int current = -1;
+    private long[] kills;
+    /** Dense scratch words and the bitset of those touched. */
+    private final long[] scratch;
+    private final long[] touched;
+    private int[] tempIndex = new int[16];
+    private long[] tempWords = new long[16];
+    private int visits;
+
+    private Dataflow(ControlFlowGraph cfg, int bits, boolean forward, boolean intersect) {
+        this.cfg = cfg;
+        this.bits = bits;
+        this.words = (bits + 63) >>> 6;
+        this.forward = forward;
+        this.intersect = intersect;
+        int n = cfg.blockCount();
+        genIndex = new int[n][];
+        genWords = new long[n][];
+        killIndex = new int[n][];
+        killWords = new long[n][];
+        outputIndex = new int[n][];
+        outputWords = new long[n][];
+        Arrays.fill(outputIndex, NO_INDICES);
+        Arrays.fill(outputWords, NO_WORDS);
+        full = new boolean[n];
+        Arrays.fill(full, intersect);
+        scratch = new long[words];
+        kills = new long[words];
+        touched = new long[(words + 63) >>> 6];
+    }
+
+    /** A problem over sets of {@code bits} elements flowing from predecessors to successors. */
+    public static Dataflow forward(ControlFlowGraph cfg, int bits, boolean intersect) {
+        return new Dataflow(cfg, bits, true, intersect);
+    }
+
+    /** A problem over sets of {@code bits} elements flowing from successors to predecessors. */
+    public static Dataflow backward(ControlFlowGraph cfg, int bits, boolean intersect) {
+        return new Dataflow(cfg, bits, false, intersect);
+    }
+
+    public int bits() {
+        return bits;
+    }
+
+    /** Makes block {@code b} produce element {@code bit}. */
+    public void gen(int b, int bit) {
+        describe(b);
+        int w = bit >>> 6;
+        touch(w);
+        scratch[w] |= 1L << bit;
+        kills[w] &= ~(1L << bit);
+    }
+
+    /** Makes block {@code b} remove element {@code bit}. */
+    public void kill(int b, int bit) {
+        describe(b);
+        int w = bit >>> 6;
+        touch(w);
+        kills[w] |= 1L << bit;
+        scratch[w] &= ~(1L << bit);
+    }
+
+    /** Makes block {@code b} remove elements {@code from .. to}. */
+    public void killRange(int b, int from, int to) {
+        describe(b);
+        for (int bit = from; bit < to; ) {
+            int w = bit >>> 6;
+            int end = Math.min(to, (bit | 63) + 1);
+            long mask = (end - bit == 64 ? -1L : (1L << (end - bit)) - 1) << bit;
+            touch(w);
+            kills[w] |= mask;
+            scratch[w] &= ~mask;
+            bit = end;
+        }
+    }
+
+    /** Makes {@code b} the block being described, storing the sets of the previous one. */
+    private void describe(int b) {
+        if (b == current) {
+            return;
+        }
+        finishBlock();
+        if (genIndex[b] != null) {
+            throw new IllegalStateException("block " + b + " described twice");
+        }
+        current = b;
+    }
+
+    private void finishBlock() {
+        if (current < 0) {
+            return;
+        }
+        int count = 0;
+        for (int t = 0; t < touched.length; t++) {
+            for (long m = touched[t]; m != 0; m &= m - 1) {
+                int w = (t << 6) + Long.numberOfTrailingZeros(m);
+                if (kills[w] != 0) {
+                    count = append(count, w, kills[w]);
+                    kills[w] = 0;
+                }
+            }
+        }
+        killIndex[current] = count == 0 ? NO_INDICES : Arrays.copyOf(tempIndex, count);
+        killWords[current] = count == 0 ? NO_WORDS : Arrays.copyOf(tempWords, count);
+        count = drain();
+        genIndex[current] = count == 0 ? NO_INDICES : Arrays.copyOf(tempIndex, count);
+        genWords[current] = count == 0 ? NO_WORDS : Arrays.copyOf(tempWords, count);
+        current = -1;
+    }
+
+    /**
+     * Iterates to the fixed point and returns this problem. Nothing holds
+     * on entry to the function for a forward problem, nor after a return
+     * for a backward one.
+     */
+    public Dataflow solve() {
+        finishBlock();
+        kills = null;
+        for (int b = 0; b < cfg.blockCount(); b++) {
+            if (genIndex[b] == null) {
+                genIndex[b] = killIndex[b] = NO_INDICES;
+                genWords[b] = killWords[b] = NO_WORDS;
+            }
+        }
+        int reachable = cfg.reachableCount();
+        long[] pending = new long[(reachable + 63) >>> 6];
+        for (int p = 0; p < reachable; p++) {
+            pending[p >>> 6] |= 1L << p;
+        }
+        int cursor = 0;
+        while (true) {
+            int p = nextPending(pending, cursor);
+            if (p < 0) {
+                p = nextPending(pending, 0);
+                if (p < 0) {
+                    break;
+                }
+            }
+            pending[p >>> 6] &= ~(1L << p);
+            cursor = p + 1;
+            int b = cfg.blockInOrder(forward ? p : reachable - 1 - p);
+            visits++;
+            if (transfer(b)) {
+                int n = forward ? cfg.successorCount(b) : cfg.predecessorCount(b);
+                for (int k = 0; k < n; k++) {
+                    int s = forward ? cfg.successor(b, k) : cfg.predecessor(b, k);
+                    if (cfg.isReachable(s)) {
+                        int q = forward ? cfg.orderOf(s) : reachable - 1 - cfg.orderOf(s);
+                        pending[q >>> 6] |= 1L << q;
+                    }
+                }
+            }
+        }
+        return this;
+    }
+
+    private static int nextPending(long[] pending, int from) {
+        int w = from >>> 6;
+        if (w >= pending.length) {
+            return -1;
+        }
+        long word = pending[w] & -1L << from;
+        while (word == 0) {
+            if (++w == pending.length) {
+                return -1;
+            }
+            word = pending[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /** Recomputes the output of block {@code b}; true if it changed. */
+    private boolean transfer(int b) {
+        meet(b);
+        int[] index = killIndex[b];
+        long[] set = killWords[b];
+        for (int j = 0; j < index.length; j++) {
+            scratch[index[j]] &= ~set[j];
+        }
+        index = genIndex[b];
+        set = genWords[b];
+        for (int j = 0; j < index.length; j++) {
+            touch(index[j]);
+            scratch[index[j]] |= set[j];
+        }
+        int count = drain();
+        if (!full[b] && same(outputIndex[b], outputWords[b], count)) {
+            return false;
+        }
+        full[b] = false;
+        outputIndex[b] = count == 0 ? NO_INDICES : Arrays.copyOf(tempIndex, count);
+        outputWords[b] = count == 0 ? NO_WORDS : Arrays.copyOf(tempWords, count);
+        return true;
+    }
+
+    /** Whether the input of block {@code b} is empty by definition: the function's entry in a forward intersection. */
+    private boolean isBoundary(int b) {
+        return forward && intersect && b == 0;
+    }
+
+    private int neighbourCount(int b) {
+        return forward ? cfg.predecessorCount(b) : cfg.successorCount(b);
+    }
+
+    private int neighbour(int b, int k) {
+        return forward ? cfg.predecessor(b, k) : cfg.successor(b, k);
+    }
+
+    /** Meets the outputs of the neighbours of block {@code b} into the scratch words. */
+    private void meet(int b) {
+        if (isBoundary(b)) {
+            return;
+        }
+        boolean first = true;
+        for (int k = 0; k < neighbourCount(b); k++) {
+            int s = neighbour(b, k);
+            if (full[s]) {
+                continue;
+            }
+            int[] index = outputIndex[s];
+            long[] set = outputWords[s];
+            if (intersect && !first) {
+                intersect(index, set);
+            } else {
+                for (int j = 0; j < index.length; j++) {
+                    touch(index[j]);
+                    scratch[index[j]] |= set[j];
+                }
+            }
+            first = false;
+        }
+    }
+
+    /** Ands the scratch words with a set: touched words the set lacks become zero. */
+    private void intersect(int[] index, long[] set) {
+        int j = 0;
+        for (int t = 0; t < touched.length; t++) {
+            for (long m = touched[t]; m != 0; m &= m - 1) {
+                int w = (t << 6) + Long.numberOfTrailingZeros(m);
+                while (j < index.length && index[j] < w) {
+                    j++;
+                }
+                scratch[w] &= j < index.length && index[j] == w ? set[j] : 0;
+            }
+        }
+    }
+
+    private void touch(int w) {
+        touched[w >>> 6] |= 1L << w;
+    }
+
+    /** Moves the nonzero scratch words into the temporary arrays, in order, clearing the scratch; returns how many. */
+    private int drain() {
+        int count = 0;
+        for (int t = 0; t < touched.length; t++) {
+            for (long m = touched[t]; m != 0; m &= m - 1) {
+                int w = (t << 6) + Long.numberOfTrailingZeros(m);
+                if (scratch[w] != 0) {
+                    count = append(count, w, scratch[w]);
+                    scratch[w] = 0;
+                }
+            }
+            touched[t] = 0;
+        }
+        return count;
+    }
+
+    private int append(int count, int w, long word) {
+        if (count == tempIndex.length) {
+            tempIndex = Arrays.copyOf(tempIndex, count * 2);
+            tempWords = Arrays.copyOf(tempWords, count * 2);
+        }
+        tempIndex[count] = w;
+        tempWords[count] = word;
+        return count + 1;
+    }
+
+    private boolean same(int[] index, long[] set, int count) {
+        if (index.length != count) {
+            return false;
+        }
+        for (int j = 0; j < count; j++) {
+            if (index[j] != tempIndex[j] || set[j] != tempWords[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ---------------------------------------------------------------- results
+
+    /** Whether element {@code bit} holds on entry to block {@code b}. */
+    public boolean isIn(int b, int bit) {
+        return forward ? inputContains(b, bit) : outputContains(b, bit);
+    }
+
+    /** Whether element {@code bit} holds on exit from block {@code b}. */
+    public boolean isOut(int b, int bit) {
+        return forward ? outputContains(b, bit) : inputContains(b, bit);
+    }
+
+    /** The first element at or after {@code bit} that holds on entry to block {@code b}, or -1. */
+    public int nextIn(int b, int bit) {
+        return forward ? inputNext(b, bit) : outputNext(b, bit);
+    }
+
+    /** The first element at or after {@code bit} that holds on exit from block {@code b}, or -1. */
+    public int nextOut(int b, int bit) {
+        return forward ? outputNext(b, bit) : inputNext(b, bit);
+    }
+
+    /** Fills {@code into} with the elements holding on entry to block {@code b}, in increasing order, and returns how many. */
+    public int in(int b, int[] into) {
+        return forward ? inputElements(b, into) : outputElements(b, into);
+    }
+
+    /** Fills {@code into} with the elements holding on exit from block {@code b}, in increasing order, and returns how many. */
+    public int out(int b, int[] into) {
+        return forward ? outputElements(b, into) : inputElements(b, into);
+    }
+
+    private boolean outputContains(int b, int bit) {
+        if (full[b]) {
+            return bit < bits;
+        }
+        int j = Arrays.binarySearch(outputIndex[b], bit >>> 6);
+        return j >= 0 && (outputWords[b][j] & 1L << bit) != 0;
+    }
+
+    private boolean inputContains(int b, int bit) {
+        if (full[b]) {
+            return bit < bits;
+        }
+        if (isBoundary(b)) {
+            return false;
+        }
+        boolean met = false;
+        for (int k = 0; k < neighbourCount(b); k++) {
+            int s = neighbour(b, k);
+            if (full[s]) {
+                continue;
+            }
+            if (outputContains(s, bit) != intersect) {
+                return !intersect;
+            }
+            met = true;
+        }
+        return intersect && met;
+    }
+
+    private int outputNext(int b, int bit) {
+        if (bit >= bits) {
+            return -1;
+        }
+        if (full[b]) {
+            return bit;
+        }
+        int[] index = outputIndex[b];
+        long[] set = outputWords[b];
+        int j = Arrays.binarySearch(index, bit >>> 6);
+        long word;
+        if (j >= 0) {
+            word = set[j] & -1L << bit;
+        } else {
+            j = -j - 1;
+            word = j < index.length ? set[j] : 0;
+        }
+        while (word == 0) {
+            if (++j >= index.length) {
+                return -1;
+            }
+            word = set[j];
+        }
+        return (index[j] << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * The least element at or after {@code bit} in the meet: the least of
+     * the neighbours' next elements for a union; for an intersection, the
+     * candidate is raised to each neighbour's next element until all agree.
+     */
+    private int inputNext(int b, int bit) {
+        if (full[b]) {
+            return bit < bits ? bit : -1;
+        }
+        if (isBoundary(b)) {
+            return -1;
+        }
+        int candidate = bit;
+        while (true) {
+            int least = -1;
+            int greatest = -1;
+            for (int k = 0; k < neighbourCount(b); k++) {
+                int s = neighbour(b, k);
+                if (full[s]) {
+                    continue;
+                }
+                int next = outputNext(s, candidate);
+                if (intersect && next < 0) {
+                    return -1;
+                }
+                if (next >= 0 && (least < 0 || next < least)) {
+                    least = next;
+                }
+                greatest = Math.max(greatest, next);
+            }
+            if (!intersect || least == greatest) {
+                return least;
+            }
+            candidate = greatest;
+        }
+    }
+
+    private int outputElements(int b, int[] into) {
+        if (full[b]) {
+            return allElements(into);
+        }
+        int[] index = outputIndex[b];
+        long[] set = outputWords[b];
+        int n = 0;
+        for (int j = 0; j < index.length; j++) {
+            for (long word = set[j]; word != 0; word &= word - 1) {
+                into[n++] = (index[j] << 6) + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return n;
+    }
+
+    private int inputElements(int b, int[] into) {
+        if (full[b]) {
+            return allElements(into);
+        }
+        meet(b);
+        int n = 0;
+        for (int t = 0; t < touched.length; t++) {
+            for (long m = touched[t]; m != 0; m &= m - 1) {
+                int w = (t << 6) + Long.numberOfTrailingZeros(m);
+                for (long word = scratch[w]; word != 0; word &= word - 1) {
+                    into[n++] = (w << 6) + Long.numberOfTrailingZeros(word);
+                }
+                scratch[w] = 0;
+            }
+            touched[t] = 0;
+        }
+        return n;
+    }
+
+    private int allElements(int[] into) {
+        for (int bit = 0; bit < bits; bit++) {
+            into[bit] = bit;
+        }
+        return bits;
+    }
+
+    /** Number of block evaluations {@link #solve} needed. */
+    public int visits() {
+        return visits;
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Mark and sweep dead code elimination over a function in SSA form.
+ *
+ * Stores, calls, returns and jumps are live because of what they do; any
+ * other instruction is live only if a live instruction reads its register.
+ * Marking starts from the former and follows operands back to their single
+ * definitions with a worklist, then every unmarked instruction is removed.
+ * Unlike deleting unused registers one at a time this also removes cycles
+ * of phis and arithmetic that only feed each other, such as a counter
+ * whose value is never read after the loop.
+ */
+public final class DeadCodeElimination {
+    private DeadCodeElimination() {
+    }
+
+    /** Removes the instructions of {@code f} whose results are never used and returns how many went. */
+    public static int run(IrFunction f) {
+        int n = f.size();
+        int[] definition = new int[f.registerCount()];
+        for (int i = 0; i < n; i++) {
+            int op = f.op(i);
+            if (Ir.defines(op) && f.dst(i) >= 0) {
+                definition[f.dst(i)] = i;
+            }
+        }
+        boolean[] live = new boolean[n];
+        int[] work = new int[n];
+        int top = 0;
+        for (int i = 0; i < n; i++) {
+            if (hasEffect(f.op(i))) {
+                live[i] = true;
+                work[top++] = i;
+            }
+        }
+        while (top > 0) {
+            int i = work[--top];
+            for (int k = 0; k < f.operandCount(i); k++) {
+                int x = f.operand(i, k);
+                if (Ir.isRegister(x) && !live[definition[x]]) {
+                    live[definition[x]] = true;
+                    work[top++] = definition[x];
+                }
+            }
+        }
+        int removed = 0;
+        for (int i = 0; i < n; i++) {
+            if (!live[i] && f.op(i) != Ir.NOP) {
+                f.remove(i);
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            f.removeNops();
+        }
+        return removed;
+    }
+
+    private static boolean hasEffect(int op) {
+        return op == Ir.STORE || op == Ir.CALL || op == Ir.CALLI || Ir.endsBlock(op);
+    }
+}
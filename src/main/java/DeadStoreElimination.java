@@ -0,0 +1,261 @@
+import java.util.Arrays;
+
+/**
+ * Removes stores to local frame slots that no later load can read.
+ *
+ * Only slots whose address never escapes are considered: every use of an
+ * address derived from the slot's {@link Ir#LOCAL} must be the address of
+ * a load or store, or an addition that derives another address. Anything
+ * else (passing it to a call, storing it, merging it in a phi) could let
+ * other code read the slot. Addresses are followed through constant
+ * offsets, so the fields of a local struct are told apart; an address with
+ * a variable offset, such as an array element, reads the whole slot.
+ *
+ * Each store with a known offset is a location, and liveness of locations
+ * is a backward {@link Dataflow} problem: a load makes every location it
+ * overlaps live, a store kills the locations it covers completely, and
+ * nothing is live after a return since the frame is gone. A store whose
+ * own location is dead just after it is removed; {@link DeadCodeElimination}
+ * then removes its address arithmetic and the computation of its value if
+ * nothing else uses them.
+ */
+public final class DeadStoreElimination {
+    private static final long UNKNOWN = Long.MIN_VALUE;
+
+    private final IrFunction f;
+    private final ControlFlowGraph cfg;
+    /** Slot each register points into, or -1. */
+    private final int[] regSlot;
+    /** Byte offset of each such register into its slot, or {@link #UNKNOWN}. */
+    private final long[] regOffset;
+    private final boolean[] escaped;
+
+    /** Offset and size of each tracked store; the stores of a slot are numbered consecutively. */
+    private long[] storeOffset;
+    private int[] storeSize;
+    private int storeCount;
+    /** Tracked stores of each slot: {@code slotFirst[s] .. slotFirst[s + 1]}. */
+    private int[] slotFirst;
+    /** Location number of each tracked store instruction, -1 for other instructions. */
+    private int[] location;
+    private int words;
+
+    private DeadStoreElimination(IrFunction f) {
+        this.f = f;
+        this.cfg = ControlFlowGraph.build(f);
+        this.regSlot = new int[f.registerCount()];
+        this.regOffset = new long[f.registerCount()];
+        this.escaped = new boolean[f.slotCount()];
+        Arrays.fill(regSlot, -1);
+    }
+
+    /** Removes dead stores to the locals of {@code f} and returns how many went. */
+    public static int run(IrFunction f) {
+        if (f.size() == 0 || f.slotCount() == 0) {
+            return 0;
+        }
+        DeadStoreElimination d = new DeadStoreElimination(f);
+        d.findAddresses();
+        if (!d.collectStores()) {
+            return 0;
+        }
+        return d.removeDeadStores(d.solve());
+    }
+
+    /**
+     * Follows slot addresses forward in reverse postorder, where SSA
+     * definitions precede their uses except for phi operands on back edges;
+     * phis are therefore checked once all addresses are known.
+     */
+    private void findAddresses() {
+        for (int k = 0; k < cfg.reachableCount(); k++) {
+            int b = cfg.blockInOrder(k);
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                int op = f.op(i);
+                int a = f.a(i);
+                int x = f.b(i);
+                switch (op) {
+                    case Ir.LOCAL:
+                        point(f.dst(i), a, 0);
+                        continue;
+                    case Ir.MOV:
+                        if (isAddress(a)) {
+                            point(f.dst(i), regSlot[a], regOffset[a]);
+                        }
+                        continue;
+                    case Ir.ADD:
+                    case Ir.SUB:
+                        if (isAddress(a) && isAddress(x)) {
+                            escape(a);
+                            escape(x);
+                        } else if (isAddress(a) || op == Ir.ADD && isAddress(x)) {
+                            int base = isAddress(a) ? a : x;
+                            int index = base == a ? x : a;
+                            point(f.dst(i), regSlot[base], offset(op, regOffset[base], index));
+                        }
+                        continue;
+                    case Ir.LOAD:
+                    case Ir.PHI:
+                        continue;
+                    case Ir.STORE:
+                        escape(x);
+                        continue;
+                    default:
+                        for (int j = 0; j < f.operandCount(i); j++) {
+                            escape(f.operand(i, j));
+                        }
+                }
+            }
+        }
+        for (int i = 0; i < f.size(); i++) {
+            if (f.op(i) == Ir.PHI) {
+                for (int j = 0; j < f.phiCount(i); j++) {
+                    escape(f.phiArg(i, j));
+                }
+            }
+        }
+    }
+
+    private long offset(int op, long base, int index) {
+        if (base == UNKNOWN || !Ir.isConstant(index)) {
+            return UNKNOWN;
+        }
+        long c = f.constantValue(index);
+        return op == Ir.ADD ? base + c : base - c;
+    }
+
+    private boolean isAddress(int operand) {
+        return Ir.isRegister(operand) && regSlot[operand] >= 0;
+    }
+
+    private void point(int r, int slot, long offset) {
+        regSlot[r] = slot;
+        regOffset[r] = offset;
+    }
+
+    private void escape(int operand) {
+        if (isAddress(operand)) {
+            escaped[regSlot[operand]] = true;
+        }
+    }
+
+    /** Numbers the stores with a known offset into a slot that does not escape; false if there are none. */
+    private boolean collectStores() {
+        int slots = f.slotCount();
+        slotFirst = new int[slots + 1];
+        location = new int[f.size()];
+        Arrays.fill(location, -1);
+        for (int i = 0; i < f.size(); i++) {
+            if (isTrackedStore(i)) {
+                slotFirst[regSlot[f.a(i)] + 1]++;
+                storeCount++;
+            }
+        }
+        if (storeCount == 0) {
+            return false;
+        }
+        for (int s = 0; s < slots; s++) {
+            slotFirst[s + 1] += slotFirst[s];
+        }
+        storeOffset = new long[storeCount];
+        storeSize = new int[storeCount];
+        int[] fill = Arrays.copyOf(slotFirst, slots);
+        for (int i = 0; i < f.size(); i++) {
+            if (isTrackedStore(i)) {
+                int slot = regSlot[f.a(i)];
+                int l = fill[slot]++;
+                storeOffset[l] = regOffset[f.a(i)];
+                storeSize[l] = Ir.size(f.kind(i));
+                location[i] = l;
+            }
+        }
+        words = (storeCount + 63) >>> 6;
+        return true;
+    }
+
+    private boolean isTrackedStore(int i) {
+        int a = f.a(i);
+        return f.op(i) == Ir.STORE && isAddress(a) && !escaped[regSlot[a]] && regOffset[a] != UNKNOWN;
+    }
+
+    /** Whether instruction {@code i} reads from a slot that is tracked. */
+    private boolean isTrackedLoad(int i) {
+        int a = f.a(i);
+        return f.op(i) == Ir.LOAD && isAddress(a) && !escaped[regSlot[a]];
+    }
+
+    /** Live locations at each block boundary, as a backward union problem. */
+    private Dataflow solve() {
+        Dataflow flow = Dataflow.backward(cfg, storeCount, false);
+        for (int b = 0; b < cfg.blockCount(); b++) {
+            for (int i = cfg.end(b) - 1; i >= cfg.start(b); i--) {
+                boolean load = isTrackedLoad(i);
+                if (!load && location[i] < 0) {
+                    continue;
+                }
+                int slot = regSlot[f.a(i)];
+                for (int l = slotFirst[slot]; l < slotFirst[slot + 1]; l++) {
+                    if (affects(i, l)) {
+                        if (load) {
+                            flow.gen(b, l);
+                        } else {
+                            flow.kill(b, l);
+                        }
+                    }
+                }
+            }
+        }
+        return flow.solve();
+    }
+
+    /** Whether load or store {@code i} affects location {@code l}: a load the locations it overlaps, a store those it covers. */
+    private boolean affects(int i, int l) {
+        long offset = regOffset[f.a(i)];
+        long size = Ir.size(f.kind(i));
+        long start = storeOffset[l];
+        long end = start + storeSize[l];
+        if (f.op(i) == Ir.LOAD) {
+            return offset == UNKNOWN || offset < end && start < offset + size;
+        }
+        return offset <= start && end <= offset + size;
+    }
+
+    private int removeDeadStores(Dataflow flow) {
+        long[] live = new long[words];
+        int removed = 0;
+        for (int b = 0; b < cfg.blockCount(); b++) {
+            if (!cfg.isReachable(b)) {
+                continue;
+            }
+            Arrays.fill(live, 0);
+            for (int l = flow.nextOut(b, 0); l >= 0; l = flow.nextOut(b, l + 1)) {
+                live[l >>> 6] |= 1L << l;
+            }
+            for (int i = cfg.end(b) - 1; i >= cfg.start(b); i--) {
+                boolean load = isTrackedLoad(i);
+                if (!load && location[i] < 0) {
+                    continue;
+                }
+                boolean dead = !load && (live[location[i] >>> 6] & 1L << location[i]) == 0;
+                int slot = regSlot[f.a(i)];
+                for (int l = slotFirst[slot]; l < slotFirst[slot + 1]; l++) {
+                    if (affects(i, l)) {
+                        if (load) {
+                            live[l >>> 6] |= 1L << l;
+                        } else {
+                            live[l >>> 6] &= ~(1L << l);
+                        }
+                    }
+                }
+                if (dead) {
+                    f.remove(i);
+                    removed++;
+                }
+            }
+        }
+        if (removed > 0) {
+            f.removeNops();
+        }
+        return removed;
+    }
+}
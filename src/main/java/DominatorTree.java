@@ -0,0 +1,285 @@
+import java.util.Arrays;
+
+/**
+ * Immediate dominators, the dominator tree and dominance frontiers of a
+ * {@link ControlFlowGraph}.
+ *
+ * Immediate dominators come from Lengauer and Tarjan's semidominator
+ * algorithm with path compression. The simpler iterative algorithm of
+ * Cooper, Harvey and Kennedy walks from every predecessor of a join up to
+ * the join's dominator, which is quadratic on the long compare chains a
+ * large switch dispatches through, whose cases all meet again at the
+ * break target. Frontiers do use Cooper, Harvey and Kennedy's walk from
+ * each predecessor of a join up to its idom, stopping at blocks that
+ * already list the join, so their cost is linear in their total size.
+ *
+ * The tree is stored as compressed child lists, and {@link #dominates} is
+ * constant time through preorder and subtree-end numbers. Blocks that are
+ * unreachable from the entry have no idom and dominate nothing.
+ */
+public final class DominatorTree {
+    public final ControlFlowGraph cfg;
+    /** Immediate dominator of each block; the entry's is itself, an unreachable block's -1. */
+    private final int[] idoms;
+    private final int[] childStart;
+    private final int[] children;
+    /** Reachable blocks in dominator tree preorder. */
+    private final int[] preorder;
+    private final int[] preorderIndex;
+    /** One past the preorder position of the last block each block dominates. */
+    private final int[] subtreeEnd;
+    private final int[] frontierStart;
+    private final int[] frontiers;
+
+    private DominatorTree(ControlFlowGraph cfg) {
+        this.cfg = cfg;
+        int n = cfg.blockCount();
+        this.idoms = immediateDominators(cfg);
+
+        childStart = new int[n + 1];
+        for (int b = 0; b < n; b++) {
+            if (idoms[b] >= 0 && b != 0) {
+                childStart[idoms[b] + 1]++;
+            }
+        }
+        for (int b = 0; b < n; b++) {
+            childStart[b + 1] += childStart[b];
+        }
+        children = new int[childStart[n]];
+        int[] fill = Arrays.copyOf(childStart, n);
+        for (int b = 1; b < n; b++) {
+            if (idoms[b] >= 0) {
+                children[fill[idoms[b]]++] = b;
+            }
+        }
+
+        preorder = new int[cfg.reachableCount()];
+        preorderIndex = new int[n];
+        subtreeEnd = new int[n];
+        Arrays.fill(preorderIndex, -1);
+        number();
+
+        int[][] lists = frontierLists();
+        frontierStart = lists[0];
+        frontiers = lists[1];
+    }
+
+    public static DominatorTree compute(ControlFlowGraph cfg) {
+        return new DominatorTree(cfg);
+    }
+
+    /**
+     * Lengauer-Tarjan with simple path compression, O(m log n). Works on
+     * depth-first preorder numbers; the forest of processed vertices and
+     * its compression are kept in arrays and walked without recursion.
+     */
+    private static int[] immediateDominators(ControlFlowGraph cfg) {
+        int n = cfg.blockCount();
+        int[] idom = new int[n];
+        Arrays.fill(idom, -1);
+        if (n == 0) {
+            return idom;
+        }
+        int[] number = new int[n];
+        Arrays.fill(number, -1);
+        int[] vertex = new int[n];
+        int[] parent = new int[n];
+        int count = 0;
+        int[] stack = new int[n];
+        int[] nextEdge = new int[n];
+        int depth = 0;
+        stack[depth++] = 0;
+        number[0] = count;
+        vertex[count++] = 0;
+        while (depth > 0) {
+            int b = stack[depth - 1];
+            if (nextEdge[b] < cfg.successorCount(b)) {
+                int s = cfg.successor(b, nextEdge[b]++);
+                if (number[s] < 0) {
+                    number[s] = count;
+                    vertex[count] = s;
+                    parent[count++] = number[b];
+                    stack[depth++] = s;
+                }
+            } else {
+                depth--;
+            }
+        }
+
+        // from here on vertices are preorder numbers
+        int[] semi = new int[count];
+        int[] label = new int[count];
+        int[] ancestor = new int[count];
+        int[] dom = new int[count];
+        int[] bucketHead = new int[count];
+        int[] bucketNext = new int[count];
+        for (int v = 0; v < count; v++) {
+            semi[v] = v;
+            label[v] = v;
+            ancestor[v] = -1;
+            bucketHead[v] = -1;
+        }
+        for (int w = count - 1; w > 0; w--) {
+            int b = vertex[w];
+            for (int k = 0; k < cfg.predecessorCount(b); k++) {
+                int v = number[cfg.predecessor(b, k)];
+                if (v < 0) {
+                    continue;
+                }
+                int u = eval(v, ancestor, label, semi, stack);
+                if (semi[u] < semi[w]) {
+                    semi[w] = semi[u];
+                }
+            }
+            bucketNext[w] = bucketHead[semi[w]];
+            bucketHead[semi[w]] = w;
+            int p = parent[w];
+            ancestor[w] = p;
+            for (int v = bucketHead[p]; v >= 0; v = bucketNext[v]) {
+                int u = eval(v, ancestor, label, semi, stack);
+                dom[v] = semi[u] < semi[v] ? u : p;
+            }
+            bucketHead[p] = -1;
+        }
+        idom[0] = 0;
+        for (int w = 1; w < count; w++) {
+            if (dom[w] != semi[w]) {
+                dom[w] = dom[dom[w]];
+            }
+            idom[vertex[w]] = vertex[dom[w]];
+        }
+        return idom;
+    }
+
+    /** The vertex of minimum semidominator on the forest path above {@code v}, compressing that path. */
+    private static int eval(int v, int[] ancestor, int[] label, int[] semi, int[] stack) {
+        if (ancestor[v] < 0) {
+            return v;
+        }
+        int top = 0;
+        for (int x = v; ancestor[ancestor[x]] >= 0; x = ancestor[x]) {
+            stack[top++] = x;
+        }
+        while (top > 0) {
+            int x = stack[--top];
+            int a = ancestor[x];
+            if (semi[label[a]] < semi[label[x]]) {
+                label[x] = label[a];
+            }
+            ancestor[x] = ancestor[a];
+        }
+        return label[v];
+    }
+
+    /** Preorder numbers and subtree ends by an explicit-stack walk of the tree. */
+    private void number() {
+        if (preorder.length == 0) {
+            return;
+        }
+        int n = cfg.blockCount();
+        int[] stack = new int[n];
+        int[] next = new int[n];
+        int depth = 0;
+        int count = 0;
+        stack[depth++] = 0;
+        next[0] = childStart[0];
+        preorderIndex[0] = count;
+        preorder[count++] = 0;
+        while (depth > 0) {
+            int b = stack[depth - 1];
+            if (next[b] < childStart[b + 1]) {
+                int c = children[next[b]++];
+                next[c] = childStart[c];
+                preorderIndex[c] = count;
+                preorder[count++] = c;
+                stack[depth++] = c;
+            } else {
+                subtreeEnd[b] = count;
+                depth--;
+            }
+        }
+    }
+
+    private int[][] frontierLists() {
+        int n = cfg.blockCount();
+        int[] heads = new int[n];
+        Arrays.fill(heads, -1);
+        int[] values = new int[16];
+        int[] links = new int[16];
+        int[] last = new int[n];
+        Arrays.fill(last, -1);
+        int count = 0;
+        int[] sizes = new int[n + 1];
+        for (int b = 0; b < n; b++) {
+            if (idoms[b] < 0 || cfg.predecessorCount(b) < 2) {
+                continue;
+            }
+            for (int i = 0; i < cfg.predecessorCount(b); i++) {
+                int runner = cfg.predecessor(b, i);
+                if (idoms[runner] < 0) {
+                    continue;
+                }
+                while (runner != idoms[b] && last[runner] != b) {
+                    if (count == values.length) {
+                        values = Arrays.copyOf(values, count * 2);
+                        links = Arrays.copyOf(links, count * 2);
+                    }
+                    values[count] = b;
+                    links[count] = heads[runner];
+                    heads[runner] = count++;
+                    last[runner] = b;
+                    sizes[runner + 1]++;
+                    runner = idoms[runner];
+                }
+            }
+        }
+        for (int b = 0; b < n; b++) {
+            sizes[b + 1] += sizes[b];
+        }
+        int[] flat = new int[count];
+        for (int b = 0; b < n; b++) {
+            int k = sizes[b];
+            for (int e = heads[b]; e >= 0; e = links[e]) {
+                flat[k++] = values[e];
+            }
+        }
+        return new int[][] {sizes, flat};
+    }
+
+    /** Immediate dominator of {@code b}, or -1 for the entry and unreachable blocks. */
+    public int idom(int b) {
+        return b == 0 ? -1 : idoms[b];
+    }
+
+    /** Whether {@code a} dominates {@code b}; every reachable block dominates itself. */
+    public boolean dominates(int a, int b) {
+        int i = preorderIndex[b];
+        return preorderIndex[a] >= 0 && i >= preorderIndex[a] && i < subtreeEnd[a];
+    }
+
+    public int childCount(int b) {
+        return childStart[b + 1] - childStart[b];
+    }
+
+    public int child(int b, int k) {
+        return children[childStart[b] + k];
+    }
+
+    /** Number of reachable blocks, the length of the preorder. */
+    public int size() {
+        return preorder.length;
+    }
+
+    /** The {@code k}-th block in dominator tree preorder; the entry is first. */
+    public int blockInPreorder(int k) {
+        return preorder[k];
+    }
+
+    public int frontierCount(int b) {
+        return frontierStart[b + 1] - frontierStart[b];
+    }
+
+    public int frontier(int b, int k) {
+        return frontiers[frontierStart[b] + k];
+    }
+}
@@ -0,0 +1,271 @@
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read-only parse tree stored as parallel int arrays instead of one
+ * ParserRuleContext per node.
+ *
+ * Nodes are numbered in preorder, the root is node 0. Every node records its
+ * rule index, parent, first child, next sibling and token range. Terminals
+ * use {@link #TERMINAL} (or {@link #ERROR} for error nodes) as rule index and
+ * start == stop == the index of their token. Token indexes refer to
+ * {@link #getTokens()}; a synthetic token inserted by error recovery has no
+ * stream index and is kept in a side list instead, under an index of -2
+ * or below, so that {@link #getToken} and {@link #getText} still see it.
+ *
+ * Because nodes are numbered in preorder, a plain loop from 0 to
+ * {@link #size()} is a preorder walk and the subtree of {@code n} is the
+ * range {@code [n, subtreeEnd(n))}. Use {@link #of} to convert a finished
+ * CParser tree, {@link FlatTreeBuilder} to build one during the parse and
+ * {@link FlatTreeVisitor} to run rule-dispatched analyses over it.
+ */
+public final class FlatParseTree {
+    public static final int NONE = -1;
+    public static final int TERMINAL = -1;
+    public static final int ERROR = -2;
+
+    private final List<? extends Token> tokens;
+    /** Tokens made up by error recovery; index -2 - k refers to the k-th. */
+    private final List<Token> synthetic = new ArrayList<>();
+    private int[] rule;
+    private int[] parent;
+    private int[] firstChild;
+    private int[] lastChild;
+    private int[] nextSibling;
+    private int[] start;
+    private int[] stop;
+    private int size;
+
+    FlatParseTree(List<? extends Token> tokens, int capacity) {
+        this.tokens = tokens;
+        capacity = Math.max(capacity, 16);
+        rule = new int[capacity];
+        parent = new int[capacity];
+        firstChild = new int[capacity];
+        lastChild = new int[capacity];
+        nextSibling = new int[capacity];
+        start = new int[capacity];
+        stop = new int[capacity];
+    }
+
+    /** Copies a CParser tree; {@code tokens} is the stream it was parsed from. */
+    public static FlatParseTree of(ParserRuleContext root, List<? extends Token> tokens) {
+        FlatParseTree tree = new FlatParseTree(tokens, tokens.size() * 4);
+        tree.append(root, NONE);
+        return tree;
+    }
+
+    /** Appends a copy of the subtree {@code root} below {@code parentNode}. */
+    int append(ParseTree root, int parentNode) {
+        ParseTree[] stack = new ParseTree[64];
+        int[] parents = new int[64];
+        int sp = 0;
+        stack[sp] = root;
+        parents[sp++] = parentNode;
+        int first = size;
+        while (sp > 0) {
+            ParseTree node = stack[--sp];
+            int p = parents[sp];
+            if (node instanceof TerminalNode) {
+                Token symbol = ((TerminalNode) node).getSymbol();
+                int t = symbol.getTokenIndex() >= 0 ? symbol.getTokenIndex() : addSyntheticToken(symbol);
+                add(node instanceof ErrorNode ? ERROR : TERMINAL, p, t, t);
+                continue;
+            }
+            ParserRuleContext ctx = (ParserRuleContext) node;
+            int n = add(ctx.getRuleIndex(), p, ctx.getStart().getTokenIndex(),
+                    ctx.getStop() == null ? -1 : ctx.getStop().getTokenIndex());
+            int children = ctx.getChildCount();
+            if (sp + children > stack.length) {
+                stack = Arrays.copyOf(stack, Math.max(stack.length * 2, sp + children));
+                parents = Arrays.copyOf(parents, stack.length);
+            }
+            for (int i = children - 1; i >= 0; i--) {
+                stack[sp] = ctx.getChild(i);
+                parents[sp++] = n;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Appends a node as the last child of {@code parentNode} (NONE for the
+     * root). Nodes must be added in preorder.
+     */
+    int add(int ruleIndex, int parentNode, int startToken, int stopToken) {
+        if (size == rule.length) {
+            grow();
+        }
+        int n = size++;
+        rule[n] = ruleIndex;
+        parent[n] = parentNode;
+        firstChild[n] = NONE;
+        lastChild[n] = NONE;
+        nextSibling[n] = NONE;
+        start[n] = startToken;
+        stop[n] = stopToken;
+        if (parentNode != NONE) {
+            if (firstChild[parentNode] == NONE) {
+                firstChild[parentNode] = n;
+            } else {
+                nextSibling[lastChild[parentNode]] = n;
+            }
+            lastChild[parentNode] = n;
+        }
+        return n;
+    }
+
+    /** Keeps a token error recovery made up and returns the index that stands for it. */
+    int addSyntheticToken(Token t) {
+        synthetic.add(t);
+        return -1 - synthetic.size();
+    }
+
+    void setStop(int node, int stopToken) {
+        stop[node] = stopToken;
+    }
+
+    private void grow() {
+        int capacity = rule.length * 2;
+        rule = Arrays.copyOf(rule, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        lastChild = Arrays.copyOf(lastChild, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+        start = Arrays.copyOf(start, capacity);
+        stop = Arrays.copyOf(stop, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int root() {
+        return size == 0 ? NONE : 0;
+    }
+
+    public List<? extends Token> getTokens() {
+        return tokens;
+    }
+
+    /** Rule index of a rule node, {@link #TERMINAL} or {@link #ERROR}. */
+    public int getRuleIndex(int node) {
+        return rule[node];
+    }
+
+    public boolean isTerminal(int node) {
+        return rule[node] < 0;
+    }
+
+    public boolean isError(int node) {
+        return rule[node] == ERROR;
+    }
+
+    public int getParent(int node) {
+        return parent[node];
+    }
+
+    public int getFirstChild(int node) {
+        return firstChild[node];
+    }
+
+    public int getLastChild(int node) {
+        return lastChild[node];
+    }
+
+    public int getNextSibling(int node) {
+        return nextSibling[node];
+    }
+
+    public int getChildCount(int node) {
+        int count = 0;
+        for (int c = firstChild[node]; c != NONE; c = nextSibling[c]) {
+            count++;
+        }
+        return count;
+    }
+
+    public int getChild(int node, int i) {
+        int c = firstChild[node];
+        while (c != NONE && i-- > 0) {
+            c = nextSibling[c];
+        }
+        return c;
+    }
+
+    public int getStartTokenIndex(int node) {
+        return start[node];
+    }
+
+    public int getStopTokenIndex(int node) {
+        return stop[node];
+    }
+
+    /** The token of a terminal node, or the start token of a rule node. */
+    public Token getToken(int node) {
+        int t = start[node];
+        return t == NONE ? null : t < NONE ? synthetic.get(-2 - t) : tokens.get(t);
+    }
+
+    /** Concatenated text of the terminals below {@code node}. */
+    public String getText(int node) {
+        if (isTerminal(node)) {
+            Token t = getToken(node);
+            return t == null ? "" : t.getText();
+        }
+        StringBuilder sb = new StringBuilder();
+        int end = subtreeEnd(node);
+        for (int n = node + 1; n < end; n++) {
+            if (isTerminal(n)) {
+                Token t = getToken(n);
+                if (t != null && t.getType() != Token.EOF) {
+                    sb.append(t.getText());
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /** One past the last node of the subtree rooted at {@code node}. */
+    public int subtreeEnd(int node) {
+        for (int n = node; n != NONE; n = parent[n]) {
+            if (nextSibling[n] != NONE) {
+                return nextSibling[n];
+            }
+        }
+        return size;
+    }
+
+    /** LISP-style tree like {@code ParserRuleContext.toStringTree}. */
+    public String toStringTree(String[] ruleNames) {
+        StringBuilder sb = new StringBuilder();
+        if (size > 0) {
+            appendTree(sb, 0, ruleNames);
+        }
+        return sb.toString();
+    }
+
+    private void appendTree(StringBuilder sb, int node, String[] ruleNames) {
+        if (isTerminal(node)) {
+            sb.append(getText(node));
+            return;
+        }
+        if (firstChild[node] == NONE) {
+            sb.append(ruleNames[rule[node]]);
+            return;
+        }
+        sb.append('(').append(ruleNames[rule[node]]);
+        for (int c = firstChild[node]; c != NONE; c = nextSibling[c]) {
+            sb.append(' ');
+            appendTree(sb, c, ruleNames);
+        }
+        sb.append(')');
+    }
+}
@@ -0,0 +1,524 @@
+/**
+ * Empty implementation of {@link FlatTreeVisitor} with the same defaults as
+ * {@link CBaseVisitor}: every rule method visits the children and aggregates
+ * their results.
+ *
+ * @param <T> The return type of the visit operation. Use {@link Void} for
+ * operations with no return type.
+ */
+public class FlatTreeBaseVisitor<T> implements FlatTreeVisitor<T> {
+    @Override
+    public T visit(FlatParseTree tree, int node) {
+        switch (tree.getRuleIndex(node)) {
+            case FlatParseTree.TERMINAL:
+                return visitTerminal(tree, node);
+            case FlatParseTree.ERROR:
+                return visitErrorNode(tree, node);
+            case CParser.RULE_primary_expression:
+                return visitPrimary_expression(tree, node);
+            case CParser.RULE_postfix_expression:
+                return visitPostfix_expression(tree, node);
+            case CParser.RULE_argument_expression_list:
+                return visitArgument_expression_list(tree, node);
+            case CParser.RULE_unary_expression:
+                return visitUnary_expression(tree, node);
+            case CParser.RULE_unary_operator:
+                return visitUnary_operator(tree, node);
+            case CParser.RULE_cast_expression:
+                return visitCast_expression(tree, node);
+            case CParser.RULE_multiplicative_expression:
+                return visitMultiplicative_expression(tree, node);
+            case CParser.RULE_additive_expression:
+                return visitAdditive_expression(tree, node);
+            case CParser.RULE_shift_expression:
+                return visitShift_expression(tree, node);
+            case CParser.RULE_relational_expression:
+                return visitRelational_expression(tree, node);
+            case CParser.RULE_equality_expression:
+                return visitEquality_expression(tree, node);
+            case CParser.RULE_and_expression:
+                return visitAnd_expression(tree, node);
+            case CParser.RULE_exclusive_or_expression:
+                return visitExclusive_or_expression(tree, node);
+            case CParser.RULE_inclusive_or_expression:
+                return visitInclusive_or_expression(tree, node);
+            case CParser.RULE_logical_and_expression:
+                return visitLogical_and_expression(tree, node);
+            case CParser.RULE_logical_or_expression:
+                return visitLogical_or_expression(tree, node);
+            case CParser.RULE_conditional_expression:
+                return visitConditional_expression(tree, node);
+            case CParser.RULE_assignment_expression:
+                return visitAssignment_expression(tree, node);
+            case CParser.RULE_assignment_operator:
+                return visitAssignment_operator(tree, node);
+            case CParser.RULE_expression:
+                return visitExpression(tree, node);
+            case CParser.RULE_constant_expression:
+                return visitConstant_expression(tree, node);
+            case CParser.RULE_declaration:
+                return visitDeclaration(tree, node);
+            case CParser.RULE_declaration_specifiers:
+                return visitDeclaration_specifiers(tree, node);
+            case CParser.RULE_declaration_specifier:
+                return visitDeclaration_specifier(tree, node);
+            case CParser.RULE_init_declarator_list:
+                return visitInit_declarator_list(tree, node);
+            case CParser.RULE_init_declarator:
+                return visitInit_declarator(tree, node);
+            case CParser.RULE_storage_class_specifier:
+                return visitStorage_class_specifier(tree, node);
+            case CParser.RULE_type_specifier:
+                return visitType_specifier(tree, node);
+            case CParser.RULE_struct_or_union_specifier:
+                return visitStruct_or_union_specifier(tree, node);
+            case CParser.RULE_struct_or_union:
+                return visitStruct_or_union(tree, node);
+            case CParser.RULE_struct_declaration_list:
+                return visitStruct_declaration_list(tree, node);
+            case CParser.RULE_struct_declaration:
+                return visitStruct_declaration(tree, node);
+            case CParser.RULE_specifier_qualifier_list:
+                return visitSpecifier_qualifier_list(tree, node);
+            case CParser.RULE_struct_declarator_list:
+                return visitStruct_declarator_list(tree, node);
+            case CParser.RULE_struct_declarator:
+                return visitStruct_declarator(tree, node);
+            case CParser.RULE_enum_specifier:
+                return visitEnum_specifier(tree, node);
+            case CParser.RULE_enumerator_list:
+                return visitEnumerator_list(tree, node);
+            case CParser.RULE_enumerator:
+                return visitEnumerator(tree, node);
+            case CParser.RULE_type_qualifier:
+                return visitType_qualifier(tree, node);
+            case CParser.RULE_function_specifier:
+                return visitFunction_specifier(tree, node);
+            case CParser.RULE_alignment_specifier:
+                return visitAlignment_specifier(tree, node);
+            case CParser.RULE_declarator:
+                return visitDeclarator(tree, node);
+            case CParser.RULE_direct_declarator:
+                return visitDirect_declarator(tree, node);
+            case CParser.RULE_pointer:
+                return visitPointer(tree, node);
+            case CParser.RULE_type_qualifier_list:
+                return visitType_qualifier_list(tree, node);
+            case CParser.RULE_parameter_type_list:
+                return visitParameter_type_list(tree, node);
+            case CParser.RULE_parameter_list:
+                return visitParameter_list(tree, node);
+            case CParser.RULE_parameter_declaration:
+                return visitParameter_declaration(tree, node);
+            case CParser.RULE_identifier_list:
+                return visitIdentifier_list(tree, node);
+            case CParser.RULE_type_name:
+                return visitType_name(tree, node);
+            case CParser.RULE_abstract_declarator:
+                return visitAbstract_declarator(tree, node);
+            case CParser.RULE_direct_abstract_declarator:
+                return visitDirect_abstract_declarator(tree, node);
+            case CParser.RULE_initializer:
+                return visitInitializer(tree, node);
+            case CParser.RULE_initializer_list:
+                return visitInitializer_list(tree, node);
+            case CParser.RULE_statement:
+                return visitStatement(tree, node);
+            case CParser.RULE_labeled_statement:
+                return visitLabeled_statement(tree, node);
+            case CParser.RULE_compound_statement:
+                return visitCompound_statement(tree, node);
+            case CParser.RULE_block_item_list:
+                return visitBlock_item_list(tree, node);
+            case CParser.RULE_block_item:
+                return visitBlock_item(tree, node);
+            case CParser.RULE_expression_statement:
+                return visitExpression_statement(tree, node);
+            case CParser.RULE_selection_statement:
+                return visitSelection_statement(tree, node);
+            case CParser.RULE_iteration_statement:
+                return visitIteration_statement(tree, node);
+            case CParser.RULE_jump_statement:
+                return visitJump_statement(tree, node);
+            case CParser.RULE_translation_unit:
+                return visitTranslation_unit(tree, node);
+            case CParser.RULE_external_declaration:
+                return visitExternal_declaration(tree, node);
+            case CParser.RULE_function_definition:
+                return visitFunction_definition(tree, node);
+            case CParser.RULE_declaration_list:
+                return visitDeclaration_list(tree, node);
+            default:
+                return visitChildren(tree, node);
+        }
+    }
+
+    @Override
+    public T visitChildren(FlatParseTree tree, int node) {
+        T result = defaultResult();
+        for (int c = tree.getFirstChild(node); c != FlatParseTree.NONE; c = tree.getNextSibling(c)) {
+            if (!shouldVisitNextChild(tree, node, result)) {
+                break;
+            }
+            result = aggregateResult(result, visit(tree, c));
+        }
+        return result;
+    }
+
+    @Override
+    public T visitTerminal(FlatParseTree tree, int node) {
+        return defaultResult();
+    }
+
+    @Override
+    public T visitErrorNode(FlatParseTree tree, int node) {
+        return defaultResult();
+    }
+
+    protected T defaultResult() {
+        return null;
+    }
+
+    protected T aggregateResult(T aggregate, T nextResult) {
+        return nextResult;
+    }
+
+    protected boolean shouldVisitNextChild(FlatParseTree tree, int node, T currentResult) {
+        return true;
+    }
+
+    @Override
+    public T visitPrimary_expression(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitPostfix_expression(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitArgument_expression_list(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitUnary_expression(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitUnary_operator(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitCast_expression(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitMultiplicative_expression(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitAdditive_expression(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitShift_expression(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitRelational_expression(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitEquality_expression(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitAnd_expression(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitExclusive_or_expression(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitInclusive_or_expression(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitLogical_and_expression(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitLogical_or_expression(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitConditional_expression(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitAssignment_expression(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitAssignment_operator(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitExpression(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitConstant_expression(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitDeclaration(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitDeclaration_specifiers(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitDeclaration_specifier(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitInit_declarator_list(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitInit_declarator(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitStorage_class_specifier(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitType_specifier(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitStruct_or_union_specifier(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitStruct_or_union(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitStruct_declaration_list(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitStruct_declaration(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitSpecifier_qualifier_list(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitStruct_declarator_list(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitStruct_declarator(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitEnum_specifier(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitEnumerator_list(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitEnumerator(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitType_qualifier(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitFunction_specifier(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitAlignment_specifier(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitDeclarator(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitDirect_declarator(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitPointer(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitType_qualifier_list(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitParameter_type_list(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitParameter_list(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitParameter_declaration(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitIdentifier_list(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitType_name(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitAbstract_declarator(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitDirect_abstract_declarator(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitInitializer(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitInitializer_list(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitStatement(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitLabeled_statement(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitCompound_statement(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitBlock_item_list(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitBlock_item(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitExpression_statement(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitSelection_statement(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitIteration_statement(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitJump_statement(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitTranslation_unit(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitExternal_declaration(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitFunction_definition(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+
+    @Override
+    public T visitDeclaration_list(FlatParseTree tree, int node) {
+        return visitChildren(tree, node);
+    }
+}
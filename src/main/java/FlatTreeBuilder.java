@@ -0,0 +1,59 @@
+import org.antlr.v4.runtime.BufferedTokenStream;
+
+/**
+ * Parse listener that moves the tree into a {@link FlatParseTree} while
+ * CParser is still running.
+ *
+ * Each external_declaration is copied into the flat tree as soon as it has
+ * been parsed and is then detached from the context tree, so at most one
+ * top-level declaration exists as ParserRuleContext objects at any time. The
+ * Translation_unitContext returned by the parser is left without children.
+ */
+public class FlatTreeBuilder extends CBaseListener {
+    private final BufferedTokenStream tokens;
+    private FlatParseTree tree;
+    private int root = FlatParseTree.NONE;
+
+    public FlatTreeBuilder(BufferedTokenStream tokens) {
+        this.tokens = tokens;
+    }
+
+    /** Parses a translation unit with {@code parser} straight into a flat tree. */
+    public static FlatParseTree parse(CParser parser) {
+        FlatTreeBuilder builder = new FlatTreeBuilder((BufferedTokenStream) parser.getTokenStream());
+        parser.setBuildParseTree(true);
+        parser.addParseListener(builder);
+        try {
+            parser.translation_unit();
+        } finally {
+            parser.removeParseListener(builder);
+        }
+        return builder.getTree();
+    }
+
+    public FlatParseTree getTree() {
+        return tree;
+    }
+
+    @Override
+    public void enterTranslation_unit(CParser.Translation_unitContext ctx) {
+        tree = new FlatParseTree(tokens.getTokens(), 1024);
+        root = tree.add(CParser.RULE_translation_unit, FlatParseTree.NONE, ctx.getStart().getTokenIndex(), -1);
+    }
+
+    @Override
+    public void exitExternal_declaration(CParser.External_declarationContext ctx) {
+        if (root == FlatParseTree.NONE) {
+            return;
+        }
+        tree.append(ctx, root);
+        ctx.getParent().removeLastChild();
+    }
+
+    @Override
+    public void exitTranslation_unit(CParser.Translation_unitContext ctx) {
+        if (root != FlatParseTree.NONE && ctx.getStop() != null) {
+            tree.setStop(root, ctx.getStop().getTokenIndex());
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Visitor over a {@link FlatParseTree}, with one method per {@link CParser}
+ * rule like {@link CVisitor}. Nodes are passed as indexes into the tree.
+ *
+ * @param <T> The return type of the visit operation. Use {@link Void} for
+ * operations with no return type.
+ */
+public interface FlatTreeVisitor<T> {
+    /** Dispatches to the method for the node's rule, terminal or error node. */
+    T visit(FlatParseTree tree, int node);
+
+    T visitChildren(FlatParseTree tree, int node);
+
+    T visitTerminal(FlatParseTree tree, int node);
+
+    T visitErrorNode(FlatParseTree tree, int node);
+
+    T visitPrimary_expression(FlatParseTree tree, int node);
+
+    T visitPostfix_expression(FlatParseTree tree, int node);
+
+    T visitArgument_expression_list(FlatParseTree tree, int node);
+
+    T visitUnary_expression(FlatParseTree tree, int node);
+
+    T visitUnary_operator(FlatParseTree tree, int node);
+
+    T visitCast_expression(FlatParseTree tree, int node);
+
+    T visitMultiplicative_expression(FlatParseTree tree, int node);
+
+    T visitAdditive_expression(FlatParseTree tree, int node);
+
+    T visitShift_expression(FlatParseTree tree, int node);
+
+    T visitRelational_expression(FlatParseTree tree, int node);
+
+    T visitEquality_expression(FlatParseTree tree, int node);
+
+    T visitAnd_expression(FlatParseTree tree, int node);
+
+    T visitExclusive_or_expression(FlatParseTree tree, int node);
+
+    T visitInclusive_or_expression(FlatParseTree tree, int node);
+
+    T visitLogical_and_expression(FlatParseTree tree, int node);
+
+    T visitLogical_or_expression(FlatParseTree tree, int node);
+
+    T visitConditional_expression(FlatParseTree tree, int node);
+
+    T visitAssignment_expression(FlatParseTree tree, int node);
+
+    T visitAssignment_operator(FlatParseTree tree, int node);
+
+    T visitExpression(FlatParseTree tree, int node);
+
+    T visitConstant_expression(FlatParseTree tree, int node);
+
+    T visitDeclaration(FlatParseTree tree, int node);
+
+    T visitDeclaration_specifiers(FlatParseTree tree, int node);
+
+    T visitDeclaration_specifier(FlatParseTree tree, int node);
+
+    T visitInit_declarator_list(FlatParseTree tree, int node);
+
+    T visitInit_declarator(FlatParseTree tree, int node);
+
+    T visitStorage_class_specifier(FlatParseTree tree, int node);
+
+    T visitType_specifier(FlatParseTree tree, int node);
+
+    T visitStruct_or_union_specifier(FlatParseTree tree, int node);
+
+    T visitStruct_or_union(FlatParseTree tree, int node);
+
+    T visitStruct_declaration_list(FlatParseTree tree, int node);
+
+    T visitStruct_declaration(FlatParseTree tree, int node);
+
+    T visitSpecifier_qualifier_list(FlatParseTree tree, int node);
+
+    T visitStruct_declarator_list(FlatParseTree tree, int node);
+
+    T visitStruct_declarator(FlatParseTree tree, int node);
+
+    T visitEnum_specifier(FlatParseTree tree, int node);
+
+    T visitEnumerator_list(FlatParseTree tree, int node);
+
+    T visitEnumerator(FlatParseTree tree, int node);
+
+    T visitType_qualifier(FlatParseTree tree, int node);
+
+    T visitFunction_specifier(FlatParseTree tree, int node);
+
+    T visitAlignment_specifier(FlatParseTree tree, int node);
+
+    T visitDeclarator(FlatParseTree tree, int node);
+
+    T visitDirect_declarator(FlatParseTree tree, int node);
+
+    T visitPointer(FlatParseTree tree, int node);
+
+    T visitType_qualifier_list(FlatParseTree tree, int node);
+
+    T visitParameter_type_list(FlatParseTree tree, int node);
+
+    T visitParameter_list(FlatParseTree tree, int node);
+
+    T visitParameter_declaration(FlatParseTree tree, int node);
+
+    T visitIdentifier_list(FlatParseTree tree, int node);
+
+    T visitType_name(FlatParseTree tree, int node);
+
+    T visitAbstract_declarator(FlatParseTree tree, int node);
+
+    T visitDirect_abstract_declarator(FlatParseTree tree, int node);
+
+    T visitInitializer(FlatParseTree tree, int node);
+
+    T visitInitializer_list(FlatParseTree tree, int node);
+
+    T visitStatement(FlatParseTree tree, int node);
+
+    T visitLabeled_statement(FlatParseTree tree, int node);
+
+    T visitCompound_statement(FlatParseTree tree, int node);
+
+    T visitBlock_item_list(FlatParseTree tree, int node);
+
+    T visitBlock_item(FlatParseTree tree, int node);
+
+    T visitExpression_statement(FlatParseTree tree, int node);
+
+    T visitSelection_statement(FlatParseTree tree, int node);
+
+    T visitIteration_statement(FlatParseTree tree, int node);
+
+    T visitJump_statement(FlatParseTree tree, int node);
+
+    T visitTranslation_unit(FlatParseTree tree, int node);
+
+    T visitExternal_declaration(FlatParseTree tree, int node);
+
+    T visitFunction_definition(FlatParseTree tree, int node);
+
+    T visitDeclaration_list(FlatParseTree tree, int node);
+}
@@ -0,0 +1,294 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Replaces direct calls by copies of the called function's code.
+ *
+ * The inliner runs on the module as the generator leaves it, before SSA
+ * construction, where a register may be assigned more than once: a copied
+ * parameter becomes a move from the argument, and each return a move to
+ * the call's result followed by a jump past the copy. The callee's
+ * registers and frame slots get fresh numbers in the caller, and its
+ * constants and call argument lists move into the caller's pools.
+ *
+ * Functions are visited bottom-up over the call graph, strongly connected
+ * components in the order Tarjan's algorithm finishes them, so a callee
+ * has already absorbed its own callees when it is measured and copied.
+ * Calls within a component, recursion included, are left alone. A call is
+ * inlined if the callee is a leaf of at most {@link #LEAF_SIZE}
+ * instructions, the accessors that dominate hot paths, or is declared
+ * {@code inline} and has at most {@link #INLINE_SIZE}; either way the
+ * caller stops growing at {@link #CALLER_SIZE}. The argument and result
+ * kinds must match the definition, which rules out calls through
+ * unprototyped declarations that disagree with it. A function of internal
+ * linkage, static or an inline definition, left with no references is
+ * dropped from the module.
+ */
+public final class Inliner {
+    /** Largest leaf function always inlined. */
+    static final int LEAF_SIZE = 24;
+    /** Largest {@code inline} function inlined. */
+    static final int INLINE_SIZE = 200;
+    /** Size past which a caller receives no more inlined code. */
+    static final int CALLER_SIZE = 10000;
+
+    private final IrModule module;
+    private final List<IrModule.Global> globals;
+    /** Strongly connected component of each global, for the functions visited so far. */
+    private final int[] component;
+    private int inlined;
+
+    private Inliner(IrModule module) {
+        this.module = module;
+        this.globals = module.getGlobals();
+        this.component = new int[globals.size()];
+    }
+
+    /** Inlines calls throughout {@code module} and returns how many were inlined. */
+    public static int run(IrModule module) {
+        Inliner inliner = new Inliner(module);
+        inliner.visitComponents();
+        inliner.dropUnreferenced();
+        return inliner.inlined;
+    }
+
+    // ------------------------------------------------------------ call graph
+
+    /** Tarjan's algorithm over the direct calls, with an explicit stack. */
+    private void visitComponents() {
+        int n = globals.size();
+        int[] index = new int[n];
+        int[] low = new int[n];
+        Arrays.fill(index, -1);
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n];
+        int top = 0;
+        int[] work = new int[n];
+        int[] position = new int[n];
+        int counter = 0;
+        int components = 0;
+        for (IrFunction root : module.getFunctions()) {
+            int r = indexOf(root);
+            if (index[r] >= 0) {
+                continue;
+            }
+            int depth = 0;
+            work[depth++] = r;
+            index[r] = low[r] = counter++;
+            stack[top++] = r;
+            onStack[r] = true;
+            while (depth > 0) {
+                int v = work[depth - 1];
+                IrFunction f = globals.get(v).getBody();
+                int w = -1;
+                while (w < 0 && position[v] < f.size()) {
+                    int i = position[v]++;
+                    if (f.op(i) == Ir.CALL && globals.get(f.a(i)).getBody() != null) {
+                        w = f.a(i);
+                    }
+                }
+                if (w < 0) {
+                    depth--;
+                    if (depth > 0) {
+                        int u = work[depth - 1];
+                        low[u] = Math.min(low[u], low[v]);
+                    }
+                    if (low[v] == index[v]) {
+                        int first = top;
+                        do {
+                            component[stack[--first]] = components;
+                        } while (stack[first] != v);
+                        for (int k = first; k < top; k++) {
+                            onStack[stack[k]] = false;
+                        }
+                        for (int k = first; k < top; k++) {
+                            inlineInto(globals.get(stack[k]).getBody());
+                        }
+                        top = first;
+                        components++;
+                    }
+                } else if (index[w] < 0) {
+                    index[w] = low[w] = counter++;
+                    stack[top++] = w;
+                    onStack[w] = true;
+                    work[depth++] = w;
+                } else if (onStack[w]) {
+                    low[v] = Math.min(low[v], index[w]);
+                }
+            }
+        }
+    }
+
+    private int indexOf(IrFunction f) {
+        return module.getGlobal(f.name).index;
+    }
+
+    // -------------------------------------------------------------- inlining
+
+    private boolean shouldInline(IrFunction caller, int call) {
+        IrModule.Global g = globals.get(caller.a(call));
+        IrFunction callee = g.getBody();
+        if (callee == null || component[g.index] == component[indexOf(caller)]
+                || caller.size() + callee.size() > CALLER_SIZE) {
+            return false;
+        }
+        if (caller.argCount(call) != callee.getParamCount()
+                || caller.dst(call) != Ir.NONE && caller.kind(call) != callee.getReturnKind()) {
+            return false;
+        }
+        for (int k = 0; k < callee.getParamCount(); k++) {
+            if (caller.argKind(call, k) != callee.getParamKind(k)) {
+                return false;
+            }
+        }
+        if (g.isInline()) {
+            return callee.size() <= INLINE_SIZE;
+        }
+        if (callee.size() > LEAF_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < callee.size(); i++) {
+            if (callee.op(i) == Ir.CALL || callee.op(i) == Ir.CALLI) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Re-lays {@code f} with every call worth inlining replaced by the callee's code. */
+    private void inlineInto(IrFunction f) {
+        int n = f.size();
+        boolean any = false;
+        for (int i = 0; i < n && !any; i++) {
+            any = f.op(i) == Ir.CALL && shouldInline(f, i);
+        }
+        if (!any) {
+            return;
+        }
+        int[] ops = new int[n];
+        int[] kinds = new int[n];
+        int[] dsts = new int[n];
+        int[] as = new int[n];
+        int[] bs = new int[n];
+        for (int i = 0; i < n; i++) {
+            ops[i] = f.op(i);
+            kinds[i] = f.kind(i);
+            dsts[i] = f.dst(i);
+            as[i] = f.a(i);
+            bs[i] = f.b(i);
+        }
+        f.truncate(0);
+        int[] newIndex = new int[n];
+        // the caller's own jumps, which still hold old indices
+        int[] jumps = new int[16];
+        int jumpCount = 0;
+        for (int i = 0; i < n; i++) {
+            newIndex[i] = f.size();
+            int at = f.emit(ops[i], kinds[i], dsts[i], as[i], bs[i]);
+            if (ops[i] == Ir.CALL && shouldInline(f, at)) {
+                f.truncate(at);
+                copy(f, globals.get(as[i]).getBody(), dsts[i], bs[i]);
+                inlined++;
+            } else if (f.targetCount(at) > 0) {
+                if (jumpCount == jumps.length) {
+                    jumps = Arrays.copyOf(jumps, jumpCount * 2);
+                }
+                jumps[jumpCount++] = at;
+            }
+        }
+        for (int k = 0; k < jumpCount; k++) {
+            int i = jumps[k];
+            for (int t = 0; t < f.targetCount(i); t++) {
+                f.setTarget(i, t, newIndex[f.target(i, t)]);
+            }
+        }
+    }
+
+    /** Appends the code of {@code callee} for a call with result {@code result} and argument list {@code args}. */
+    private static void copy(IrFunction f, IrFunction callee, int result, int args) {
+        int n = callee.size();
+        int[] registers = new int[callee.registerCount()];
+        for (int r = 0; r < registers.length; r++) {
+            registers[r] = f.newRegister(callee.registerKind(r));
+        }
+        int[] slots = new int[callee.slotCount()];
+        for (int s = 0; s < slots.length; s++) {
+            slots[s] = f.newSlot(callee.slotSize(s), callee.slotAlign(s));
+        }
+        int start = f.size();
+        int[] newIndex = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            newIndex[i] = f.size();
+            int op = callee.op(i);
+            int kind = callee.kind(i);
+            int dst = callee.dst(i);
+            if (Ir.defines(op) && dst >= 0) {
+                dst = registers[dst];
+            }
+            if (op == Ir.PARAM) {
+                f.emit(Ir.MOV, kind, dst, f.aux(args + 1 + 2 * callee.a(i)), Ir.NONE);
+                continue;
+            }
+            if (op == Ir.RET) {
+                if (result != Ir.NONE) {
+                    f.emit(Ir.MOV, kind, result, operand(f, callee, registers, callee.a(i)), Ir.NONE);
+                }
+                if (i < n - 1) {
+                    // a jump past the copy, patched below
+                    f.emit(Ir.JMP, Ir.VOID, n, Ir.NONE, Ir.NONE);
+                }
+                continue;
+            }
+            int at = f.emit(op, kind, dst, op == Ir.LOCAL ? slots[callee.a(i)] : callee.a(i), callee.b(i));
+            if (op == Ir.CALL || op == Ir.CALLI || op == Ir.PHI || op == Ir.SWITCH) {
+                int width = 1 + (op == Ir.CALL || op == Ir.CALLI ? 2 : 1) * callee.aux(callee.b(i));
+                int base = f.allocateAux(width);
+                for (int k = 0; k < width; k++) {
+                    f.setAux(base + k, callee.aux(callee.b(i) + k));
+                }
+                f.setB(at, base);
+            }
+            for (int k = 0; k < f.operandCount(at); k++) {
+                f.setOperand(at, k, operand(f, callee, registers, f.operand(at, k)));
+            }
+        }
+        newIndex[n] = f.size();
+        for (int i = start; i < f.size(); i++) {
+            for (int k = 0; k < f.targetCount(i); k++) {
+                f.setTarget(i, k, newIndex[f.target(i, k)]);
+            }
+        }
+    }
+
+    /** Operand {@code x} of the callee renumbered for the caller. */
+    private static int operand(IrFunction f, IrFunction callee, int[] registers, int x) {
+        if (Ir.isRegister(x)) {
+            return registers[x];
+        }
+        return Ir.isConstant(x) ? f.constant(callee.constantValue(x)) : x;
+    }
+
+    // --------------------------------------------------------------- cleanup
+
+    /** Removes static functions that no call, address or initializer mentions any more. */
+    private void dropUnreferenced() {
+        boolean[] referenced = new boolean[globals.size()];
+        for (IrFunction f : module.getFunctions()) {
+            for (int i = 0; i < f.size(); i++) {
+                if (f.op(i) == Ir.CALL || f.op(i) == Ir.GLOBAL) {
+                    referenced[f.a(i)] = true;
+                }
+            }
+        }
+        for (IrModule.Global g : globals) {
+            for (int k = 0; k < g.relocationCount(); k++) {
+                referenced[g.relocationTarget(k)] = true;
+            }
+        }
+        for (IrModule.Global g : globals) {
+            if (g.function && g.isLocal() && g.getBody() != null && !referenced[g.index]) {
+                module.undefine(g);
+            }
+        }
+    }
+}
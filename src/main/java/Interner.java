@@ -0,0 +1,88 @@
+import java.util.Arrays;
+
+/**
+ * Maps identifier spellings to dense ids 0, 1, 2, ... so that later tables
+ * can be keyed by int instead of String. Open addressing with linear
+ * probing; the table is kept at most half full.
+ */
+public final class Interner {
+    private String[] names = new String[64];
+    private int[] hashes = new int[64];
+    private int[] slots = new int[128];
+    private int size;
+
+    public Interner() {
+        Arrays.fill(slots, -1);
+    }
+
+    /** Returns the id of {@code name}, assigning the next free id on first use. */
+    public int intern(String name) {
+        int h = mix(name.hashCode());
+        int mask = slots.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            int id = slots[i];
+            if (id < 0) {
+                return add(name, h, i);
+            }
+            if (hashes[id] == h && names[id].equals(name)) {
+                return id;
+            }
+        }
+    }
+
+    /** Returns the id of {@code name}, or -1 if it has never been interned. */
+    public int find(String name) {
+        int h = mix(name.hashCode());
+        int mask = slots.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            int id = slots[i];
+            if (id < 0) {
+                return -1;
+            }
+            if (hashes[id] == h && names[id].equals(name)) {
+                return id;
+            }
+        }
+    }
+
+    public String name(int id) {
+        return names[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int add(String name, int h, int slot) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        int id = size++;
+        names[id] = name;
+        hashes[id] = h;
+        slots[slot] = id;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        Arrays.fill(slots, -1);
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int i = hashes[id] & mask;
+            while (slots[i] >= 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = id;
+        }
+    }
+
+    static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,493 @@
+/**
+ * Opcodes, value kinds and operand encoding of the three-address IR that
+ * {@link IrGenerator} builds and later passes rewrite.
+ *
+ * An instruction is a quadruple {@code op.kind dst, a, b} stored column-wise
+ * in an {@link IrFunction}, one int array per field. Operands {@code a} and
+ * {@code b} are virtual registers when non-negative and constants when
+ * negative: {@code -(i + 1)} is entry {@code i} of the function's constant
+ * pool. {@link #NONE} marks an absent operand. Jumps keep their target
+ * instruction index in {@code dst}; while a jump is still unresolved the
+ * generator threads its backpatch list through that same field.
+ *
+ * Registers hold 32-bit integers (every kind up to {@link #U32}, sign- or
+ * zero-extended as the kind says), 64-bit integers and pointers, floats or
+ * doubles; {@link #regKind} maps a kind to the register it lives in. A float
+ * is kept as its IEEE bits in the low half of a long, a double as its bits.
+ */
+public final class Ir {
+    private Ir() {
+    }
+
+    // ------------------------------------------------------------------ kinds
+
+    public static final int VOID = 0;
+    public static final int I8 = 1;
+    public static final int U8 = 2;
+    public static final int I16 = 3;
+    public static final int U16 = 4;
+    public static final int I32 = 5;
+    public static final int U32 = 6;
+    public static final int I64 = 7;
+    public static final int U64 = 8;
+    public static final int F32 = 9;
+    public static final int F64 = 10;
+
+    private static final String[] KIND_NAMES = {
+        "void", "i8", "u8", "i16", "u16", "i32", "u32", "i64", "u64", "f32", "f64"
+    };
+
+    public static String kindName(int kind) {
+        return KIND_NAMES[kind];
+    }
+
+    public static boolean isFloat(int kind) {
+        return kind == F32 || kind == F64;
+    }
+
+    public static boolean isSigned(int kind) {
+        return kind == I8 || kind == I16 || kind == I32 || kind == I64;
+    }
+
+    /** Size in bytes of a value of {@code kind} in memory. */
+    public static int size(int kind) {
+        switch (kind) {
+            case VOID:
+                return 0;
+            case I8:
+            case U8:
+                return 1;
+            case I16:
+            case U16:
+                return 2;
+            case I32:
+            case U32:
+            case F32:
+                return 4;
+            default:
+                return 8;
+        }
+    }
+
+    /** Kind of the register a value of {@code kind} is held in: I32, I64, F32 or F64. */
+    public static int regKind(int kind) {
+        switch (kind) {
+            case I64:
+            case U64:
+                return I64;
+            case F32:
+            case F64:
+                return kind;
+            default:
+                return I32;
+        }
+    }
+
+    /** Truncates {@code v} to {@code kind} and extends it back the way a register holds it. */
+    public static long normalize(long v, int kind) {
+        switch (kind) {
+            case I8:
+                return (byte) v;
+            case U8:
+                return v & 0xff;
+            case I16:
+                return (short) v;
+            case U16:
+                return v & 0xffff;
+            case I32:
+            case U32:
+            case F32:
+                return (int) v;
+            default:
+                return v;
+        }
+    }
+
+    /** What {@link #CONV} does to a register value of kind {@code from} to make one of kind {@code to}. */
+    public static long convert(long v, int from, int to) {
+        if (isFloat(from)) {
+            double d = from == F32 ? Float.intBitsToFloat((int) v) : Double.longBitsToDouble(v);
+            if (to == F32) {
+                return Float.floatToRawIntBits((float) d);
+            }
+            if (to == F64) {
+                return Double.doubleToRawLongBits(d);
+            }
+            if (to == U64 && d >= 0x1p63) {
+                return (long) (d - 0x1p63) ^ Long.MIN_VALUE;
+            }
+            return normalize((long) d, to);
+        }
+        if (from == U32) {
+            v &= 0xffffffffL;
+        }
+        if (to == F32) {
+            float x = from == U64 && v < 0 ? (float) ((v >>> 1) | (v & 1)) * 2 : (float) v;
+            return Float.floatToRawIntBits(x);
+        }
+        if (to == F64) {
+            double x = from == U64 && v < 0 ? (double) ((v >>> 1) | (v & 1)) * 2 : (double) v;
+            return Double.doubleToRawLongBits(x);
+        }
+        return normalize(v, to);
+    }
+
+    /** Whether {@link #fold} can evaluate {@code op}: integer division by zero is left to run time. */
+    public static boolean canFold(int op, int kind, long b) {
+        return op != DIV && op != REM || isFloat(kind) || b != 0;
+    }
+
+    /**
+     * {@code a op b} on register values of {@code kind} for {@link #MOV},
+     * the arithmetic, bitwise and shift operators, {@link #NEG}, {@link #NOT}
+     * and the comparisons, exactly as the instruction computes it at run
+     * time; {@code b} is ignored by the unary ones. Shift counts are taken
+     * modulo the width, as x86-64 does.
+     */
+    public static long fold(int op, int kind, long a, long b) {
+        if (isFloat(kind)) {
+            return kind == F32 ? foldFloat(op, a, b) : foldDouble(op, a, b);
+        }
+        boolean wide = regKind(kind) == I64;
+        boolean signed = isSigned(kind);
+        long r;
+        switch (op) {
+            case MOV:
+                r = a;
+                break;
+            case ADD:
+                r = a + b;
+                break;
+            case SUB:
+                r = a - b;
+                break;
+            case MUL:
+                r = a * b;
+                break;
+            case DIV:
+                if (wide) {
+                    r = signed ? a / b : Long.divideUnsigned(a, b);
+                } else {
+                    r = signed ? (int) a / (int) b : Integer.divideUnsigned((int) a, (int) b);
+                }
+                break;
+            case REM:
+                if (wide) {
+                    r = signed ? a % b : Long.remainderUnsigned(a, b);
+                } else {
+                    r = signed ? (int) a % (int) b : Integer.remainderUnsigned((int) a, (int) b);
+                }
+                break;
+            case AND:
+                r = a & b;
+                break;
+            case OR:
+                r = a | b;
+                break;
+            case XOR:
+                r = a ^ b;
+                break;
+            case SHL:
+                r = wide ? a << b : (int) a << b;
+                break;
+            case SHR:
+                if (wide) {
+                    r = signed ? a >> b : a >>> b;
+                } else {
+                    r = signed ? (int) a >> b : (int) a >>> b;
+                }
+                break;
+            case NEG:
+                r = -a;
+                break;
+            case NOT:
+                r = ~a;
+                break;
+            default: {
+                int c;
+                if (signed) {
+                    c = Long.compare(a, b);
+                } else {
+                    c = wide ? Long.compareUnsigned(a, b) : Integer.compareUnsigned((int) a, (int) b);
+                }
+                return compare(op, c) ? 1 : 0;
+            }
+        }
+        return normalize(r, kind);
+    }
+
+    private static boolean compare(int op, int c) {
+        switch (op) {
+            case EQ:
+                return c == 0;
+            case NE:
+                return c != 0;
+            case LT:
+                return c < 0;
+            case LE:
+                return c <= 0;
+            case GT:
+                return c > 0;
+            default:
+                return c >= 0;
+        }
+    }
+
+    private static long foldFloat(int op, long a, long b) {
+        float x = Float.intBitsToFloat((int) a);
+        float y = Float.intBitsToFloat((int) b);
+        float r;
+        switch (op) {
+            case MOV:
+                r = x;
+                break;
+            case ADD:
+                r = x + y;
+                break;
+            case SUB:
+                r = x - y;
+                break;
+            case MUL:
+                r = x * y;
+                break;
+            case DIV:
+                r = x / y;
+                break;
+            case NEG:
+                r = -x;
+                break;
+            default:
+                return foldDouble(op, Double.doubleToRawLongBits(x), Double.doubleToRawLongBits(y));
+        }
+        return Float.floatToRawIntBits(r);
+    }
+
+    private static long foldDouble(int op, long a, long b) {
+        double x = Double.longBitsToDouble(a);
+        double y = Double.longBitsToDouble(b);
+        double r;
+        switch (op) {
+            case MOV:
+                r = x;
+                break;
+            case ADD:
+                r = x + y;
+                break;
+            case SUB:
+                r = x - y;
+                break;
+            case MUL:
+                r = x * y;
+                break;
+            case DIV:
+                r = x / y;
+                break;
+            case NEG:
+                r = -x;
+                break;
+            case EQ:
+                return x == y ? 1 : 0;
+            case NE:
+                return x != y ? 1 : 0;
+            case LT:
+                return x < y ? 1 : 0;
+            case LE:
+                return x <= y ? 1 : 0;
+            case GT:
+                return x > y ? 1 : 0;
+            case GE:
+                return x >= y ? 1 : 0;
+            default:
+                throw new IllegalArgumentException(opName(op));
+        }
+        return Double.doubleToRawLongBits(r);
+    }
+
+    // -------------------------------------------------------------- operands
+
+    /** An absent operand, and the destination of instructions that define nothing. */
+    public static final int NONE = Integer.MIN_VALUE;
+
+    public static boolean isRegister(int operand) {
+        return operand >= 0;
+    }
+
+    public static boolean isConstant(int operand) {
+        return operand < 0 && operand != NONE;
+    }
+
+    // ---------------------------------------------------------------- opcodes
+
+    public static final int NOP = 0;
+    /** {@code dst = a} */
+    public static final int MOV = 1;
+    /** {@code dst = a op b}, both operands of the instruction's kind. */
+    public static final int ADD = 2;
+    public static final int SUB = 3;
+    public static final int MUL = 4;
+    public static final int DIV = 5;
+    public static final int REM = 6;
+    public static final int AND = 7;
+    public static final int OR = 8;
+    public static final int XOR = 9;
+    public static final int SHL = 10;
+    /** Arithmetic shift for signed kinds, logical for unsigned ones. */
+    public static final int SHR = 11;
+    /** {@code dst = -a} */
+    public static final int NEG = 12;
+    /** {@code dst = ~a} */
+    public static final int NOT = 13;
+    /** {@code dst = a op b ? 1 : 0} as an I32; the kind is the operands' kind. */
+    public static final int EQ = 14;
+    public static final int NE = 15;
+    public static final int LT = 16;
+    public static final int LE = 17;
+    public static final int GT = 18;
+    public static final int GE = 19;
+    /** {@code dst = a} converted from kind {@code b} (a kind, not an operand) to the instruction's kind. */
+    public static final int CONV = 20;
+    /** {@code dst = [a]} */
+    public static final int LOAD = 21;
+    /** {@code [a] = b} */
+    public static final int STORE = 22;
+    /** {@code dst = address of frame slot a} */
+    public static final int LOCAL = 23;
+    /** {@code dst = address of module global a} */
+    public static final int GLOBAL = 24;
+    /** {@code dst = incoming argument a} */
+    public static final int PARAM = 25;
+    /**
+     * {@code dst = a(args)}: a call of module global {@code a}. {@code b}
+     * indexes the auxiliary pool: the argument count, then an
+     * {@code (operand, kind)} pair per argument. The kind is the result's.
+     */
+    public static final int CALL = 26;
+    /** Like {@link #CALL}, through the function pointer in operand {@code a}. */
+    public static final int CALLI = 27;
+    /** {@code return a}; {@code a} is {@link #NONE} in a function returning void. */
+    public static final int RET = 28;
+    /** {@code goto dst} */
+    public static final int JMP = 29;
+    /** {@code if (a op b) goto dst}, in the same order as {@link #EQ} through {@link #GE}. */
+    public static final int JEQ = 30;
+    public static final int JNE = 31;
+    public static final int JLT = 32;
+    public static final int JLE = 33;
+    public static final int JGT = 34;
+    public static final int JGE = 35;
+    /**
+     * {@code dst = phi(...)}: at the start of a block in SSA form, the
+     * operand for the edge from the block's k-th predecessor. {@code b}
+     * indexes the auxiliary pool: the operand count, then the operands in
+     * {@link ControlFlowGraph} predecessor order.
+     */
+    public static final int PHI = 36;
+    /**
+     * {@code switch a}: jumps through a table indexed by {@code a}, which
+     * the code before it has checked to be in range. {@code b} indexes the
+     * auxiliary pool: the table length, then the target instruction of
+     * each entry.
+     */
+    public static final int SWITCH = 37;
+
+    private static final String[] OP_NAMES = {
+        "nop", "mov", "add", "sub", "mul", "div", "rem", "and", "or", "xor", "shl", "shr", "neg", "not",
+        "eq", "ne", "lt", "le", "gt", "ge", "conv", "load", "store", "local", "global", "param", "call", "calli",
+        "ret", "jmp", "jeq", "jne", "jlt", "jle", "jgt", "jge", "phi", "switch"
+    };
+
+    public static String opName(int op) {
+        return OP_NAMES[op];
+    }
+
+    public static boolean isCompare(int op) {
+        return op >= EQ && op <= GE;
+    }
+
+    public static boolean isBranch(int op) {
+        return op >= JEQ && op <= JGE;
+    }
+
+    public static boolean isJump(int op) {
+        return op == JMP || isBranch(op);
+    }
+
+    /** Whether control can leave the instruction other than by falling through to the next one. */
+    public static boolean endsBlock(int op) {
+        return op == RET || op == SWITCH || isJump(op);
+    }
+
+    /** The conditional jump that tests comparison {@code op}. */
+    public static int branchOf(int compare) {
+        return compare - EQ + JEQ;
+    }
+
+    /** The comparison conditional jump {@code op} tests. */
+    public static int compareOf(int branch) {
+        return branch - JEQ + EQ;
+    }
+
+    /** The comparison with its operands exchanged: {@code a < b} is {@code b > a}. */
+    public static int swapCompare(int op) {
+        switch (op) {
+            case LT:
+                return GT;
+            case GT:
+                return LT;
+            case LE:
+                return GE;
+            case GE:
+                return LE;
+            default:
+                return op;
+        }
+    }
+
+    /** The comparison that is true exactly when integer comparison {@code op} is false. */
+    public static int invertCompare(int op) {
+        switch (op) {
+            case EQ:
+                return NE;
+            case NE:
+                return EQ;
+            case LT:
+                return GE;
+            case GE:
+                return LT;
+            case LE:
+                return GT;
+            default:
+                return LE;
+        }
+    }
+
+    /**
+     * Whether field {@code a} of the instruction holds an operand, rather
+     * than a slot, global or parameter number or nothing. Call and phi
+     * operands are in the auxiliary pool instead.
+     */
+    public static boolean hasOperandA(int op) {
+        switch (op) {
+            case NOP:
+            case LOCAL:
+            case GLOBAL:
+            case PARAM:
+            case CALL:
+            case JMP:
+            case PHI:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /** Whether field {@code b} of the instruction holds an operand. */
+    public static boolean hasOperandB(int op) {
+        return op >= ADD && op <= SHR || isCompare(op) || op == STORE || isBranch(op);
+    }
+
+    /** Whether the instruction writes register {@code dst}. */
+    public static boolean defines(int op) {
+        return op != NOP && op != STORE && op != RET && op != SWITCH && !isJump(op);
+    }
+}
@@ -0,0 +1,512 @@
+import java.util.Arrays;
+
+/**
+ * The code of one function as a list of {@link Ir} quadruples.
+ *
+ * Instructions live in parallel int arrays, one per field, so a function of
+ * n instructions is five arrays rather than n objects, and passes walk them
+ * with plain index loops. Alongside are the constant pool, an auxiliary int
+ * pool for variable-length operand lists (call arguments and phi operands),
+ * the kinds of the virtual registers and the frame slots that hold
+ * address-taken and aggregate locals.
+ */
+public final class IrFunction {
+    public final IrModule module;
+    public final String name;
+    /** Kind of the returned value, {@link Ir#VOID} for none. */
+    private int returnKind;
+    private int[] paramKinds = new int[0];
+
+    private int[] ops = new int[64];
+    private int[] kinds = new int[64];
+    private int[] dsts = new int[64];
+    private int[] as = new int[64];
+    private int[] bs = new int[64];
+    private int size;
+
+    private long[] constants = new long[16];
+    private int constantCount;
+    /** Open-addressing index from constant value to pool entry + 1. */
+    private int[] constantIndex = new int[32];
+
+    private int[] aux = new int[16];
+    private int auxSize;
+
+    private int[] regKinds = new int[32];
+    private int regCount;
+
+    private long[] slotSizes = new long[8];
+    private int[] slotAligns = new int[8];
+    private int slotCount;
+
+    IrFunction(IrModule module, String name) {
+        this.module = module;
+        this.name = name;
+    }
+
+    public int getReturnKind() {
+        return returnKind;
+    }
+
+    public int getParamCount() {
+        return paramKinds.length;
+    }
+
+    public int getParamKind(int i) {
+        return paramKinds[i];
+    }
+
+    void setSignature(int returnKind, int[] paramKinds) {
+        this.returnKind = returnKind;
+        this.paramKinds = paramKinds.clone();
+    }
+
+    // ----------------------------------------------------------- instructions
+
+    public int size() {
+        return size;
+    }
+
+    /** Appends an instruction and returns its index. */
+    public int emit(int op, int kind, int dst, int a, int b) {
+        if (size == ops.length) {
+            int n = size * 2;
+            ops = Arrays.copyOf(ops, n);
+            kinds = Arrays.copyOf(kinds, n);
+            dsts = Arrays.copyOf(dsts, n);
+            as = Arrays.copyOf(as, n);
+            bs = Arrays.copyOf(bs, n);
+        }
+        ops[size] = op;
+        kinds[size] = kind;
+        dsts[size] = dst;
+        as[size] = a;
+        bs[size] = b;
+        return size++;
+    }
+
+    /** Drops every instruction from index {@code size} on. */
+    public void truncate(int size) {
+        this.size = size;
+    }
+
+    /** Turns instruction {@code i} into a {@link Ir#NOP} for {@link #removeNops} to delete. */
+    public void remove(int i) {
+        set(i, Ir.NOP, Ir.VOID, Ir.NONE, Ir.NONE, Ir.NONE);
+    }
+
+    /**
+     * Deletes {@link Ir#NOP}s and blocks unreachable from the entry, and
+     * retargets jumps. A reachable block left with only NOPs keeps one, so
+     * the remaining blocks and the order of their predecessors, which phi
+     * operands follow, do not change; a pass that removes edges drops the
+     * corresponding phi operands itself before calling this.
+     */
+    public void removeNops() {
+        ControlFlowGraph cfg = ControlFlowGraph.build(this);
+        int[] newIndex = new int[size + 1];
+        int n = 0;
+        for (int b = 0; b < cfg.blockCount(); b++) {
+            int start = cfg.start(b);
+            int end = cfg.end(b);
+            int first = n;
+            for (int i = start; i < end; i++) {
+                newIndex[i] = n;
+                if (cfg.isReachable(b) && (ops[i] != Ir.NOP || i == end - 1 && n == first)) {
+                    set(n++, ops[i], kinds[i], dsts[i], as[i], bs[i]);
+                }
+            }
+        }
+        newIndex[size] = n;
+        size = n;
+        for (int i = 0; i < size; i++) {
+            for (int k = 0; k < targetCount(i); k++) {
+                setTarget(i, k, newIndex[target(i, k)]);
+            }
+        }
+    }
+
+    public int op(int i) {
+        return ops[i];
+    }
+
+    public int kind(int i) {
+        return kinds[i];
+    }
+
+    public int dst(int i) {
+        return dsts[i];
+    }
+
+    public int a(int i) {
+        return as[i];
+    }
+
+    public int b(int i) {
+        return bs[i];
+    }
+
+    public void set(int i, int op, int kind, int dst, int a, int b) {
+        ops[i] = op;
+        kinds[i] = kind;
+        dsts[i] = dst;
+        as[i] = a;
+        bs[i] = b;
+    }
+
+    public void setOp(int i, int op) {
+        ops[i] = op;
+    }
+
+    public void setDst(int i, int dst) {
+        dsts[i] = dst;
+    }
+
+    public void setA(int i, int a) {
+        as[i] = a;
+    }
+
+    public void setB(int i, int b) {
+        bs[i] = b;
+    }
+
+    // -------------------------------------------------------------- constants
+
+    /** The operand for constant {@code value}; equal values share one pool entry. */
+    public int constant(long value) {
+        int mask = constantIndex.length - 1;
+        int i = Interner.mix(Long.hashCode(value)) & mask;
+        for (int e; (e = constantIndex[i]) != 0; i = (i + 1) & mask) {
+            if (constants[e - 1] == value) {
+                return -e;
+            }
+        }
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount++] = value;
+        constantIndex[i] = constantCount;
+        if (constantCount * 2 > constantIndex.length) {
+            rehashConstants();
+        }
+        return -constantCount;
+    }
+
+    private void rehashConstants() {
+        constantIndex = new int[constantIndex.length * 2];
+        int mask = constantIndex.length - 1;
+        for (int e = 1; e <= constantCount; e++) {
+            int i = Interner.mix(Long.hashCode(constants[e - 1])) & mask;
+            while (constantIndex[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            constantIndex[i] = e;
+        }
+    }
+
+    /** Value of a constant operand: the integer, or the bits of a float or double. */
+    public long constantValue(int operand) {
+        return constants[-operand - 1];
+    }
+
+    // ------------------------------------------------------------ aux pool
+
+    /** Reserves {@code n} auxiliary entries and returns the index of the first. */
+    public int allocateAux(int n) {
+        if (auxSize + n > aux.length) {
+            aux = Arrays.copyOf(aux, Math.max(aux.length * 2, auxSize + n));
+        }
+        int base = auxSize;
+        auxSize += n;
+        return base;
+    }
+
+    public int aux(int i) {
+        return aux[i];
+    }
+
+    public void setAux(int i, int value) {
+        aux[i] = value;
+    }
+
+    /** Number of arguments of a call. */
+    public int argCount(int call) {
+        return aux[bs[call]];
+    }
+
+    public int arg(int call, int i) {
+        return aux[bs[call] + 1 + 2 * i];
+    }
+
+    public int argKind(int call, int i) {
+        return aux[bs[call] + 2 + 2 * i];
+    }
+
+    public void setArg(int call, int i, int operand) {
+        aux[bs[call] + 1 + 2 * i] = operand;
+    }
+
+    /**
+     * Number of operands instruction {@code i} reads: {@code a} and {@code b}
+     * where they are operands, then the arguments of a call or a phi.
+     * Operand k of an instruction is {@link #operand}; passes that only
+     * look at values use these instead of the instruction layouts.
+     */
+    public int operandCount(int i) {
+        int op = ops[i];
+        int n = (Ir.hasOperandA(op) ? 1 : 0) + (Ir.hasOperandB(op) ? 1 : 0);
+        if (op == Ir.CALL || op == Ir.CALLI) {
+            n += argCount(i);
+        } else if (op == Ir.PHI) {
+            n += phiCount(i);
+        }
+        return n;
+    }
+
+    public int operand(int i, int k) {
+        int op = ops[i];
+        if (Ir.hasOperandA(op)) {
+            if (k == 0) {
+                return as[i];
+            }
+            k--;
+        }
+        if (Ir.hasOperandB(op)) {
+            if (k == 0) {
+                return bs[i];
+            }
+            k--;
+        }
+        return aux[extraSlot(i, k)];
+    }
+
+    public void setOperand(int i, int k, int operand) {
+        int op = ops[i];
+        if (Ir.hasOperandA(op)) {
+            if (k == 0) {
+                as[i] = operand;
+                return;
+            }
+            k--;
+        }
+        if (Ir.hasOperandB(op)) {
+            if (k == 0) {
+                bs[i] = operand;
+                return;
+            }
+            k--;
+        }
+        aux[extraSlot(i, k)] = operand;
+    }
+
+    /** Index in the aux pool of argument {@code k} of a call or phi. */
+    private int extraSlot(int i, int k) {
+        return ops[i] == Ir.PHI ? bs[i] + 1 + k : bs[i] + 1 + 2 * k;
+    }
+
+    /** Number of operands of a phi. */
+    public int phiCount(int phi) {
+        return aux[bs[phi]];
+    }
+
+    public int phiArg(int phi, int k) {
+        return aux[bs[phi] + 1 + k];
+    }
+
+    public void setPhiArg(int phi, int k, int operand) {
+        aux[bs[phi] + 1 + k] = operand;
+    }
+
+    /**
+     * Number of instructions control can jump to from instruction {@code i}:
+     * one for a jump, the table length for a switch, none otherwise.
+     * Passes that re-lay code retarget jumps through these.
+     */
+    public int targetCount(int i) {
+        if (ops[i] == Ir.SWITCH) {
+            return aux[bs[i]];
+        }
+        return Ir.isJump(ops[i]) ? 1 : 0;
+    }
+
+    public int target(int i, int k) {
+        return ops[i] == Ir.SWITCH ? aux[bs[i] + 1 + k] : dsts[i];
+    }
+
+    public void setTarget(int i, int k, int target) {
+        if (ops[i] == Ir.SWITCH) {
+            aux[bs[i] + 1 + k] = target;
+        } else {
+            dsts[i] = target;
+        }
+    }
+
+    // -------------------------------------------------------------- registers
+
+    public int newRegister(int kind) {
+        if (regCount == regKinds.length) {
+            regKinds = Arrays.copyOf(regKinds, regCount * 2);
+        }
+        regKinds[regCount] = Ir.regKind(kind);
+        return regCount++;
+    }
+
+    public int registerCount() {
+        return regCount;
+    }
+
+    /** Kind of the register: I32, I64, F32 or F64. */
+    public int registerKind(int r) {
+        return regKinds[r];
+    }
+
+    // ------------------------------------------------------------------ frame
+
+    public int newSlot(long size, int align) {
+        if (slotCount == slotSizes.length) {
+            slotSizes = Arrays.copyOf(slotSizes, slotCount * 2);
+            slotAligns = Arrays.copyOf(slotAligns, slotCount * 2);
+        }
+        slotSizes[slotCount] = size;
+        slotAligns[slotCount] = align;
+        return slotCount++;
+    }
+
+    public int slotCount() {
+        return slotCount;
+    }
+
+    public long slotSize(int slot) {
+        return slotSizes[slot];
+    }
+
+    public int slotAlign(int slot) {
+        return slotAligns[slot];
+    }
+
+    // --------------------------------------------------------------- listing
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(Ir.kindName(returnKind)).append(' ').append(name).append('(');
+        for (int i = 0; i < paramKinds.length; i++) {
+            sb.append(i == 0 ? "" : ", ").append(Ir.kindName(paramKinds[i]));
+        }
+        sb.append(")\n");
+        for (int s = 0; s < slotCount; s++) {
+            sb.append("  slot ").append(s).append(": ").append(slotSizes[s]).append(" align ")
+                    .append(slotAligns[s]).append('\n');
+        }
+        for (int i = 0; i < size; i++) {
+            sb.append(String.format("%5d: ", i));
+            format(sb, i);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** Appends the text of instruction {@code i}. */
+    public void format(StringBuilder sb, int i) {
+        int op = ops[i];
+        int kind = kinds[i];
+        if (Ir.defines(op) && dsts[i] >= 0) {
+            sb.append('r').append(dsts[i]).append(" = ");
+        }
+        sb.append(Ir.opName(op));
+        if (kind != Ir.VOID) {
+            sb.append('.').append(Ir.kindName(kind));
+        }
+        switch (op) {
+            case Ir.NOP:
+                break;
+            case Ir.CONV:
+                sb.append(' ');
+                operand(sb, as[i], bs[i]);
+                sb.append(" from ").append(Ir.kindName(bs[i]));
+                break;
+            case Ir.LOAD:
+                sb.append(" [");
+                operand(sb, as[i], Ir.U64);
+                sb.append(']');
+                break;
+            case Ir.STORE:
+                sb.append(" [");
+                operand(sb, as[i], Ir.U64);
+                sb.append("], ");
+                operand(sb, bs[i], kind);
+                break;
+            case Ir.LOCAL:
+                sb.append(" slot ").append(as[i]);
+                break;
+            case Ir.GLOBAL:
+                sb.append(" @").append(module.getGlobal(as[i]).name);
+                break;
+            case Ir.PARAM:
+                sb.append(' ').append(as[i]);
+                break;
+            case Ir.CALL:
+            case Ir.CALLI:
+                if (op == Ir.CALL) {
+                    sb.append(" @").append(module.getGlobal(as[i]).name);
+                } else {
+                    sb.append(' ');
+                    operand(sb, as[i], Ir.U64);
+                }
+                sb.append('(');
+                for (int k = 0; k < argCount(i); k++) {
+                    sb.append(k == 0 ? "" : ", ");
+                    operand(sb, arg(i, k), argKind(i, k));
+                }
+                sb.append(')');
+                break;
+            case Ir.JMP:
+                sb.append(' ').append(dsts[i]);
+                break;
+            case Ir.SWITCH:
+                sb.append(' ');
+                operand(sb, as[i], kind);
+                sb.append(" [");
+                for (int k = 0; k < targetCount(i); k++) {
+                    sb.append(k == 0 ? "" : ", ").append(target(i, k));
+                }
+                sb.append(']');
+                break;
+            case Ir.PHI:
+                sb.append(" [");
+                for (int k = 0; k < phiCount(i); k++) {
+                    sb.append(k == 0 ? "" : ", ");
+                    operand(sb, phiArg(i, k), kind);
+                }
+                sb.append(']');
+                break;
+            default:
+                if (as[i] != Ir.NONE) {
+                    sb.append(' ');
+                    operand(sb, as[i], kind);
+                }
+                if (bs[i] != Ir.NONE && !Ir.isJump(op) || Ir.isBranch(op)) {
+                    sb.append(", ");
+                    operand(sb, bs[i], kind);
+                }
+                if (Ir.isBranch(op)) {
+                    sb.append(" -> ").append(dsts[i]);
+                }
+                break;
+        }
+    }
+
+    private void operand(StringBuilder sb, int x, int kind) {
+        if (x == Ir.NONE) {
+            sb.append('_');
+        } else if (x >= 0) {
+            sb.append('r').append(x);
+        } else if (kind == Ir.F32) {
+            sb.append(Float.intBitsToFloat((int) constantValue(x)));
+        } else if (kind == Ir.F64) {
+            sb.append(Double.longBitsToDouble(constantValue(x)));
+        } else {
+            sb.append(constantValue(x));
+        }
+    }
+}
@@ -0,0 +1,1516 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Translates a checked translation unit into {@link Ir} three-address code:
+ * one {@link IrFunction} per function definition, plus the module globals
+ * for file-scope and static objects with their initial contents.
+ *
+ * Each body is generated in a single pass over its statements. A jump whose
+ * target has not been emitted yet (the exits of a condition, break, continue,
+ * a forward goto, the end of a then-branch) is emitted unresolved and linked
+ * into a backpatch list through its own dst field; when the target is
+ * reached the whole list is patched in one walk, so there are no label
+ * objects and no second pass. A statement returns the list of jumps that
+ * must go to whatever follows it.
+ *
+ * Scalar locals whose address is never taken live in virtual registers and
+ * are assigned in place; arrays, structs, unions and address-taken scalars
+ * get frame slots. A struct or union value is represented by its address:
+ * assignment copies with memcpy, an argument is passed by the address of
+ * the caller's value and copied on entry, and a function returning one
+ * writes it through a hidden first parameter. The unit must be free of
+ * name resolution and type errors.
+ *
+ * A function follows C99 6.7.4: when every file-scope declaration of it
+ * says {@code inline} and none says {@code extern}, its definition is an
+ * inline definition, which provides no external definition, and it is
+ * given internal linkage here, so callers this unit does not inline use a
+ * copy of their own and another unit's external definition is left alone.
+ */
+public final class IrGenerator {
+    /** Home of a symbol that has not been declared yet in the current function. */
+    private static final int UNASSIGNED = Ir.NONE;
+
+    private final NameResolver resolver;
+    private final TypeChecker checker;
+    private final Types types;
+    private final LayoutEngine layout;
+    private final ConstantEvaluator constants;
+    private final IrModule module = new IrModule();
+    private final List<String> errors = new ArrayList<>();
+    private final Ast.TranslationUnit unit;
+    /** Whether switches may use jump tables and range tests, or only compare case by case. */
+    private final boolean jumpTables;
+
+    /** Register of each local kept in one, or {@code -(slot + 1)} of each local in memory, by symbol id. */
+    private final int[] homes;
+    private final boolean[] addressTaken;
+    private final IrModule.Global[] globals;
+    private final int[] labelTargets;
+    /** Unresolved gotos to each label not emitted yet, by symbol id. */
+    private final int[] pendingGotos;
+    /** Functions declared somewhere without {@code inline} or with {@code extern}, by symbol id. */
+    private final boolean[] externallyDeclared;
+    private int staticCount;
+
+    private IrFunction f;
+    private Type returnType;
+    /** Register holding the hidden result pointer of a function returning a struct or union. */
+    private int structReturn;
+    /** Registers written more than once: locals and the results of conditional expressions. */
+    private boolean[] variables = new boolean[64];
+    private int breakList;
+    private int continueList;
+    private long[] caseValues = new long[16];
+    private int[] caseTargets = new int[16];
+    private int caseCount;
+    private int defaultTarget;
+    /** Exits of the last {@link #condition}. */
+    private int trueList;
+    private int falseList;
+    /** Bit-field selected by the last {@link #address}, or null, and its bit position in the storage unit. */
+    private Type.Field bitField;
+    private int bitOffset;
+
+    private IrGenerator(TypeChecker checker, boolean jumpTables) {
+        this.checker = checker;
+        this.jumpTables = jumpTables;
+        this.resolver = checker.getResolver();
+        this.types = checker.getTypes();
+        this.layout = checker.getLayout();
+        this.constants = checker.getConstants();
+        this.unit = resolver.getUnit();
+        int symbols = resolver.getSymbols().size();
+        this.homes = new int[symbols];
+        this.addressTaken = new boolean[symbols];
+        this.globals = new IrModule.Global[symbols];
+        this.labelTargets = new int[symbols];
+        this.pendingGotos = new int[symbols];
+        this.externallyDeclared = new boolean[symbols];
+        Arrays.fill(homes, UNASSIGNED);
+        Arrays.fill(labelTargets, -1);
+        Arrays.fill(pendingGotos, -1);
+    }
+
+    public static IrGenerator generate(TypeChecker checker) {
+        return generate(checker, true);
+    }
+
+    /**
+     * Generates as {@link #generate(TypeChecker)} does, but without
+     * {@code jumpTables} every switch dispatches by comparing the value
+     * with each case in turn, for measuring what the tables are worth.
+     */
+    static IrGenerator generate(TypeChecker checker, boolean jumpTables) {
+        if (!checker.getErrors().isEmpty() || !checker.getResolver().getErrors().isEmpty()) {
+            throw new IllegalArgumentException("translation unit has errors");
+        }
+        IrGenerator g = new IrGenerator(checker, jumpTables);
+        for (Ast.Decl d : g.unit.decls) {
+            if (d instanceof Ast.FunctionDecl) {
+                g.function((Ast.FunctionDecl) d);
+            } else if (d instanceof Ast.VarDecl) {
+                g.staticVariable((Ast.VarDecl) d);
+            }
+        }
+        g.inlineDefinitions();
+        return g;
+    }
+
+    public IrModule getModule() {
+        return module;
+    }
+
+    public List<String> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    private void error(Ast.Node at, String message) {
+        int offset = at.begin();
+        errors.add("line " + unit.line(offset) + ":" + unit.column(offset) + " " + message);
+    }
+
+    // ---------------------------------------------------------------- kinds
+
+    /** IR kind of a value of type {@code t}; aggregates, arrays and functions are handled by address. */
+    static int kindOf(Type t) {
+        switch (t.kind) {
+            case VOID:
+                return Ir.VOID;
+            case BOOL:
+            case UCHAR:
+                return Ir.U8;
+            case CHAR:
+            case SCHAR:
+                return Ir.I8;
+            case SHORT:
+                return Ir.I16;
+            case USHORT:
+                return Ir.U16;
+            case INT:
+                return Ir.I32;
+            case UINT:
+                return Ir.U32;
+            case LONG:
+            case LLONG:
+                return Ir.I64;
+            case FLOAT:
+                return Ir.F32;
+            case DOUBLE:
+            case LDOUBLE:
+                return Ir.F64;
+            default:
+                return Ir.U64;
+        }
+    }
+
+    private Type typeOf(Ast.Expr e) {
+        return checker.typeOf(e).unqualified();
+    }
+
+    /** Type of the value of {@code e}, after array and function decay. */
+    private Type valueType(Ast.Expr e) {
+        return types.decay(checker.typeOf(e)).unqualified();
+    }
+
+    // ------------------------------------------------------------- globals
+
+    private static boolean isStatic(Symbol s) {
+        if (s.isGlobal() || s.kind == Symbol.Kind.FUNCTION) {
+            return true;
+        }
+        return s.node instanceof Ast.VarDecl
+                && (((Ast.VarDecl) s.node).flags & (Ast.Decl.EXTERN | Ast.Decl.STATIC)) != 0;
+    }
+
+    /** The module global of a symbol with static storage duration or linkage. */
+    private IrModule.Global global(Symbol s) {
+        IrModule.Global g = globals[s.id];
+        if (g == null) {
+            boolean staticLocal = !s.isGlobal() && s.kind == Symbol.Kind.VARIABLE
+                    && (((Ast.VarDecl) s.node).flags & Ast.Decl.STATIC) != 0;
+            if (staticLocal) {
+                g = module.global(s.name + "." + ++staticCount, false);
+                g.local = true;
+            } else {
+                g = module.global(s.name, s.kind == Symbol.Kind.FUNCTION);
+            }
+            globals[s.id] = g;
+        }
+        return g;
+    }
+
+    private void staticVariable(Ast.VarDecl d) {
+        Symbol s = resolver.symbolOf(d);
+        IrModule.Global g = global(s);
+        if (s.isGlobal() && (d.flags & Ast.Decl.STATIC) != 0) {
+            g.local = true;
+        }
+        if ((d.flags & Ast.Decl.EXTERN) != 0 && d.init == null) {
+            return;
+        }
+        Type t = checker.typeOf(s);
+        g.defined = true;
+        g.size = Math.max(g.size, layout.sizeOf(t));
+        g.align = Math.max(g.align, layout.alignOf(t, checker.alignmentOf(s)));
+        if (d.init != null) {
+            if (g.data == null) {
+                g.data = new byte[(int) g.size];
+            }
+            staticInit(g, 0, t, d.init);
+        }
+    }
+
+    private void staticInit(IrModule.Global g, long offset, Type t, Ast.Expr init) {
+        t = t.unqualified();
+        if (t.kind == Type.Kind.ARRAY && init instanceof Ast.StringLiteral) {
+            Ast.StringLiteral s = (Ast.StringLiteral) init;
+            long n = Math.min(s.length(), t.length);
+            for (int i = 0; i < n; i++) {
+                g.data[(int) offset + i] = s.byteAt(i);
+            }
+            return;
+        }
+        if (!(init instanceof Ast.InitList)) {
+            staticScalar(g, offset, t, init, null, 0);
+            return;
+        }
+        List<Ast.Expr> items = ((Ast.InitList) init).items;
+        if (t.kind == Type.Kind.ARRAY) {
+            long size = layout.sizeOf(t.base);
+            for (int i = 0; i < items.size(); i++) {
+                staticInit(g, offset + i * size, t.base, items.get(i));
+            }
+        } else if (t.isRecord()) {
+            List<Type.Field> fields = t.getFields();
+            for (int i = 0; i < items.size(); i++) {
+                Type.Field field = fields.get(i);
+                long at = offset + layout.offsetOf(t, field);
+                if (field.bitWidth >= 0) {
+                    Ast.Expr item = items.get(i);
+                    while (item instanceof Ast.InitList) {
+                        item = ((Ast.InitList) item).items.get(0);
+                    }
+                    staticScalar(g, at, field.type.unqualified(), item, field, layout.bitOffsetOf(t, field));
+                } else {
+                    staticInit(g, at, field.type, items.get(i));
+                }
+            }
+        } else {
+            staticInit(g, offset, t, items.get(0));
+        }
+    }
+
+    /** Writes the value of constant {@code e} converted to scalar type {@code t}, or into a bit-field. */
+    private void staticScalar(IrModule.Global g, long offset, Type t, Ast.Expr e, Type.Field field, int bit) {
+        Type from = valueType(e);
+        int kind = kindOf(t);
+        long value;
+        if (from.isArithmetic() && constants.isConstant(e)) {
+            if (constants.isIntegerConstant(e)) {
+                value = Ir.convert(Ir.normalize(constants.longValue(e), kindOf(from)), kindOf(from), kind);
+            } else {
+                value = Ir.convert(Double.doubleToRawLongBits(constants.doubleValue(e)), Ir.F64, kind);
+            }
+            if (t.kind == Type.Kind.BOOL) {
+                value = constants.isIntegerConstant(e) ? (constants.longValue(e) != 0 ? 1 : 0)
+                        : (constants.doubleValue(e) != 0 ? 1 : 0);
+            }
+        } else if (addressConstant(e)) {
+            if (addressTarget >= 0) {
+                g.addRelocation(offset, addressTarget, addressAddend);
+                return;
+            }
+            value = addressAddend;
+        } else {
+            error(e, "initializer element is not a compile-time constant");
+            return;
+        }
+        int size = Ir.size(kind);
+        if (field != null) {
+            long unit = read(g.data, offset, size);
+            long mask = field.bitWidth == 64 ? -1 : (1L << field.bitWidth) - 1;
+            value = unit & ~(mask << bit) | (value & mask) << bit;
+        }
+        for (int i = 0; i < size; i++) {
+            g.data[(int) offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private static long read(byte[] data, long offset, int size) {
+        long v = 0;
+        for (int i = size - 1; i >= 0; i--) {
+            v = v << 8 | (data[(int) offset + i] & 0xff);
+        }
+        return v;
+    }
+
+    /** Global and addend of the last successful {@link #addressConstant}; the global is -1 for a plain integer. */
+    private int addressTarget;
+    private long addressAddend;
+
+    /** Whether pointer expression {@code e} is an address constant, C11 6.6p9. */
+    private boolean addressConstant(Ast.Expr e) {
+        if (e instanceof Ast.CastExpr) {
+            Ast.Expr operand = ((Ast.CastExpr) e).operand;
+            if (valueType(operand).isInteger() && constants.isIntegerConstant(operand)) {
+                addressTarget = -1;
+                addressAddend = constants.longValue(operand);
+                return true;
+            }
+            return addressConstant(operand);
+        }
+        if (valueType(e).isInteger() && constants.isIntegerConstant(e)) {
+            addressTarget = -1;
+            addressAddend = constants.longValue(e);
+            return true;
+        }
+        Type t = checker.typeOf(e);
+        if (t.kind == Type.Kind.ARRAY || t.kind == Type.Kind.FUNCTION) {
+            return objectConstant(e);
+        }
+        if (e instanceof Ast.UnaryExpr && ((Ast.UnaryExpr) e).op == Ast.UnaryOp.ADDRESS) {
+            return objectConstant(((Ast.UnaryExpr) e).operand);
+        }
+        if (e instanceof Ast.BinaryExpr) {
+            Ast.BinaryExpr b = (Ast.BinaryExpr) e;
+            if (b.op == Ast.BinaryOp.ADD || b.op == Ast.BinaryOp.SUB) {
+                boolean leftPointer = valueType(b.left).isPointer();
+                Ast.Expr pointer = leftPointer ? b.left : b.right;
+                Ast.Expr index = leftPointer ? b.right : b.left;
+                if (!valueType(index).isInteger() || !constants.isIntegerConstant(index)
+                        || !addressConstant(pointer)) {
+                    return false;
+                }
+                long delta = constants.longValue(index) * layout.sizeOf(valueType(pointer).base);
+                addressAddend += b.op == Ast.BinaryOp.SUB ? -delta : delta;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Whether lvalue {@code e} designates an object or function with a constant address. */
+    private boolean objectConstant(Ast.Expr e) {
+        if (e instanceof Ast.NameExpr) {
+            Symbol s = resolver.symbolOf((Ast.NameExpr) e);
+            if (!isStatic(s)) {
+                return false;
+            }
+            addressTarget = global(s).index;
+            addressAddend = 0;
+            return true;
+        }
+        if (e instanceof Ast.StringLiteral) {
+            addressTarget = module.string(((Ast.StringLiteral) e).toByteArray()).index;
+            addressAddend = 0;
+            return true;
+        }
+        if (e instanceof Ast.MemberExpr) {
+            Ast.MemberExpr m = (Ast.MemberExpr) e;
+            Type.Field field = checker.fieldOf(m);
+            if (field.bitWidth >= 0 || !(m.arrow ? addressConstant(m.base) : objectConstant(m.base))) {
+                return false;
+            }
+            Type record = m.arrow ? valueType(m.base).base.unqualified() : typeOf(m.base);
+            addressAddend += layout.offsetOf(record, field);
+            return true;
+        }
+        if (e instanceof Ast.IndexExpr) {
+            Ast.IndexExpr x = (Ast.IndexExpr) e;
+            boolean basePointer = valueType(x.base).isPointer();
+            Ast.Expr pointer = basePointer ? x.base : x.index;
+            Ast.Expr index = basePointer ? x.index : x.base;
+            if (!constants.isIntegerConstant(index) || !addressConstant(pointer)) {
+                return false;
+            }
+            addressAddend += constants.longValue(index) * layout.sizeOf(typeOf(e));
+            return true;
+        }
+        if (e instanceof Ast.UnaryExpr && ((Ast.UnaryExpr) e).op == Ast.UnaryOp.DEREF) {
+            return addressConstant(((Ast.UnaryExpr) e).operand);
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------ functions
+
+    /** Gives the inline definitions internal linkage, once all declarations have been seen. */
+    private void inlineDefinitions() {
+        for (int id = 0; id < globals.length; id++) {
+            IrModule.Global g = globals[id];
+            if (g != null && g.function && g.getBody() != null && !externallyDeclared[id]) {
+                g.local = true;
+            }
+        }
+    }
+
+    private void function(Ast.FunctionDecl d) {
+        Symbol s = resolver.symbolOf(d);
+        IrModule.Global g = global(s);
+        if ((d.flags & Ast.Decl.STATIC) != 0) {
+            g.local = true;
+        }
+        if ((d.flags & Ast.Decl.INLINE) != 0) {
+            g.inline = true;
+        }
+        if ((d.flags & Ast.Decl.INLINE) == 0 || (d.flags & Ast.Decl.EXTERN) != 0) {
+            externallyDeclared[s.id] = true;
+        }
+        if (d.body == null) {
+            return;
+        }
+        f = module.define(g);
+        returnType = checker.typeOf(s).base.unqualified();
+        breakList = -1;
+        continueList = -1;
+        defaultTarget = -1;
+        structReturn = Ir.NONE;
+        Arrays.fill(variables, false);
+        markAddressTaken(d.body);
+
+        int hidden = returnType.isRecord() ? 1 : 0;
+        int[] paramKinds = new int[hidden + d.type.params.size()];
+        if (hidden != 0) {
+            structReturn = newVariable(Ir.U64);
+            paramKinds[0] = Ir.U64;
+            f.emit(Ir.PARAM, Ir.U64, structReturn, 0, Ir.NONE);
+        }
+        for (int i = 0; i < d.type.params.size(); i++) {
+            Ast.ParamDecl p = d.type.params.get(i);
+            Symbol ps = resolver.symbolOf(p);
+            Type t = checker.typeOf(s).getParam(i).unqualified();
+            int kind = kindOf(t);
+            paramKinds[hidden + i] = kind;
+            int r = newVariable(kind);
+            f.emit(Ir.PARAM, kind, r, hidden + i, Ir.NONE);
+            if (ps == null) {
+                continue;
+            }
+            if (t.isRecord() || addressTaken[ps.id]) {
+                int slot = newSlot(ps, checker.typeOf(ps));
+                if (t.isRecord()) {
+                    copy(slotAddress(slot), r, layout.sizeOf(t));
+                } else {
+                    f.emit(Ir.STORE, kind, Ir.NONE, slotAddress(slot), r);
+                }
+            } else {
+                homes[ps.id] = r;
+            }
+        }
+        f.setSignature(hidden != 0 ? Ir.U64 : kindOf(returnType), paramKinds);
+        if (f.size() == 0) {
+            // a label on the first statement must not make the entry block a jump target
+            f.emit(Ir.NOP, Ir.VOID, Ir.NONE, Ir.NONE, Ir.NONE);
+        }
+
+        backpatch(statement(d.body), f.size());
+        if (returnType.isVoid()) {
+            f.emit(Ir.RET, Ir.VOID, Ir.NONE, Ir.NONE, Ir.NONE);
+        } else if (hidden != 0) {
+            f.emit(Ir.RET, Ir.U64, Ir.NONE, structReturn, Ir.NONE);
+        } else {
+            // C11 5.1.2.2.3: reaching the end of main returns 0; elsewhere the value is unspecified
+            f.emit(Ir.RET, kindOf(returnType), Ir.NONE, f.constant(0), Ir.NONE);
+        }
+        f = null;
+    }
+
+    /** Marks the locals whose address is taken, which must live in memory. */
+    private void markAddressTaken(Ast.CompoundStmt body) {
+        body.accept(new Ast.Scanner<Void>() {
+            @Override
+            public Void visitUnaryExpr(Ast.UnaryExpr n) {
+                if (n.op == Ast.UnaryOp.ADDRESS && n.operand instanceof Ast.NameExpr) {
+                    Symbol s = resolver.symbolOf((Ast.NameExpr) n.operand);
+                    if (s != null) {
+                        addressTaken[s.id] = true;
+                    }
+                }
+                return super.visitUnaryExpr(n);
+            }
+        });
+    }
+
+    private int newSlot(Symbol s, Type t) {
+        int slot = f.newSlot(layout.sizeOf(t), layout.alignOf(t, checker.alignmentOf(s)));
+        homes[s.id] = -(slot + 1);
+        return slot;
+    }
+
+    private int temp(int kind) {
+        return f.newRegister(kind);
+    }
+
+    private int newVariable(int kind) {
+        int r = f.newRegister(kind);
+        if (r >= variables.length) {
+            variables = Arrays.copyOf(variables, Math.max(r + 1, variables.length * 2));
+        }
+        variables[r] = true;
+        return r;
+    }
+
+    private boolean isVariable(int r) {
+        return r < variables.length && variables[r];
+    }
+
+    // ------------------------------------------------------------ backpatching
+
+    /** Emits an unresolved jump and returns the list holding just it. */
+    private int jump(int op, int kind, int a, int b) {
+        return f.emit(op, kind, -1, a, b);
+    }
+
+    private int jump() {
+        return jump(Ir.JMP, Ir.VOID, Ir.NONE, Ir.NONE);
+    }
+
+    /** Concatenates two backpatch lists; cheapest when {@code first} is the short one. */
+    private int merge(int first, int second) {
+        if (first < 0) {
+            return second;
+        }
+        if (second >= 0) {
+            int last = first;
+            while (f.dst(last) >= 0) {
+                last = f.dst(last);
+            }
+            f.setDst(last, second);
+        }
+        return first;
+    }
+
+    /** Points every jump on {@code list} at {@code target}. */
+    private void backpatch(int list, int target) {
+        while (list >= 0) {
+            int next = f.dst(list);
+            f.setDst(list, target);
+            list = next;
+        }
+    }
+
+    // ----------------------------------------------------------- statements
+
+    /** Generates {@code s} and returns the list of jumps to the statement that follows it. */
+    private int statement(Ast.Stmt s) {
+        if (s instanceof Ast.CompoundStmt) {
+            int next = -1;
+            for (Ast.Stmt item : ((Ast.CompoundStmt) s).items) {
+                backpatch(next, f.size());
+                next = statement(item);
+            }
+            return next;
+        }
+        if (s instanceof Ast.DeclStmt) {
+            for (Ast.Decl d : ((Ast.DeclStmt) s).decls) {
+                if (d instanceof Ast.VarDecl) {
+                    local((Ast.VarDecl) d);
+                }
+            }
+            return -1;
+        }
+        if (s instanceof Ast.ExprStmt) {
+            Ast.Expr e = ((Ast.ExprStmt) s).expr;
+            if (e != null) {
+                effect(e);
+            }
+            return -1;
+        }
+        if (s instanceof Ast.IfStmt) {
+            Ast.IfStmt n = (Ast.IfStmt) s;
+            condition(n.cond);
+            enterTrue();
+            int otherwise = falseList;
+            int next = statement(n.then);
+            if (n.otherwise == null) {
+                return merge(otherwise, next);
+            }
+            next = merge(jump(), next);
+            backpatch(otherwise, f.size());
+            return merge(next, statement(n.otherwise));
+        }
+        if (s instanceof Ast.WhileStmt) {
+            Ast.WhileStmt n = (Ast.WhileStmt) s;
+            int begin = f.size();
+            condition(n.cond);
+            enterTrue();
+            int exit = falseList;
+            int next = loopBody(n.body, begin);
+            backpatch(next, begin);
+            f.emit(Ir.JMP, Ir.VOID, begin, Ir.NONE, Ir.NONE);
+            return merge(exit, takeBreaks());
+        }
+        if (s instanceof Ast.DoWhileStmt) {
+            Ast.DoWhileStmt n = (Ast.DoWhileStmt) s;
+            int begin = f.size();
+            int outerContinue = continueList;
+            int outerBreak = breakList;
+            continueList = -1;
+            breakList = -1;
+            int next = statement(n.body);
+            backpatch(merge(next, continueList), f.size());
+            continueList = outerContinue;
+            condition(n.cond);
+            enterFalse();
+            backpatch(trueList, begin);
+            int exit = breakList;
+            breakList = outerBreak;
+            return exit;
+        }
+        if (s instanceof Ast.ForStmt) {
+            Ast.ForStmt n = (Ast.ForStmt) s;
+            if (n.init != null) {
+                effect(n.init);
+            }
+            int begin = f.size();
+            int exit = -1;
+            if (n.cond != null) {
+                condition(n.cond);
+                enterTrue();
+                exit = falseList;
+            }
+            int step = n.step == null ? begin : -1;
+            int next = loopBody(n.body, step);
+            if (n.step != null) {
+                backpatch(next, f.size());
+                backpatch(continueTargets, f.size());
+                effect(n.step);
+            } else {
+                backpatch(next, begin);
+            }
+            f.emit(Ir.JMP, Ir.VOID, begin, Ir.NONE, Ir.NONE);
+            return merge(exit, takeBreaks());
+        }
+        if (s instanceof Ast.SwitchStmt) {
+            return switchStatement((Ast.SwitchStmt) s);
+        }
+        if (s instanceof Ast.LabeledStmt) {
+            Ast.LabeledStmt n = (Ast.LabeledStmt) s;
+            Symbol label = resolver.labelOf(n);
+            labelTargets[label.id] = f.size();
+            backpatch(pendingGotos[label.id], f.size());
+            pendingGotos[label.id] = -1;
+            return statement(n.body);
+        }
+        if (s instanceof Ast.CaseStmt) {
+            Ast.CaseStmt n = (Ast.CaseStmt) s;
+            if (caseCount == caseValues.length) {
+                caseValues = Arrays.copyOf(caseValues, caseCount * 2);
+                caseTargets = Arrays.copyOf(caseTargets, caseCount * 2);
+            }
+            caseValues[caseCount] = constants.longValue(n.value);
+            caseTargets[caseCount++] = f.size();
+            return statement(n.body);
+        }
+        if (s instanceof Ast.DefaultStmt) {
+            defaultTarget = f.size();
+            return statement(((Ast.DefaultStmt) s).body);
+        }
+        if (s instanceof Ast.GotoStmt) {
+            Symbol label = resolver.labelOf((Ast.GotoStmt) s);
+            if (labelTargets[label.id] >= 0) {
+                f.emit(Ir.JMP, Ir.VOID, labelTargets[label.id], Ir.NONE, Ir.NONE);
+            } else {
+                pendingGotos[label.id] = merge(jump(), pendingGotos[label.id]);
+            }
+            return -1;
+        }
+        if (s instanceof Ast.BreakStmt) {
+            breakList = merge(jump(), breakList);
+            return -1;
+        }
+        if (s instanceof Ast.ContinueStmt) {
+            continueList = merge(jump(), continueList);
+            return -1;
+        }
+        Ast.ReturnStmt n = (Ast.ReturnStmt) s;
+        if (n.value == null || returnType.isVoid()) {
+            if (n.value != null) {
+                effect(n.value);
+            }
+            f.emit(Ir.RET, Ir.VOID, Ir.NONE, Ir.NONE, Ir.NONE);
+        } else if (returnType.isRecord()) {
+            copy(structReturn, value(n.value), layout.sizeOf(returnType));
+            f.emit(Ir.RET, Ir.U64, Ir.NONE, structReturn, Ir.NONE);
+        } else {
+            int v = convert(value(n.value), valueType(n.value), returnType);
+            f.emit(Ir.RET, kindOf(returnType), Ir.NONE, v, Ir.NONE);
+        }
+        return -1;
+    }
+
+    /** Continue jumps of the loop body just generated, for a for statement to patch to its step. */
+    private int continueTargets;
+    private int loopBreaks;
+
+    /**
+     * Generates a loop body with fresh break and continue lists. Continues
+     * go to {@code continueTarget}, or when that is -1 are left in
+     * {@link #continueTargets}; breaks are left for {@link #takeBreaks}.
+     */
+    private int loopBody(Ast.Stmt body, int continueTarget) {
+        int outerContinue = continueList;
+        int outerBreak = breakList;
+        continueList = -1;
+        breakList = -1;
+        int next = statement(body);
+        if (continueTarget >= 0) {
+            backpatch(continueList, continueTarget);
+            continueTargets = -1;
+        } else {
+            continueTargets = continueList;
+        }
+        loopBreaks = breakList;
+        continueList = outerContinue;
+        breakList = outerBreak;
+        return next;
+    }
+
+    private int takeBreaks() {
+        int breaks = loopBreaks;
+        loopBreaks = -1;
+        return breaks;
+    }
+
+    /**
+     * The controlling value is computed and a jump to the dispatch emitted;
+     * the body follows with each case label recording its position, and the
+     * dispatch comes last, once every case target is known, as jump tables
+     * and compares chosen by {@link SwitchLowering}. Without a default, the
+     * values no case matches go to a jump out of the switch placed just
+     * before the dispatch.
+     */
+    private int switchStatement(Ast.SwitchStmt n) {
+        Type t = Types.promote(valueType(n.cond));
+        int kind = kindOf(t);
+        int v = convert(value(n.cond), valueType(n.cond), t);
+        int dispatch = jump();
+        int outerBreak = breakList;
+        int outerDefault = defaultTarget;
+        int firstCase = caseCount;
+        breakList = -1;
+        defaultTarget = -1;
+        int next = statement(n.body);
+        int exit = merge(jump(), merge(next, breakList));
+        int unmatched = defaultTarget;
+        if (unmatched < 0) {
+            unmatched = f.size();
+            exit = merge(jump(), exit);
+        }
+        backpatch(dispatch, f.size());
+        if (jumpTables) {
+            SwitchLowering.lower(f, kind, v, caseValues, caseTargets, firstCase, caseCount, unmatched);
+        } else {
+            SwitchLowering.compareEach(f, kind, v, caseValues, caseTargets, firstCase, caseCount, unmatched);
+        }
+        caseCount = firstCase;
+        breakList = outerBreak;
+        defaultTarget = outerDefault;
+        return exit;
+    }
+
+    /**
+     * Generates jump code for a controlling expression, leaving its exits in
+     * {@link #trueList} and {@link #falseList}. {@code &&}, {@code ||} and
+     * {@code !} only combine the lists of their operands, and a comparison
+     * becomes a single conditional jump, so no 0/1 value is computed.
+     */
+    private void condition(Ast.Expr e) {
+        Type t = valueType(e);
+        if (t.isArithmetic() && constants.isConstant(e)) {
+            boolean taken = constants.isIntegerConstant(e) ? constants.longValue(e) != 0 : constants.doubleValue(e) != 0;
+            trueList = taken ? jump() : -1;
+            falseList = taken ? -1 : jump();
+            return;
+        }
+        if (e instanceof Ast.UnaryExpr && ((Ast.UnaryExpr) e).op == Ast.UnaryOp.NOT) {
+            condition(((Ast.UnaryExpr) e).operand);
+            int swap = trueList;
+            trueList = falseList;
+            falseList = swap;
+            return;
+        }
+        if (e instanceof Ast.BinaryExpr) {
+            Ast.BinaryExpr b = (Ast.BinaryExpr) e;
+            if (b.op == Ast.BinaryOp.AND) {
+                condition(b.left);
+                enterTrue();
+                int leftFalse = falseList;
+                condition(b.right);
+                falseList = merge(falseList, leftFalse);
+                return;
+            }
+            if (b.op == Ast.BinaryOp.OR) {
+                condition(b.left);
+                enterFalse();
+                int leftTrue = trueList;
+                condition(b.right);
+                trueList = merge(trueList, leftTrue);
+                return;
+            }
+            if (b.op == Ast.BinaryOp.COMMA) {
+                effect(b.left);
+                condition(b.right);
+                return;
+            }
+            if (b.op.isComparison()) {
+                Type lt = valueType(b.left);
+                Type rt = valueType(b.right);
+                Type common = lt.isArithmetic() && rt.isArithmetic() ? Types.usualArithmetic(lt, rt) : Type.ULONG;
+                int l = convert(value(b.left), lt, common);
+                int r = convert(value(b.right), rt, common);
+                trueList = jump(Ir.branchOf(opOf(b.op)), kindOf(common), l, r);
+                falseList = jump();
+                return;
+            }
+        }
+        int v = value(e);
+        trueList = jump(Ir.JNE, kindOf(t), v, f.constant(0));
+        falseList = jump();
+    }
+
+    /** Makes the true exits of the last {@link #condition} continue at the next instruction. */
+    private void enterTrue() {
+        fallThrough();
+        backpatch(trueList, f.size());
+        trueList = -1;
+    }
+
+    /** Makes the false exits of the last {@link #condition} continue at the next instruction. */
+    private void enterFalse() {
+        int swap = trueList;
+        trueList = falseList;
+        falseList = swap;
+        enterTrue();
+        trueList = falseList;
+        falseList = -1;
+    }
+
+    /**
+     * Removes a jump to the next instruction from the end of the true list.
+     * When the code ends in "branch to true; jump to false", the branch is
+     * inverted to go to false instead and the jump dropped; floating-point
+     * comparisons are left alone, since with NaN operands the inverse of
+     * {@code a < b} is not {@code a >= b}. Unresolved jumps are list heads
+     * when they are the newest, which is how {@link #merge} is called here.
+     */
+    private void fallThrough() {
+        int last = f.size() - 1;
+        if (last < 0 || f.op(last) != Ir.JMP) {
+            return;
+        }
+        if (trueList == last) {
+            trueList = f.dst(last);
+            f.truncate(last);
+        } else if (falseList == last && trueList == last - 1 && f.dst(trueList) < 0
+                && Ir.isBranch(f.op(trueList)) && !Ir.isFloat(f.kind(trueList))) {
+            f.setOp(trueList, Ir.branchOf(Ir.invertCompare(Ir.compareOf(f.op(trueList)))));
+            f.setDst(trueList, f.dst(last));
+            falseList = trueList;
+            trueList = -1;
+            f.truncate(last);
+        }
+    }
+
+    private void local(Ast.VarDecl d) {
+        Symbol s = resolver.symbolOf(d);
+        if (isStatic(s)) {
+            staticVariable(d);
+            return;
+        }
+        Type t = checker.typeOf(s).unqualified();
+        if (t.isScalar() && !addressTaken[s.id]) {
+            int r = newVariable(kindOf(t));
+            homes[s.id] = r;
+            if (d.init != null) {
+                Ast.Expr init = d.init;
+                while (init instanceof Ast.InitList) {
+                    init = ((Ast.InitList) init).items.get(0);
+                }
+                move(r, convert(value(init), valueType(init), t));
+            }
+            return;
+        }
+        if (t.kind == Type.Kind.ARRAY && t.length < 0) {
+            error(d, "variable length array '" + d.name + "' is not supported");
+        }
+        int slot = newSlot(s, t);
+        if (d.init == null) {
+            return;
+        }
+        int address = slotAddress(slot);
+        if (d.init instanceof Ast.InitList || t.kind == Type.Kind.ARRAY) {
+            if (!t.isScalar()) {
+                call("memset", Ir.U64, new int[] {address, f.constant(0), f.constant(layout.sizeOf(t))},
+                        new int[] {Ir.U64, Ir.I32, Ir.U64});
+            }
+            initialize(address, t, d.init);
+        } else if (t.isRecord()) {
+            copy(address, value(d.init), layout.sizeOf(t));
+        } else {
+            f.emit(Ir.STORE, kindOf(t), Ir.NONE, address, convert(value(d.init), valueType(d.init), t));
+        }
+    }
+
+    /** Stores the items of an initializer into zeroed memory at {@code address}. */
+    private void initialize(int address, Type t, Ast.Expr init) {
+        t = t.unqualified();
+        if (t.kind == Type.Kind.ARRAY && init instanceof Ast.StringLiteral) {
+            Ast.StringLiteral s = (Ast.StringLiteral) init;
+            int string = temp(Ir.U64);
+            f.emit(Ir.GLOBAL, Ir.U64, string, module.string(s.toByteArray()).index, Ir.NONE);
+            copy(address, string, Math.min(s.length() + 1, t.length));
+            return;
+        }
+        if (!(init instanceof Ast.InitList)) {
+            if (t.isRecord()) {
+                copy(address, value(init), layout.sizeOf(t));
+            } else {
+                f.emit(Ir.STORE, kindOf(t), Ir.NONE, address, convert(value(init), valueType(init), t));
+            }
+            return;
+        }
+        List<Ast.Expr> items = ((Ast.InitList) init).items;
+        if (t.kind == Type.Kind.ARRAY) {
+            long size = layout.sizeOf(t.base);
+            for (int i = 0; i < items.size(); i++) {
+                initialize(offset(address, i * size), t.base, items.get(i));
+            }
+        } else if (t.isRecord()) {
+            List<Type.Field> fields = t.getFields();
+            for (int i = 0; i < items.size(); i++) {
+                Type.Field field = fields.get(i);
+                int at = offset(address, layout.offsetOf(t, field));
+                if (field.bitWidth >= 0) {
+                    Ast.Expr item = items.get(i);
+                    while (item instanceof Ast.InitList) {
+                        item = ((Ast.InitList) item).items.get(0);
+                    }
+                    Type ft = field.type.unqualified();
+                    storeField(at, ft, field, layout.bitOffsetOf(t, field), convert(value(item), valueType(item), ft));
+                } else {
+                    initialize(at, field.type, items.get(i));
+                }
+            }
+        } else {
+            initialize(address, t, items.get(0));
+        }
+    }
+
+    // ----------------------------------------------------------- expressions
+
+    /** Evaluates {@code e} for its side effects only. */
+    private void effect(Ast.Expr e) {
+        if (e instanceof Ast.UnaryExpr) {
+            Ast.UnaryExpr u = (Ast.UnaryExpr) e;
+            if (u.op == Ast.UnaryOp.POST_INC || u.op == Ast.UnaryOp.POST_DEC) {
+                increment(u.operand, u.op == Ast.UnaryOp.POST_DEC, false);
+                return;
+            }
+        } else if (e instanceof Ast.BinaryExpr && ((Ast.BinaryExpr) e).op == Ast.BinaryOp.COMMA) {
+            effect(((Ast.BinaryExpr) e).left);
+            effect(((Ast.BinaryExpr) e).right);
+            return;
+        } else if (e instanceof Ast.CastExpr && typeOf(e).isVoid()) {
+            effect(((Ast.CastExpr) e).operand);
+            return;
+        }
+        value(e);
+    }
+
+    /**
+     * Evaluates {@code e} and returns the operand holding its value, after
+     * lvalue, array and function conversion; the value of a struct or union
+     * is its address. Returns {@link Ir#NONE} for a void expression.
+     */
+    private int value(Ast.Expr e) {
+        Type t = typeOf(e);
+        if (t.isArithmetic() && !(e instanceof Ast.NameExpr && !isEnumerator((Ast.NameExpr) e))
+                && constants.isConstant(e)) {
+            int kind = kindOf(t);
+            if (constants.isIntegerConstant(e)) {
+                return f.constant(Ir.normalize(constants.longValue(e), kind));
+            }
+            return f.constant(Ir.convert(Double.doubleToRawLongBits(constants.doubleValue(e)), Ir.F64, kind));
+        }
+        if (e instanceof Ast.StringLiteral) {
+            int r = temp(Ir.U64);
+            f.emit(Ir.GLOBAL, Ir.U64, r, module.string(((Ast.StringLiteral) e).toByteArray()).index, Ir.NONE);
+            return r;
+        }
+        if (e instanceof Ast.NameExpr) {
+            Symbol s = resolver.symbolOf((Ast.NameExpr) e);
+            if (!isStatic(s) && homes[s.id] >= 0) {
+                return homes[s.id];
+            }
+            return load(address(e), checker.typeOf(e));
+        }
+        if (e instanceof Ast.UnaryExpr) {
+            return unary((Ast.UnaryExpr) e);
+        }
+        if (e instanceof Ast.BinaryExpr) {
+            Ast.BinaryExpr b = (Ast.BinaryExpr) e;
+            if (b.op == Ast.BinaryOp.COMMA) {
+                effect(b.left);
+                return value(b.right);
+            }
+            if (b.op.isLogical()) {
+                return logical(b);
+            }
+            Type lt = valueType(b.left);
+            Type rt = valueType(b.right);
+            int l = value(b.left);
+            return arithmetic(b.op, l, lt, value(b.right), rt, t);
+        }
+        if (e instanceof Ast.AssignExpr) {
+            return assign((Ast.AssignExpr) e);
+        }
+        if (e instanceof Ast.ConditionalExpr) {
+            return conditional((Ast.ConditionalExpr) e);
+        }
+        if (e instanceof Ast.CallExpr) {
+            return call((Ast.CallExpr) e);
+        }
+        if (e instanceof Ast.CastExpr) {
+            Ast.Expr operand = ((Ast.CastExpr) e).operand;
+            if (t.isVoid()) {
+                effect(operand);
+                return Ir.NONE;
+            }
+            return convert(value(operand), valueType(operand), t);
+        }
+        if (e instanceof Ast.IndexExpr || e instanceof Ast.MemberExpr) {
+            int address = address(e);
+            return loadField(address, checker.typeOf(e), bitField, bitOffset);
+        }
+        throw new IllegalStateException("unexpected " + e.getClass().getSimpleName());
+    }
+
+    private boolean isEnumerator(Ast.NameExpr e) {
+        return resolver.symbolOf(e).kind == Symbol.Kind.ENUM_CONSTANT;
+    }
+
+    /**
+     * Address of lvalue {@code e}, or of the temporary holding a struct or
+     * union rvalue. Sets {@link #bitField} when {@code e} selects a
+     * bit-field, in which case the address is that of its storage unit.
+     */
+    private int address(Ast.Expr e) {
+        int address;
+        Type.Field field = null;
+        int bit = 0;
+        if (e instanceof Ast.NameExpr) {
+            Symbol s = resolver.symbolOf((Ast.NameExpr) e);
+            if (isStatic(s)) {
+                address = temp(Ir.U64);
+                f.emit(Ir.GLOBAL, Ir.U64, address, global(s).index, Ir.NONE);
+            } else {
+                address = slotAddress(-homes[s.id] - 1);
+            }
+        } else if (e instanceof Ast.UnaryExpr && ((Ast.UnaryExpr) e).op == Ast.UnaryOp.DEREF) {
+            address = value(((Ast.UnaryExpr) e).operand);
+        } else if (e instanceof Ast.IndexExpr) {
+            Ast.IndexExpr x = (Ast.IndexExpr) e;
+            boolean basePointer = valueType(x.base).isPointer();
+            Ast.Expr pointer = basePointer ? x.base : x.index;
+            Ast.Expr index = basePointer ? x.index : x.base;
+            int p = value(pointer);
+            address = pointerAdd(p, value(index), valueType(index), layout.sizeOf(typeOf(e)), false);
+        } else if (e instanceof Ast.MemberExpr) {
+            Ast.MemberExpr m = (Ast.MemberExpr) e;
+            Type.Field selected = checker.fieldOf(m);
+            Type record = m.arrow ? valueType(m.base).base.unqualified() : typeOf(m.base);
+            address = offset(value(m.base), layout.offsetOf(record, selected));
+            if (selected.bitWidth >= 0) {
+                field = selected;
+                bit = layout.bitOffsetOf(record, selected);
+            }
+        } else {
+            address = value(e);
+        }
+        bitField = field;
+        bitOffset = bit;
+        return address;
+    }
+
+    private int slotAddress(int slot) {
+        int r = temp(Ir.U64);
+        f.emit(Ir.LOCAL, Ir.U64, r, slot, Ir.NONE);
+        return r;
+    }
+
+    private int offset(int address, long offset) {
+        if (offset == 0) {
+            return address;
+        }
+        return binary(Ir.ADD, Ir.U64, address, f.constant(offset));
+    }
+
+    /** The value of type {@code t} at {@code address}; arrays, functions and aggregates are their address. */
+    private int load(int address, Type t) {
+        int kind = kindOf(t.unqualified());
+        if (t.kind == Type.Kind.ARRAY || t.kind == Type.Kind.FUNCTION || t.isRecord()) {
+            return address;
+        }
+        int r = temp(kind);
+        f.emit(Ir.LOAD, kind, r, address, Ir.NONE);
+        return r;
+    }
+
+    private int loadField(int address, Type t, Type.Field field, int bit) {
+        if (field == null) {
+            return load(address, t);
+        }
+        int kind = kindOf(field.type.unqualified());
+        int reg = Ir.regKind(kind);
+        int bits = reg == Ir.I64 ? 64 : 32;
+        int unit = temp(kind);
+        f.emit(Ir.LOAD, kind, unit, address, Ir.NONE);
+        if (Ir.isSigned(kind)) {
+            int up = binary(Ir.SHL, reg, unit, f.constant(bits - bit - field.bitWidth));
+            return binary(Ir.SHR, reg, up, f.constant(bits - field.bitWidth));
+        }
+        int unsigned = reg == Ir.I64 ? Ir.U64 : Ir.U32;
+        int down = bit == 0 ? unit : binary(Ir.SHR, unsigned, unit, f.constant(bit));
+        long mask = field.bitWidth == 64 ? -1 : (1L << field.bitWidth) - 1;
+        return binary(Ir.AND, unsigned, down, f.constant(Ir.normalize(mask, unsigned)));
+    }
+
+    /** Stores {@code v} of type {@code t}, into a bit-field if {@code field} is one; returns the value stored. */
+    private int storeField(int address, Type t, Type.Field field, int bit, int v) {
+        if (field == null) {
+            f.emit(Ir.STORE, kindOf(t), Ir.NONE, address, v);
+            return v;
+        }
+        int kind = kindOf(field.type.unqualified());
+        int reg = Ir.regKind(kind);
+        int bits = reg == Ir.I64 ? 64 : 32;
+        long mask = field.bitWidth == 64 ? -1 : (1L << field.bitWidth) - 1;
+        int old = temp(kind);
+        f.emit(Ir.LOAD, kind, old, address, Ir.NONE);
+        int kept = binary(Ir.AND, reg, old, f.constant(Ir.normalize(~(mask << bit), reg)));
+        int shifted = bit == 0 ? v : binary(Ir.SHL, reg, v, f.constant(bit));
+        int inserted = binary(Ir.AND, reg, shifted, f.constant(Ir.normalize(mask << bit, reg)));
+        f.emit(Ir.STORE, kind, Ir.NONE, address, binary(Ir.OR, reg, kept, inserted));
+        if (field.bitWidth == bits) {
+            return v;
+        }
+        if (Ir.isSigned(kind)) {
+            int up = binary(Ir.SHL, reg, v, f.constant(bits - field.bitWidth));
+            return binary(Ir.SHR, reg, up, f.constant(bits - field.bitWidth));
+        }
+        return binary(Ir.AND, reg, v, f.constant(Ir.normalize(mask, reg)));
+    }
+
+    private int binary(int op, int kind, int a, int b) {
+        int r = temp(Ir.isCompare(op) ? Ir.I32 : kind);
+        f.emit(op, kind, r, a, b);
+        return r;
+    }
+
+    /** Copies {@code v} into register variable {@code r}, writing the defining instruction in place when possible. */
+    private void move(int r, int v) {
+        if (v == r) {
+            return;
+        }
+        int last = f.size() - 1;
+        if (Ir.isRegister(v) && !isVariable(v) && last >= 0 && f.dst(last) == v && Ir.defines(f.op(last))
+                && f.op(last) != Ir.PARAM) {
+            f.setDst(last, r);
+            return;
+        }
+        f.emit(Ir.MOV, f.registerKind(r), r, v, Ir.NONE);
+    }
+
+    /** Converts {@code v} from type {@code from} to type {@code to}, C11 6.3. */
+    private int convert(int v, Type from, Type to) {
+        from = from.unqualified();
+        to = to.unqualified();
+        if (to.isVoid()) {
+            return Ir.NONE;
+        }
+        if (from == to || to.isRecord()) {
+            return v;
+        }
+        if (to.kind == Type.Kind.BOOL) {
+            if (from.kind == Type.Kind.BOOL) {
+                return v;
+            }
+            int kind = kindOf(from);
+            if (Ir.isConstant(v)) {
+                return f.constant(f.constantValue(v) != 0 && !(Ir.isFloat(kind)
+                        && Ir.convert(f.constantValue(v), kind, Ir.F64) == Double.doubleToRawLongBits(-0.0)) ? 1 : 0);
+            }
+            return binary(Ir.NE, kind, v, f.constant(0));
+        }
+        return convertKind(v, kindOf(from), kindOf(to));
+    }
+
+    private int convertKind(int v, int from, int to) {
+        if (from == to || !Ir.isFloat(from) && !Ir.isFloat(to) && preserves(from, to)) {
+            return v;
+        }
+        if (Ir.isConstant(v)) {
+            return f.constant(Ir.convert(f.constantValue(v), from, to));
+        }
+        int r = temp(to);
+        f.emit(Ir.CONV, to, r, v, from);
+        return r;
+    }
+
+    /** Whether a register holding an integer of kind {@code from} already holds the same value as kind {@code to}. */
+    private static boolean preserves(int from, int to) {
+        if (Ir.regKind(from) != Ir.regKind(to)) {
+            return false;
+        }
+        if (to == Ir.I32 || to == Ir.U32 || to == Ir.I64 || to == Ir.U64) {
+            return true;
+        }
+        return Ir.size(from) < Ir.size(to) && (!Ir.isSigned(from) || Ir.isSigned(to));
+    }
+
+    private static int opOf(Ast.BinaryOp op) {
+        switch (op) {
+            case MUL:
+                return Ir.MUL;
+            case DIV:
+                return Ir.DIV;
+            case MOD:
+                return Ir.REM;
+            case ADD:
+                return Ir.ADD;
+            case SUB:
+                return Ir.SUB;
+            case SHL:
+                return Ir.SHL;
+            case SHR:
+                return Ir.SHR;
+            case LT:
+                return Ir.LT;
+            case GT:
+                return Ir.GT;
+            case LE:
+                return Ir.LE;
+            case GE:
+                return Ir.GE;
+            case EQ:
+                return Ir.EQ;
+            case NE:
+                return Ir.NE;
+            case BIT_AND:
+                return Ir.AND;
+            case BIT_XOR:
+                return Ir.XOR;
+            case BIT_OR:
+                return Ir.OR;
+            default:
+                throw new IllegalArgumentException(op.name());
+        }
+    }
+
+    /** Type in which {@code l op r} is computed, as the checker derived it. */
+    private static Type resultType(Ast.BinaryOp op, Type l, Type r) {
+        if (op.isComparison()) {
+            return Type.INT;
+        }
+        if (l.isPointer() && r.isPointer()) {
+            return Type.LONG;
+        }
+        if (l.isPointer()) {
+            return l;
+        }
+        if (r.isPointer()) {
+            return r;
+        }
+        return op == Ast.BinaryOp.SHL || op == Ast.BinaryOp.SHR ? Types.promote(l) : Types.usualArithmetic(l, r);
+    }
+
+    /** {@code l op r} for an arithmetic, bitwise, shift, comparison or pointer operator, with result type {@code t}. */
+    private int arithmetic(Ast.BinaryOp op, int l, Type lt, int r, Type rt, Type t) {
+        if (op.isComparison()) {
+            Type common = lt.isArithmetic() && rt.isArithmetic() ? Types.usualArithmetic(lt, rt) : Type.ULONG;
+            int kind = kindOf(common);
+            return binary(opOf(op), kind, convert(l, lt, common), convert(r, rt, common));
+        }
+        if (lt.isPointer() && rt.isPointer()) {
+            int difference = binary(Ir.SUB, Ir.I64, l, r);
+            long size = layout.sizeOf(lt.base);
+            return size == 1 ? difference : binary(Ir.DIV, Ir.I64, difference, f.constant(size));
+        }
+        if (lt.isPointer()) {
+            return pointerAdd(l, r, rt, layout.sizeOf(lt.base), op == Ast.BinaryOp.SUB);
+        }
+        if (rt.isPointer()) {
+            return pointerAdd(r, l, lt, layout.sizeOf(rt.base), false);
+        }
+        return binary(opOf(op), kindOf(t), convert(l, lt, t), convert(r, rt, t));
+    }
+
+    /** {@code pointer + index} (or minus) scaled by an element size of {@code size} bytes. */
+    private int pointerAdd(int pointer, int index, Type indexType, long size, boolean subtract) {
+        int i = convert(index, indexType, Type.LONG);
+        if (Ir.isConstant(i)) {
+            long delta = f.constantValue(i) * size;
+            return offset(pointer, subtract ? -delta : delta);
+        }
+        int scaled = size == 1 ? i : binary(Ir.MUL, Ir.I64, i, f.constant(size));
+        return binary(subtract ? Ir.SUB : Ir.ADD, Ir.U64, pointer, scaled);
+    }
+
+    private int unary(Ast.UnaryExpr e) {
+        Type t = typeOf(e);
+        switch (e.op) {
+            case PLUS:
+                return convert(value(e.operand), valueType(e.operand), t);
+            case MINUS:
+                return unaryOp(Ir.NEG, kindOf(t), convert(value(e.operand), valueType(e.operand), t));
+            case BIT_NOT:
+                return unaryOp(Ir.NOT, kindOf(t), convert(value(e.operand), valueType(e.operand), t));
+            case NOT: {
+                int kind = kindOf(valueType(e.operand));
+                return binary(Ir.EQ, kind, value(e.operand), f.constant(0));
+            }
+            case ADDRESS:
+                return address(e.operand);
+            case DEREF:
+                return load(value(e.operand), checker.typeOf(e));
+            case SIZEOF:
+                error(e, "sizeof of a variable length array is not supported");
+                return f.constant(0);
+            case PRE_INC:
+            case PRE_DEC:
+                return increment(e.operand, e.op == Ast.UnaryOp.PRE_DEC, false);
+            default:
+                return increment(e.operand, e.op == Ast.UnaryOp.POST_DEC, true);
+        }
+    }
+
+    private int unaryOp(int op, int kind, int v) {
+        int r = temp(kind);
+        f.emit(op, kind, r, v, Ir.NONE);
+        return r;
+    }
+
+    /** Prefix or postfix ++ or --; returns the new value, or the old one for postfix. */
+    private int increment(Ast.Expr target, boolean decrement, boolean postfix) {
+        Type t = typeOf(target);
+        int home = registerHome(target);
+        if (home >= 0) {
+            int old = home;
+            if (postfix) {
+                old = temp(f.registerKind(home));
+                f.emit(Ir.MOV, f.registerKind(home), old, home, Ir.NONE);
+            }
+            move(home, step(home, t, decrement));
+            return postfix ? old : home;
+        }
+        int address = address(target);
+        Type.Field field = bitField;
+        int bit = bitOffset;
+        int old = loadField(address, t, field, bit);
+        int updated = storeField(address, t, field, bit, step(old, t, decrement));
+        return postfix ? old : updated;
+    }
+
+    /** {@code v + 1} or {@code v - 1} converted back to {@code t}. */
+    private int step(int v, Type t, boolean decrement) {
+        if (t.isPointer()) {
+            return pointerAdd(v, f.constant(1), Type.INT, layout.sizeOf(t.base), decrement);
+        }
+        Type common = Types.usualArithmetic(t, Type.INT);
+        int kind = kindOf(common);
+        int one = f.constant(Ir.convert(1, Ir.I32, kind));
+        int r = binary(decrement ? Ir.SUB : Ir.ADD, kind, convert(v, t, common), one);
+        return convert(r, common, t);
+    }
+
+    /** Register of a local named by {@code e}, or -1 if {@code e} is not such a name. */
+    private int registerHome(Ast.Expr e) {
+        if (!(e instanceof Ast.NameExpr)) {
+            return -1;
+        }
+        Symbol s = resolver.symbolOf((Ast.NameExpr) e);
+        return isStatic(s) || homes[s.id] < 0 ? -1 : homes[s.id];
+    }
+
+    private int assign(Ast.AssignExpr e) {
+        Type t = typeOf(e.target);
+        int home = registerHome(e.target);
+        if (home >= 0) {
+            int v = e.op == null ? convert(value(e.value), valueType(e.value), t) : compound(e.op, home, t, e.value);
+            move(home, v);
+            return home;
+        }
+        int address = address(e.target);
+        Type.Field field = bitField;
+        int bit = bitOffset;
+        if (t.isRecord()) {
+            copy(address, value(e.value), layout.sizeOf(t));
+            return address;
+        }
+        int v = e.op == null ? convert(value(e.value), valueType(e.value), t)
+                : compound(e.op, loadField(address, t, field, bit), t, e.value);
+        return storeField(address, t, field, bit, v);
+    }
+
+    private int compound(Ast.BinaryOp op, int old, Type t, Ast.Expr operand) {
+        Type rt = valueType(operand);
+        Type result = resultType(op, t, rt);
+        int v = arithmetic(op, old, t, value(operand), rt, result);
+        return convert(v, result, t);
+    }
+
+    private int conditional(Ast.ConditionalExpr e) {
+        Type t = typeOf(e);
+        condition(e.cond);
+        enterTrue();
+        int otherwise = falseList;
+        if (t.isVoid()) {
+            effect(e.then);
+            int end = jump();
+            backpatch(otherwise, f.size());
+            effect(e.otherwise);
+            backpatch(end, f.size());
+            return Ir.NONE;
+        }
+        int r = newVariable(kindOf(t));
+        move(r, convert(value(e.then), valueType(e.then), t));
+        int end = jump();
+        backpatch(otherwise, f.size());
+        move(r, convert(value(e.otherwise), valueType(e.otherwise), t));
+        backpatch(end, f.size());
+        return r;
+    }
+
+    /** {@code &&} or {@code ||} as a value: its jump code selecting a 1 or a 0. */
+    private int logical(Ast.BinaryExpr e) {
+        int r = newVariable(Ir.I32);
+        condition(e);
+        enterTrue();
+        int otherwise = falseList;
+        f.emit(Ir.MOV, Ir.I32, r, f.constant(1), Ir.NONE);
+        int end = jump();
+        backpatch(otherwise, f.size());
+        f.emit(Ir.MOV, Ir.I32, r, f.constant(0), Ir.NONE);
+        backpatch(end, f.size());
+        return r;
+    }
+
+    private int call(Ast.CallExpr e) {
+        Type function = valueType(e.callee).base;
+        Type result = function.base.unqualified();
+        Symbol direct = e.callee instanceof Ast.NameExpr ? resolver.symbolOf((Ast.NameExpr) e.callee) : null;
+        int callee = direct != null && direct.kind == Symbol.Kind.FUNCTION ? Ir.NONE : value(e.callee);
+        int hidden = result.isRecord() ? 1 : 0;
+        int[] args = new int[hidden + e.args.size()];
+        int[] kinds = new int[args.length];
+        if (hidden != 0) {
+            args[0] = slotAddress(f.newSlot(layout.sizeOf(result), layout.alignOf(result)));
+            kinds[0] = Ir.U64;
+        }
+        for (int i = 0; i < e.args.size(); i++) {
+            Ast.Expr a = e.args.get(i);
+            Type from = valueType(a);
+            Type to = function.prototyped && i < function.getParamCount() ? function.getParam(i).unqualified()
+                    : from.isFloating() ? Type.DOUBLE : Types.promote(from);
+            args[hidden + i] = convert(value(a), from, to);
+            kinds[hidden + i] = kindOf(to);
+        }
+        int kind = kindOf(result);
+        int dst = result.isVoid() || hidden != 0 ? Ir.NONE : temp(kind);
+        int base = f.allocateAux(1 + 2 * args.length);
+        f.setAux(base, args.length);
+        for (int i = 0; i < args.length; i++) {
+            f.setAux(base + 1 + 2 * i, args[i]);
+            f.setAux(base + 2 + 2 * i, kinds[i]);
+        }
+        if (callee == Ir.NONE) {
+            f.emit(Ir.CALL, kind, dst, global(direct).index, base);
+        } else {
+            f.emit(Ir.CALLI, kind, dst, callee, base);
+        }
+        return hidden != 0 ? args[0] : dst;
+    }
+
+    /** Calls library function {@code name}, which the module only declares. */
+    private void call(String name, int kind, int[] args, int[] kinds) {
+        int base = f.allocateAux(1 + 2 * args.length);
+        f.setAux(base, args.length);
+        for (int i = 0; i < args.length; i++) {
+            f.setAux(base + 1 + 2 * i, args[i]);
+            f.setAux(base + 2 + 2 * i, kinds[i]);
+        }
+        f.emit(Ir.CALL, kind, Ir.NONE, module.global(name, true).index, base);
+    }
+
+    private void copy(int to, int from, long size) {
+        if (to == from) {
+            return;
+        }
+        call("memcpy", Ir.U64, new int[] {to, from, f.constant(size)}, new int[] {Ir.U64, Ir.U64, Ir.U64});
+    }
+}
@@ -0,0 +1,2329 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.antlr.v4.runtime.CharStreams;
+
+/**
+ * Runs an {@link IrModule} directly, with the C library functions the
+ * examples use built in.
+ *
+ * Each function is first translated to a dense code: one int array in
+ * which an instruction is an opcode followed by its operands, already
+ * resolved to what the loop needs. Parameters, registers and constants
+ * are all offsets into the function's frame, a window of one long array
+ * shared by every call, so an operand is read the same way whatever it
+ * is and nothing tests for constants while running. Opcodes are
+ * specialised for 32-bit, 64-bit, float and double values; the narrower
+ * integer kinds and the rarer conversions go through {@link Ir#fold} and
+ * {@link Ir#convert}. Branch targets are code offsets, and phis become
+ * moves on the edges into their block, placed before the jump or
+ * fall-through or, for a conditional branch or a switch, in a stub the
+ * branch goes to instead. Most of those moves never run: the two sides of
+ * a copy share one frame value unless they interfere, and a jump to a
+ * short loop test is replaced by a copy of the test. The loop is then one
+ * switch over the opcode, which the JIT turns into a jump table.
+ *
+ * The commonest short sequences of a loop body run as one
+ * superinstruction, laid out as the instructions it stands for with only
+ * the first opcode changed: a load, add or subtract followed by a
+ * compare-and-branch, a 64-bit add followed by a load or by a second add,
+ * the int and the address steps of a strength-reduced loop, two stores,
+ * and the add, load and branch of a load-and-test loop such as
+ * quicksort's scans. A superinstruction is split again where a jump
+ * lands inside it. There are few, as the JIT leaves a method of more than
+ * 8000 bytes of bytecode uncompiled and the loop is most of that.
+ *
+ * Memory is one little-endian byte array holding the globals from the
+ * bottom, the heap of {@code malloc} above them and the frame slots of
+ * the active calls from the top down. Address 0 is null; function
+ * pointers are addresses past the end of memory.
+ *
+ * An interpreter made by {@link #counting} also counts the IR instructions
+ * a run executes, phis included and NOPs not, adding up each block's as it
+ * is entered, and stops a run that goes past its limit.
+ *
+ * Usage: {@code IrInterpreter [-O] file.c} runs the program on standard
+ * input and output and exits with its status, or prints the errors of a
+ * program that does not compile and exits with status 1.
+ */
+public final class IrInterpreter {
+    // ---------------------------------------------------------------- opcodes
+
+    private static final int MOV = 0;
+    private static final int FOLD = 1;
+    private static final int CONV = 2;
+    private static final int ADD_W = 3;
+    private static final int SUB_W = 4;
+    private static final int MUL_W = 5;
+    private static final int DIV_W = 6;
+    private static final int DIVU_W = 7;
+    private static final int REM_W = 8;
+    private static final int REMU_W = 9;
+    private static final int SHL_W = 10;
+    private static final int SHR_W = 11;
+    private static final int SHRU_W = 12;
+    private static final int NEG_W = 13;
+    private static final int ADD_L = 14;
+    private static final int SUB_L = 15;
+    private static final int MUL_L = 16;
+    private static final int DIV_L = 17;
+    private static final int DIVU_L = 18;
+    private static final int REM_L = 19;
+    private static final int REMU_L = 20;
+    private static final int SHL_L = 21;
+    private static final int SHR_L = 22;
+    private static final int SHRU_L = 23;
+    private static final int NEG_L = 24;
+    private static final int AND = 25;
+    private static final int OR = 26;
+    private static final int XOR = 27;
+    private static final int NOT = 28;
+    private static final int ADD_F = 29;
+    private static final int SUB_F = 30;
+    private static final int MUL_F = 31;
+    private static final int DIV_F = 32;
+    private static final int NEG_F = 33;
+    private static final int ADD_D = 34;
+    private static final int SUB_D = 35;
+    private static final int MUL_D = 36;
+    private static final int DIV_D = 37;
+    private static final int NEG_D = 38;
+    // the comparisons, then the branches in the same order
+    private static final int EQ = 39;
+    private static final int NE = 40;
+    private static final int LT = 41;
+    private static final int LE = 42;
+    private static final int LTU = 43;
+    private static final int LEU = 44;
+    private static final int EQ_F = 45;
+    private static final int NE_F = 46;
+    private static final int LT_F = 47;
+    private static final int LE_F = 48;
+    private static final int EQ_D = 49;
+    private static final int NE_D = 50;
+    private static final int LT_D = 51;
+    private static final int LE_D = 52;
+    private static final int JEQ = 53;
+    private static final int JNE = 54;
+    private static final int JLT = 55;
+    private static final int JLE = 56;
+    private static final int JLTU = 57;
+    private static final int JLEU = 58;
+    private static final int JEQ_F = 59;
+    private static final int JNE_F = 60;
+    private static final int JLT_F = 61;
+    private static final int JLE_F = 62;
+    private static final int JEQ_D = 63;
+    private static final int JNE_D = 64;
+    private static final int JLT_D = 65;
+    private static final int JLE_D = 66;
+    private static final int ZEXT_W = 67;
+    private static final int TRUNC_W = 68;
+    private static final int W_TO_D = 69;
+    private static final int L_TO_D = 70;
+    private static final int D_TO_W = 71;
+    private static final int D_TO_L = 72;
+    private static final int F_TO_D = 73;
+    private static final int D_TO_F = 74;
+    private static final int LOAD_I8 = 75;
+    private static final int LOAD_U8 = 76;
+    private static final int LOAD_I16 = 77;
+    private static final int LOAD_U16 = 78;
+    private static final int LOAD_32 = 79;
+    private static final int LOAD_64 = 80;
+    private static final int STORE_8 = 81;
+    private static final int STORE_16 = 82;
+    private static final int STORE_32 = 83;
+    private static final int STORE_64 = 84;
+    // the loads and stores again, with the address the sum of two operands
+    private static final int LOAD_I8_X = 85;
+    private static final int LOAD_U8_X = 86;
+    private static final int LOAD_I16_X = 87;
+    private static final int LOAD_U16_X = 88;
+    private static final int LOAD_32_X = 89;
+    private static final int LOAD_64_X = 90;
+    private static final int STORE_8_X = 91;
+    private static final int STORE_16_X = 92;
+    private static final int STORE_32_X = 93;
+    private static final int STORE_64_X = 94;
+    private static final int LOCAL = 95;
+    private static final int CALL = 96;
+    private static final int CALLI = 97;
+    private static final int BUILTIN = 98;
+    private static final int RET = 99;
+    private static final int JMP = 100;
+    private static final int SWITCH = 101;
+    private static final int COUNT = 102;
+    // superinstructions: two or three of the above, laid out as they are, run by one dispatch
+    private static final int LOAD_32_JEQ = 103;
+    private static final int LOAD_32_JNE = 104;
+    private static final int LOAD_32_JLT = 105;
+    private static final int LOAD_32_JLE = 106;
+    private static final int ADD_L_ADD_L = 107;
+    private static final int MUL_D_ADD_D = 108;
+    private static final int MUL_L_ADD_L = 109;
+    private static final int ADD_W_JEQ = 110;
+    private static final int ADD_W_JNE = 111;
+    private static final int ADD_W_JLT = 112;
+    private static final int ADD_W_JLE = 113;
+    private static final int SUB_W_JEQ = 114;
+    private static final int SUB_W_JNE = 115;
+    private static final int SUB_W_JLT = 116;
+    private static final int SUB_W_JLE = 117;
+    private static final int ADD_W_ADD_L = 118;
+    private static final int SUB_W_ADD_L = 119;
+    private static final int STORE_32_STORE_32 = 120;
+    private static final int ADD_L_LOAD_32 = 121;
+    private static final int ADD_L_LOAD_32_JEQ = 122;
+    private static final int ADD_L_LOAD_32_JNE = 123;
+    private static final int ADD_L_LOAD_32_JLT = 124;
+    private static final int ADD_L_LOAD_32_JLE = 125;
+    private static final int ADD_L_LOAD_64_X = 126;
+
+    /** Address of the first function: global {@code g} is at {@code FUNCTIONS + g}. */
+    private static final long FUNCTIONS = 1L << 40;
+    /** Bytes at address 0 no global is placed in, so that null is never a valid address. */
+    private static final int NULL_PAGE = 4096;
+    /** Bytes {@code malloc} leaves free below the stack. */
+    private static final int STACK_RESERVE = 1 << 20;
+
+    // The C library functions that are built in, numbered as in BUILTINS.
+    private static final int PRINTF = 0;
+    private static final int SCANF = 1;
+    private static final int PUTCHAR = 2;
+    private static final int PUTS = 3;
+    private static final int GETCHAR = 4;
+    private static final int MALLOC = 5;
+    private static final int CALLOC = 6;
+    private static final int FREE = 7;
+    private static final int EXIT = 8;
+    private static final int MEMCPY = 9;
+    private static final int MEMSET = 10;
+    private static final int STRLEN = 11;
+    private static final int ABS = 12;
+
+    /** Names of the built-in functions, by number. */
+    private static final String[] BUILTINS = {
+        "printf", "scanf", "putchar", "puts", "getchar", "malloc", "calloc", "free", "exit", "memcpy", "memset",
+        "strlen", "abs"
+    };
+
+    /** A function's code and the layout of its frame. */
+    private static final class Function {
+        final IrFunction ir;
+        int[] code;
+        /** Longs in the frame: the parameters, the registers, a scratch value, then the constants. */
+        int frameSize;
+        int constantBase;
+        long[] constants;
+        /** Bytes the frame slots take on the memory stack. */
+        long slotBytes;
+
+        Function(IrFunction ir) {
+            this.ir = ir;
+        }
+    }
+
+    /** Thrown by {@code exit} to unwind the calls. */
+    private static final class Exit extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final int status;
+
+        Exit(int status) {
+            super(null, null, false, false);
+            this.status = status;
+        }
+    }
+
+    private final IrModule module;
+    /** Functions by global index, null where the global is not a defined function. */
+    private final Function[] functions;
+    /** Built-in function number of each global, -1 where it is none. */
+    private final int[] builtins;
+    private final long[] addresses;
+    private final byte[] bytes;
+    /** The same memory for wider loads and stores. */
+    private final ByteBuffer memory;
+    private final long dataEnd;
+    /** Whether the code counts instructions, and how many a run may execute. */
+    private final boolean counting;
+    private final long limit;
+    private long executed;
+
+    private long[] stack = new long[1 << 12];
+    private long stackPointer;
+    private long lowestStack;
+    private long heap;
+    private InputStream in;
+    private int pushedBack = -2;
+    private OutputStream out;
+
+    private IrInterpreter(IrModule module, int memorySize, boolean counting, long limit) {
+        this.module = module;
+        this.counting = counting;
+        this.limit = limit;
+        List<IrModule.Global> globals = module.getGlobals();
+        functions = new Function[globals.size()];
+        builtins = new int[globals.size()];
+        addresses = new long[globals.size()];
+        long top = NULL_PAGE;
+        for (IrModule.Global g : globals) {
+            builtins[g.index] = g.function ? Arrays.asList(BUILTINS).indexOf(g.name) : -1;
+            if (g.function) {
+                addresses[g.index] = FUNCTIONS + g.index;
+                continue;
+            }
+            long align = Math.max(1, g.getAlign());
+            top = (top + align - 1) / align * align;
+            addresses[g.index] = top;
+            top += Math.max(1, g.getSize());
+        }
+        dataEnd = (top + 15) & ~15L;
+        if (dataEnd > memorySize / 2) {
+            throw new IllegalArgumentException("globals need " + dataEnd + " bytes of " + memorySize);
+        }
+        bytes = new byte[memorySize];
+        memory = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        heap = dataEnd;
+        stackPointer = memorySize;
+        lowestStack = memorySize;
+        for (IrModule.Global g : globals) {
+            if (g.getBody() != null) {
+                functions[g.index] = new Function(g.getBody());
+            }
+        }
+        for (Function fn : functions) {
+            if (fn != null) {
+                new Translator(fn).translate();
+            }
+        }
+    }
+
+    /** An interpreter for {@code module} with {@code memorySize} bytes of memory. */
+    public static IrInterpreter load(IrModule module, int memorySize) {
+        return new IrInterpreter(module, memorySize, false, Long.MAX_VALUE);
+    }
+
+    public static IrInterpreter load(IrModule module) {
+        return load(module, 64 << 20);
+    }
+
+    /**
+     * An interpreter like {@link #load} that counts the IR instructions
+     * each run executes, for {@link #executed}, and throws an
+     * {@link IllegalStateException} once a run executes more than
+     * {@code limit}.
+     */
+    public static IrInterpreter counting(IrModule module, int memorySize, long limit) {
+        return new IrInterpreter(module, memorySize, true, limit);
+    }
+
+    /** IR instructions the last run executed, if this interpreter counts them. */
+    public long executed() {
+        return executed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean optimize = args.length > 1 && args[0].equals("-O");
+        if (args.length != (optimize ? 2 : 1)) {
+            System.err.println("usage: IrInterpreter [-O] file.c");
+            System.exit(2);
+        }
+        IrModule module;
+        try {
+            module = Compiler.module(CharStreams.fromFileName(args[args.length - 1]), optimize);
+        } catch (Compiler.Errors e) {
+            e.print(args[args.length - 1]);
+            System.exit(1);
+            return;
+        }
+        System.exit(load(module).run(System.in, System.out));
+    }
+
+    /**
+     * Runs {@code main} on a fresh copy of the globals, reading
+     * {@code scanf}'s input from {@code in} and writing {@code printf}'s
+     * output to {@code out}, and returns what it returns or passes to
+     * {@code exit}.
+     */
+    public int run(InputStream in, OutputStream out) throws IOException {
+        IrModule.Global main = module.getGlobal("main");
+        if (main == null || functions[main.index] == null) {
+            throw new IllegalArgumentException("no main function");
+        }
+        reset();
+        executed = 0;
+        this.in = new BufferedInputStream(in);
+        this.out = new BufferedOutputStream(out, 1 << 16);
+        pushedBack = -2;
+        try {
+            Function fn = functions[main.index];
+            ensureStack(fn.frameSize);
+            Arrays.fill(stack, 0, fn.ir.getParamCount(), 0);
+            return (int) execute(fn, 0);
+        } catch (Exit e) {
+            return e.status;
+        } finally {
+            this.out.flush();
+        }
+    }
+
+    /** Clears what the last run wrote and lays out the globals again. */
+    private void reset() {
+        Arrays.fill(bytes, 0, (int) heap, (byte) 0);
+        Arrays.fill(bytes, (int) lowestStack, bytes.length, (byte) 0);
+        for (IrModule.Global g : module.getGlobals()) {
+            if (g.function) {
+                continue;
+            }
+            int at = (int) addresses[g.index];
+            for (long i = 0; g.hasData() && i < g.getSize(); i++) {
+                bytes[at + (int) i] = g.byteAt(i);
+            }
+            for (int k = 0; k < g.relocationCount(); k++) {
+                putLong(at + g.relocationOffset(k), addresses[g.relocationTarget(k)] + g.relocationAddend(k));
+            }
+        }
+        heap = dataEnd;
+        stackPointer = bytes.length;
+        lowestStack = bytes.length;
+    }
+
+    private void ensureStack(int size) {
+        if (size > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(size, stack.length * 2));
+        }
+    }
+
+    // ----------------------------------------------------------------- memory
+
+    private int getInt(long address) {
+        return memory.getInt((int) address);
+    }
+
+    private long getLong(long address) {
+        return memory.getLong((int) address);
+    }
+
+    private void putShort(long address, long value) {
+        memory.putShort((int) address, (short) value);
+    }
+
+    private void putInt(long address, long value) {
+        memory.putInt((int) address, (int) value);
+    }
+
+    private void putLong(long address, long value) {
+        memory.putLong((int) address, value);
+    }
+
+    // ------------------------------------------------------------- execution
+
+    /** Runs {@code fn} with its frame at {@code fp}, the arguments already in it, and returns its result. */
+    private long execute(Function fn, int fp) {
+        int[] code = fn.code;
+        long[] s = stack;
+        System.arraycopy(fn.constants, 0, s, fp + fn.constantBase, fn.constants.length);
+        long slots = stackPointer - fn.slotBytes;
+        if (slots < heap) {
+            throw new IllegalStateException("stack overflow in " + fn.ir.name);
+        }
+        stackPointer = slots;
+        lowestStack = Math.min(lowestStack, slots);
+        int pc = 0;
+        for (;;) {
+            switch (code[pc]) {
+                case MOV:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]];
+                    pc += 3;
+                    break;
+                case FOLD:
+                    s[fp + code[pc + 1]] = Ir.fold(code[pc + 4], code[pc + 5], s[fp + code[pc + 2]],
+                            s[fp + code[pc + 3]]);
+                    pc += 6;
+                    break;
+                case CONV:
+                    s[fp + code[pc + 1]] = Ir.convert(s[fp + code[pc + 2]], code[pc + 3], code[pc + 4]);
+                    pc += 5;
+                    break;
+                case ADD_W:
+                    s[fp + code[pc + 1]] = (int) (s[fp + code[pc + 2]] + s[fp + code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case SUB_W:
+                    s[fp + code[pc + 1]] = (int) (s[fp + code[pc + 2]] - s[fp + code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case MUL_W:
+                    s[fp + code[pc + 1]] = (int) s[fp + code[pc + 2]] * (int) s[fp + code[pc + 3]];
+                    pc += 4;
+                    break;
+                case DIV_W:
+                    s[fp + code[pc + 1]] = (int) s[fp + code[pc + 2]] / (int) s[fp + code[pc + 3]];
+                    pc += 4;
+                    break;
+                case DIVU_W:
+                    s[fp + code[pc + 1]] = Integer.divideUnsigned((int) s[fp + code[pc + 2]],
+                            (int) s[fp + code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case REM_W:
+                    s[fp + code[pc + 1]] = (int) s[fp + code[pc + 2]] % (int) s[fp + code[pc + 3]];
+                    pc += 4;
+                    break;
+                case REMU_W:
+                    s[fp + code[pc + 1]] = Integer.remainderUnsigned((int) s[fp + code[pc + 2]],
+                            (int) s[fp + code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case SHL_W:
+                    s[fp + code[pc + 1]] = (int) s[fp + code[pc + 2]] << s[fp + code[pc + 3]];
+                    pc += 4;
+                    break;
+                case SHR_W:
+                    s[fp + code[pc + 1]] = (int) s[fp + code[pc + 2]] >> s[fp + code[pc + 3]];
+                    pc += 4;
+                    break;
+                case SHRU_W:
+                    s[fp + code[pc + 1]] = (int) s[fp + code[pc + 2]] >>> s[fp + code[pc + 3]];
+                    pc += 4;
+                    break;
+                case NEG_W:
+                    s[fp + code[pc + 1]] = -(int) s[fp + code[pc + 2]];
+                    pc += 4;
+                    break;
+                case ADD_L:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]] + s[fp + code[pc + 3]];
+                    pc += 4;
+                    break;
+                case SUB_L:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]] - s[fp + code[pc + 3]];
+                    pc += 4;
+                    break;
+                case MUL_L:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]] * s[fp + code[pc + 3]];
+                    pc += 4;
+                    break;
+                case DIV_L:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]] / s[fp + code[pc + 3]];
+                    pc += 4;
+                    break;
+                case DIVU_L:
+                    s[fp + code[pc + 1]] = Long.divideUnsigned(s[fp + code[pc + 2]], s[fp + code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case REM_L:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]] % s[fp + code[pc + 3]];
+                    pc += 4;
+                    break;
+                case REMU_L:
+                    s[fp + code[pc + 1]] = Long.remainderUnsigned(s[fp + code[pc + 2]], s[fp + code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case SHL_L:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]] << s[fp + code[pc + 3]];
+                    pc += 4;
+                    break;
+                case SHR_L:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]] >> s[fp + code[pc + 3]];
+                    pc += 4;
+                    break;
+                case SHRU_L:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]] >>> s[fp + code[pc + 3]];
+                    pc += 4;
+                    break;
+                case NEG_L:
+                    s[fp + code[pc + 1]] = -s[fp + code[pc + 2]];
+                    pc += 4;
+                    break;
+                case AND:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]] & s[fp + code[pc + 3]];
+                    pc += 4;
+                    break;
+                case OR:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]] | s[fp + code[pc + 3]];
+                    pc += 4;
+                    break;
+                case XOR:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]] ^ s[fp + code[pc + 3]];
+                    pc += 4;
+                    break;
+                case NOT:
+                    s[fp + code[pc + 1]] = ~s[fp + code[pc + 2]];
+                    pc += 4;
+                    break;
+                case ADD_F:
+                    s[fp + code[pc + 1]] = bits(single(s[fp + code[pc + 2]]) + single(s[fp + code[pc + 3]]));
+                    pc += 4;
+                    break;
+                case SUB_F:
+                    s[fp + code[pc + 1]] = bits(single(s[fp + code[pc + 2]]) - single(s[fp + code[pc + 3]]));
+                    pc += 4;
+                    break;
+                case MUL_F:
+                    s[fp + code[pc + 1]] = bits(single(s[fp + code[pc + 2]]) * single(s[fp + code[pc + 3]]));
+                    pc += 4;
+                    break;
+                case DIV_F:
+                    s[fp + code[pc + 1]] = bits(single(s[fp + code[pc + 2]]) / single(s[fp + code[pc + 3]]));
+                    pc += 4;
+                    break;
+                case NEG_F:
+                    s[fp + code[pc + 1]] = bits(-single(s[fp + code[pc + 2]]));
+                    pc += 4;
+                    break;
+                case ADD_D:
+                    s[fp + code[pc + 1]] = bits(real(s[fp + code[pc + 2]]) + real(s[fp + code[pc + 3]]));
+                    pc += 4;
+                    break;
+                case SUB_D:
+                    s[fp + code[pc + 1]] = bits(real(s[fp + code[pc + 2]]) - real(s[fp + code[pc + 3]]));
+                    pc += 4;
+                    break;
+                case MUL_D:
+                    s[fp + code[pc + 1]] = bits(real(s[fp + code[pc + 2]]) * real(s[fp + code[pc + 3]]));
+                    pc += 4;
+                    break;
+                case DIV_D:
+                    s[fp + code[pc + 1]] = bits(real(s[fp + code[pc + 2]]) / real(s[fp + code[pc + 3]]));
+                    pc += 4;
+                    break;
+                case NEG_D:
+                    s[fp + code[pc + 1]] = bits(-real(s[fp + code[pc + 2]]));
+                    pc += 4;
+                    break;
+                case EQ:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]] == s[fp + code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    break;
+                case NE:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]] != s[fp + code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    break;
+                case LT:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]] < s[fp + code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    break;
+                case LE:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]] <= s[fp + code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    break;
+                case LTU:
+                    s[fp + code[pc + 1]] = Long.compareUnsigned(s[fp + code[pc + 2]], s[fp + code[pc + 3]]) < 0 ? 1
+                            : 0;
+                    pc += 4;
+                    break;
+                case LEU:
+                    s[fp + code[pc + 1]] = Long.compareUnsigned(s[fp + code[pc + 2]], s[fp + code[pc + 3]]) <= 0 ? 1
+                            : 0;
+                    pc += 4;
+                    break;
+                case EQ_F:
+                    s[fp + code[pc + 1]] = single(s[fp + code[pc + 2]]) == single(s[fp + code[pc + 3]]) ? 1 : 0;
+                    pc += 4;
+                    break;
+                case NE_F:
+                    s[fp + code[pc + 1]] = single(s[fp + code[pc + 2]]) != single(s[fp + code[pc + 3]]) ? 1 : 0;
+                    pc += 4;
+                    break;
+                case LT_F:
+                    s[fp + code[pc + 1]] = single(s[fp + code[pc + 2]]) < single(s[fp + code[pc + 3]]) ? 1 : 0;
+                    pc += 4;
+                    break;
+                case LE_F:
+                    s[fp + code[pc + 1]] = single(s[fp + code[pc + 2]]) <= single(s[fp + code[pc + 3]]) ? 1 : 0;
+                    pc += 4;
+                    break;
+                case EQ_D:
+                    s[fp + code[pc + 1]] = real(s[fp + code[pc + 2]]) == real(s[fp + code[pc + 3]]) ? 1 : 0;
+                    pc += 4;
+                    break;
+                case NE_D:
+                    s[fp + code[pc + 1]] = real(s[fp + code[pc + 2]]) != real(s[fp + code[pc + 3]]) ? 1 : 0;
+                    pc += 4;
+                    break;
+                case LT_D:
+                    s[fp + code[pc + 1]] = real(s[fp + code[pc + 2]]) < real(s[fp + code[pc + 3]]) ? 1 : 0;
+                    pc += 4;
+                    break;
+                case LE_D:
+                    s[fp + code[pc + 1]] = real(s[fp + code[pc + 2]]) <= real(s[fp + code[pc + 3]]) ? 1 : 0;
+                    pc += 4;
+                    break;
+                case JEQ:
+                    pc = s[fp + code[pc + 1]] == s[fp + code[pc + 2]] ? code[pc + 3] : pc + 4;
+                    break;
+                case JNE:
+                    pc = s[fp + code[pc + 1]] != s[fp + code[pc + 2]] ? code[pc + 3] : pc + 4;
+                    break;
+                case JLT:
+                    pc = s[fp + code[pc + 1]] < s[fp + code[pc + 2]] ? code[pc + 3] : pc + 4;
+                    break;
+                case JLE:
+                    pc = s[fp + code[pc + 1]] <= s[fp + code[pc + 2]] ? code[pc + 3] : pc + 4;
+                    break;
+                case JLTU:
+                    pc = Long.compareUnsigned(s[fp + code[pc + 1]], s[fp + code[pc + 2]]) < 0 ? code[pc + 3] : pc + 4;
+                    break;
+                case JLEU:
+                    pc = Long.compareUnsigned(s[fp + code[pc + 1]], s[fp + code[pc + 2]]) <= 0 ? code[pc + 3]
+                            : pc + 4;
+                    break;
+                case JEQ_F:
+                    pc = single(s[fp + code[pc + 1]]) == single(s[fp + code[pc + 2]]) ? code[pc + 3] : pc + 4;
+                    break;
+                case JNE_F:
+                    pc = single(s[fp + code[pc + 1]]) != single(s[fp + code[pc + 2]]) ? code[pc + 3] : pc + 4;
+                    break;
+                case JLT_F:
+                    pc = single(s[fp + code[pc + 1]]) < single(s[fp + code[pc + 2]]) ? code[pc + 3] : pc + 4;
+                    break;
+                case JLE_F:
+                    pc = single(s[fp + code[pc + 1]]) <= single(s[fp + code[pc + 2]]) ? code[pc + 3] : pc + 4;
+                    break;
+                case JEQ_D:
+                    pc = real(s[fp + code[pc + 1]]) == real(s[fp + code[pc + 2]]) ? code[pc + 3] : pc + 4;
+                    break;
+                case JNE_D:
+                    pc = real(s[fp + code[pc + 1]]) != real(s[fp + code[pc + 2]]) ? code[pc + 3] : pc + 4;
+                    break;
+                case JLT_D:
+                    pc = real(s[fp + code[pc + 1]]) < real(s[fp + code[pc + 2]]) ? code[pc + 3] : pc + 4;
+                    break;
+                case JLE_D:
+                    pc = real(s[fp + code[pc + 1]]) <= real(s[fp + code[pc + 2]]) ? code[pc + 3] : pc + 4;
+                    break;
+                case ZEXT_W:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]] & 0xffffffffL;
+                    pc += 3;
+                    break;
+                case TRUNC_W:
+                    s[fp + code[pc + 1]] = (int) s[fp + code[pc + 2]];
+                    pc += 3;
+                    break;
+                case W_TO_D:
+                case L_TO_D:
+                    s[fp + code[pc + 1]] = bits((double) s[fp + code[pc + 2]]);
+                    pc += 3;
+                    break;
+                case D_TO_W:
+                    s[fp + code[pc + 1]] = (int) (long) real(s[fp + code[pc + 2]]);
+                    pc += 3;
+                    break;
+                case D_TO_L:
+                    s[fp + code[pc + 1]] = (long) real(s[fp + code[pc + 2]]);
+                    pc += 3;
+                    break;
+                case F_TO_D:
+                    s[fp + code[pc + 1]] = bits((double) single(s[fp + code[pc + 2]]));
+                    pc += 3;
+                    break;
+                case D_TO_F:
+                    s[fp + code[pc + 1]] = bits((float) real(s[fp + code[pc + 2]]));
+                    pc += 3;
+                    break;
+                case LOAD_I8:
+                    s[fp + code[pc + 1]] = bytes[(int) s[fp + code[pc + 2]]];
+                    pc += 3;
+                    break;
+                case LOAD_U8:
+                    s[fp + code[pc + 1]] = bytes[(int) s[fp + code[pc + 2]]] & 0xff;
+                    pc += 3;
+                    break;
+                case LOAD_I16:
+                    s[fp + code[pc + 1]] = memory.getShort((int) s[fp + code[pc + 2]]);
+                    pc += 3;
+                    break;
+                case LOAD_U16:
+                    s[fp + code[pc + 1]] = memory.getShort((int) s[fp + code[pc + 2]]) & 0xffff;
+                    pc += 3;
+                    break;
+                case LOAD_32:
+                    s[fp + code[pc + 1]] = getInt(s[fp + code[pc + 2]]);
+                    pc += 3;
+                    break;
+                case LOAD_64:
+                    s[fp + code[pc + 1]] = getLong(s[fp + code[pc + 2]]);
+                    pc += 3;
+                    break;
+                case STORE_8:
+                    bytes[(int) s[fp + code[pc + 1]]] = (byte) s[fp + code[pc + 2]];
+                    pc += 3;
+                    break;
+                case STORE_16:
+                    putShort(s[fp + code[pc + 1]], s[fp + code[pc + 2]]);
+                    pc += 3;
+                    break;
+                case STORE_32:
+                    putInt(s[fp + code[pc + 1]], s[fp + code[pc + 2]]);
+                    pc += 3;
+                    break;
+                case STORE_64:
+                    putLong(s[fp + code[pc + 1]], s[fp + code[pc + 2]]);
+                    pc += 3;
+                    break;
+                case LOAD_I8_X:
+                    s[fp + code[pc + 1]] = bytes[(int) (s[fp + code[pc + 2]] + s[fp + code[pc + 3]])];
+                    pc += 4;
+                    break;
+                case LOAD_U8_X:
+                    s[fp + code[pc + 1]] = bytes[(int) (s[fp + code[pc + 2]] + s[fp + code[pc + 3]])] & 0xff;
+                    pc += 4;
+                    break;
+                case LOAD_I16_X:
+                    s[fp + code[pc + 1]] = memory.getShort((int) (s[fp + code[pc + 2]] + s[fp + code[pc + 3]]));
+                    pc += 4;
+                    break;
+                case LOAD_U16_X:
+                    s[fp + code[pc + 1]] = memory.getShort((int) (s[fp + code[pc + 2]] + s[fp + code[pc + 3]]))
+                            & 0xffff;
+                    pc += 4;
+                    break;
+                case LOAD_32_X:
+                    s[fp + code[pc + 1]] = getInt(s[fp + code[pc + 2]] + s[fp + code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case LOAD_64_X:
+                    s[fp + code[pc + 1]] = getLong(s[fp + code[pc + 2]] + s[fp + code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case STORE_8_X:
+                    bytes[(int) (s[fp + code[pc + 1]] + s[fp + code[pc + 2]])] = (byte) s[fp + code[pc + 3]];
+                    pc += 4;
+                    break;
+                case STORE_16_X:
+                    putShort(s[fp + code[pc + 1]] + s[fp + code[pc + 2]], s[fp + code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case STORE_32_X:
+                    putInt(s[fp + code[pc + 1]] + s[fp + code[pc + 2]], s[fp + code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case STORE_64_X:
+                    putLong(s[fp + code[pc + 1]] + s[fp + code[pc + 2]], s[fp + code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case LOCAL:
+                    s[fp + code[pc + 1]] = slots + code[pc + 2];
+                    pc += 3;
+                    break;
+                case CALL:
+                case CALLI:
+                case BUILTIN:
+                    pc = call(fn, fp, pc);
+                    s = stack;
+                    break;
+                case RET:
+                    stackPointer = slots + fn.slotBytes;
+                    return s[fp + code[pc + 1]];
+                case JMP:
+                    pc = code[pc + 1];
+                    break;
+                case SWITCH:
+                    pc = code[pc + 3 + (int) s[fp + code[pc + 1]]];
+                    break;
+                case LOAD_32_JEQ:
+                    s[fp + code[pc + 1]] = getInt(s[fp + code[pc + 2]]);
+                    pc = s[fp + code[pc + 4]] == s[fp + code[pc + 5]] ? code[pc + 6] : pc + 7;
+                    break;
+                case LOAD_32_JNE:
+                    s[fp + code[pc + 1]] = getInt(s[fp + code[pc + 2]]);
+                    pc = s[fp + code[pc + 4]] != s[fp + code[pc + 5]] ? code[pc + 6] : pc + 7;
+                    break;
+                case LOAD_32_JLT:
+                    s[fp + code[pc + 1]] = getInt(s[fp + code[pc + 2]]);
+                    pc = s[fp + code[pc + 4]] < s[fp + code[pc + 5]] ? code[pc + 6] : pc + 7;
+                    break;
+                case LOAD_32_JLE:
+                    s[fp + code[pc + 1]] = getInt(s[fp + code[pc + 2]]);
+                    pc = s[fp + code[pc + 4]] <= s[fp + code[pc + 5]] ? code[pc + 6] : pc + 7;
+                    break;
+                case ADD_L_ADD_L:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]] + s[fp + code[pc + 3]];
+                    s[fp + code[pc + 5]] = s[fp + code[pc + 6]] + s[fp + code[pc + 7]];
+                    pc += 8;
+                    break;
+                case MUL_D_ADD_D:
+                    s[fp + code[pc + 1]] = bits(real(s[fp + code[pc + 2]]) * real(s[fp + code[pc + 3]]));
+                    s[fp + code[pc + 5]] = bits(real(s[fp + code[pc + 6]]) + real(s[fp + code[pc + 7]]));
+                    pc += 8;
+                    break;
+                case MUL_L_ADD_L:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]] * s[fp + code[pc + 3]];
+                    s[fp + code[pc + 5]] = s[fp + code[pc + 6]] + s[fp + code[pc + 7]];
+                    pc += 8;
+                    break;
+                case ADD_W_JEQ:
+                    s[fp + code[pc + 1]] = (int) (s[fp + code[pc + 2]] + s[fp + code[pc + 3]]);
+                    pc = s[fp + code[pc + 5]] == s[fp + code[pc + 6]] ? code[pc + 7] : pc + 8;
+                    break;
+                case ADD_W_JNE:
+                    s[fp + code[pc + 1]] = (int) (s[fp + code[pc + 2]] + s[fp + code[pc + 3]]);
+                    pc = s[fp + code[pc + 5]] != s[fp + code[pc + 6]] ? code[pc + 7] : pc + 8;
+                    break;
+                case ADD_W_JLT:
+                    s[fp + code[pc + 1]] = (int) (s[fp + code[pc + 2]] + s[fp + code[pc + 3]]);
+                    pc = s[fp + code[pc + 5]] < s[fp + code[pc + 6]] ? code[pc + 7] : pc + 8;
+                    break;
+                case ADD_W_JLE:
+                    s[fp + code[pc + 1]] = (int) (s[fp + code[pc + 2]] + s[fp + code[pc + 3]]);
+                    pc = s[fp + code[pc + 5]] <= s[fp + code[pc + 6]] ? code[pc + 7] : pc + 8;
+                    break;
+                case SUB_W_JEQ:
+                    s[fp + code[pc + 1]] = (int) (s[fp + code[pc + 2]] - s[fp + code[pc + 3]]);
+                    pc = s[fp + code[pc + 5]] == s[fp + code[pc + 6]] ? code[pc + 7] : pc + 8;
+                    break;
+                case SUB_W_JNE:
+                    s[fp + code[pc + 1]] = (int) (s[fp + code[pc + 2]] - s[fp + code[pc + 3]]);
+                    pc = s[fp + code[pc + 5]] != s[fp + code[pc + 6]] ? code[pc + 7] : pc + 8;
+                    break;
+                case SUB_W_JLT:
+                    s[fp + code[pc + 1]] = (int) (s[fp + code[pc + 2]] - s[fp + code[pc + 3]]);
+                    pc = s[fp + code[pc + 5]] < s[fp + code[pc + 6]] ? code[pc + 7] : pc + 8;
+                    break;
+                case SUB_W_JLE:
+                    s[fp + code[pc + 1]] = (int) (s[fp + code[pc + 2]] - s[fp + code[pc + 3]]);
+                    pc = s[fp + code[pc + 5]] <= s[fp + code[pc + 6]] ? code[pc + 7] : pc + 8;
+                    break;
+                case ADD_W_ADD_L:
+                    s[fp + code[pc + 1]] = (int) (s[fp + code[pc + 2]] + s[fp + code[pc + 3]]);
+                    s[fp + code[pc + 5]] = s[fp + code[pc + 6]] + s[fp + code[pc + 7]];
+                    pc += 8;
+                    break;
+                case SUB_W_ADD_L:
+                    s[fp + code[pc + 1]] = (int) (s[fp + code[pc + 2]] - s[fp + code[pc + 3]]);
+                    s[fp + code[pc + 5]] = s[fp + code[pc + 6]] + s[fp + code[pc + 7]];
+                    pc += 8;
+                    break;
+                case ADD_L_LOAD_64_X:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]] + s[fp + code[pc + 3]];
+                    s[fp + code[pc + 5]] = getLong(s[fp + code[pc + 6]] + s[fp + code[pc + 7]]);
+                    pc += 8;
+                    break;
+                case STORE_32_STORE_32:
+                    putInt(s[fp + code[pc + 1]], s[fp + code[pc + 2]]);
+                    putInt(s[fp + code[pc + 4]], s[fp + code[pc + 5]]);
+                    pc += 6;
+                    break;
+                case ADD_L_LOAD_32:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]] + s[fp + code[pc + 3]];
+                    s[fp + code[pc + 5]] = getInt(s[fp + code[pc + 6]]);
+                    pc += 7;
+                    break;
+                case ADD_L_LOAD_32_JEQ:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]] + s[fp + code[pc + 3]];
+                    s[fp + code[pc + 5]] = getInt(s[fp + code[pc + 6]]);
+                    pc = s[fp + code[pc + 8]] == s[fp + code[pc + 9]] ? code[pc + 10] : pc + 11;
+                    break;
+                case ADD_L_LOAD_32_JNE:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]] + s[fp + code[pc + 3]];
+                    s[fp + code[pc + 5]] = getInt(s[fp + code[pc + 6]]);
+                    pc = s[fp + code[pc + 8]] != s[fp + code[pc + 9]] ? code[pc + 10] : pc + 11;
+                    break;
+                case ADD_L_LOAD_32_JLT:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]] + s[fp + code[pc + 3]];
+                    s[fp + code[pc + 5]] = getInt(s[fp + code[pc + 6]]);
+                    pc = s[fp + code[pc + 8]] < s[fp + code[pc + 9]] ? code[pc + 10] : pc + 11;
+                    break;
+                case ADD_L_LOAD_32_JLE:
+                    s[fp + code[pc + 1]] = s[fp + code[pc + 2]] + s[fp + code[pc + 3]];
+                    s[fp + code[pc + 5]] = getInt(s[fp + code[pc + 6]]);
+                    pc = s[fp + code[pc + 8]] <= s[fp + code[pc + 9]] ? code[pc + 10] : pc + 11;
+                    break;
+                case COUNT:
+                    executed += code[pc + 1];
+                    if (executed > limit) {
+                        throw new IllegalStateException("more than " + limit + " instructions executed");
+                    }
+                    pc += 2;
+                    break;
+                default:
+                    throw new IllegalStateException("bad opcode " + code[pc] + " in " + fn.ir.name);
+            }
+        }
+    }
+
+    private static float single(long v) {
+        return Float.intBitsToFloat((int) v);
+    }
+
+    private static double real(long v) {
+        return Double.longBitsToDouble(v);
+    }
+
+    private static long bits(float x) {
+        return Float.floatToRawIntBits(x);
+    }
+
+    private static long bits(double x) {
+        return Double.doubleToRawLongBits(x);
+    }
+
+    /**
+     * Runs the call at {@code pc}, laid out as {@code op dst callee kind n},
+     * the frame offsets of the {@code n} arguments and, unless the callee
+     * is a known defined function, their kinds. Returns the offset of the
+     * next instruction.
+     */
+    private int call(Function caller, int fp, int pc) {
+        int[] code = caller.code;
+        int op = code[pc];
+        int n = code[pc + 4];
+        int callee = code[pc + 2];
+        if (op == CALLI) {
+            long target = stack[fp + callee] - FUNCTIONS;
+            if (target < 0 || target >= functions.length) {
+                throw new IllegalStateException("call through a bad function pointer in " + caller.ir.name);
+            }
+            callee = (int) target;
+        }
+        long result;
+        Function fn = op == BUILTIN ? null : functions[callee];
+        if (fn != null) {
+            int calleeFp = fp + caller.frameSize;
+            ensureStack(calleeFp + fn.frameSize);
+            long[] s = stack;
+            for (int k = 0; k < n; k++) {
+                s[calleeFp + k] = s[fp + code[pc + 5 + k]];
+            }
+            result = execute(fn, calleeFp);
+        } else {
+            long[] args = new long[n];
+            int[] kinds = new int[n];
+            for (int k = 0; k < n; k++) {
+                args[k] = stack[fp + code[pc + 5 + k]];
+                kinds[k] = code[pc + 5 + n + k];
+            }
+            result = Ir.normalize(builtin(callee, args, kinds), code[pc + 3]);
+        }
+        stack[fp + code[pc + 1]] = result;
+        return pc + 5 + (op == CALL ? n : 2 * n);
+    }
+
+    // -------------------------------------------------------------- builtins
+
+    private long builtin(int global, long[] args, int[] kinds) {
+        switch (builtins[global]) {
+            case PRINTF:
+                return printf(args, kinds);
+            case SCANF:
+                return scanf(args);
+            case PUTCHAR:
+                write((int) args[0]);
+                return args[0] & 0xff;
+            case PUTS:
+                for (long p = args[0]; bytes[(int) p] != 0; p++) {
+                    write(bytes[(int) p]);
+                }
+                write('\n');
+                return 1;
+            case GETCHAR:
+                return read();
+            case MALLOC:
+            case CALLOC: {
+                long size = builtins[global] == MALLOC ? args[0] : args[0] * args[1];
+                long start = heap;
+                long end = (start + size + 15) & ~15L;
+                if (size < 0 || end > stackPointer - STACK_RESERVE) {
+                    return 0;
+                }
+                heap = end;
+                return start;
+            }
+            case FREE:
+                return 0;
+            case EXIT:
+                throw new Exit((int) args[0]);
+            case MEMCPY:
+                System.arraycopy(bytes, (int) args[1], bytes, (int) args[0], (int) args[2]);
+                return args[0];
+            case MEMSET:
+                Arrays.fill(bytes, (int) args[0], (int) (args[0] + args[2]), (byte) args[1]);
+                return args[0];
+            case STRLEN:
+                return string(args[0]).length();
+            case ABS:
+                return Math.abs((int) args[0]);
+            default:
+                throw new IllegalStateException("call of undefined function " + module.getGlobal(global).name);
+        }
+    }
+
+    /** The C string at {@code address}, a char per byte. */
+    private String string(long address) {
+        int start = (int) address;
+        int end = start;
+        while (bytes[end] != 0) {
+            end++;
+        }
+        return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    private void write(int c) {
+        try {
+            out.write(c);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int read() {
+        if (pushedBack != -2) {
+            int c = pushedBack;
+            pushedBack = -2;
+            return c;
+        }
+        try {
+            return in.read();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** {@code printf} as glibc prints, for the flags, widths, precisions and conversions of C99 but %a and %n. */
+    private long printf(long[] args, int[] kinds) {
+        String format = string(args[0]);
+        StringBuilder sb = new StringBuilder();
+        int next = 1;
+        for (int i = 0; i < format.length(); i++) {
+            char c = format.charAt(i);
+            if (c != '%') {
+                sb.append(c);
+                continue;
+            }
+            String flags = "";
+            while (++i < format.length() && "-+ #0".indexOf(format.charAt(i)) >= 0) {
+                flags += format.charAt(i);
+            }
+            int width = 0;
+            if (i < format.length() && format.charAt(i) == '*') {
+                width = (int) args[next++];
+                if (width < 0) {
+                    flags += '-';
+                    width = -width;
+                }
+                i++;
+            }
+            while (i < format.length() && Character.isDigit(format.charAt(i))) {
+                width = width * 10 + format.charAt(i++) - '0';
+            }
+            int precision = -1;
+            if (i < format.length() && format.charAt(i) == '.') {
+                precision = 0;
+                if (++i < format.length() && format.charAt(i) == '*') {
+                    precision = (int) args[next++];
+                    i++;
+                }
+                while (i < format.length() && Character.isDigit(format.charAt(i))) {
+                    precision = precision * 10 + format.charAt(i++) - '0';
+                }
+            }
+            // negative for h and hh, positive for l, ll and the other 64-bit ones
+            int length = 0;
+            while (i < format.length() && "hlLqjzt".indexOf(format.charAt(i)) >= 0) {
+                length += format.charAt(i) == 'h' ? -1 : 1;
+                i++;
+            }
+            if (i == format.length()) {
+                sb.append('%').append(flags);
+                break;
+            }
+            char conversion = format.charAt(i);
+            if (conversion == '%') {
+                sb.append('%');
+                continue;
+            }
+            long value = next < args.length ? args[next] : 0;
+            int kind = next < args.length ? kinds[next] : Ir.I32;
+            next++;
+            String text;
+            switch (conversion) {
+                case 'd':
+                case 'i': {
+                    value = length > 0 ? value : length == -1 ? (short) value : length < -1 ? (byte) value
+                            : (int) value;
+                    String digits = Long.toString(value);
+                    text = integer(value < 0 ? digits.substring(1) : digits, value < 0, flags, precision, "");
+                    break;
+                }
+                case 'u':
+                case 'x':
+                case 'X':
+                case 'o': {
+                    value = length > 0 ? value : value & (length == -1 ? 0xffffL : length < -1 ? 0xffL : 0xffffffffL);
+                    int radix = conversion == 'u' ? 10 : conversion == 'o' ? 8 : 16;
+                    String digits = Long.toUnsignedString(value, radix);
+                    String prefix = "";
+                    if (flags.indexOf('#') >= 0 && value != 0 && radix != 10) {
+                        prefix = radix == 16 ? "0" + conversion : "0";
+                    }
+                    text = integer(conversion == 'X' ? digits.toUpperCase() : digits, false, flags, precision, prefix);
+                    break;
+                }
+                case 'c':
+                    text = String.valueOf((char) (value & 0xff));
+                    break;
+                case 's':
+                    text = value == 0 ? "(null)" : string(value);
+                    if (precision >= 0 && precision < text.length()) {
+                        text = text.substring(0, precision);
+                    }
+                    break;
+                case 'p':
+                    text = value == 0 ? "(nil)" : "0x" + Long.toHexString(value);
+                    break;
+                case 'f':
+                case 'F':
+                case 'e':
+                case 'E':
+                case 'g':
+                case 'G':
+                    text = floating(kind == Ir.F32 ? single(value) : real(value), conversion, flags,
+                            precision < 0 ? 6 : precision);
+                    break;
+                default:
+                    text = "%" + flags + conversion;
+            }
+            boolean left = flags.indexOf('-') >= 0;
+            boolean zeros = !left && flags.indexOf('0') >= 0 && "diuxXofFeEgG".indexOf(conversion) >= 0
+                    && !(precision >= 0 && "diuxXo".indexOf(conversion) >= 0) && Character.isDigit(last(text));
+            sb.append(pad(text, width, left, zeros));
+        }
+        for (int k = 0; k < sb.length(); k++) {
+            write(sb.charAt(k));
+        }
+        return sb.length();
+    }
+
+    private static char last(CharSequence text) {
+        return text.length() == 0 ? ' ' : text.charAt(text.length() - 1);
+    }
+
+    /** {@code text} padded to {@code width} with spaces, or with zeros after its sign and 0x. */
+    private static String pad(String text, int width, boolean left, boolean zeros) {
+        if (text.length() >= width) {
+            return text;
+        }
+        StringBuilder fill = new StringBuilder();
+        for (int k = text.length(); k < width; k++) {
+            fill.append(zeros ? '0' : ' ');
+        }
+        if (left) {
+            return text + fill;
+        }
+        if (!zeros) {
+            return fill + text;
+        }
+        int body = 0;
+        if ("+- ".indexOf(text.charAt(0)) >= 0) {
+            body++;
+        }
+        if (text.startsWith("0x", body) || text.startsWith("0X", body)) {
+            body += 2;
+        }
+        return text.substring(0, body) + fill + text.substring(body);
+    }
+
+    private static String sign(boolean negative, String flags) {
+        return negative ? "-" : flags.indexOf('+') >= 0 ? "+" : flags.indexOf(' ') >= 0 ? " " : "";
+    }
+
+    private static String integer(String digits, boolean negative, String flags, int precision, String prefix) {
+        if (precision == 0 && digits.equals("0")) {
+            digits = "";
+        }
+        StringBuilder sb = new StringBuilder(sign(negative, flags)).append(prefix);
+        for (int k = digits.length(); k < precision; k++) {
+            sb.append('0');
+        }
+        return sb.append(digits).toString();
+    }
+
+    /**
+     * A floating conversion. The digits are those of the double's exact
+     * binary value rounded half to even, as glibc prints them, rather than
+     * those of the shortest decimal that Java's formatter starts from.
+     */
+    private static String floating(double d, char conversion, String flags, int precision) {
+        boolean negative = Double.doubleToRawLongBits(d) < 0;
+        String text;
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            text = Double.isNaN(d) ? "nan" : "inf";
+        } else {
+            double a = Math.abs(d);
+            boolean alternate = flags.indexOf('#') >= 0;
+            switch (Character.toLowerCase(conversion)) {
+                case 'f':
+                    text = fixed(a, precision);
+                    break;
+                case 'e':
+                    text = exponential(a, precision);
+                    break;
+                default: {
+                    int p = precision == 0 ? 1 : precision;
+                    String e = exponential(a, p - 1);
+                    int x = Integer.parseInt(e.substring(e.indexOf('e') + 1));
+                    text = x < p && x >= -4 ? fixed(a, p - 1 - x) : e;
+                    if (!alternate) {
+                        text = stripZeros(text);
+                    }
+                }
+            }
+            if (alternate && text.indexOf('.') < 0) {
+                int e = text.indexOf('e');
+                text = e < 0 ? text + "." : text.substring(0, e) + "." + text.substring(e);
+            }
+        }
+        text = sign(negative, flags) + text;
+        return Character.isUpperCase(conversion) ? text.toUpperCase() : text;
+    }
+
+    private static String fixed(double a, int precision) {
+        return new BigDecimal(a).setScale(precision, RoundingMode.HALF_EVEN).toPlainString();
+    }
+
+    private static String exponential(double a, int precision) {
+        String digits = "0";
+        int exponent = 0;
+        if (a != 0) {
+            BigDecimal rounded = new BigDecimal(a).round(new MathContext(precision + 1, RoundingMode.HALF_EVEN));
+            digits = rounded.unscaledValue().toString();
+            exponent = digits.length() - 1 - rounded.scale();
+        }
+        StringBuilder sb = new StringBuilder().append(digits.charAt(0));
+        if (precision > 0) {
+            sb.append('.').append(digits, 1, Math.min(digits.length(), precision + 1));
+            for (int k = Math.max(digits.length(), 1); k < precision + 1; k++) {
+                sb.append('0');
+            }
+        }
+        sb.append(exponent < 0 ? "e-" : "e+");
+        if (Math.abs(exponent) < 10) {
+            sb.append('0');
+        }
+        return sb.append(Math.abs(exponent)).toString();
+    }
+
+    /** Drops the trailing zeros of a fraction, and the point if nothing is left after it. */
+    private static String stripZeros(String text) {
+        int e = text.indexOf('e');
+        String mantissa = e < 0 ? text : text.substring(0, e);
+        if (mantissa.indexOf('.') < 0) {
+            return text;
+        }
+        int end = mantissa.length();
+        while (mantissa.charAt(end - 1) == '0') {
+            end--;
+        }
+        if (mantissa.charAt(end - 1) == '.') {
+            end--;
+        }
+        return mantissa.substring(0, end) + (e < 0 ? "" : text.substring(e));
+    }
+
+    /**
+     * {@code scanf} for the integer, floating, character and string
+     * conversions with their widths, length modifiers and assignment
+     * suppression. Returns the number of items stored, or -1 if the input
+     * ends before the first conversion.
+     */
+    private long scanf(long[] args) {
+        String format = string(args[0]);
+        int next = 1;
+        int stored = 0;
+        for (int i = 0; i < format.length(); i++) {
+            char c = format.charAt(i);
+            if (Character.isWhitespace(c)) {
+                skipSpace();
+                continue;
+            }
+            if (c != '%' || i + 1 < format.length() && format.charAt(i + 1) == '%') {
+                i += c == '%' ? 1 : 0;
+                int got = read();
+                if (got != c) {
+                    pushedBack = got;
+                    return stored == 0 && got < 0 ? -1 : stored;
+                }
+                continue;
+            }
+            boolean suppress = ++i < format.length() && format.charAt(i) == '*';
+            i += suppress ? 1 : 0;
+            int width = 0;
+            while (i < format.length() && Character.isDigit(format.charAt(i))) {
+                width = width * 10 + format.charAt(i++) - '0';
+            }
+            int length = 0;
+            while (i < format.length() && "hlLqjzt".indexOf(format.charAt(i)) >= 0) {
+                length += format.charAt(i) == 'h' ? -1 : 1;
+                i++;
+            }
+            if (i == format.length()) {
+                break;
+            }
+            char conversion = format.charAt(i);
+            if (conversion != 'c') {
+                skipSpace();
+            }
+            String token = token(conversion, width > 0 ? width : conversion == 'c' ? 1 : Integer.MAX_VALUE);
+            if (token == null) {
+                return stored == 0 ? -1 : stored;
+            }
+            if (token.isEmpty() || token.equals("-") || token.equals("+")) {
+                return stored;
+            }
+            if (suppress) {
+                continue;
+            }
+            long address = args[next++];
+            try {
+                store(address, conversion, length, token);
+            } catch (NumberFormatException e) {
+                return stored;
+            }
+            stored++;
+        }
+        return stored;
+    }
+
+    private void skipSpace() {
+        int c;
+        do {
+            c = read();
+        } while (c >= 0 && Character.isWhitespace(c));
+        pushedBack = c;
+    }
+
+    /** The characters of the input a conversion takes, at most {@code limit}, or null at the end of the input. */
+    private String token(char conversion, int limit) {
+        int ch = read();
+        if (ch < 0) {
+            return null;
+        }
+        StringBuilder token = new StringBuilder();
+        if (conversion == 'c') {
+            token.append((char) ch);
+            while (token.length() < limit && (ch = read()) >= 0) {
+                token.append((char) ch);
+            }
+            return token.toString();
+        }
+        String allowed = conversion == 's' ? null
+                : conversion == 'x' || conversion == 'X' || conversion == 'i' ? "0123456789abcdefABCDEFxX"
+                : "du".indexOf(conversion) >= 0 ? "0123456789"
+                : conversion == 'o' ? "01234567"
+                : "0123456789.eE+-infatyINFATY";
+        if (allowed != null && (ch == '-' || ch == '+')) {
+            token.append((char) ch);
+            ch = read();
+        }
+        while (ch >= 0 && token.length() < limit) {
+            boolean accept = allowed == null ? !Character.isWhitespace(ch) : allowed.indexOf(ch) >= 0
+                    && (ch != '+' && ch != '-' || "eE".indexOf(last(token)) >= 0);
+            if (!accept) {
+                break;
+            }
+            token.append((char) ch);
+            ch = read();
+        }
+        pushedBack = ch;
+        return token.toString();
+    }
+
+    private void store(long address, char conversion, int length, String token) {
+        switch (conversion) {
+            case 'c':
+            case 's':
+                for (int k = 0; k < token.length(); k++) {
+                    bytes[(int) address + k] = (byte) token.charAt(k);
+                }
+                if (conversion == 's') {
+                    bytes[(int) address + token.length()] = 0;
+                }
+                break;
+            case 'e':
+            case 'E':
+            case 'f':
+            case 'F':
+            case 'g':
+            case 'G': {
+                double d = Double.parseDouble(token.replaceAll("(?i)^([+-]?)inf(inity)?$", "$1Infinity")
+                        .replaceAll("(?i)^[+-]?nan$", "NaN"));
+                if (length > 0) {
+                    putLong(address, bits(d));
+                } else {
+                    putInt(address, bits((float) d));
+                }
+                break;
+            }
+            default: {
+                boolean negative = token.startsWith("-");
+                String digits = token.replaceFirst("^[+-]", "");
+                int radix = conversion == 'x' || conversion == 'X' ? 16 : conversion == 'o' ? 8 : 10;
+                if (conversion == 'i' && digits.matches("0[xX].*")) {
+                    radix = 16;
+                } else if (conversion == 'i' && digits.length() > 1 && digits.startsWith("0")) {
+                    radix = 8;
+                }
+                if (radix == 16) {
+                    digits = digits.replaceFirst("^0[xX]", "");
+                }
+                long v = new BigInteger(digits, radix).longValue();
+                v = negative ? -v : v;
+                if (length > 0) {
+                    putLong(address, v);
+                } else if (length == 0) {
+                    putInt(address, v);
+                } else if (length == -1) {
+                    putShort(address, v);
+                } else {
+                    bytes[(int) address] = (byte) v;
+                }
+            }
+        }
+    }
+
+    // ----------------------------------------------------------- translation
+
+    /** Turns one function into code. */
+    private final class Translator {
+        private final Function fn;
+        private final IrFunction f;
+        private final ControlFlowGraph cfg;
+        private final int registerBase;
+        private final int scratch;
+        private final Map<Long, Integer> constants = new HashMap<>();
+        private long[] constantValues = new long[8];
+        private int[] code = new int[64];
+        private int size;
+        private long[] slotOffsets;
+        /** The register whose frame value each register shares, itself unless coalesced with another. */
+        private int[] registerSlot;
+        /** Number of instructions reading each register, phis included. */
+        private int[] uses;
+        /** Code offset of each IR instruction, then of each stub. */
+        private int[] offsets;
+        /** Code positions holding an instruction or stub number, to become its offset. */
+        private int[] fixups = new int[16];
+        private int fixupCount;
+        /** The source and target block of each stub. */
+        private final List<int[]> stubs = new ArrayList<>();
+        /** Code offset of the last instruction emitted, if a superinstruction may start with it, or -1. */
+        private int fusable = -1;
+        /** Each superinstruction made: its offset, the opcode it replaced and the offset of its second half. */
+        private int[] fusions = new int[24];
+        private int fusionCount;
+
+        Translator(Function fn) {
+            this.fn = fn;
+            this.f = fn.ir;
+            this.cfg = ControlFlowGraph.build(f);
+            registerBase = f.getParamCount();
+            scratch = registerBase + f.registerCount();
+            offsets = new int[f.size() + 16];
+        }
+
+        void translate() {
+            uses = new int[f.registerCount()];
+            for (int i = 0; i < f.size(); i++) {
+                for (int k = 0; k < f.operandCount(i); k++) {
+                    if (Ir.isRegister(f.operand(i, k))) {
+                        uses[f.operand(i, k)]++;
+                    }
+                }
+            }
+            coalesce();
+            slotOffsets = new long[f.slotCount()];
+            long offset = 0;
+            for (int s = 0; s < f.slotCount(); s++) {
+                long align = Math.max(1, f.slotAlign(s));
+                offset = (offset + align - 1) / align * align;
+                slotOffsets[s] = offset;
+                offset += Math.max(1, f.slotSize(s));
+            }
+            fn.slotBytes = (offset + 15) & ~15L;
+            for (int b = 0; b < cfg.blockCount(); b++) {
+                if (!cfg.isReachable(b)) {
+                    continue;
+                }
+                for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                    offsets[i] = size;
+                    if (i == cfg.start(b)) {
+                        count(b);
+                    }
+                    int at = size;
+                    if (indexedAccess(b, i)) {
+                        offsets[++i] = size;
+                    } else {
+                        instruction(b, i);
+                    }
+                    fuse(at);
+                }
+                int op = f.op(cfg.end(b) - 1);
+                if (op != Ir.RET && op != Ir.JMP && op != Ir.SWITCH) {
+                    edgeMoves(b, b + 1);
+                }
+            }
+            for (int k = 0; k < stubs.size(); k++) {
+                int[] stub = stubs.get(k);
+                offsets[f.size() + k] = size;
+                edgeMoves(stub[0], stub[1]);
+                emit(JMP);
+                emitTarget(cfg.start(stub[1]));
+            }
+            for (int k = 0; k < fixupCount; k++) {
+                code[fixups[k]] = offsets[code[fixups[k]]];
+            }
+            unfuseTargets();
+            fn.code = Arrays.copyOf(code, size);
+            fn.constantBase = scratch + 1;
+            fn.constants = Arrays.copyOf(constantValues, constants.size());
+            fn.frameSize = fn.constantBase + constants.size();
+        }
+
+        private void emit(int... words) {
+            if (size + words.length > code.length) {
+                code = Arrays.copyOf(code, Math.max(code.length * 2, size + words.length));
+            }
+            System.arraycopy(words, 0, code, size, words.length);
+            size += words.length;
+        }
+
+        /** Emits a reference to instruction or stub {@code target}, resolved once all are placed. */
+        private void emitTarget(int target) {
+            if (fixupCount == fixups.length) {
+                fixups = Arrays.copyOf(fixups, fixupCount * 2);
+            }
+            fixups[fixupCount++] = size;
+            emit(target);
+        }
+
+        /** Frame offset of an operand. */
+        private int operand(int x) {
+            if (Ir.isRegister(x)) {
+                return registerBase + registerSlot[x];
+            }
+            return constant(x == Ir.NONE ? 0 : f.constantValue(x));
+        }
+
+        private int constant(long value) {
+            Integer slot = constants.get(value);
+            if (slot == null) {
+                slot = constants.size();
+                constants.put(value, slot);
+                if (slot == constantValues.length) {
+                    constantValues = Arrays.copyOf(constantValues, slot * 2);
+                }
+                constantValues[slot] = value;
+            }
+            return scratch + 1 + slot;
+        }
+
+        /** Frame offset of the result of {@code i}, the scratch value if it has none. */
+        private int dst(int i) {
+            return f.dst(i) >= 0 ? registerBase + registerSlot[f.dst(i)] : scratch;
+        }
+
+        /** Emits the count of block {@code b}'s instructions, if the interpreter counts them. */
+        private void count(int b) {
+            int n = 0;
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                n += f.op(i) == Ir.NOP ? 0 : 1;
+            }
+            if (counting && n > 0) {
+                emit(COUNT, n);
+            }
+        }
+
+        private void instruction(int b, int i) {
+            int op = f.op(i);
+            int kind = f.kind(i);
+            switch (op) {
+                case Ir.NOP:
+                case Ir.PHI:
+                    break;
+                case Ir.MOV:
+                    move(dst(i), operand(f.a(i)));
+                    break;
+                case Ir.PARAM:
+                    emit(MOV, dst(i), f.a(i));
+                    break;
+                case Ir.GLOBAL:
+                    emit(MOV, dst(i), constant(addresses[f.a(i)]));
+                    break;
+                case Ir.LOCAL:
+                    emit(LOCAL, dst(i), (int) slotOffsets[f.a(i)]);
+                    break;
+                case Ir.CONV:
+                    conversion(i);
+                    break;
+                case Ir.LOAD:
+                    emit(load(kind), dst(i), operand(f.a(i)));
+                    break;
+                case Ir.STORE:
+                    emit(store(kind), operand(f.a(i)), operand(f.b(i)));
+                    break;
+                case Ir.CALL:
+                case Ir.CALLI:
+                    call(i);
+                    break;
+                case Ir.RET:
+                    emit(RET, operand(f.a(i)));
+                    break;
+                case Ir.JMP: {
+                    int target = cfg.blockOf(f.dst(i));
+                    edgeMoves(b, target);
+                    if (!duplicateTest(target)) {
+                        emit(JMP);
+                        emitTarget(f.dst(i));
+                    }
+                    break;
+                }
+                case Ir.SWITCH: {
+                    int n = f.targetCount(i);
+                    emit(SWITCH, operand(f.a(i)), n);
+                    for (int k = 0; k < n; k++) {
+                        emitTarget(edgeTarget(b, f.target(i, k)));
+                    }
+                    break;
+                }
+                default:
+                    if (Ir.isBranch(op)) {
+                        compare(Ir.compareOf(op), kind, 0, f.a(i), f.b(i), true);
+                        emitTarget(edgeTarget(b, f.dst(i)));
+                    } else if (Ir.isCompare(op)) {
+                        compare(op, kind, dst(i), f.a(i), f.b(i), false);
+                    } else {
+                        arithmetic(i);
+                    }
+            }
+        }
+
+        /**
+         * Where a branch from block {@code b} to instruction {@code target}
+         * goes: the instruction itself, or if the phis of its block need
+         * moves on the edge, a new stub that makes them and jumps there.
+         */
+        private int edgeTarget(int b, int target) {
+            if (f.op(target) != Ir.PHI) {
+                return target;
+            }
+            if (f.size() + stubs.size() == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            stubs.add(new int[] {b, cfg.blockOf(target)});
+            return f.size() + stubs.size() - 1;
+        }
+
+        /**
+         * Emits, in place of a jump to block {@code t}, a copy of {@code t}
+         * if it is a short test: a few instructions ending in an integer
+         * branch. The copy branches on the opposite condition to the block
+         * after {@code t} and otherwise jumps to the branch target, so a
+         * loop whose back edge enters such a header runs one jump fewer
+         * each time round. Returns false, emitting nothing, for any other
+         * block.
+         */
+        private boolean duplicateTest(int t) {
+            int first = cfg.start(t);
+            while (first < cfg.end(t) && (f.op(first) == Ir.PHI || f.op(first) == Ir.NOP)) {
+                first++;
+            }
+            int last = cfg.end(t) - 1;
+            if (last - first > 3 || !Ir.isBranch(f.op(last)) || Ir.isFloat(f.kind(last))) {
+                return false;
+            }
+            for (int i = first; i < last; i++) {
+                int op = f.op(i);
+                if (op == Ir.CALL || op == Ir.CALLI || op == Ir.PHI) {
+                    return false;
+                }
+            }
+            count(t);
+            for (int i = first; i < last; i++) {
+                int at = size;
+                if (indexedAccess(t, i)) {
+                    i++;
+                } else {
+                    instruction(t, i);
+                }
+                fuse(at);
+            }
+            int at = size;
+            compare(Ir.invertCompare(Ir.compareOf(f.op(last))), f.kind(last), 0, f.a(last), f.b(last), true);
+            emitTarget(edgeTarget(t, cfg.start(t + 1)));
+            fuse(at);
+            emit(JMP);
+            emitTarget(edgeTarget(t, f.dst(last)));
+            return true;
+        }
+
+        /**
+         * Turns the instruction just emitted at {@code at} and the one
+         * before it into a superinstruction, where the pair has one, by
+         * rewriting the first opcode: the operands stay where they are, so
+         * targets already referenced need no change. Anything emitted in
+         * between breaks the pair. The second may start a block, as a loop
+         * header entered from its preheader does when the back edge runs a
+         * copy of the header's test; {@link #unfuseTargets} puts the first
+         * opcode back where a jump turns out to land on the second after all.
+         */
+        private void fuse(int at) {
+            if (at == size) {
+                return;
+            }
+            int first = fusable;
+            fusable = -1;
+            if (size - at != length(code[at])) {
+                return;
+            }
+            int fused = first >= 0 && first + length(code[first]) == at
+                    ? superinstruction(code[first], code[at]) : -1;
+            if (fused < 0) {
+                fusable = at;
+                return;
+            }
+            if (fusionCount + 3 > fusions.length) {
+                fusions = Arrays.copyOf(fusions, fusions.length * 2);
+            }
+            fusions[fusionCount++] = first;
+            fusions[fusionCount++] = code[first];
+            fusions[fusionCount++] = at;
+            code[first] = fused;
+            if (length(fused) > 0) {
+                fusable = first;
+            }
+        }
+
+        /**
+         * Splits the superinstructions whose second half is the target of a
+         * jump, once targets are resolved; latest first, so that a triple
+         * falls back to the pair it was made from, or further.
+         */
+        private void unfuseTargets() {
+            if (fusionCount == 0) {
+                return;
+            }
+            BitSet targets = new BitSet(size);
+            for (int k = 0; k < fixupCount; k++) {
+                targets.set(code[fixups[k]]);
+            }
+            for (int k = fusionCount - 3; k >= 0; k -= 3) {
+                if (targets.get(fusions[k + 2])) {
+                    code[fusions[k]] = fusions[k + 1];
+                }
+            }
+        }
+
+        /** Words in an instruction that may be half of a superinstruction, or -1 for any other. */
+        private int length(int opcode) {
+            switch (opcode) {
+                case LOAD_32:
+                case STORE_32:
+                    return 3;
+                case ADD_L_LOAD_32:
+                    return 7;
+                case JEQ:
+                case JNE:
+                case JLT:
+                case JLE:
+                case ADD_W:
+                case SUB_W:
+                case ADD_L:
+                case LOAD_64_X:
+                case MUL_L:
+                case MUL_D:
+                case ADD_D:
+                    return 4;
+                default:
+                    return -1;
+            }
+        }
+
+        /** The superinstruction running {@code first} and then {@code second}, or -1 if there is none. */
+        private int superinstruction(int first, int second) {
+            if (second >= JEQ && second <= JLE) {
+                int base = first == LOAD_32 ? LOAD_32_JEQ
+                        : first == ADD_W ? ADD_W_JEQ
+                        : first == SUB_W ? SUB_W_JEQ
+                        : first == ADD_L_LOAD_32 ? ADD_L_LOAD_32_JEQ : -1;
+                return base < 0 ? -1 : base + second - JEQ;
+            } else if (first == ADD_L && (second == LOAD_32 || second == LOAD_64_X)) {
+                return second == LOAD_32 ? ADD_L_LOAD_32 : ADD_L_LOAD_64_X;
+            } else if ((first == ADD_W || first == SUB_W) && second == ADD_L) {
+                return first == ADD_W ? ADD_W_ADD_L : SUB_W_ADD_L;
+            } else if (first == STORE_32 && second == STORE_32) {
+                return STORE_32_STORE_32;
+            } else if (first == ADD_L && second == ADD_L) {
+                return ADD_L_ADD_L;
+            } else if (first == MUL_D && second == ADD_D) {
+                return MUL_D_ADD_D;
+            } else if (first == MUL_L && second == ADD_L) {
+                return MUL_L_ADD_L;
+            }
+            return -1;
+        }
+
+        private void arithmetic(int i) {
+            int op = f.op(i);
+            int kind = f.kind(i);
+            int opcode = -1;
+            if (Ir.isFloat(kind)) {
+                int base = kind == Ir.F32 ? ADD_F : ADD_D;
+                switch (op) {
+                    case Ir.ADD:
+                    case Ir.SUB:
+                    case Ir.MUL:
+                    case Ir.DIV:
+                        opcode = base + op - Ir.ADD;
+                        break;
+                    case Ir.NEG:
+                        opcode = base + 4;
+                        break;
+                    default:
+                }
+            } else if (kind == Ir.I32 || kind == Ir.U32 || kind == Ir.I64 || kind == Ir.U64) {
+                int base = Ir.regKind(kind) == Ir.I64 ? ADD_L : ADD_W;
+                int unsigned = Ir.isSigned(kind) ? 0 : 1;
+                switch (op) {
+                    case Ir.ADD:
+                    case Ir.SUB:
+                    case Ir.MUL:
+                        opcode = base + op - Ir.ADD;
+                        break;
+                    case Ir.DIV:
+                        opcode = base + 3 + unsigned;
+                        break;
+                    case Ir.REM:
+                        opcode = base + 5 + unsigned;
+                        break;
+                    case Ir.SHL:
+                        opcode = base + 7;
+                        break;
+                    case Ir.SHR:
+                        opcode = base + 8 + unsigned;
+                        break;
+                    case Ir.NEG:
+                        opcode = base + 10;
+                        break;
+                    case Ir.AND:
+                        opcode = AND;
+                        break;
+                    case Ir.OR:
+                        opcode = OR;
+                        break;
+                    case Ir.XOR:
+                        opcode = XOR;
+                        break;
+                    case Ir.NOT:
+                        opcode = NOT;
+                        break;
+                    default:
+                }
+            }
+            int b = Ir.hasOperandB(op) ? operand(f.b(i)) : scratch;
+            if (opcode < 0) {
+                emit(FOLD, dst(i), operand(f.a(i)), b, op, kind);
+            } else {
+                emit(opcode, dst(i), operand(f.a(i)), b);
+            }
+        }
+
+        /**
+         * A comparison, or with {@code jump} the test of a branch, whose
+         * target the caller emits next. Greater-than swaps the operands of
+         * less-than, which holds for floats too as both are false when
+         * either side is NaN. Register values of every integer kind are
+         * extended so that comparing them as longs, signed or unsigned,
+         * orders them as their kind does.
+         */
+        private void compare(int op, int kind, int dst, int a, int b, boolean jump) {
+            if (op == Ir.GT || op == Ir.GE) {
+                op = Ir.swapCompare(op);
+                int t = a;
+                a = b;
+                b = t;
+            }
+            int index = op - Ir.EQ;
+            int opcode;
+            if (kind == Ir.F32) {
+                opcode = EQ_F + index;
+            } else if (kind == Ir.F64) {
+                opcode = EQ_D + index;
+            } else if (!Ir.isSigned(kind) && (op == Ir.LT || op == Ir.LE)) {
+                opcode = op == Ir.LT ? LTU : LEU;
+            } else {
+                opcode = EQ + index;
+            }
+            if (jump) {
+                emit(opcode - EQ + JEQ, operand(a), operand(b));
+            } else {
+                emit(opcode, dst, operand(a), operand(b));
+            }
+        }
+
+        private void conversion(int i) {
+            int opcode = conversionOpcode(i);
+            if (opcode == CONV) {
+                emit(CONV, dst(i), operand(f.a(i)), f.b(i), f.kind(i));
+            } else if (opcode == MOV) {
+                move(dst(i), operand(f.a(i)));
+            } else {
+                emit(opcode, dst(i), operand(f.a(i)));
+            }
+        }
+
+        /** The opcode for conversion {@code i}: MOV where the register value stays the same, CONV where no other fits. */
+        private int conversionOpcode(int i) {
+            int to = f.kind(i);
+            int from = f.b(i);
+            if (!Ir.isFloat(from) && !Ir.isFloat(to)) {
+                if (Ir.regKind(to) == Ir.I64) {
+                    return from == Ir.U32 ? ZEXT_W : MOV;
+                } else if (to == Ir.I32 || to == Ir.U32) {
+                    return Ir.regKind(from) == Ir.I64 ? TRUNC_W : MOV;
+                }
+            } else if (to == Ir.F64) {
+                if (from == Ir.I64) {
+                    return L_TO_D;
+                } else if (from == Ir.F32) {
+                    return F_TO_D;
+                } else if (from != Ir.U32 && from != Ir.U64 && from != Ir.F64) {
+                    return W_TO_D;
+                }
+            } else if (from == Ir.F64) {
+                return to == Ir.I32 ? D_TO_W : to == Ir.I64 ? D_TO_L : to == Ir.F32 ? D_TO_F : CONV;
+            }
+            return CONV;
+        }
+
+        private void move(int to, int from) {
+            if (to != from) {
+                emit(MOV, to, from);
+            }
+        }
+
+        private int load(int kind) {
+            switch (kind) {
+                case Ir.I8:
+                    return LOAD_I8;
+                case Ir.U8:
+                    return LOAD_U8;
+                case Ir.I16:
+                    return LOAD_I16;
+                case Ir.U16:
+                    return LOAD_U16;
+                default:
+                    return Ir.size(kind) == 4 ? LOAD_32 : LOAD_64;
+            }
+        }
+
+        private int store(int kind) {
+            int width = Ir.size(kind);
+            return width == 1 ? STORE_8 : width == 2 ? STORE_16 : width == 4 ? STORE_32 : STORE_64;
+        }
+
+        /**
+         * Emits an address addition {@code i} together with the load or
+         * store that follows it as one indexed access, if that access is
+         * the sum's only use. Returns whether it did.
+         */
+        private boolean indexedAccess(int b, int i) {
+            int d = f.dst(i);
+            if (f.op(i) != Ir.ADD || Ir.regKind(f.kind(i)) != Ir.I64 || d < 0 || uses[d] != 1
+                    || i + 1 == cfg.end(b) || f.a(i + 1) != d) {
+                return false;
+            }
+            int next = i + 1;
+            if (f.op(next) == Ir.LOAD) {
+                emit(load(f.kind(next)) - LOAD_I8 + LOAD_I8_X, dst(next), operand(f.a(i)), operand(f.b(i)));
+            } else if (f.op(next) == Ir.STORE) {
+                emit(store(f.kind(next)) - STORE_8 + STORE_8_X, operand(f.a(i)), operand(f.b(i)),
+                        operand(f.b(next)));
+            } else {
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * A call: of a defined function, its global and the arguments; of
+         * one that is not, the argument kinds too, which {@code printf}
+         * needs; through a pointer, both, as either may be behind it.
+         */
+        private void call(int i) {
+            int n = f.argCount(i);
+            int opcode;
+            int callee;
+            if (f.op(i) == Ir.CALLI) {
+                opcode = CALLI;
+                callee = operand(f.a(i));
+            } else {
+                opcode = functions[f.a(i)] != null ? CALL : BUILTIN;
+                callee = f.a(i);
+            }
+            emit(opcode, dst(i), callee, f.kind(i), n);
+            for (int k = 0; k < n; k++) {
+                emit(operand(f.arg(i, k)));
+            }
+            for (int k = 0; opcode != CALL && k < n; k++) {
+                emit(f.argKind(i, k));
+            }
+        }
+
+        // ---- coalescing
+
+        /**
+         * Lets the two sides of a copy, a phi and one of its operands or a
+         * move, share a frame value wherever neither is live when the other
+         * is written, so that the copy goes away. Interference is Chaitin's,
+         * from {@link Liveness}: a register written interferes with all
+         * those live after the write, except the source of a copy with its
+         * destination, and the phis of a block, all written on entry,
+         * interfere with what is live there and with each other. Only edges
+         * between registers of some copy are kept.
+         */
+        private void coalesce() {
+            int n = f.registerCount();
+            registerSlot = new int[n];
+            for (int r = 0; r < n; r++) {
+                registerSlot[r] = r;
+            }
+            int[] copies = new int[16];
+            int copyCount = 0;
+            boolean[] copied = new boolean[n];
+            for (int b = 0; b < cfg.blockCount(); b++) {
+                for (int i = cfg.start(b); cfg.isReachable(b) && i < cfg.end(b); i++) {
+                    int source = copySource(i);
+                    int count = f.op(i) == Ir.PHI ? cfg.predecessorCount(b) : source >= 0 ? 1 : 0;
+                    for (int k = 0; k < count; k++) {
+                        int x = f.op(i) == Ir.PHI ? f.phiArg(i, k) : source;
+                        if (Ir.isRegister(x) && x != f.dst(i)) {
+                            if (copyCount + 2 > copies.length) {
+                                copies = Arrays.copyOf(copies, copies.length * 2);
+                            }
+                            copies[copyCount++] = f.dst(i);
+                            copies[copyCount++] = x;
+                            copied[f.dst(i)] = true;
+                            copied[x] = true;
+                        }
+                    }
+                }
+            }
+            if (copyCount == 0) {
+                return;
+            }
+            long[] edges = interference(copied);
+            int[] adjacentStart = new int[n + 1];
+            for (long e : edges) {
+                adjacentStart[(int) (e >>> 32) + 1]++;
+                adjacentStart[(int) e + 1]++;
+            }
+            for (int r = 0; r < n; r++) {
+                adjacentStart[r + 1] += adjacentStart[r];
+            }
+            int[] adjacent = new int[adjacentStart[n]];
+            int[] fill = Arrays.copyOf(adjacentStart, n);
+            for (long e : edges) {
+                adjacent[fill[(int) (e >>> 32)]++] = (int) e;
+                adjacent[fill[(int) e]++] = (int) (e >>> 32);
+            }
+            // classes as circular lists of members, named by their union-find root
+            int[] nextMember = new int[n];
+            for (int r = 0; r < n; r++) {
+                nextMember[r] = r;
+            }
+            for (int k = 0; k < copyCount; k += 2) {
+                int x = root(copies[k]);
+                int y = root(copies[k + 1]);
+                if (x == y || interferes(x, y, nextMember, adjacentStart, adjacent)) {
+                    continue;
+                }
+                registerSlot[y] = x;
+                int t = nextMember[x];
+                nextMember[x] = nextMember[y];
+                nextMember[y] = t;
+            }
+            for (int r = 0; r < n; r++) {
+                registerSlot[r] = root(r);
+            }
+        }
+
+        /** The source register of move or value-preserving conversion {@code i}, or -1. */
+        private int copySource(int i) {
+            int op = f.op(i);
+            boolean copy = op == Ir.MOV || op == Ir.CONV && conversionOpcode(i) == MOV;
+            return copy && f.dst(i) >= 0 && Ir.isRegister(f.a(i)) ? f.a(i) : -1;
+        }
+
+        /** The interference edges between registers marked in {@code copied}, each as a packed pair, no two alike. */
+        private long[] interference(boolean[] copied) {
+            Liveness liveness = Liveness.compute(cfg);
+            BitSet live = new BitSet(f.registerCount());
+            int[] registers = new int[f.registerCount()];
+            Set<Long> edges = new HashSet<>();
+            for (int b = 0; b < cfg.blockCount(); b++) {
+                if (!cfg.isReachable(b)) {
+                    continue;
+                }
+                live.clear();
+                for (int k = 0, n = liveness.liveOut(b, registers); k < n; k++) {
+                    live.set(registers[k]);
+                }
+                int first = cfg.start(b);
+                while (first < cfg.end(b) && f.op(first) == Ir.PHI) {
+                    first++;
+                }
+                for (int i = cfg.end(b) - 1; i >= first; i--) {
+                    int d = f.dst(i);
+                    if (Ir.defines(f.op(i)) && d >= 0) {
+                        live.clear(d);
+                        if (copied[d]) {
+                            int source = copySource(i);
+                            for (int r = live.nextSetBit(0); r >= 0; r = live.nextSetBit(r + 1)) {
+                                if (copied[r] && r != source) {
+                                    edges.add(edge(d, r));
+                                }
+                            }
+                        }
+                    }
+                    for (int k = 0; k < f.operandCount(i); k++) {
+                        if (Ir.isRegister(f.operand(i, k))) {
+                            live.set(f.operand(i, k));
+                        }
+                    }
+                }
+                for (int phi = cfg.start(b); phi < first; phi++) {
+                    int d = f.dst(phi);
+                    for (int r = live.nextSetBit(0); copied[d] && r >= 0; r = live.nextSetBit(r + 1)) {
+                        if (copied[r] && r != d) {
+                            edges.add(edge(d, r));
+                        }
+                    }
+                    for (int other = cfg.start(b); copied[d] && other < first; other++) {
+                        if (other != phi && copied[f.dst(other)]) {
+                            edges.add(edge(d, f.dst(other)));
+                        }
+                    }
+                }
+            }
+            long[] packed = new long[edges.size()];
+            int k = 0;
+            for (long e : edges) {
+                packed[k++] = e;
+            }
+            return packed;
+        }
+
+        private long edge(int a, int b) {
+            return (long) Math.min(a, b) << 32 | Math.max(a, b);
+        }
+
+        private int root(int r) {
+            while (registerSlot[r] != r) {
+                registerSlot[r] = registerSlot[registerSlot[r]];
+                r = registerSlot[r];
+            }
+            return r;
+        }
+
+        /** Whether a member of class {@code x} interferes with one of class {@code y}. */
+        private boolean interferes(int x, int y, int[] nextMember, int[] adjacentStart, int[] adjacent) {
+            int member = x;
+            do {
+                for (int k = adjacentStart[member]; k < adjacentStart[member + 1]; k++) {
+                    if (root(adjacent[k]) == y) {
+                        return true;
+                    }
+                }
+                member = nextMember[member];
+            } while (member != x);
+            return false;
+        }
+
+        // ---- phis
+
+        /** Emits the moves of the phis of block {@code s} for the edge from {@code b}. */
+        private void edgeMoves(int b, int s) {
+            if (s >= cfg.blockCount() || f.op(cfg.start(s)) != Ir.PHI) {
+                return;
+            }
+            int k = cfg.predecessorIndex(s, b);
+            int n = 0;
+            while (cfg.start(s) + n < cfg.end(s) && f.op(cfg.start(s) + n) == Ir.PHI) {
+                n++;
+            }
+            int[] to = new int[n];
+            int[] from = new int[n];
+            for (int j = 0; j < n; j++) {
+                int phi = cfg.start(s) + j;
+                to[j] = dst(phi);
+                from[j] = operand(f.phiArg(phi, k));
+            }
+            parallel(n, from, to);
+        }
+
+        /**
+         * The moves {@code from[j] -> to[j]} as if made at once: a move is
+         * made once no pending one still reads its destination, and when
+         * every pending one is blocked so, by a cycle, one destination is
+         * saved in the scratch value for its readers.
+         */
+        private void parallel(int n, int[] from, int[] to) {
+            boolean[] done = new boolean[n];
+            int left = 0;
+            for (int j = 0; j < n; j++) {
+                done[j] = from[j] == to[j] || to[j] == scratch;
+                left += done[j] ? 0 : 1;
+            }
+            while (left > 0) {
+                boolean progress = false;
+                for (int j = 0; j < n; j++) {
+                    if (!done[j] && !pendingRead(n, from, done, to[j])) {
+                        emit(MOV, to[j], from[j]);
+                        done[j] = true;
+                        left--;
+                        progress = true;
+                    }
+                }
+                for (int j = 0; !progress && j < n; j++) {
+                    if (!done[j]) {
+                        emit(MOV, scratch, to[j]);
+                        for (int q = 0; q < n; q++) {
+                            if (!done[q] && from[q] == to[j]) {
+                                from[q] = scratch;
+                            }
+                        }
+                        progress = true;
+                    }
+                }
+            }
+        }
+
+        private boolean pendingRead(int n, int[] from, boolean[] done, int slot) {
+            for (int j = 0; j < n; j++) {
+                if (!done[j] && from[j] == slot) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
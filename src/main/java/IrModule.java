@@ -0,0 +1,223 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The IR of a translation unit: its functions and the globals they refer
+ * to. Globals are numbered densely; {@link Ir#GLOBAL} and {@link Ir#CALL}
+ * instructions name them by index.
+ */
+public final class IrModule {
+    /** A function or data object with linkage, or a string literal. */
+    public static final class Global {
+        public final int index;
+        public final String name;
+        public final boolean function;
+        /** Internal linkage: static, or a string literal. */
+        boolean local;
+        /** Declared with the inline function specifier. */
+        boolean inline;
+        /** Code of a defined function, null for one only declared. */
+        IrFunction body;
+        /** Whether storage for a data object is allocated in this module. */
+        boolean defined;
+        boolean readOnly;
+        long size;
+        int align = 1;
+        /** Initial contents, null for all zeros. */
+        byte[] data;
+        private long[] relocOffsets = new long[0];
+        private int[] relocTargets = new int[0];
+        private long[] relocAddends = new long[0];
+        private int relocCount;
+
+        Global(int index, String name, boolean function) {
+            this.index = index;
+            this.name = name;
+            this.function = function;
+        }
+
+        public boolean isLocal() {
+            return local;
+        }
+
+        public boolean isInline() {
+            return inline;
+        }
+
+        public IrFunction getBody() {
+            return body;
+        }
+
+        public boolean isDefined() {
+            return function ? body != null : defined;
+        }
+
+        public boolean isReadOnly() {
+            return readOnly;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public int getAlign() {
+            return align;
+        }
+
+        /** Byte {@code i} of the initial contents. */
+        public byte byteAt(long i) {
+            return data == null ? 0 : data[(int) i];
+        }
+
+        public boolean hasData() {
+            return data != null;
+        }
+
+        /** Number of pointers in the initial contents, each the address of a global plus an addend. */
+        public int relocationCount() {
+            return relocCount;
+        }
+
+        public long relocationOffset(int i) {
+            return relocOffsets[i];
+        }
+
+        public int relocationTarget(int i) {
+            return relocTargets[i];
+        }
+
+        public long relocationAddend(int i) {
+            return relocAddends[i];
+        }
+
+        void addRelocation(long offset, int target, long addend) {
+            if (relocCount == relocOffsets.length) {
+                int n = Math.max(4, relocCount * 2);
+                relocOffsets = Arrays.copyOf(relocOffsets, n);
+                relocTargets = Arrays.copyOf(relocTargets, n);
+                relocAddends = Arrays.copyOf(relocAddends, n);
+            }
+            relocOffsets[relocCount] = offset;
+            relocTargets[relocCount] = target;
+            relocAddends[relocCount] = addend;
+            relocCount++;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final List<Global> globals = new ArrayList<>();
+    private final Map<String, Global> byName = new HashMap<>();
+    private final Map<String, Global> strings = new HashMap<>();
+    private final List<IrFunction> functions = new ArrayList<>();
+
+    public List<Global> getGlobals() {
+        return Collections.unmodifiableList(globals);
+    }
+
+    public Global getGlobal(int index) {
+        return globals.get(index);
+    }
+
+    /** The global named {@code name}, or null. */
+    public Global getGlobal(String name) {
+        return byName.get(name);
+    }
+
+    /** Defined functions in definition order. */
+    public List<IrFunction> getFunctions() {
+        return Collections.unmodifiableList(functions);
+    }
+
+    /** The global named {@code name}, created on first use. */
+    Global global(String name, boolean function) {
+        Global g = byName.get(name);
+        if (g == null) {
+            g = new Global(globals.size(), name, function);
+            globals.add(g);
+            byName.put(name, g);
+        }
+        return g;
+    }
+
+    /** Starts the body of function {@code g}. */
+    IrFunction define(Global g) {
+        g.body = new IrFunction(this, g.name);
+        functions.add(g.body);
+        return g.body;
+    }
+
+    /** Drops the body of function {@code g}, which nothing refers to any more. */
+    void undefine(Global g) {
+        functions.remove(g.body);
+        g.body = null;
+    }
+
+    /** A read-only, NUL-terminated copy of {@code bytes}; equal literals share one global. */
+    Global string(byte[] bytes) {
+        String key = new String(bytes, StandardCharsets.ISO_8859_1);
+        Global g = strings.get(key);
+        if (g == null) {
+            g = global(".str." + strings.size(), false);
+            g.local = true;
+            g.defined = true;
+            g.readOnly = true;
+            g.size = bytes.length + 1;
+            g.data = Arrays.copyOf(bytes, bytes.length + 1);
+            strings.put(key, g);
+        }
+        return g;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Global g : globals) {
+            if (!g.function && g.isDefined()) {
+                sb.append(g.local ? "local " : "").append(g.readOnly ? "const " : "").append('@').append(g.name)
+                        .append(": ").append(g.size).append(" align ").append(g.align);
+                if (g.data != null && g.readOnly) {
+                    sb.append(" \"").append(escape(g.data)).append('"');
+                } else if (g.data != null) {
+                    sb.append(" =");
+                    for (byte b : g.data) {
+                        sb.append(String.format(" %02x", b & 0xff));
+                    }
+                }
+                for (int i = 0; i < g.relocCount; i++) {
+                    sb.append(" [").append(g.relocOffsets[i]).append("] = @").append(globals.get(g.relocTargets[i]))
+                            .append(g.relocAddends[i] == 0 ? "" : (g.relocAddends[i] > 0 ? "+" : "")
+                                    + g.relocAddends[i]);
+                }
+                sb.append('\n');
+            }
+        }
+        for (IrFunction f : functions) {
+            sb.append('\n').append(f);
+        }
+        return sb.toString();
+    }
+
+    private static String escape(byte[] data) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < data.length - 1; i++) {
+            int c = data[i] & 0xff;
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append((char) c);
+            } else if (c >= 0x20 && c < 0x7f) {
+                sb.append((char) c);
+            } else {
+                sb.append(String.format("\\%03o", c));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,78 @@
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.antlr.v4.runtime.tree.RuleNode;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.util.Arrays;
+
+/**
+ * Drop-in replacement for {@link ParseTreeWalker} that keeps its own stack
+ * instead of recursing once per tree level, so trees of any depth can be
+ * walked on a normal thread stack. Events are identical to the recursive
+ * walker.
+ */
+public class IterativeParseTreeWalker extends ParseTreeWalker {
+    public static final IterativeParseTreeWalker DEFAULT = new IterativeParseTreeWalker();
+
+    @Override
+    public void walk(ParseTreeListener listener, ParseTree t) {
+        if (!(t instanceof RuleNode)) {
+            visitLeaf(listener, t);
+            return;
+        }
+        RuleNode[] nodes = new RuleNode[64];
+        int[] next = new int[64];
+        int sp = 0;
+        nodes[0] = (RuleNode) t;
+        enterRule(listener, nodes[0]);
+        sp++;
+        while (sp > 0) {
+            RuleNode node = nodes[sp - 1];
+            int i = next[sp - 1];
+            if (i == node.getChildCount()) {
+                exitRule(listener, node);
+                nodes[--sp] = null;
+                continue;
+            }
+            next[sp - 1] = i + 1;
+            ParseTree child = node.getChild(i);
+            if (!(child instanceof RuleNode)) {
+                visitLeaf(listener, child);
+                continue;
+            }
+            if (sp == nodes.length) {
+                nodes = Arrays.copyOf(nodes, sp * 2);
+                next = Arrays.copyOf(next, sp * 2);
+            }
+            enterRule(listener, (RuleNode) child);
+            nodes[sp] = (RuleNode) child;
+            next[sp] = 0;
+            sp++;
+        }
+    }
+
+    private static void visitLeaf(ParseTreeListener listener, ParseTree t) {
+        if (t instanceof ErrorNode) {
+            listener.visitErrorNode((ErrorNode) t);
+        } else if (t instanceof TerminalNode) {
+            listener.visitTerminal((TerminalNode) t);
+        }
+    }
+
+    @Override
+    protected void enterRule(ParseTreeListener listener, RuleNode r) {
+        ParserRuleContext ctx = (ParserRuleContext) r.getRuleContext();
+        listener.enterEveryRule(ctx);
+        ctx.enterRule(listener);
+    }
+
+    @Override
+    protected void exitRule(ParseTreeListener listener, RuleNode r) {
+        ParserRuleContext ctx = (ParserRuleContext) r.getRuleContext();
+        ctx.exitRule(listener);
+        listener.exitEveryRule(ctx);
+    }
+}
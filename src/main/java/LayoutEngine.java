@@ -0,0 +1,193 @@
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sizes, alignments and member offsets under the x86-64 System V (LP64)
+ * ABI.
+ *
+ * Each struct or union is laid out once, on first request, and the result
+ * is cached by type identity; since {@link Types} hash-conses types, every
+ * later size, alignment or offset query for that type is a map probe plus
+ * an array load. Bit-fields follow the SysV rules GCC implements: a field
+ * goes at the next free bit unless it would cross a boundary of its
+ * declared type's alignment unit, a zero-width field skips to the next such
+ * boundary, and unnamed bit-fields do not raise the record's alignment.
+ * _Alignas on a member raises that member's alignment.
+ */
+public final class LayoutEngine {
+    /** Layout of one complete struct or union, indexed by {@link Type.Field#index}. */
+    public static final class RecordLayout {
+        public final long size;
+        public final int align;
+        private final long[] offsets;
+        private final int[] bitOffsets;
+
+        RecordLayout(long size, int align, long[] offsets, int[] bitOffsets) {
+            this.size = size;
+            this.align = align;
+            this.offsets = offsets;
+            this.bitOffsets = bitOffsets;
+        }
+
+        /**
+         * Byte offset of member {@code index}. For a bit-field this is the
+         * offset of the storage unit of its declared type that holds it.
+         */
+        public long offsetOf(int index) {
+            return offsets[index];
+        }
+
+        /** Bit position of a bit-field within its storage unit, 0 for other members. */
+        public int bitOffsetOf(int index) {
+            return bitOffsets[index];
+        }
+    }
+
+    private final Map<Type, RecordLayout> records = new IdentityHashMap<>();
+    private final Map<Type, Long> arraySizes = new IdentityHashMap<>();
+
+    public long sizeOf(Type t) {
+        switch (t.kind) {
+            case ARRAY: {
+                Long cached = arraySizes.get(t);
+                if (cached == null) {
+                    cached = t.length < 0 ? 0 : t.length * sizeOf(t.base);
+                    arraySizes.put(t, cached);
+                }
+                return cached;
+            }
+            case STRUCT:
+            case UNION:
+                return layout(t).size;
+            case VOID:
+            case FUNCTION:
+                // GNU C: sizeof(void) and sizeof of a function are 1
+                return 1;
+            case ERROR:
+                return 0;
+            default:
+                return t.scalarSize();
+        }
+    }
+
+    public int alignOf(Type t) {
+        switch (t.kind) {
+            case ARRAY:
+                return alignOf(t.base);
+            case STRUCT:
+            case UNION:
+                return layout(t).align;
+            case VOID:
+            case FUNCTION:
+            case ERROR:
+                return 1;
+            default:
+                return t.scalarSize();
+        }
+    }
+
+    /** Alignment of an object of type {@code t} declared with the given _Alignas operand. */
+    public int alignOf(Type t, Object alignment) {
+        return Math.max(alignOf(t), requested(alignment));
+    }
+
+    private int requested(Object alignment) {
+        if (alignment instanceof Type) {
+            return alignOf((Type) alignment);
+        }
+        if (alignment instanceof Long) {
+            return (int) (long) (Long) alignment;
+        }
+        return 1;
+    }
+
+    /** Layout of a complete struct or union type. */
+    public RecordLayout layout(Type record) {
+        Type t = record.unqualified();
+        RecordLayout l = records.get(t);
+        if (l == null) {
+            l = compute(t);
+            records.put(t, l);
+        }
+        return l;
+    }
+
+    /**
+     * Byte offset of {@code field} within {@code record}, also when the
+     * field belongs to an anonymous struct or union member of it.
+     */
+    public long offsetOf(Type record, Type.Field field) {
+        List<Type.Field> fields = record.getFields();
+        RecordLayout l = layout(record);
+        if (field.index < fields.size() && fields.get(field.index) == field) {
+            return l.offsetOf(field.index);
+        }
+        for (Type.Field f : fields) {
+            if (f.name == null && f.type.isRecord() && f.type.getFields() != null) {
+                long inner = offsetOf(f.type, field);
+                if (inner >= 0) {
+                    return l.offsetOf(f.index) + inner;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** Bit position of bit-field {@code field} within its storage unit, found like {@link #offsetOf}. */
+    public int bitOffsetOf(Type record, Type.Field field) {
+        List<Type.Field> fields = record.getFields();
+        if (field.index < fields.size() && fields.get(field.index) == field) {
+            return layout(record).bitOffsetOf(field.index);
+        }
+        for (Type.Field f : fields) {
+            if (f.name == null && f.type.isRecord() && f.type.getFields() != null && offsetOf(f.type, field) >= 0) {
+                return bitOffsetOf(f.type, field);
+            }
+        }
+        return 0;
+    }
+
+    private RecordLayout compute(Type t) {
+        List<Type.Field> fields = t.getFields();
+        if (fields == null) {
+            throw new IllegalArgumentException("incomplete type " + t);
+        }
+        boolean union = t.kind == Type.Kind.UNION;
+        long[] offsets = new long[fields.size()];
+        int[] bitOffsets = new int[fields.size()];
+        long bits = 0;
+        long sizeBits = 0;
+        int align = 1;
+        for (Type.Field f : fields) {
+            int fieldAlign = Math.max(alignOf(f.type), requested(f.alignment));
+            if (f.bitWidth >= 0) {
+                long unitBits = f.type.scalarSize() * 8L;
+                long pos = union ? 0 : bits;
+                if (f.bitWidth == 0) {
+                    pos = alignUp(pos, unitBits);
+                } else if (pos / unitBits != (pos + f.bitWidth - 1) / unitBits) {
+                    pos = alignUp(pos, unitBits);
+                }
+                long unit = pos / unitBits * (unitBits / 8);
+                offsets[f.index] = unit;
+                bitOffsets[f.index] = (int) (pos - unit * 8);
+                if (f.name != null) {
+                    align = Math.max(align, fieldAlign);
+                }
+                bits = pos + f.bitWidth;
+            } else {
+                long offset = union ? 0 : alignUp(alignUp(bits, 8) / 8, fieldAlign);
+                offsets[f.index] = offset;
+                align = Math.max(align, fieldAlign);
+                bits = (offset + sizeOf(f.type)) * 8;
+            }
+            sizeBits = Math.max(sizeBits, bits);
+        }
+        return new RecordLayout(alignUp(alignUp(sizeBits, 8) / 8, align), align, offsets, bitOffsets);
+    }
+
+    static long alignUp(long value, long align) {
+        return (value + align - 1) / align * align;
+    }
+}
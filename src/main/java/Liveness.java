@@ -0,0 +1,233 @@
+import java.util.Arrays;
+
+/**
+ * The registers live on entry to and exit from each block of a function,
+ * before or after SSA construction.
+ *
+ * Only registers that some block reads before writing them can be live
+ * across a block boundary; the many temporaries that live and die inside
+ * one block are left out of the sets, which keeps them a fraction of the
+ * register count wide. Those global registers are numbered in register
+ * order and solved as a backward union {@link Dataflow} problem.
+ *
+ * A phi reads its operand at the end of the corresponding predecessor,
+ * not in its own block, and defines its register at the top of its block.
+ * The operand is therefore live out of that predecessor only and not live
+ * into the phi's block, as the register allocator and the SSA destruction
+ * that follows it need.
+ */
+public final class Liveness {
+    public final ControlFlowGraph cfg;
+    private final Dataflow flow;
+    /** Bit of each register in the sets, -1 for a register local to one block. */
+    private final int[] bitOf;
+    /** Register of each bit. */
+    private final int[] registers;
+    /** Bits of the successors' phi operands read at the end of each block, sorted, as extra live-out bits. */
+    private final int[][] phiUses;
+    /** Space for the queries that combine sets, and marks that ignore all but the current stamp. */
+    private int[] scratch;
+    private int[] candidates;
+    private int[] mark;
+    private int markStamp;
+
+    private Liveness(ControlFlowGraph cfg) {
+        this.cfg = cfg;
+        IrFunction f = cfg.function;
+        int n = f.registerCount();
+        bitOf = new int[n];
+        Arrays.fill(bitOf, -1);
+        boolean[] global = findGlobals(f);
+        int count = 0;
+        for (int r = 0; r < n; r++) {
+            if (global[r]) {
+                bitOf[r] = count++;
+            }
+        }
+        registers = new int[count];
+        for (int r = 0; r < n; r++) {
+            if (bitOf[r] >= 0) {
+                registers[bitOf[r]] = r;
+            }
+        }
+        flow = Dataflow.backward(cfg, count, false);
+        phiUses = new int[cfg.blockCount()][];
+        int[] uses = new int[16];
+        for (int b = 0; b < cfg.blockCount(); b++) {
+            if (cfg.isReachable(b)) {
+                uses = describe(f, b, uses);
+            }
+        }
+        flow.solve();
+    }
+
+    public static Liveness compute(ControlFlowGraph cfg) {
+        return new Liveness(cfg);
+    }
+
+    /** Registers read in some block before that block writes them, and phi operands. */
+    private boolean[] findGlobals(IrFunction f) {
+        boolean[] global = new boolean[f.registerCount()];
+        int[] definedIn = new int[f.registerCount()];
+        Arrays.fill(definedIn, -1);
+        for (int b = 0; b < cfg.blockCount(); b++) {
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                int op = f.op(i);
+                for (int k = 0; k < f.operandCount(i); k++) {
+                    int x = f.operand(i, k);
+                    if (Ir.isRegister(x) && (op == Ir.PHI || definedIn[x] != b)) {
+                        global[x] = true;
+                    }
+                }
+                if (Ir.defines(op) && f.dst(i) >= 0) {
+                    definedIn[f.dst(i)] = b;
+                }
+            }
+        }
+        return global;
+    }
+
+    /**
+     * Gives block {@code b} its gen and kill sets, walking backwards from the
+     * phi operands read at its end; {@code uses} is scratch space, returned
+     * grown if need be.
+     */
+    private int[] describe(IrFunction f, int b, int[] uses) {
+        int n = 0;
+        for (int k = 0; k < cfg.successorCount(b); k++) {
+            int s = cfg.successor(b, k);
+            int index = cfg.predecessorIndexOfSuccessor(b, k);
+            for (int i = cfg.start(s); i < cfg.end(s) && f.op(i) == Ir.PHI; i++) {
+                int x = f.phiArg(i, index);
+                if (Ir.isRegister(x)) {
+                    flow.gen(b, bitOf[x]);
+                    if (n == uses.length) {
+                        uses = Arrays.copyOf(uses, n * 2);
+                    }
+                    uses[n++] = bitOf[x];
+                }
+            }
+        }
+        if (n > 0) {
+            Arrays.sort(uses, 0, n);
+            int distinct = 1;
+            for (int k = 1; k < n; k++) {
+                if (uses[k] != uses[distinct - 1]) {
+                    uses[distinct++] = uses[k];
+                }
+            }
+            phiUses[b] = Arrays.copyOf(uses, distinct);
+        }
+        for (int i = cfg.end(b) - 1; i >= cfg.start(b); i--) {
+            int op = f.op(i);
+            int dst = f.dst(i);
+            if (Ir.defines(op) && dst >= 0 && bitOf[dst] >= 0) {
+                flow.kill(b, bitOf[dst]);
+            }
+            if (op == Ir.PHI) {
+                continue;
+            }
+            for (int k = 0; k < f.operandCount(i); k++) {
+                int x = f.operand(i, k);
+                if (Ir.isRegister(x) && bitOf[x] >= 0) {
+                    flow.gen(b, bitOf[x]);
+                }
+            }
+        }
+        return uses;
+    }
+
+    /** Number of registers that can be live across a block boundary. */
+    public int globalCount() {
+        return registers.length;
+    }
+
+    /** Whether register {@code r} is live on entry to block {@code b}, phis of {@code b} excluded. */
+    public boolean isLiveIn(int b, int r) {
+        return bitOf[r] >= 0 && flow.isIn(b, bitOf[r]);
+    }
+
+    /** Whether register {@code r} is live on exit from block {@code b}, as a successor's phi operand included. */
+    public boolean isLiveOut(int b, int r) {
+        int bit = bitOf[r];
+        return bit >= 0 && (flow.isOut(b, bit) || phiUses[b] != null && Arrays.binarySearch(phiUses[b], bit) >= 0);
+    }
+
+    /** Fills {@code into} with the registers live on entry to block {@code b}, in increasing order, and returns how many. */
+    public int liveIn(int b, int[] into) {
+        int n = flow.in(b, into);
+        for (int k = 0; k < n; k++) {
+            into[k] = registers[into[k]];
+        }
+        return n;
+    }
+
+    /** Fills {@code into} with the registers live on exit from block {@code b}, in increasing order, and returns how many. */
+    public int liveOut(int b, int[] into) {
+        int[] uses = phiUses[b];
+        if (uses == null) {
+            int n = flow.out(b, into);
+            for (int k = 0; k < n; k++) {
+                into[k] = registers[into[k]];
+            }
+            return n;
+        }
+        int[] bits = scratch();
+        int count = flow.out(b, bits);
+        int n = 0;
+        int j = 0;
+        for (int k = 0; k < count || j < uses.length; ) {
+            int bit;
+            if (j == uses.length || k < count && bits[k] < uses[j]) {
+                bit = bits[k++];
+            } else {
+                bit = uses[j++];
+                if (k < count && bits[k] == bit) {
+                    k++;
+                }
+            }
+            into[n++] = registers[bit];
+        }
+        return n;
+    }
+
+    /**
+     * Fills {@code into} with the registers that die in block {@code b} or
+     * on the way into it: live out of one of its predecessors, or into the
+     * entry block, but not out of {@code b}. Returns how many, in no
+     * particular order. Facts about a register can be dropped there, which
+     * keeps the sets of problems that only matter while it is live small.
+     */
+    public int dying(int b, int[] into) {
+        if (mark == null) {
+            candidates = new int[registers.length];
+            mark = new int[registers.length];
+        }
+        // a block's live-in set is part of every predecessor's live-out set
+        int stamp = ++markStamp;
+        int n = liveOut(b, candidates);
+        for (int k = 0; k < n; k++) {
+            mark[bitOf[candidates[k]]] = stamp;
+        }
+        int count = 0;
+        int preds = cfg.predecessorCount(b);
+        for (int p = 0; p < Math.max(preds, 1); p++) {
+            n = preds == 0 ? liveIn(b, candidates) : liveOut(cfg.predecessor(b, p), candidates);
+            for (int k = 0; k < n; k++) {
+                int bit = bitOf[candidates[k]];
+                if (mark[bit] != stamp) {
+                    mark[bit] = stamp;
+                    into[count++] = candidates[k];
+                }
+            }
+        }
+        return count;
+    }
+
+    private int[] scratch() {
+        if (scratch == null) {
+            scratch = new int[registers.length];
+        }
+        return scratch;
+    }
+}
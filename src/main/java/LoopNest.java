@@ -0,0 +1,210 @@
+import java.util.Arrays;
+
+/**
+ * The natural loops of a {@link ControlFlowGraph} and how they nest.
+ *
+ * An edge t to h is a back edge when h dominates t; its natural loop is h
+ * together with every block that reaches t without passing through h,
+ * found by walking predecessors backwards from t. Back edges into the same
+ * header make one loop, as a {@code continue} in a for loop does. In a
+ * reducible graph two loops are either disjoint or one contains the
+ * other; headers of inner loops come later in reverse postorder, so
+ * building loops from the last header backwards gives every block its
+ * innermost loop first. Loops are numbered in that order too, so loop 0 is
+ * one of the innermost and iterating upwards visits inner loops before the
+ * loops around them. Cycles entered at more than one block have no header
+ * dominating them and are not loops here.
+ */
+public final class LoopNest {
+    public final ControlFlowGraph cfg;
+    private final int loopCount;
+    private final int[] headers;
+    private final int[] parents;
+    /** Blocks of each loop in reverse postorder: {@code blocks[blockStart[l] .. blockStart[l + 1])}. */
+    private final int[] blockStart;
+    private final int[] blocks;
+    private final int[] latchStart;
+    private final int[] latches;
+    /** Innermost loop of each block, or -1. */
+    private final int[] loopOf;
+    private final int[] depths;
+
+    private LoopNest(ControlFlowGraph cfg, DominatorTree dom) {
+        this.cfg = cfg;
+        int n = cfg.blockCount();
+        int reachable = cfg.reachableCount();
+        loopOf = new int[n];
+        Arrays.fill(loopOf, -1);
+
+        int count = 0;
+        int[] headerList = new int[reachable];
+        int[] latchCount = new int[reachable + 1];
+        int edges = 0;
+        for (int k = reachable - 1; k >= 0; k--) {
+            int h = cfg.blockInOrder(k);
+            int back = 0;
+            for (int j = 0; j < cfg.predecessorCount(h); j++) {
+                if (dom.dominates(h, cfg.predecessor(h, j))) {
+                    back++;
+                }
+            }
+            if (back > 0) {
+                headerList[count] = h;
+                latchCount[++count] = back;
+                edges += back;
+            }
+        }
+        loopCount = count;
+        headers = Arrays.copyOf(headerList, count);
+        parents = new int[count];
+        Arrays.fill(parents, -1);
+        latchStart = Arrays.copyOf(latchCount, count + 1);
+        for (int l = 0; l < count; l++) {
+            latchStart[l + 1] += latchStart[l];
+        }
+        latches = new int[edges];
+
+        // bodies, innermost loops first; a block's loop is the first one to reach it
+        int[] members = new int[16];
+        int[] memberStart = new int[count + 1];
+        int memberCount = 0;
+        int[] stack = new int[n];
+        int[] seen = new int[n];
+        Arrays.fill(seen, -1);
+        for (int l = 0; l < count; l++) {
+            int h = headers[l];
+            int top = 0;
+            int latch = latchStart[l];
+            seen[h] = l;
+            for (int j = 0; j < cfg.predecessorCount(h); j++) {
+                int t = cfg.predecessor(h, j);
+                if (dom.dominates(h, t)) {
+                    latches[latch++] = t;
+                    if (seen[t] != l) {
+                        seen[t] = l;
+                        stack[top++] = t;
+                    }
+                }
+            }
+            memberStart[l] = memberCount;
+            if (memberCount + 1 > members.length) {
+                members = Arrays.copyOf(members, members.length * 2);
+            }
+            members[memberCount++] = h;
+            claim(h, l);
+            while (top > 0) {
+                int b = stack[--top];
+                if (memberCount == members.length) {
+                    members = Arrays.copyOf(members, memberCount * 2);
+                }
+                members[memberCount++] = b;
+                claim(b, l);
+                for (int j = 0; j < cfg.predecessorCount(b); j++) {
+                    int p = cfg.predecessor(b, j);
+                    if (seen[p] != l && cfg.isReachable(p)) {
+                        seen[p] = l;
+                        stack[top++] = p;
+                    }
+                }
+            }
+        }
+        memberStart[count] = memberCount;
+
+        blockStart = memberStart;
+        blocks = new int[memberCount];
+        long[] keyed = new long[memberCount];
+        for (int l = 0; l < count; l++) {
+            int from = memberStart[l];
+            int to = memberStart[l + 1];
+            for (int k = from; k < to; k++) {
+                keyed[k] = (long) cfg.orderOf(members[k]) << 32 | members[k];
+            }
+            Arrays.sort(keyed, from, to);
+            for (int k = from; k < to; k++) {
+                blocks[k] = (int) keyed[k];
+            }
+        }
+
+        depths = new int[count];
+        for (int l = count - 1; l >= 0; l--) {
+            depths[l] = parents[l] < 0 ? 1 : depths[parents[l]] + 1;
+        }
+    }
+
+    /** Puts block {@code b} in loop {@code l}, or makes {@code l} enclose the outermost loop found so far around it. */
+    private void claim(int b, int l) {
+        int inner = loopOf[b];
+        if (inner < 0) {
+            loopOf[b] = l;
+            return;
+        }
+        while (parents[inner] >= 0) {
+            inner = parents[inner];
+        }
+        if (inner != l) {
+            parents[inner] = l;
+        }
+    }
+
+    public static LoopNest find(ControlFlowGraph cfg, DominatorTree dom) {
+        return new LoopNest(cfg, dom);
+    }
+
+    /** Number of loops; inner loops are numbered before the loops containing them. */
+    public int loopCount() {
+        return loopCount;
+    }
+
+    public int header(int l) {
+        return headers[l];
+    }
+
+    /** The innermost loop containing loop {@code l}, or -1. */
+    public int parent(int l) {
+        return parents[l];
+    }
+
+    /** Nesting depth of loop {@code l}, 1 for an outermost loop. */
+    public int depth(int l) {
+        return depths[l];
+    }
+
+    public int blockCount(int l) {
+        return blockStart[l + 1] - blockStart[l];
+    }
+
+    /** The {@code k}-th block of loop {@code l} in reverse postorder; the header is first. */
+    public int block(int l, int k) {
+        return blocks[blockStart[l] + k];
+    }
+
+    /** Number of back edges into the header of loop {@code l}. */
+    public int latchCount(int l) {
+        return latchStart[l + 1] - latchStart[l];
+    }
+
+    /** Source of the {@code k}-th back edge of loop {@code l}. */
+    public int latch(int l, int k) {
+        return latches[latchStart[l] + k];
+    }
+
+    /** The innermost loop containing block {@code b}, or -1. */
+    public int loopOf(int b) {
+        return loopOf[b];
+    }
+
+    /** Whether block {@code b} lies in loop {@code l} or a loop nested in it. */
+    public boolean contains(int l, int b) {
+        for (int x = loopOf[b]; x >= 0 && x <= l; x = parents[x]) {
+            if (x == l) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Loop nesting depth of block {@code b}, 0 outside all loops. */
+    public int depthOf(int b) {
+        return loopOf[b] < 0 ? 0 : depths[loopOf[b]];
+    }
+}
@@ -0,0 +1,599 @@
+import java.util.Arrays;
+
+/**
+ * Loop-invariant code motion and strength reduction of induction variables
+ * over a function in SSA form.
+ *
+ * Every loop first gets a preheader, a block that is the only way into the
+ * header from outside the loop and falls straight into it: when the header
+ * has several entries, or its one entry also branches elsewhere, a new
+ * block is placed right before the header, the entries are redirected to
+ * it and it merges their values with phis of its own. Loops are then
+ * treated innermost first. An instruction whose operands are all defined
+ * outside the loop moves to the end of the preheader; since a preheader
+ * lies in the enclosing loop, code hoisted out of an inner loop can move
+ * on out of the outer one. Only instructions that cannot trap or touch
+ * memory move, because the preheader also runs when the loop body runs
+ * zero times: loads stay, and so does a division unless its divisor is a
+ * constant other than 0 and -1.
+ *
+ * A header phi {@code i} whose value on the one back edge is {@code i + c}
+ * is a basic induction variable. Products of one with a constant, shifts
+ * of one by a constant and sign extensions of a 32-bit one (signed
+ * overflow being undefined, {@code (long) (i + c)} is {@code (long) i + c})
+ * follow it linearly. Each such product, typically the {@code i * 4} of
+ * an array index, gets a phi of its own that starts at the product of the
+ * initial value and grows by a constant at the end of the latch, and the
+ * uses inside the loop read that instead. The multiplications are left for
+ * {@link DeadCodeElimination}.
+ *
+ * A loop whose header is entered by falling through from a block inside
+ * it gets no preheader and is left alone, which the layout the generator
+ * produces, with the test at the top, never does.
+ */
+public final class LoopOptimizer {
+    private final IrFunction f;
+    private final ControlFlowGraph cfg;
+    private final LoopNest loops;
+    /** Preheader block of each loop, or -1. */
+    private final int[] preheaders;
+
+    /** Block each instruction is in now, which differs from its CFG block once it has moved. */
+    private int[] blockNow;
+    /** Instruction defining each register. */
+    private int[] definition;
+    /** Instructions added before the terminator of each block, as linked lists of nodes. */
+    private final int[] extraHead;
+    private final int[] extraTail;
+    /** Phis added after the existing ones at the top of each block. */
+    private final int[] phiHead;
+    private final int[] phiTail;
+    private int[] nodeInstruction = new int[16];
+    private int[] nodeNext = new int[16];
+    private int nodeCount;
+
+    /** Per register facts about the loop being reduced, valid where {@code ivLoop[r]} is that loop. */
+    private int[] ivLoop;
+    private int[] ivBasic;
+    private long[] ivScale;
+    /** The phi replacing each product within the loop {@code reducedIn[r]}. */
+    private int[] reducedIn;
+    private int[] replacement;
+    /** Initial value, step and register kind of the basic induction variables of the loop being reduced. */
+    private int[] basicInits = new int[4];
+    private long[] basicSteps = new long[4];
+    private int[] basicKinds = new int[4];
+    private int basicCount;
+
+    private int changes;
+
+    private LoopOptimizer(IrFunction f) {
+        this.f = f;
+        this.cfg = ControlFlowGraph.build(f);
+        DominatorTree dom = DominatorTree.compute(cfg);
+        this.loops = LoopNest.find(cfg, dom);
+        int blocks = cfg.blockCount();
+        this.extraHead = new int[blocks];
+        this.extraTail = new int[blocks];
+        this.phiHead = new int[blocks];
+        this.phiTail = new int[blocks];
+        Arrays.fill(extraHead, -1);
+        Arrays.fill(phiHead, -1);
+
+        preheaders = new int[loops.loopCount()];
+        for (int l = 0; l < loops.loopCount(); l++) {
+            int h = loops.header(l);
+            int entry = -1;
+            int entries = 0;
+            for (int k = 0; k < cfg.predecessorCount(h); k++) {
+                int p = cfg.predecessor(h, k);
+                if (!dom.dominates(h, p)) {
+                    entry = p;
+                    entries++;
+                }
+            }
+            preheaders[l] = entries == 1 && cfg.successorCount(entry) == 1 ? entry : -1;
+        }
+
+        int n = f.size();
+        blockNow = new int[n];
+        for (int i = 0; i < n; i++) {
+            blockNow[i] = cfg.blockOf(i);
+        }
+        definition = new int[f.registerCount()];
+        for (int i = 0; i < n; i++) {
+            if (Ir.defines(f.op(i)) && f.dst(i) >= 0) {
+                definition[f.dst(i)] = i;
+            }
+        }
+        ivLoop = new int[f.registerCount()];
+        Arrays.fill(ivLoop, -1);
+        ivBasic = new int[f.registerCount()];
+        ivScale = new long[f.registerCount()];
+        reducedIn = new int[f.registerCount()];
+        Arrays.fill(reducedIn, -1);
+        replacement = new int[f.registerCount()];
+    }
+
+    /** Hoists invariant code out of the loops of {@code f} and reduces induction variables; returns how many changes were made. */
+    public static int run(IrFunction f) {
+        if (f.size() == 0) {
+            return 0;
+        }
+        insertPreheaders(f);
+        LoopOptimizer o = new LoopOptimizer(f);
+        for (int l = 0; l < o.loops.loopCount(); l++) {
+            if (o.preheaders[l] >= 0) {
+                o.hoist(l);
+                o.reduce(l);
+            }
+        }
+        if (o.changes > 0) {
+            o.emit();
+            f.removeNops();
+        }
+        return o.changes;
+    }
+
+    // ------------------------------------------------------------ preheaders
+
+    /** Gives every loop that lacks one a preheader, re-laying the code if any is added. */
+    private static void insertPreheaders(IrFunction f) {
+        ControlFlowGraph cfg = ControlFlowGraph.build(f);
+        DominatorTree dom = DominatorTree.compute(cfg);
+        LoopNest loops = LoopNest.find(cfg, dom);
+        int blocks = cfg.blockCount();
+        int[] loopAt = new int[blocks];
+        Arrays.fill(loopAt, -1);
+        boolean any = false;
+        for (int l = 0; l < loops.loopCount(); l++) {
+            int h = loops.header(l);
+            int entries = 0;
+            int entry = -1;
+            for (int k = 0; k < cfg.predecessorCount(h); k++) {
+                if (!dom.dominates(h, cfg.predecessor(h, k))) {
+                    entry = cfg.predecessor(h, k);
+                    entries++;
+                }
+            }
+            if (entries == 1 && cfg.successorCount(entry) == 1) {
+                continue;
+            }
+            int previous = h - 1;
+            int last = f.op(cfg.end(previous) - 1);
+            if (dom.dominates(h, previous) && last != Ir.JMP && last != Ir.RET && last != Ir.SWITCH) {
+                continue;
+            }
+            loopAt[h] = l;
+            any = true;
+        }
+        if (!any) {
+            return;
+        }
+
+        int n = f.size();
+        int[] ops = new int[n];
+        int[] kinds = new int[n];
+        int[] dsts = new int[n];
+        int[] as = new int[n];
+        int[] bs = new int[n];
+        for (int i = 0; i < n; i++) {
+            ops[i] = f.op(i);
+            kinds[i] = f.kind(i);
+            dsts[i] = f.dst(i);
+            as[i] = f.a(i);
+            bs[i] = f.b(i);
+        }
+        f.truncate(0);
+        int[] newStart = new int[blocks];
+        int[] preStart = new int[blocks];
+        // value each header phi gets from the preheader, and the header phis to fill in afterwards
+        int[] entryValue = new int[n];
+        int[] headerPhis = new int[n];
+        int[] headerPhiOld = new int[n];
+        int headerPhiCount = 0;
+        int[] origin = new int[2 * n + blocks];
+        for (int b = 0; b < blocks; b++) {
+            int l = loopAt[b];
+            if (l >= 0) {
+                preStart[b] = f.size();
+                int entries = cfg.predecessorCount(b) - loops.latchCount(l);
+                for (int i = cfg.start(b); i < cfg.end(b) && ops[i] == Ir.PHI; i++) {
+                    if (entries == 1) {
+                        for (int k = 0; k < cfg.predecessorCount(b); k++) {
+                            if (!dom.dominates(b, cfg.predecessor(b, k))) {
+                                entryValue[i] = f.aux(bs[i] + 1 + k);
+                            }
+                        }
+                        continue;
+                    }
+                    int base = f.allocateAux(1 + entries);
+                    f.setAux(base, entries);
+                    int j = 0;
+                    for (int k = 0; k < cfg.predecessorCount(b); k++) {
+                        if (!dom.dominates(b, cfg.predecessor(b, k))) {
+                            f.setAux(base + 1 + j++, f.aux(bs[i] + 1 + k));
+                        }
+                    }
+                    entryValue[i] = f.newRegister(kinds[i]);
+                    origin[f.emit(Ir.PHI, kinds[i], entryValue[i], Ir.NONE, base)] = -1;
+                }
+                if (f.size() == preStart[b]) {
+                    origin[f.emit(Ir.NOP, Ir.VOID, Ir.NONE, Ir.NONE, Ir.NONE)] = -1;
+                }
+            }
+            newStart[b] = f.size();
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                int bOperand = bs[i];
+                if (l >= 0 && ops[i] == Ir.PHI) {
+                    bOperand = f.allocateAux(2 + loops.latchCount(l));
+                    f.setAux(bOperand, 1 + loops.latchCount(l));
+                    headerPhis[headerPhiCount] = f.size();
+                    headerPhiOld[headerPhiCount++] = i;
+                }
+                origin[f.emit(ops[i], kinds[i], dsts[i], as[i], bOperand)] = b;
+            }
+        }
+        for (int i = 0; i < f.size(); i++) {
+            for (int k = 0; k < f.targetCount(i); k++) {
+                int target = cfg.blockOf(f.target(i, k));
+                boolean entering = loopAt[target] >= 0 && !dom.dominates(target, origin[i]);
+                f.setTarget(i, k, entering ? preStart[target] : newStart[target]);
+            }
+        }
+
+        // the header's predecessors are now the preheader and the latches, in the new numbering
+        ControlFlowGraph laid = ControlFlowGraph.build(f);
+        int[] oldBlock = new int[laid.blockCount()];
+        Arrays.fill(oldBlock, -1);
+        for (int b = 0; b < blocks; b++) {
+            oldBlock[laid.blockOf(newStart[b])] = b;
+        }
+        for (int j = 0; j < headerPhiCount; j++) {
+            int phi = headerPhis[j];
+            int old = headerPhiOld[j];
+            int h = cfg.blockOf(old);
+            int block = laid.blockOf(phi);
+            for (int k = 0; k < laid.predecessorCount(block); k++) {
+                int p = oldBlock[laid.predecessor(block, k)];
+                int value = p < 0
+                        ? entryValue[old]
+                        : f.aux(bs[old] + 1 + cfg.predecessorIndex(h, p));
+                f.setPhiArg(phi, k, value);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------- hoisting
+
+    private void hoist(int l) {
+        int preheader = preheaders[l];
+        for (int k = 0; k < loops.blockCount(l); k++) {
+            int b = loops.block(l, k);
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                if (blockNow[i] == b && isInvariant(i, l)) {
+                    moveTo(i, preheader);
+                }
+            }
+            for (int node = extraHead[b]; node >= 0; node = nodeNext[node]) {
+                int i = nodeInstruction[node];
+                if (blockNow[i] == b && isInvariant(i, l)) {
+                    moveTo(i, preheader);
+                }
+            }
+        }
+    }
+
+    private boolean isInvariant(int i, int l) {
+        int op = f.op(i);
+        switch (op) {
+            case Ir.NOP:
+            case Ir.LOAD:
+            case Ir.STORE:
+            case Ir.PARAM:
+            case Ir.CALL:
+            case Ir.CALLI:
+            case Ir.RET:
+            case Ir.PHI:
+                return false;
+            case Ir.DIV:
+            case Ir.REM:
+                if (!Ir.isFloat(f.kind(i))
+                        && (!Ir.isConstant(f.b(i)) || f.constantValue(f.b(i)) == 0 || f.constantValue(f.b(i)) == -1)) {
+                    return false;
+                }
+                break;
+            default:
+                if (Ir.endsBlock(op)) {
+                    return false;
+                }
+        }
+        for (int k = 0; k < f.operandCount(i); k++) {
+            int x = f.operand(i, k);
+            if (Ir.isRegister(x) && loops.contains(l, blockNow[definition[x]])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void moveTo(int i, int b) {
+        blockNow[i] = b;
+        append(extraHead, extraTail, b, i);
+        changes++;
+    }
+
+    private void append(int[] heads, int[] tails, int b, int i) {
+        if (nodeCount == nodeInstruction.length) {
+            nodeInstruction = Arrays.copyOf(nodeInstruction, nodeCount * 2);
+            nodeNext = Arrays.copyOf(nodeNext, nodeCount * 2);
+        }
+        nodeInstruction[nodeCount] = i;
+        nodeNext[nodeCount] = -1;
+        if (heads[b] < 0) {
+            heads[b] = nodeCount;
+        } else {
+            nodeNext[tails[b]] = nodeCount;
+        }
+        tails[b] = nodeCount++;
+    }
+
+    /** Emits a new instruction into block {@code b}, among its phis for a phi, and returns its register. */
+    private int add(int b, int op, int kind, int a, int x) {
+        int dst = f.newRegister(kind);
+        int i = f.emit(op, kind, dst, a, x);
+        if (i >= blockNow.length) {
+            blockNow = Arrays.copyOf(blockNow, Math.max(i + 1, blockNow.length * 2));
+        }
+        blockNow[i] = b;
+        if (dst >= definition.length) {
+            int n = Math.max(dst + 1, definition.length * 2);
+            definition = Arrays.copyOf(definition, n);
+            ivLoop = Arrays.copyOf(ivLoop, n);
+            Arrays.fill(ivLoop, dst, n, -1);
+            ivBasic = Arrays.copyOf(ivBasic, n);
+            ivScale = Arrays.copyOf(ivScale, n);
+            reducedIn = Arrays.copyOf(reducedIn, n);
+            Arrays.fill(reducedIn, dst, n, -1);
+            replacement = Arrays.copyOf(replacement, n);
+        }
+        definition[dst] = i;
+        if (op == Ir.PHI) {
+            append(phiHead, phiTail, b, i);
+        } else {
+            append(extraHead, extraTail, b, i);
+        }
+        return dst;
+    }
+
+    // --------------------------------------------------- strength reduction
+
+    private void reduce(int l) {
+        int h = loops.header(l);
+        if (loops.latchCount(l) != 1 || cfg.predecessorCount(h) != 2) {
+            return;
+        }
+        int entry = cfg.predecessorIndex(h, preheaders[l]);
+        int back = 1 - entry;
+
+        // basic induction variables: i = phi(init, i + c)
+        basicCount = 0;
+        for (int i = cfg.start(h); i < cfg.end(h) && f.op(i) == Ir.PHI; i++) {
+            int kind = f.kind(i);
+            int next = f.phiArg(i, back);
+            if (Ir.isFloat(kind) || !Ir.isRegister(next)) {
+                continue;
+            }
+            int d = definition[next];
+            int op = f.op(d);
+            int phi = f.dst(i);
+            long step;
+            if (op == Ir.ADD && (f.a(d) == phi && Ir.isConstant(f.b(d)) || f.b(d) == phi && Ir.isConstant(f.a(d)))) {
+                step = f.constantValue(f.a(d) == phi ? f.b(d) : f.a(d));
+            } else if (op == Ir.SUB && f.a(d) == phi && Ir.isConstant(f.b(d))) {
+                step = Ir.fold(Ir.NEG, kind, f.constantValue(f.b(d)), 0);
+            } else {
+                continue;
+            }
+            if (Ir.regKind(f.kind(d)) != Ir.regKind(kind) || !loops.contains(l, blockNow[d])) {
+                continue;
+            }
+            if (basicCount == basicInits.length) {
+                basicInits = Arrays.copyOf(basicInits, basicCount * 2);
+                basicSteps = Arrays.copyOf(basicSteps, basicCount * 2);
+                basicKinds = Arrays.copyOf(basicKinds, basicCount * 2);
+            }
+            basicInits[basicCount] = f.phiArg(i, entry);
+            basicSteps[basicCount] = step;
+            basicKinds[basicCount] = Ir.regKind(kind);
+            ivLoop[phi] = l;
+            ivBasic[phi] = basicCount++;
+            ivScale[phi] = 1;
+        }
+        if (basicCount == 0) {
+            return;
+        }
+
+        int reduced = 0;
+        for (int k = 0; k < loops.blockCount(l); k++) {
+            int b = loops.block(l, k);
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                if (blockNow[i] == b) {
+                    reduced += derive(i, l, entry, back);
+                }
+            }
+            for (int node = extraHead[b]; node >= 0; node = nodeNext[node]) {
+                int i = nodeInstruction[node];
+                if (blockNow[i] == b) {
+                    reduced += derive(i, l, entry, back);
+                }
+            }
+        }
+        if (reduced == 0) {
+            return;
+        }
+        changes += reduced;
+        for (int k = 0; k < loops.blockCount(l); k++) {
+            int b = loops.block(l, k);
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                if (blockNow[i] == b) {
+                    replaceUses(i, l);
+                }
+            }
+            for (int node = extraHead[b]; node >= 0; node = nodeNext[node]) {
+                if (blockNow[nodeInstruction[node]] == b) {
+                    replaceUses(nodeInstruction[node], l);
+                }
+            }
+        }
+    }
+
+    private boolean isInduction(int operand, int l) {
+        return Ir.isRegister(operand) && ivLoop[operand] == l;
+    }
+
+    /**
+     * Records instruction {@code i} of loop {@code l} as an induction
+     * variable if it follows one linearly, and gives it a phi of its own if
+     * it is a product; returns 1 if it got one.
+     */
+    private int derive(int i, int l, int entry, int back) {
+        int op = f.op(i);
+        int kind = f.kind(i);
+        int a = f.a(i);
+        int x = f.b(i);
+        int dst = f.dst(i);
+        int iv;
+        long scale;
+        switch (op) {
+            case Ir.CONV:
+                if (isInduction(a, l) && x == Ir.I32 && Ir.regKind(kind) == Ir.I64) {
+                    ivLoop[dst] = l;
+                    ivBasic[dst] = ivBasic[a];
+                    ivScale[dst] = ivScale[a];
+                }
+                return 0;
+            case Ir.MUL:
+                if (isInduction(a, l) && Ir.isConstant(x)) {
+                    iv = a;
+                } else if (isInduction(x, l) && Ir.isConstant(a)) {
+                    iv = x;
+                } else {
+                    return 0;
+                }
+                scale = Ir.fold(Ir.MUL, kind, ivScale[iv], f.constantValue(iv == a ? x : a));
+                break;
+            case Ir.SHL:
+                if (!isInduction(a, l) || !Ir.isConstant(x)) {
+                    return 0;
+                }
+                iv = a;
+                scale = Ir.fold(Ir.SHL, kind, ivScale[iv], f.constantValue(x));
+                break;
+            default:
+                return 0;
+        }
+        if (Ir.regKind(kind) != f.registerKind(iv)) {
+            return 0;
+        }
+        int basic = ivBasic[iv];
+        ivLoop[dst] = l;
+        ivBasic[dst] = basic;
+        ivScale[dst] = scale;
+
+        // the initial value, widened as the variable was, times the scale
+        int preheader = preheaders[l];
+        boolean widened = Ir.regKind(kind) != basicKinds[basic];
+        int start = basicInits[basic];
+        long step = basicSteps[basic];
+        if (widened) {
+            step = Ir.convert(step, Ir.I32, Ir.I64);
+            start = Ir.isConstant(start)
+                    ? f.constant(Ir.convert(f.constantValue(start), Ir.I32, Ir.I64))
+                    : add(preheader, Ir.CONV, Ir.I64, start, Ir.I32);
+        }
+        if (Ir.isConstant(start)) {
+            start = f.constant(Ir.fold(Ir.MUL, kind, f.constantValue(start), scale));
+        } else {
+            start = add(preheader, Ir.MUL, kind, f.constant(scale), start);
+        }
+        step = Ir.fold(Ir.MUL, kind, step, scale);
+
+        int base = f.allocateAux(3);
+        f.setAux(base, 2);
+        int phi = add(loops.header(l), Ir.PHI, kind, Ir.NONE, base);
+        int next = add(loops.latch(l, 0), Ir.ADD, kind, phi, f.constant(step));
+        f.setAux(base + 1 + entry, start);
+        f.setAux(base + 1 + back, next);
+        reducedIn[dst] = l;
+        replacement[dst] = phi;
+        return 1;
+    }
+
+    private void replaceUses(int i, int l) {
+        for (int k = 0; k < f.operandCount(i); k++) {
+            int x = f.operand(i, k);
+            if (Ir.isRegister(x) && reducedIn[x] == l) {
+                f.setOperand(i, k, replacement[x]);
+            }
+        }
+    }
+
+    // --------------------------------------------------------------- layout
+
+    /** Re-lays the code with every instruction in the block it now belongs to. */
+    private void emit() {
+        int n = f.size();
+        int[] ops = new int[n];
+        int[] kinds = new int[n];
+        int[] dsts = new int[n];
+        int[] as = new int[n];
+        int[] bs = new int[n];
+        for (int i = 0; i < n; i++) {
+            ops[i] = f.op(i);
+            kinds[i] = f.kind(i);
+            dsts[i] = f.dst(i);
+            as[i] = f.a(i);
+            bs[i] = f.b(i);
+        }
+        f.truncate(0);
+        int blocks = cfg.blockCount();
+        int[] newStart = new int[blocks];
+        for (int b = 0; b < blocks; b++) {
+            newStart[b] = f.size();
+            int start = cfg.start(b);
+            int end = cfg.end(b);
+            int terminator = Ir.endsBlock(ops[end - 1]) ? end - 1 : -1;
+            int i = start;
+            for (; i < end && ops[i] == Ir.PHI; i++) {
+                f.emit(ops[i], kinds[i], dsts[i], as[i], bs[i]);
+            }
+            for (int node = phiHead[b]; node >= 0; node = nodeNext[node]) {
+                int j = nodeInstruction[node];
+                f.emit(ops[j], kinds[j], dsts[j], as[j], bs[j]);
+            }
+            for (; i < end; i++) {
+                if (i != terminator && blockNow[i] == b) {
+                    f.emit(ops[i], kinds[i], dsts[i], as[i], bs[i]);
+                }
+            }
+            for (int node = extraHead[b]; node >= 0; node = nodeNext[node]) {
+                int j = nodeInstruction[node];
+                if (blockNow[j] == b) {
+                    f.emit(ops[j], kinds[j], dsts[j], as[j], bs[j]);
+                }
+            }
+            if (terminator >= 0) {
+                f.emit(ops[terminator], kinds[terminator], dsts[terminator], as[terminator], bs[terminator]);
+            }
+            if (f.size() == newStart[b]) {
+                f.emit(Ir.NOP, Ir.VOID, Ir.NONE, Ir.NONE, Ir.NONE);
+            }
+        }
+        for (int i = 0; i < f.size(); i++) {
+            for (int k = 0; k < f.targetCount(i); k++) {
+                f.setTarget(i, k, newStart[cfg.blockOf(f.target(i, k))]);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.util.Arrays;
+
+/**
+ * Walks a parse tree once and dispatches every event to several listeners,
+ * instead of one {@code ParseTreeWalker.walk} per listener.
+ *
+ * Each listener sees exactly the events a separate ParseTreeWalker would
+ * give it, in the same order. A listener may call {@link #skipChildren}
+ * from an enter method: it then gets no events for the children of that
+ * node, but still gets the matching exit. When every listener skips a
+ * subtree the walker does not descend into it at all.
+ */
+public class MultiListenerWalker {
+    private final ParseTreeListener[] listeners;
+    /** Depth at which each listener asked to skip, 0 while it is active. */
+    private final int[] skippedAt;
+    private int active;
+    private int depth;
+
+    public MultiListenerWalker(ParseTreeListener... listeners) {
+        this.listeners = listeners.clone();
+        this.skippedAt = new int[listeners.length];
+    }
+
+    public void walk(ParseTree tree) {
+        depth = 0;
+        active = listeners.length;
+        Arrays.fill(skippedAt, 0);
+        walkNode(tree);
+    }
+
+    /**
+     * Stops the current walk from descending below the node whose enter
+     * event {@code listener} is handling.
+     */
+    public void skipChildren(ParseTreeListener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener && skippedAt[i] == 0) {
+                skippedAt[i] = depth;
+                active--;
+            }
+        }
+    }
+
+    private void walkNode(ParseTree t) {
+        if (t instanceof ErrorNode) {
+            for (int i = 0; i < listeners.length; i++) {
+                if (skippedAt[i] == 0) {
+                    listeners[i].visitErrorNode((ErrorNode) t);
+                }
+            }
+            return;
+        }
+        if (t instanceof TerminalNode) {
+            for (int i = 0; i < listeners.length; i++) {
+                if (skippedAt[i] == 0) {
+                    listeners[i].visitTerminal((TerminalNode) t);
+                }
+            }
+            return;
+        }
+        ParserRuleContext ctx = (ParserRuleContext) t;
+        depth++;
+        for (int i = 0; i < listeners.length; i++) {
+            if (skippedAt[i] == 0) {
+                listeners[i].enterEveryRule(ctx);
+                ctx.enterRule(listeners[i]);
+            }
+        }
+        if (active > 0) {
+            for (int c = 0, n = ctx.getChildCount(); c < n; c++) {
+                walkNode(ctx.getChild(c));
+            }
+        }
+        for (int i = 0; i < listeners.length; i++) {
+            if (skippedAt[i] == depth) {
+                skippedAt[i] = 0;
+                active++;
+            }
+            if (skippedAt[i] == 0) {
+                ctx.exitRule(listeners[i]);
+                listeners[i].exitEveryRule(ctx);
+            }
+        }
+        depth--;
+    }
+}
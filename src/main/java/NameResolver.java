@@ -0,0 +1,385 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binds every name in a translation unit to its {@link Symbol}: identifiers
+ * in expressions, typedef and tag references in types, goto targets and
+ * the declarations themselves.
+ *
+ * Scopes follow C: file scope, one function scope per definition holding
+ * its parameters, labels and outermost block, a block scope per nested
+ * compound statement and a prototype scope for parameter lists that are
+ * not part of a definition. Expression results are kept in an array indexed
+ * by {@link Ast.Expr#id}, so {@link #symbolOf(Ast.NameExpr)} is a load.
+ *
+ * A call to an undeclared name declares an implicit function at file scope,
+ * as C89 does; the examples call printf and scanf this way. Other problems
+ * are collected in {@link #getErrors()} instead of aborting.
+ */
+public final class NameResolver extends Ast.Scanner<Void> {
+    private final Ast.TranslationUnit unit;
+    private final Interner names;
+    private final SymbolTable table = new SymbolTable();
+    private final Symbol[] exprSymbols;
+    private final Map<Object, Symbol> bindings = new IdentityHashMap<>();
+    private final List<Symbol> symbols = new ArrayList<>();
+    private final List<String> errors = new ArrayList<>();
+    private Symbol[] implicitFunctions = new Symbol[16];
+    /** Node whose types are being scanned, for locating type errors. */
+    private Ast.Node site;
+
+    private NameResolver(Ast.TranslationUnit unit, Interner names) {
+        this.unit = unit;
+        this.names = names;
+        this.exprSymbols = new Symbol[unit.exprCount];
+    }
+
+    public static NameResolver resolve(Ast.TranslationUnit unit) {
+        return resolve(unit, new Interner());
+    }
+
+    public static NameResolver resolve(Ast.TranslationUnit unit, Interner names) {
+        NameResolver r = new NameResolver(unit, names);
+        r.scan(unit);
+        return r;
+    }
+
+    public Ast.TranslationUnit getUnit() {
+        return unit;
+    }
+
+    public Interner getNames() {
+        return names;
+    }
+
+    /** All symbols in creation order; {@code getSymbols().get(s.id) == s}. */
+    public List<Symbol> getSymbols() {
+        return Collections.unmodifiableList(symbols);
+    }
+
+    public List<String> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    /** The symbol a name expression refers to, or null if it is undeclared. */
+    public Symbol symbolOf(Ast.NameExpr n) {
+        return exprSymbols[n.id];
+    }
+
+    /** The symbol introduced by a declaration (null for anonymous fields and parameters). */
+    public Symbol symbolOf(Ast.Decl d) {
+        return bindings.get(d);
+    }
+
+    /** The tag a struct, union or enum type refers to. */
+    public Symbol symbolOf(Ast.TagTypeRef t) {
+        return bindings.get(t);
+    }
+
+    /** The typedef a typedef name refers to. */
+    public Symbol symbolOf(Ast.TypedefTypeRef t) {
+        return bindings.get(t);
+    }
+
+    public Symbol labelOf(Ast.GotoStmt n) {
+        return bindings.get(n);
+    }
+
+    public Symbol labelOf(Ast.LabeledStmt n) {
+        return bindings.get(n);
+    }
+
+    private Symbol newSymbol(Symbol.Kind kind, String name, Ast.Node node, boolean implicit) {
+        int nameId = name == null ? -1 : names.intern(name);
+        Symbol s = new Symbol(symbols.size(), kind, name, nameId, table.depth(), node, implicit);
+        symbols.add(s);
+        return s;
+    }
+
+    private void error(Ast.Node at, String message) {
+        int offset = at.begin();
+        errors.add("line " + unit.line(offset) + ":" + unit.column(offset) + " " + message);
+    }
+
+    /** Declares an ordinary identifier, reporting conflicting redeclarations. */
+    private Symbol declareOrdinary(Symbol.Kind kind, Ast.Decl d) {
+        Symbol s = newSymbol(kind, d.name, d, false);
+        Symbol existing = table.declare(SymbolTable.ORDINARY, s);
+        if (existing != s) {
+            symbols.remove(symbols.size() - 1);
+            if (existing.kind != kind || !redeclarable(existing, d)) {
+                error(d, "redeclaration of '" + d.name + "'");
+            } else if (isDefinition(d)) {
+                existing.node = d;
+            }
+            s = existing;
+        }
+        bindings.put(d, s);
+        return s;
+    }
+
+    /** Whether {@code d} may repeat the declaration already bound to {@code existing}. */
+    private boolean redeclarable(Symbol existing, Ast.Decl d) {
+        if (existing.kind == Symbol.Kind.FUNCTION) {
+            return !(isDefinition(d) && isDefinition((Ast.Decl) existing.node));
+        }
+        if (existing.kind == Symbol.Kind.VARIABLE) {
+            boolean external = table.depth() == 0
+                    || (((Ast.VarDecl) d).flags & Ast.Decl.EXTERN) != 0
+                    && (((Ast.VarDecl) existing.node).flags & Ast.Decl.EXTERN) != 0;
+            return external && !(isDefinition(d) && isDefinition((Ast.Decl) existing.node));
+        }
+        return existing.kind == Symbol.Kind.TYPEDEF && table.depth() == 0;
+    }
+
+    private static boolean isDefinition(Ast.Decl d) {
+        if (d instanceof Ast.FunctionDecl) {
+            return ((Ast.FunctionDecl) d).body != null;
+        }
+        if (d instanceof Ast.VarDecl) {
+            return ((Ast.VarDecl) d).init != null;
+        }
+        return false;
+    }
+
+    // ---------------------------------------------------------------- types
+
+    @Override
+    public Void scan(Ast.TypeRef t) {
+        if (t instanceof Ast.TagTypeRef) {
+            resolveTag((Ast.TagTypeRef) t);
+        } else if (t instanceof Ast.TypedefTypeRef) {
+            Ast.TypedefTypeRef ref = (Ast.TypedefTypeRef) t;
+            Symbol s = table.lookup(SymbolTable.ORDINARY, names.intern(ref.name));
+            if (s == null || s.kind != Symbol.Kind.TYPEDEF) {
+                error(site == null ? unit : site, "unknown type name '" + ref.name + "'");
+            } else {
+                bindings.put(ref, s);
+            }
+        } else if (t instanceof Ast.FunctionTypeRef) {
+            // prototype scope
+            table.pushScope(SymbolTable.BLOCK_SCOPE);
+            super.scan(t);
+            table.popScope();
+        } else {
+            super.scan(t);
+        }
+        return null;
+    }
+
+    private void resolveTag(Ast.TagTypeRef ref) {
+        Symbol s = bindings.get(ref.decl);
+        if (s == null) {
+            // 'struct s' without a body: the visible tag, or a new incomplete one here
+            s = ref.decl.name == null ? null : table.lookup(SymbolTable.TAG, names.intern(ref.decl.name));
+            if (s == null) {
+                s = declareTag(ref.decl);
+            }
+        }
+        bindings.put(ref, s);
+    }
+
+    private Symbol declareTag(Ast.Decl d) {
+        Symbol s = newSymbol(Symbol.Kind.TAG, d.name, d, false);
+        if (d.name != null) {
+            Symbol existing = table.declare(SymbolTable.TAG, s);
+            if (existing != s) {
+                symbols.remove(symbols.size() - 1);
+                if (isTagDefinition(d)) {
+                    if (isTagDefinition((Ast.Decl) existing.node)) {
+                        error(d, "redefinition of '" + d.name + "'");
+                    } else if (existing.node.getClass() != d.getClass()) {
+                        error(d, "'" + d.name + "' defined as wrong kind of tag");
+                    } else {
+                        existing.node = d;
+                    }
+                }
+                s = existing;
+            }
+        }
+        bindings.put(d, s);
+        return s;
+    }
+
+    private static boolean isTagDefinition(Ast.Decl d) {
+        return d instanceof Ast.StructDecl ? ((Ast.StructDecl) d).isDefinition() : ((Ast.EnumDecl) d).isDefinition();
+    }
+
+    // --------------------------------------------------------- declarations
+
+    @Override
+    public Void visitFunctionDecl(Ast.FunctionDecl n) {
+        site = n;
+        declareOrdinary(Symbol.Kind.FUNCTION, n);
+        if (n.body == null) {
+            scan(n.type);
+            return null;
+        }
+        table.pushScope(SymbolTable.FUNCTION_SCOPE);
+        scan(n.type.result);
+        scan(n.type.params);
+        declareLabels(n.body);
+        scan(n.body.items);
+        table.popScope();
+        return null;
+    }
+
+    private void declareLabels(Ast.CompoundStmt body) {
+        body.accept(new Ast.Scanner<Void>() {
+            @Override
+            public Void visitLabeledStmt(Ast.LabeledStmt n) {
+                Symbol s = newSymbol(Symbol.Kind.LABEL, n.label, n, false);
+                Symbol existing = table.declare(SymbolTable.LABEL, s);
+                if (existing != s) {
+                    symbols.remove(symbols.size() - 1);
+                    error(n, "duplicate label '" + n.label + "'");
+                }
+                bindings.put(n, existing);
+                return scan(n.body);
+            }
+
+            // expressions cannot contain statements
+            @Override
+            public Void visitExprStmt(Ast.ExprStmt n) {
+                return null;
+            }
+
+            @Override
+            public Void visitDeclStmt(Ast.DeclStmt n) {
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Void visitVarDecl(Ast.VarDecl n) {
+        site = n;
+        scan(n.type);
+        declareOrdinary(Symbol.Kind.VARIABLE, n);
+        if (n.alignment instanceof Ast.TypeRef) {
+            scan((Ast.TypeRef) n.alignment);
+        } else if (n.alignment instanceof Ast.Expr) {
+            scan((Ast.Expr) n.alignment);
+        }
+        return scan(n.init);
+    }
+
+    @Override
+    public Void visitParamDecl(Ast.ParamDecl n) {
+        site = n;
+        scan(n.type);
+        if (n.name != null) {
+            declareOrdinary(Symbol.Kind.PARAMETER, n);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitTypedefDecl(Ast.TypedefDecl n) {
+        site = n;
+        scan(n.type);
+        declareOrdinary(Symbol.Kind.TYPEDEF, n);
+        return null;
+    }
+
+    @Override
+    public Void visitStructDecl(Ast.StructDecl n) {
+        declareTag(n);
+        return super.visitStructDecl(n);
+    }
+
+    @Override
+    public Void visitFieldDecl(Ast.FieldDecl n) {
+        site = n;
+        return super.visitFieldDecl(n);
+    }
+
+    @Override
+    public Void visitEnumDecl(Ast.EnumDecl n) {
+        declareTag(n);
+        return super.visitEnumDecl(n);
+    }
+
+    @Override
+    public Void visitEnumConstantDecl(Ast.EnumConstantDecl n) {
+        scan(n.value);
+        declareOrdinary(Symbol.Kind.ENUM_CONSTANT, n);
+        return null;
+    }
+
+    // ----------------------------------------------------------- statements
+
+    @Override
+    public Void visitCompoundStmt(Ast.CompoundStmt n) {
+        table.pushScope(SymbolTable.BLOCK_SCOPE);
+        scan(n.items);
+        table.popScope();
+        return null;
+    }
+
+    @Override
+    public Void visitGotoStmt(Ast.GotoStmt n) {
+        Symbol s = table.lookup(SymbolTable.LABEL, names.intern(n.label));
+        if (s == null) {
+            error(n, "use of undeclared label '" + n.label + "'");
+        } else {
+            bindings.put(n, s);
+        }
+        return null;
+    }
+
+    // ---------------------------------------------------------- expressions
+
+    @Override
+    public Void visitNameExpr(Ast.NameExpr n) {
+        Symbol s = lookupOrdinary(n.name);
+        if (s == null) {
+            error(n, "use of undeclared identifier '" + n.name + "'");
+        } else if (s.kind == Symbol.Kind.TYPEDEF) {
+            error(n, "unexpected type name '" + n.name + "'");
+        } else {
+            exprSymbols[n.id] = s;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Ast.CallExpr n) {
+        if (n.callee instanceof Ast.NameExpr && lookupOrdinary(((Ast.NameExpr) n.callee).name) == null) {
+            Ast.NameExpr callee = (Ast.NameExpr) n.callee;
+            int id = names.intern(callee.name);
+            if (id >= implicitFunctions.length) {
+                implicitFunctions = Arrays.copyOf(implicitFunctions, Math.max(id + 1, implicitFunctions.length * 2));
+            }
+            Symbol s = new Symbol(symbols.size(), Symbol.Kind.FUNCTION, callee.name, id, 0, callee, true);
+            symbols.add(s);
+            implicitFunctions[id] = s;
+        }
+        return super.visitCallExpr(n);
+    }
+
+    private Symbol lookupOrdinary(String name) {
+        int id = names.intern(name);
+        Symbol s = table.lookup(SymbolTable.ORDINARY, id);
+        if (s == null && id < implicitFunctions.length) {
+            s = implicitFunctions[id];
+        }
+        return s;
+    }
+
+    @Override
+    public Void visitCastExpr(Ast.CastExpr n) {
+        site = n;
+        return super.visitCastExpr(n);
+    }
+
+    @Override
+    public Void visitSizeofTypeExpr(Ast.SizeofTypeExpr n) {
+        site = n;
+        return super.visitSizeofTypeExpr(n);
+    }
+}
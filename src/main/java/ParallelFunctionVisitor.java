@@ -0,0 +1,99 @@
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * Runs a per-function analysis over every function_definition of a
+ * translation unit in parallel and reduces the per-function results.
+ *
+ * Each function is visited by a fresh visitor from {@code visitors}, so
+ * visitors may keep state without synchronisation. The parse tree is shared
+ * between worker threads and must be treated as read-only: visitors must not
+ * modify contexts, and should read token text through the contexts rather
+ * than through the (unsynchronised) token stream. {@code reducer} must be
+ * associative; {@code identity} is returned for a unit without functions.
+ *
+ * @param <R> per-function result type
+ */
+public class ParallelFunctionVisitor<R> {
+    /** Functions per task below which a range is visited sequentially. */
+    private static final int SEQUENTIAL_THRESHOLD = 8;
+
+    private final ForkJoinPool pool;
+    private final Supplier<? extends CVisitor<? extends R>> visitors;
+    private final BinaryOperator<R> reducer;
+    private final R identity;
+
+    public ParallelFunctionVisitor(Supplier<? extends CVisitor<? extends R>> visitors,
+                                   BinaryOperator<R> reducer, R identity) {
+        this(ForkJoinPool.commonPool(), visitors, reducer, identity);
+    }
+
+    public ParallelFunctionVisitor(ForkJoinPool pool, Supplier<? extends CVisitor<? extends R>> visitors,
+                                   BinaryOperator<R> reducer, R identity) {
+        this.pool = pool;
+        this.visitors = visitors;
+        this.reducer = reducer;
+        this.identity = identity;
+    }
+
+    public R visit(CParser.Translation_unitContext unit) {
+        List<CParser.Function_definitionContext> functions = functions(unit);
+        if (functions.isEmpty()) {
+            return identity;
+        }
+        return pool.invoke(new VisitTask(functions, 0, functions.size()));
+    }
+
+    /** The function definitions directly under {@code unit}, in source order. */
+    public static List<CParser.Function_definitionContext> functions(CParser.Translation_unitContext unit) {
+        List<CParser.Function_definitionContext> functions = new ArrayList<>();
+        for (CParser.External_declarationContext decl : unit.external_declaration()) {
+            if (decl.function_definition() != null) {
+                functions.add(decl.function_definition());
+            }
+        }
+        return functions;
+    }
+
+    private R visitRange(List<CParser.Function_definitionContext> functions, int from, int to) {
+        R result = identity;
+        for (int i = from; i < to; i++) {
+            ParseTree function = functions.get(i);
+            R r = function.accept(visitors.get());
+            result = reducer.apply(result, r);
+        }
+        return result;
+    }
+
+    private final class VisitTask extends RecursiveTask<R> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<CParser.Function_definitionContext> functions;
+        private final int from;
+        private final int to;
+
+        VisitTask(List<CParser.Function_definitionContext> functions, int from, int to) {
+            this.functions = functions;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected R compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                return visitRange(functions, from, to);
+            }
+            int mid = (from + to) >>> 1;
+            VisitTask left = new VisitTask(functions, from, mid);
+            left.fork();
+            R right = new VisitTask(functions, mid, to).compute();
+            return reducer.apply(left.join(), right);
+        }
+    }
+}
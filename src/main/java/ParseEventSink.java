@@ -0,0 +1,19 @@
+import org.antlr.v4.runtime.Token;
+
+/**
+ * Receiver for the events produced by {@link StreamingParser}.
+ */
+public interface ParseEventSink {
+    /** A selected rule was entered; {@code start} is its first token. */
+    void enter(int ruleIndex, Token start);
+
+    /**
+     * The innermost open selected rule declares {@code identifier}: a
+     * declarator name of a function_definition or declaration, or the tag of
+     * a struct_or_union_specifier.
+     */
+    void name(int ruleIndex, Token identifier);
+
+    /** A selected rule was left; {@code stop} is its last token. */
+    void exit(int ruleIndex, Token start, Token stop);
+}
@@ -0,0 +1,478 @@
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ErrorNodeImpl;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+import org.antlr.v4.runtime.tree.TerminalNodeImpl;
+
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Compact binary encoding of a CParser parse tree together with its tokens.
+ *
+ * Layout (all integers are unsigned LEB128 varints, signed values zigzag):
+ * <pre>
+ *   magic "CPT" version
+ *   ruleCount
+ *   stringCount { byteLength utf8Bytes }
+ *   tokenCount  { type textId channel lineDelta column startDelta length }
+ *   nodeCount   { tag ... }            preorder
+ *     tag 0 / 1  terminal / error node: tokenIndex + 1, or 0 then type textId
+ *     tag r + 2  rule r: childCount startTokenIndex stopTokenIndex + 1
+ * </pre>
+ * Token texts go through a string table, so repeated identifiers and
+ * keywords cost one varint each. The {@link Reader} works directly on the
+ * encoded buffer: strings are decoded on first use and only the fixed width
+ * token columns are unpacked.
+ */
+public final class ParseTreeCodec {
+    private static final int MAGIC = ('C' << 24) | ('P' << 16) | ('T' << 8) | 1;
+
+    private static final int TAG_TERMINAL = 0;
+    private static final int TAG_ERROR = 1;
+    private static final int TAG_RULE = 2;
+
+    private static final Constructor<?>[] CONTEXT_CONSTRUCTORS = new Constructor<?>[CParser.ruleNames.length];
+
+    private ParseTreeCodec() {
+    }
+
+    /**
+     * Encodes {@code tree} and the token list it was parsed from, normally
+     * {@code CommonTokenStream.getTokens()} after the parse.
+     */
+    public static byte[] encode(ParserRuleContext tree, List<? extends Token> tokens) {
+        Sink out = new Sink(Math.max(64, tokens.size() * 6));
+        out.writeInt(MAGIC);
+        out.writeVarInt(CParser.ruleNames.length);
+
+        Map<String, Integer> stringIds = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        int[] textIds = new int[tokens.size()];
+        for (int i = 0; i < tokens.size(); i++) {
+            textIds[i] = intern(tokens.get(i).getText(), stringIds, strings);
+        }
+        List<Token> synthetic = new ArrayList<>();
+        collectSyntheticTokens(tree, synthetic);
+        for (Token t : synthetic) {
+            intern(t.getText(), stringIds, strings);
+        }
+
+        out.writeVarInt(strings.size());
+        for (String s : strings) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeVarInt(bytes.length);
+            out.write(bytes);
+        }
+
+        out.writeVarInt(tokens.size());
+        int prevLine = 1;
+        int prevStop = -1;
+        for (int i = 0; i < tokens.size(); i++) {
+            Token t = tokens.get(i);
+            out.writeSignedVarInt(t.getType());
+            out.writeVarInt(textIds[i]);
+            out.writeVarInt(t.getChannel());
+            out.writeSignedVarInt(t.getLine() - prevLine);
+            out.writeVarInt(Math.max(t.getCharPositionInLine(), 0));
+            out.writeSignedVarInt(t.getStartIndex() - prevStop - 1);
+            out.writeSignedVarInt(t.getStopIndex() - t.getStartIndex() + 1);
+            prevLine = t.getLine();
+            prevStop = Math.max(t.getStopIndex(), prevStop);
+        }
+
+        int countPos = out.size();
+        out.writeInt(0);
+        int nodes = 0;
+        ArrayDeque<ParseTree> stack = new ArrayDeque<>();
+        stack.push(tree);
+        while (!stack.isEmpty()) {
+            ParseTree node = stack.pop();
+            nodes++;
+            if (node instanceof TerminalNode) {
+                Token t = ((TerminalNode) node).getSymbol();
+                out.writeVarInt(node instanceof ErrorNode ? TAG_ERROR : TAG_TERMINAL);
+                if (t.getTokenIndex() >= 0) {
+                    out.writeVarInt(t.getTokenIndex() + 1);
+                } else {
+                    out.writeVarInt(0);
+                    out.writeSignedVarInt(t.getType());
+                    out.writeVarInt(stringIds.get(t.getText()));
+                }
+                continue;
+            }
+            ParserRuleContext ctx = (ParserRuleContext) node;
+            out.writeVarInt(ctx.getRuleIndex() + TAG_RULE);
+            out.writeVarInt(ctx.getChildCount());
+            out.writeVarInt(Math.max(ctx.getStart().getTokenIndex(), 0));
+            out.writeVarInt(ctx.getStop() == null ? 0 : ctx.getStop().getTokenIndex() + 1);
+            for (int i = ctx.getChildCount() - 1; i >= 0; i--) {
+                stack.push(ctx.getChild(i));
+            }
+        }
+        out.putInt(countPos, nodes);
+        return out.toByteArray();
+    }
+
+    public static Reader reader(byte[] data) {
+        return new Reader(ByteBuffer.wrap(data));
+    }
+
+    public static Reader reader(ByteBuffer data) {
+        return new Reader(data);
+    }
+
+    private static int intern(String text, Map<String, Integer> ids, List<String> strings) {
+        Integer id = ids.get(text);
+        if (id == null) {
+            id = strings.size();
+            ids.put(text, id);
+            strings.add(text);
+        }
+        return id;
+    }
+
+    private static void collectSyntheticTokens(ParseTree tree, List<Token> out) {
+        ArrayDeque<ParseTree> stack = new ArrayDeque<>();
+        stack.push(tree);
+        while (!stack.isEmpty()) {
+            ParseTree node = stack.pop();
+            if (node instanceof TerminalNode) {
+                Token t = ((TerminalNode) node).getSymbol();
+                if (t.getTokenIndex() < 0) {
+                    out.add(t);
+                }
+            } else {
+                for (int i = 0; i < node.getChildCount(); i++) {
+                    stack.push(node.getChild(i));
+                }
+            }
+        }
+    }
+
+    private static ParserRuleContext newContext(int ruleIndex, ParserRuleContext parent) {
+        Constructor<?> c = CONTEXT_CONSTRUCTORS[ruleIndex];
+        try {
+            if (c == null) {
+                String name = CParser.ruleNames[ruleIndex];
+                String className = CParser.class.getName() + "$"
+                        + Character.toUpperCase(name.charAt(0)) + name.substring(1) + "Context";
+                c = Class.forName(className).getConstructor(ParserRuleContext.class, int.class);
+                CONTEXT_CONSTRUCTORS[ruleIndex] = c;
+            }
+            return (ParserRuleContext) c.newInstance(parent, -1);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("cannot create context for rule " + ruleIndex, e);
+        }
+    }
+
+    /**
+     * Decoder over an encoded buffer. The buffer is not copied; token and node
+     * columns are unpacked once, strings lazily.
+     */
+    public static final class Reader {
+        private final ByteBuffer buf;
+        private final int[] stringOffsets;
+        private final int[] stringLengths;
+        private final String[] strings;
+        private final int[] tokenType;
+        private final int[] tokenText;
+        private final int[] tokenChannel;
+        private final int[] tokenLine;
+        private final int[] tokenColumn;
+        private final int[] tokenStart;
+        private final int[] tokenStop;
+        private final Token[] tokenCache;
+        private final int treeOffset;
+        private final int nodeCount;
+        private List<Token> tokenList;
+
+        private Reader(ByteBuffer data) {
+            buf = data.duplicate();
+            if (buf.getInt() != MAGIC) {
+                throw new IllegalArgumentException("not an encoded parse tree");
+            }
+            if (readVarInt(buf) != CParser.ruleNames.length) {
+                throw new IllegalArgumentException("parse tree was encoded for a different grammar");
+            }
+
+            int stringCount = readVarInt(buf);
+            stringOffsets = new int[stringCount];
+            stringLengths = new int[stringCount];
+            strings = new String[stringCount];
+            for (int i = 0; i < stringCount; i++) {
+                stringLengths[i] = readVarInt(buf);
+                stringOffsets[i] = buf.position();
+                buf.position(buf.position() + stringLengths[i]);
+            }
+
+            int tokenCount = readVarInt(buf);
+            tokenType = new int[tokenCount];
+            tokenText = new int[tokenCount];
+            tokenChannel = new int[tokenCount];
+            tokenLine = new int[tokenCount];
+            tokenColumn = new int[tokenCount];
+            tokenStart = new int[tokenCount];
+            tokenStop = new int[tokenCount];
+            tokenCache = new Token[tokenCount];
+            int line = 1;
+            int prevStop = -1;
+            for (int i = 0; i < tokenCount; i++) {
+                tokenType[i] = readSignedVarInt(buf);
+                tokenText[i] = readVarInt(buf);
+                tokenChannel[i] = readVarInt(buf);
+                line += readSignedVarInt(buf);
+                tokenLine[i] = line;
+                tokenColumn[i] = readVarInt(buf);
+                tokenStart[i] = prevStop + 1 + readSignedVarInt(buf);
+                tokenStop[i] = tokenStart[i] + readSignedVarInt(buf) - 1;
+                prevStop = Math.max(tokenStop[i], prevStop);
+            }
+
+            nodeCount = buf.getInt();
+            treeOffset = buf.position();
+        }
+
+        public int getTokenCount() {
+            return tokenType.length;
+        }
+
+        public int getNodeCount() {
+            return nodeCount;
+        }
+
+        public Token getToken(int i) {
+            Token t = tokenCache[i];
+            if (t == null) {
+                CommonToken ct = new CommonToken(tokenType[i], string(tokenText[i]));
+                ct.setTokenIndex(i);
+                ct.setChannel(tokenChannel[i]);
+                ct.setLine(tokenLine[i]);
+                ct.setCharPositionInLine(tokenColumn[i]);
+                ct.setStartIndex(tokenStart[i]);
+                ct.setStopIndex(tokenStop[i]);
+                tokenCache[i] = t = ct;
+            }
+            return t;
+        }
+
+        /** Lazily materialized view of the stored token array. */
+        public List<Token> getTokens() {
+            if (tokenList == null) {
+                tokenList = new TokenList();
+            }
+            return tokenList;
+        }
+
+        /** Rebuilds the full CParser context objects. */
+        public ParserRuleContext toContext() {
+            ByteBuffer in = buf.duplicate();
+            in.position(treeOffset);
+            ParserRuleContext root = null;
+            ParserRuleContext[] parents = new ParserRuleContext[16];
+            int[] remaining = new int[16];
+            int depth = 0;
+            for (int n = 0; n < nodeCount; n++) {
+                while (depth > 0 && remaining[depth - 1] == 0) {
+                    depth--;
+                }
+                ParserRuleContext parent = depth == 0 ? null : parents[depth - 1];
+                if (depth > 0) {
+                    remaining[depth - 1]--;
+                }
+                int tag = readVarInt(in);
+                if (tag < TAG_RULE) {
+                    Token t = readTerminal(in);
+                    if (tag == TAG_ERROR) {
+                        ErrorNodeImpl node = new ErrorNodeImpl(t);
+                        node.setParent(parent);
+                        parent.addErrorNode(node);
+                    } else {
+                        TerminalNodeImpl node = new TerminalNodeImpl(t);
+                        node.setParent(parent);
+                        parent.addChild(node);
+                    }
+                    continue;
+                }
+                ParserRuleContext ctx = newContext(tag - TAG_RULE, parent);
+                int children = readVarInt(in);
+                ctx.start = getToken(readVarInt(in));
+                int stop = readVarInt(in);
+                ctx.stop = stop == 0 ? null : getToken(stop - 1);
+                if (parent == null) {
+                    root = ctx;
+                } else {
+                    parent.addChild(ctx);
+                }
+                if (depth == parents.length) {
+                    parents = Arrays.copyOf(parents, depth * 2);
+                    remaining = Arrays.copyOf(remaining, depth * 2);
+                }
+                parents[depth] = ctx;
+                remaining[depth] = children;
+                depth++;
+            }
+            return root;
+        }
+
+        /** Rebuilds the tree as a {@link FlatParseTree} sharing this reader's tokens. */
+        public FlatParseTree toFlatTree() {
+            ByteBuffer in = buf.duplicate();
+            in.position(treeOffset);
+            FlatParseTree tree = new FlatParseTree(getTokens(), nodeCount);
+            int[] parents = new int[16];
+            int[] remaining = new int[16];
+            int depth = 0;
+            for (int n = 0; n < nodeCount; n++) {
+                while (depth > 0 && remaining[depth - 1] == 0) {
+                    depth--;
+                }
+                int parent = depth == 0 ? FlatParseTree.NONE : parents[depth - 1];
+                if (depth > 0) {
+                    remaining[depth - 1]--;
+                }
+                int tag = readVarInt(in);
+                if (tag < TAG_RULE) {
+                    int index = readVarInt(in) - 1;
+                    if (index < 0) {
+                        int type = readSignedVarInt(in);
+                        index = tree.addSyntheticToken(new CommonToken(type, string(readVarInt(in))));
+                    }
+                    tree.add(tag == TAG_ERROR ? FlatParseTree.ERROR : FlatParseTree.TERMINAL, parent, index, index);
+                    continue;
+                }
+                int children = readVarInt(in);
+                int start = readVarInt(in);
+                int stop = readVarInt(in) - 1;
+                int node = tree.add(tag - TAG_RULE, parent, start, stop);
+                if (depth == parents.length) {
+                    parents = Arrays.copyOf(parents, depth * 2);
+                    remaining = Arrays.copyOf(remaining, depth * 2);
+                }
+                parents[depth] = node;
+                remaining[depth] = children;
+                depth++;
+            }
+            return tree;
+        }
+
+        private Token readTerminal(ByteBuffer in) {
+            int index = readVarInt(in) - 1;
+            if (index >= 0) {
+                return getToken(index);
+            }
+            int type = readSignedVarInt(in);
+            return new CommonToken(type, string(readVarInt(in)));
+        }
+
+        private String string(int id) {
+            String s = strings[id];
+            if (s == null) {
+                byte[] bytes = new byte[stringLengths[id]];
+                ByteBuffer in = buf.duplicate();
+                in.position(stringOffsets[id]);
+                in.get(bytes);
+                strings[id] = s = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return s;
+        }
+
+        private final class TokenList extends AbstractList<Token> implements RandomAccess {
+            @Override
+            public Token get(int index) {
+                return getToken(index);
+            }
+
+            @Override
+            public int size() {
+                return tokenType.length;
+            }
+        }
+    }
+
+    static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    static int readSignedVarInt(ByteBuffer in) {
+        int v = readVarInt(in);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /** Growable byte buffer with varint helpers. */
+    static final class Sink {
+        private byte[] data;
+        private int size;
+
+        Sink(int capacity) {
+            data = new byte[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + extra));
+            }
+        }
+
+        void write(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, data, size, bytes.length);
+            size += bytes.length;
+        }
+
+        void writeInt(int v) {
+            ensure(4);
+            putInt(size, v);
+            size += 4;
+        }
+
+        void putInt(int pos, int v) {
+            data[pos] = (byte) (v >>> 24);
+            data[pos + 1] = (byte) (v >>> 16);
+            data[pos + 2] = (byte) (v >>> 8);
+            data[pos + 3] = (byte) v;
+        }
+
+        void writeVarInt(int v) {
+            ensure(5);
+            while ((v & ~0x7f) != 0) {
+                data[size++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            data[size++] = (byte) v;
+        }
+
+        void writeSignedVarInt(int v) {
+            writeVarInt((v << 1) ^ (v >> 31));
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
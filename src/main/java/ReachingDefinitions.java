@@ -0,0 +1,115 @@
+/**
+ * The definitions that reach the entry of each block: the instructions
+ * writing a register from which some path leads to the block without
+ * another write to that register.
+ *
+ * This is the use-def information of code that is not in SSA form, where a
+ * register may be written in several places, as the generator and the
+ * inliner leave it. Definitions are numbered register by register, so the
+ * definitions one write kills are a single range, and the problem is a
+ * forward union {@link Dataflow}.
+ *
+ * A definition is only followed while its register is live: a block where
+ * the register dies kills it, and a write the block's exit does not see is
+ * never generated. Every path along which a definition reaches a use keeps
+ * the register live, so nothing a use can read is lost, while the sets
+ * stay the size of the live sets rather than of every definition upstream,
+ * which in a long loop body is most of the function. The queries therefore
+ * answer for registers live on entry to the block.
+ */
+public final class ReachingDefinitions {
+    public final ControlFlowGraph cfg;
+    private final Liveness live;
+    private final Dataflow flow;
+    /** Definitions of register r are numbered {@code defStart[r] .. defStart[r + 1]}. */
+    private final int[] defStart;
+    /** Instruction of each definition. */
+    private final int[] definitions;
+    /** Definition number of each instruction, -1 where it writes no register. */
+    private final int[] numberOf;
+
+    private ReachingDefinitions(Liveness live) {
+        this.cfg = live.cfg;
+        this.live = live;
+        IrFunction f = cfg.function;
+        int registers = f.registerCount();
+        defStart = new int[registers + 1];
+        numberOf = new int[f.size()];
+        for (int i = 0; i < f.size(); i++) {
+            numberOf[i] = -1;
+            if (Ir.defines(f.op(i)) && f.dst(i) >= 0) {
+                defStart[f.dst(i) + 1]++;
+            }
+        }
+        for (int r = 0; r < registers; r++) {
+            defStart[r + 1] += defStart[r];
+        }
+        definitions = new int[defStart[registers]];
+        int[] fill = new int[registers];
+        for (int i = 0; i < f.size(); i++) {
+            if (Ir.defines(f.op(i)) && f.dst(i) >= 0) {
+                int r = f.dst(i);
+                int d = defStart[r] + fill[r]++;
+                definitions[d] = i;
+                numberOf[i] = d;
+            }
+        }
+        flow = Dataflow.forward(cfg, definitions.length, false);
+        int[] dying = new int[live.globalCount()];
+        for (int b = 0; b < cfg.blockCount(); b++) {
+            int n = live.dying(b, dying);
+            for (int k = 0; k < n; k++) {
+                flow.killRange(b, defStart[dying[k]], defStart[dying[k] + 1]);
+            }
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                int d = numberOf[i];
+                if (d >= 0) {
+                    int r = f.dst(i);
+                    flow.killRange(b, defStart[r], defStart[r + 1]);
+                    if (live.isLiveOut(b, r)) {
+                        flow.gen(b, d);
+                    }
+                }
+            }
+        }
+        flow.solve();
+    }
+
+    public static ReachingDefinitions compute(ControlFlowGraph cfg) {
+        return new ReachingDefinitions(Liveness.compute(cfg));
+    }
+
+    public static ReachingDefinitions compute(Liveness live) {
+        return new ReachingDefinitions(live);
+    }
+
+    public int definitionCount() {
+        return definitions.length;
+    }
+
+    /** Instruction of definition {@code d}. */
+    public int definition(int d) {
+        return definitions[d];
+    }
+
+    /** Whether the write of instruction {@code i} reaches the entry of block {@code b} with its register live there. */
+    public boolean reaches(int i, int b) {
+        return numberOf[i] >= 0 && live.isLiveIn(b, cfg.function.dst(i)) && flow.isIn(b, numberOf[i]);
+    }
+
+    /**
+     * Fills {@code into} with the instructions writing register {@code r}
+     * whose value can reach the entry of block {@code b}, in instruction
+     * order, and returns how many; none if {@code r} is dead there.
+     */
+    public int reachingIn(int b, int r, int[] into) {
+        int n = 0;
+        if (!live.isLiveIn(b, r)) {
+            return 0;
+        }
+        for (int d = flow.nextIn(b, defStart[r]); d >= 0 && d < defStart[r + 1]; d = flow.nextIn(b, d + 1)) {
+            into[n++] = definitions[d];
+        }
+        return n;
+    }
+}
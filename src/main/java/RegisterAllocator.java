@@ -0,0 +1,941 @@
+import java.util.Arrays;
+
+/**
+ * Linear-scan register allocation over live intervals, with interval
+ * splitting in the manner of Wimmer and Moessenboeck.
+ *
+ * Instructions are numbered in layout order, instruction i reading its
+ * operands at position 2i and writing its result at 2i + 1, so an operand
+ * that dies can share a register with the result. The interval of a
+ * virtual register is a list of ranges of positions, with holes where the
+ * value is dead, built in one backward pass over the blocks from their
+ * {@link Liveness} sets; a phi writes its result at the start of its block
+ * and reads its operands at the end of the predecessors. The function may
+ * be in SSA form or not, and is not changed.
+ *
+ * Intervals are taken in order of their start. One gets the register of
+ * its class that stays free longest, or, if none is free for its whole
+ * length, is split where that register becomes busy and the rest waits
+ * its turn. When every register is busy, whichever of the interval and
+ * the holders of a register is used again last is spilled: it moves to a
+ * stack slot, one per virtual register, and is split again before its
+ * next use to compete for a register then. A call clobbers the target's
+ * caller-saved registers, so an interval live across one only fits in a
+ * callee-saved register or a slot; the call's own result is exempt, being
+ * written after the clobber.
+ *
+ * Operands in slots are allowed anywhere: the code generator reaches them
+ * through scratch registers it keeps out of the allocator's hands. Where a
+ * split falls inside a block the allocator records moves before the
+ * instruction there; where a value changes location across an edge, or a
+ * phi's operand must reach its result, it records moves on the edge. Each
+ * group of moves is a parallel copy. Every step looks only at the
+ * intervals holding registers, so the time grows with the number of
+ * intervals and ranges, not with the interference between them as graph
+ * colouring's does.
+ */
+public final class RegisterAllocator {
+    private static final int MAX = Integer.MAX_VALUE;
+
+    /** The registers the allocator hands out, general ones then float ones, and those calls clobber. */
+    public static final class Target {
+        public final int generalCount;
+        /** Bit k set if general register k does not survive a call. */
+        public final long generalClobbered;
+        public final int floatCount;
+        public final long floatClobbered;
+
+        public Target(int generalCount, long generalClobbered, int floatCount, long floatClobbered) {
+            if (generalCount < 1 || floatCount < 1 || generalCount + floatCount > 64) {
+                throw new IllegalArgumentException(generalCount + " general and " + floatCount + " float registers");
+            }
+            this.generalCount = generalCount;
+            this.generalClobbered = generalClobbered;
+            this.floatCount = floatCount;
+            this.floatClobbered = floatClobbered;
+        }
+
+        /** Number of physical registers: general register k is k, float register k is {@code generalCount + k}. */
+        public int registerCount() {
+            return generalCount + floatCount;
+        }
+    }
+
+    public final ControlFlowGraph cfg;
+    private final IrFunction f;
+    private final Target target;
+    /** Clobbered physical registers. */
+    private final long clobbered;
+
+    // Intervals, column-wise. Interval r < registerCount is the first of
+    // register r; the pieces split off it follow in order through next.
+    private int intervalCount;
+    private int[] registerOf;
+    private int[] rangeStart;
+    private int[] rangeEnd;
+    private int[] useStart;
+    private int[] useEnd;
+    private int[] location;
+    private int[] next;
+    /** First range of each interval that may still cover the current position. */
+    private int[] cursor;
+
+    /** Ranges {@code [rangeFrom, rangeTo)} of all intervals, each interval's in order. */
+    private int[] rangeFrom;
+    private int[] rangeTo;
+    private int rangeCount;
+    /** Positions where each interval is read or written, in order. */
+    private int[] uses;
+
+    /** Positions {@code 2i + 1} of the calls, in order. */
+    private int[] calls;
+    private final int[] slotOf;
+    private int slotCount;
+    private long used;
+    private int splitCount;
+    private int spillCount;
+
+    /** The interval of each register taken last from the queue, -1 before its first. */
+    private int[] latest;
+    /** After allocation, the intervals of register r in order are {@code pieces[pieceStart[r] .. pieceStart[r + 1]]}. */
+    private int[] pieceStart;
+    private int[] pieces;
+    /** Start of each of the pieces. */
+    private int[] pieceFrom;
+    /** While resolving, the piece of each register last looked at. */
+    private int[] pieceCursor;
+
+    /** Intervals waiting for allocation, a binary heap on their start. */
+    private int[] unhandled = new int[64];
+    private int unhandledCount;
+    /** Intervals holding a register that cover the current position, and those in a hole there. */
+    private int[] active = new int[16];
+    private int activeCount;
+    private int[] inactive = new int[16];
+    private int inactiveCount;
+    private final int[] freeUntil;
+    private final int[] nextUse;
+    private final int[] blockedFrom;
+
+    /** Moves before instruction i are {@code moveStart[i] .. moveStart[i + 1]}, those on edge e follow from {@code moveStart[size + e]}. */
+    private int[] moveStart;
+    private int[] moveSource;
+    private int[] moveFrom;
+    private int[] moveTo;
+    private int[] moveKind;
+
+    private RegisterAllocator(ControlFlowGraph cfg, Target target) {
+        this.cfg = cfg;
+        this.f = cfg.function;
+        this.target = target;
+        this.clobbered = target.generalClobbered & mask(target.generalCount)
+                | (target.floatClobbered & mask(target.floatCount)) << target.generalCount;
+        this.slotOf = new int[f.registerCount()];
+        Arrays.fill(slotOf, -1);
+        this.freeUntil = new int[target.registerCount()];
+        this.nextUse = new int[target.registerCount()];
+        this.blockedFrom = new int[target.registerCount()];
+    }
+
+    /** Allocates registers for the function of {@code cfg}. */
+    public static RegisterAllocator allocate(ControlFlowGraph cfg, Target target) {
+        RegisterAllocator allocator = new RegisterAllocator(cfg, target);
+        Liveness live = Liveness.compute(cfg);
+        allocator.buildIntervals(live);
+        allocator.scan();
+        allocator.resolve(live);
+        return allocator;
+    }
+
+    private static long mask(int n) {
+        return n == 64 ? -1L : (1L << n) - 1;
+    }
+
+    // -------------------------------------------------------------- intervals
+
+    /**
+     * Builds the first interval of every register. Ranges and uses are
+     * collected newest first, walking blocks and instructions backwards, so
+     * a register's latest range is the one a new range can extend; they are
+     * then sorted by register with a counting sort.
+     */
+    private void buildIntervals(Liveness live) {
+        int registers = f.registerCount();
+        int[] lastRange = new int[registers];
+        Arrays.fill(lastRange, -1);
+        int[] rangeRegister = new int[64];
+        rangeFrom = new int[64];
+        rangeTo = new int[64];
+        int[] useRegister = new int[64];
+        int[] usePosition = new int[64];
+        int useCount = 0;
+        int[] liveOut = new int[live.globalCount()];
+        int callCount = 0;
+        calls = new int[16];
+
+        for (int b = cfg.blockCount() - 1; b >= 0; b--) {
+            if (!cfg.isReachable(b)) {
+                continue;
+            }
+            int from = 2 * cfg.start(b);
+            int n = live.liveOut(b, liveOut);
+            for (int k = 0; k < n; k++) {
+                rangeRegister = addRange(rangeRegister, lastRange, liveOut[k], from, 2 * cfg.end(b));
+            }
+            for (int i = cfg.end(b) - 1; i >= cfg.start(b); i--) {
+                int op = f.op(i);
+                int dst = f.dst(i);
+                if (op == Ir.CALL || op == Ir.CALLI) {
+                    if (callCount == calls.length) {
+                        calls = Arrays.copyOf(calls, callCount * 2);
+                    }
+                    calls[callCount++] = 2 * i + 1;
+                }
+                if (Ir.defines(op) && dst >= 0) {
+                    int at = op == Ir.PHI ? from : 2 * i + 1;
+                    int last = lastRange[dst];
+                    if (last >= 0 && rangeFrom[last] <= at && at < rangeTo[last]) {
+                        rangeFrom[last] = at;
+                    } else {
+                        rangeRegister = addRange(rangeRegister, lastRange, dst, at, at + 1);
+                    }
+                    if (op != Ir.PHI) {
+                        if (useCount == usePosition.length) {
+                            useRegister = Arrays.copyOf(useRegister, useCount * 2);
+                            usePosition = Arrays.copyOf(usePosition, useCount * 2);
+                        }
+                        useRegister[useCount] = dst;
+                        usePosition[useCount++] = at;
+                    }
+                }
+                if (op == Ir.PHI) {
+                    continue;
+                }
+                for (int k = 0; k < f.operandCount(i); k++) {
+                    int x = f.operand(i, k);
+                    if (Ir.isRegister(x)) {
+                        rangeRegister = addRange(rangeRegister, lastRange, x, from, 2 * i + 1);
+                        if (useCount == usePosition.length) {
+                            useRegister = Arrays.copyOf(useRegister, useCount * 2);
+                            usePosition = Arrays.copyOf(usePosition, useCount * 2);
+                        }
+                        useRegister[useCount] = x;
+                        usePosition[useCount++] = 2 * i;
+                    }
+                }
+            }
+        }
+        // calls were met backwards too
+        calls = Arrays.copyOf(calls, callCount);
+        for (int k = 0; k < callCount / 2; k++) {
+            int t = calls[k];
+            calls[k] = calls[callCount - 1 - k];
+            calls[callCount - 1 - k] = t;
+        }
+
+        int capacity = Math.max(16, registers * 2);
+        registerOf = new int[capacity];
+        rangeStart = new int[capacity];
+        rangeEnd = new int[capacity];
+        useStart = new int[capacity];
+        useEnd = new int[capacity];
+        location = new int[capacity];
+        next = new int[capacity];
+        cursor = new int[capacity];
+        intervalCount = registers;
+        Arrays.fill(location, Ir.NONE);
+        Arrays.fill(next, -1);
+
+        int[] fill = new int[registers + 1];
+        for (int k = 0; k < rangeCount; k++) {
+            fill[rangeRegister[k] + 1]++;
+        }
+        for (int r = 0; r < registers; r++) {
+            fill[r + 1] += fill[r];
+        }
+        int[] from = new int[Math.max(16, rangeCount * 2)];
+        int[] to = new int[from.length];
+        for (int r = 0; r < registers; r++) {
+            registerOf[r] = r;
+            rangeStart[r] = fill[r];
+            rangeEnd[r] = fill[r + 1];
+            cursor[r] = fill[r];
+        }
+        for (int k = rangeCount - 1; k >= 0; k--) {
+            int at = fill[rangeRegister[k]]++;
+            from[at] = rangeFrom[k];
+            to[at] = rangeTo[k];
+        }
+        rangeFrom = from;
+        rangeTo = to;
+
+        Arrays.fill(fill, 0);
+        for (int k = 0; k < useCount; k++) {
+            fill[useRegister[k] + 1]++;
+        }
+        for (int r = 0; r < registers; r++) {
+            fill[r + 1] += fill[r];
+            useStart[r] = fill[r];
+            useEnd[r] = fill[r + 1];
+        }
+        uses = new int[useCount];
+        for (int k = useCount - 1; k >= 0; k--) {
+            uses[fill[useRegister[k]]++] = usePosition[k];
+        }
+    }
+
+    /** Adds {@code [from, to)} to register {@code r}, merging it with the register's latest range if they touch. */
+    private int[] addRange(int[] rangeRegister, int[] lastRange, int r, int from, int to) {
+        int last = lastRange[r];
+        if (last >= 0 && to >= rangeFrom[last]) {
+            rangeFrom[last] = Math.min(from, rangeFrom[last]);
+            rangeTo[last] = Math.max(to, rangeTo[last]);
+            return rangeRegister;
+        }
+        if (rangeCount == rangeFrom.length) {
+            rangeRegister = Arrays.copyOf(rangeRegister, rangeCount * 2);
+            rangeFrom = Arrays.copyOf(rangeFrom, rangeCount * 2);
+            rangeTo = Arrays.copyOf(rangeTo, rangeCount * 2);
+        }
+        rangeRegister[rangeCount] = r;
+        rangeFrom[rangeCount] = from;
+        rangeTo[rangeCount] = to;
+        lastRange[r] = rangeCount++;
+        return rangeRegister;
+    }
+
+    private boolean isEmpty(int iv) {
+        return rangeStart[iv] == rangeEnd[iv];
+    }
+
+    private int start(int iv) {
+        return rangeFrom[rangeStart[iv]];
+    }
+
+    private int end(int iv) {
+        return rangeTo[rangeEnd[iv] - 1];
+    }
+
+    private boolean isFloat(int iv) {
+        return Ir.isFloat(f.registerKind(registerOf[iv]));
+    }
+
+    /** Whether interval {@code iv} covers {@code position}, which must not decrease between calls. */
+    private boolean coversAdvancing(int iv, int position) {
+        int k = cursor[iv];
+        while (k < rangeEnd[iv] - 1 && rangeTo[k] <= position) {
+            k++;
+        }
+        cursor[iv] = k;
+        return rangeFrom[k] <= position && position < rangeTo[k];
+    }
+
+    private boolean covers(int iv, int position) {
+        int lo = rangeStart[iv];
+        int hi = rangeEnd[iv] - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (rangeTo[mid] <= position) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo < rangeEnd[iv] && rangeFrom[lo] <= position && position < rangeTo[lo];
+    }
+
+    /** First position both intervals cover, from the cursor of {@code a} on, or {@link #MAX}. */
+    private int intersection(int a, int b) {
+        int i = cursor[a];
+        int j = rangeStart[b];
+        while (i < rangeEnd[a] && j < rangeEnd[b]) {
+            if (rangeTo[i] <= rangeFrom[j]) {
+                i++;
+            } else if (rangeTo[j] <= rangeFrom[i]) {
+                j++;
+            } else {
+                return Math.max(rangeFrom[i], rangeFrom[j]);
+            }
+        }
+        return MAX;
+    }
+
+    /** First use of interval {@code iv} at or after {@code position}, or {@link #MAX}. */
+    private int nextUse(int iv, int position) {
+        int lo = useStart[iv];
+        int hi = useEnd[iv];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (uses[mid] < position) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo < useEnd[iv] ? uses[lo] : MAX;
+    }
+
+    /** First call interval {@code iv} is live across, or {@link #MAX}: a call writing the interval's own register does not count. */
+    private int clobberedFrom(int iv) {
+        if (clobbered == 0) {
+            return MAX;
+        }
+        int r = registerOf[iv];
+        for (int k = rangeStart[iv]; k < rangeEnd[iv]; k++) {
+            int c = Arrays.binarySearch(calls, rangeFrom[k]);
+            for (c = c < 0 ? -c - 1 : c; c < calls.length && calls[c] < rangeTo[k]; c++) {
+                if (f.dst(calls[c] >> 1) != r) {
+                    return calls[c];
+                }
+            }
+        }
+        return MAX;
+    }
+
+    /**
+     * Splits interval {@code iv} at {@code position}, which must be after
+     * its start, and returns the new interval holding the ranges and uses
+     * from there on, or -1 if nothing is left there.
+     */
+    private int split(int iv, int position) {
+        if (position >= end(iv)) {
+            return -1;
+        }
+        int k = rangeStart[iv];
+        while (rangeTo[k] <= position) {
+            k++;
+        }
+        if (intervalCount == registerOf.length) {
+            int n = intervalCount * 2;
+            registerOf = Arrays.copyOf(registerOf, n);
+            rangeStart = Arrays.copyOf(rangeStart, n);
+            rangeEnd = Arrays.copyOf(rangeEnd, n);
+            useStart = Arrays.copyOf(useStart, n);
+            useEnd = Arrays.copyOf(useEnd, n);
+            location = Arrays.copyOf(location, n);
+            next = Arrays.copyOf(next, n);
+            cursor = Arrays.copyOf(cursor, n);
+        }
+        int child = intervalCount++;
+        registerOf[child] = registerOf[iv];
+        if (rangeFrom[k] < position) {
+            // the range straddling the split is cut in two: the child gets copies of its ranges
+            int n = rangeEnd[iv] - k;
+            if (rangeCount + n > rangeFrom.length) {
+                int capacity = Math.max(rangeFrom.length * 2, rangeCount + n);
+                rangeFrom = Arrays.copyOf(rangeFrom, capacity);
+                rangeTo = Arrays.copyOf(rangeTo, capacity);
+            }
+            System.arraycopy(rangeFrom, k, rangeFrom, rangeCount, n);
+            System.arraycopy(rangeTo, k, rangeTo, rangeCount, n);
+            rangeFrom[rangeCount] = position;
+            rangeTo[k] = position;
+            rangeStart[child] = rangeCount;
+            rangeEnd[child] = rangeCount + n;
+            rangeCount += n;
+            rangeEnd[iv] = k + 1;
+        } else {
+            rangeStart[child] = k;
+            rangeEnd[child] = rangeEnd[iv];
+            rangeEnd[iv] = k;
+        }
+        int u = useStart[iv];
+        while (u < useEnd[iv] && uses[u] < position) {
+            u++;
+        }
+        useStart[child] = u;
+        useEnd[child] = useEnd[iv];
+        useEnd[iv] = u;
+        location[child] = Ir.NONE;
+        cursor[child] = rangeStart[child];
+        cursor[iv] = Math.min(cursor[iv], rangeEnd[iv] - 1);
+        next[child] = next[iv];
+        next[iv] = child;
+        splitCount++;
+        return child;
+    }
+
+    // ------------------------------------------------------------ allocation
+
+    private void scan() {
+        latest = new int[f.registerCount()];
+        Arrays.fill(latest, -1);
+        for (int r = 0; r < f.registerCount(); r++) {
+            if (!isEmpty(r)) {
+                push(r);
+            }
+        }
+        while (unhandledCount > 0) {
+            int current = pop();
+            int position = start(current);
+            latest[registerOf[current]] = current;
+            for (int k = activeCount - 1; k >= 0; k--) {
+                int iv = active[k];
+                if (end(iv) <= position) {
+                    active[k] = active[--activeCount];
+                } else if (!coversAdvancing(iv, position)) {
+                    active[k] = active[--activeCount];
+                    inactive = append(inactive, inactiveCount++, iv);
+                }
+            }
+            for (int k = inactiveCount - 1; k >= 0; k--) {
+                int iv = inactive[k];
+                if (end(iv) <= position) {
+                    inactive[k] = inactive[--inactiveCount];
+                } else if (coversAdvancing(iv, position)) {
+                    inactive[k] = inactive[--inactiveCount];
+                    active = append(active, activeCount++, iv);
+                }
+            }
+            if (!allocateFree(current, position)) {
+                allocateBlocked(current, position);
+            }
+        }
+        pieceStart = new int[f.registerCount() + 1];
+        pieces = new int[intervalCount];
+        pieceFrom = new int[intervalCount];
+        int n = 0;
+        for (int r = 0; r < f.registerCount(); r++) {
+            pieceStart[r] = n;
+            for (int iv = isEmpty(r) ? -1 : r; iv >= 0; iv = next[iv]) {
+                pieceFrom[n] = start(iv);
+                pieces[n++] = iv;
+            }
+        }
+        pieceStart[f.registerCount()] = n;
+    }
+
+    /** Gives {@code current} a register free at least until its first split, if one is free at its start. */
+    private boolean allocateFree(int current, int position) {
+        int lo = isFloat(current) ? target.generalCount : 0;
+        int hi = isFloat(current) ? target.registerCount() : target.generalCount;
+        Arrays.fill(freeUntil, lo, hi, MAX);
+        for (int k = 0; k < activeCount; k++) {
+            freeUntil[location[active[k]]] = 0;
+        }
+        for (int k = 0; k < inactiveCount; k++) {
+            int p = location[inactive[k]];
+            if (p >= lo && p < hi && freeUntil[p] > 0) {
+                freeUntil[p] = Math.min(freeUntil[p], intersection(inactive[k], current));
+            }
+        }
+        int call = clobberedFrom(current);
+        int best = -1;
+        for (int p = lo; p < hi; p++) {
+            if ((clobbered & 1L << p) != 0) {
+                freeUntil[p] = Math.min(freeUntil[p], call);
+            }
+            if (best < 0 || freeUntil[p] > freeUntil[best]) {
+                best = p;
+            }
+        }
+        int hint = hint(current);
+        if (hint >= lo && hint < hi && freeUntil[hint] >= end(current)) {
+            best = hint;
+        }
+        if (freeUntil[best] >= end(current)) {
+            assign(current, best);
+            return true;
+        }
+        int at = freeUntil[best] & ~1;
+        if (at <= position) {
+            return false;
+        }
+        assign(current, best);
+        push(split(current, at));
+        return true;
+    }
+
+    /** The register of the source of the move that defines {@code current}, where it ends. */
+    private int hint(int current) {
+        if (current >= f.registerCount()) {
+            return -1;
+        }
+        int i = start(current) >> 1;
+        if ((start(current) & 1) == 0 || f.op(i) != Ir.MOV || !Ir.isRegister(f.a(i))) {
+            return -1;
+        }
+        int source = latest[f.a(i)];
+        return source >= 0 && covers(source, 2 * i) ? location[source] : -1;
+    }
+
+    /**
+     * Takes a register from the intervals holding it if they are used again
+     * before {@code current} is, splitting and spilling them; otherwise
+     * spills {@code current} up to its next use.
+     */
+    private void allocateBlocked(int current, int position) {
+        int lo = isFloat(current) ? target.generalCount : 0;
+        int hi = isFloat(current) ? target.registerCount() : target.generalCount;
+        Arrays.fill(nextUse, lo, hi, MAX);
+        Arrays.fill(blockedFrom, lo, hi, MAX);
+        for (int k = 0; k < activeCount; k++) {
+            int p = location[active[k]];
+            if (p >= lo && p < hi) {
+                nextUse[p] = Math.min(nextUse[p], nextUse(active[k], position));
+            }
+        }
+        for (int k = 0; k < inactiveCount; k++) {
+            int p = location[inactive[k]];
+            if (p >= lo && p < hi && intersection(inactive[k], current) != MAX) {
+                nextUse[p] = Math.min(nextUse[p], nextUse(inactive[k], position));
+            }
+        }
+        int call = clobberedFrom(current);
+        int best = lo;
+        for (int p = lo; p < hi; p++) {
+            if ((clobbered & 1L << p) != 0) {
+                blockedFrom[p] = call;
+                nextUse[p] = Math.min(nextUse[p], call);
+            }
+            if (nextUse[p] > nextUse[best]) {
+                best = p;
+            }
+        }
+        if (nextUse[best] < nextUse(current, position) || (blockedFrom[best] & ~1) <= position) {
+            spill(current, position);
+            return;
+        }
+        assign(current, best);
+        if (blockedFrom[best] < end(current)) {
+            push(split(current, blockedFrom[best] & ~1));
+        }
+        for (int k = activeCount - 1; k >= 0; k--) {
+            int iv = active[k];
+            if (iv != current && location[iv] == best) {
+                active[k] = active[--activeCount];
+                evict(iv, position & ~1, position);
+            }
+        }
+        for (int k = inactiveCount - 1; k >= 0; k--) {
+            int iv = inactive[k];
+            if (location[iv] == best) {
+                int at = intersection(iv, current);
+                if (at != MAX) {
+                    evict(iv, at & ~1, position);
+                    if (location[iv] < 0) {
+                        inactive[k] = inactive[--inactiveCount];
+                    }
+                }
+            }
+        }
+    }
+
+    /** Moves interval {@code iv} out of its register from {@code at} on, into its slot until its next use. */
+    private void evict(int iv, int at, int position) {
+        if (at <= start(iv)) {
+            spill(iv, position);
+            return;
+        }
+        int child = split(iv, at);
+        if (child >= 0) {
+            spill(child, position);
+        }
+    }
+
+    /** Puts interval {@code iv} in its register's slot, splitting off what follows its next use after {@code position}. */
+    private void spill(int iv, int position) {
+        int r = registerOf[iv];
+        if (slotOf[r] < 0) {
+            slotOf[r] = slotCount++;
+        }
+        location[iv] = -slotOf[r] - 1;
+        spillCount++;
+        int after = Math.max(position, start(iv));
+        int use = nextUse(iv, after + 1);
+        while (use != MAX && (use & ~1) <= after) {
+            use = nextUse(iv, use + 1);
+        }
+        if (use != MAX) {
+            push(split(iv, use & ~1));
+        }
+    }
+
+    private void assign(int iv, int p) {
+        location[iv] = p;
+        used |= 1L << p;
+        active = append(active, activeCount++, iv);
+    }
+
+    private static int[] append(int[] list, int n, int iv) {
+        if (n == list.length) {
+            list = Arrays.copyOf(list, n * 2);
+        }
+        list[n] = iv;
+        return list;
+    }
+
+    private void push(int iv) {
+        if (iv < 0) {
+            return;
+        }
+        unhandled = append(unhandled, unhandledCount, iv);
+        int k = unhandledCount++;
+        while (k > 0 && before(iv, unhandled[(k - 1) >> 1])) {
+            unhandled[k] = unhandled[(k - 1) >> 1];
+            k = (k - 1) >> 1;
+        }
+        unhandled[k] = iv;
+    }
+
+    private int pop() {
+        int top = unhandled[0];
+        int last = unhandled[--unhandledCount];
+        int k = 0;
+        while (true) {
+            int child = 2 * k + 1;
+            if (child >= unhandledCount) {
+                break;
+            }
+            if (child + 1 < unhandledCount && before(unhandled[child + 1], unhandled[child])) {
+                child++;
+            }
+            if (!before(unhandled[child], last)) {
+                break;
+            }
+            unhandled[k] = unhandled[child];
+            k = child;
+        }
+        unhandled[k] = last;
+        return top;
+    }
+
+    private boolean before(int a, int b) {
+        return start(a) < start(b) || start(a) == start(b) && a < b;
+    }
+
+    // ------------------------------------------------------------ resolution
+
+    /** Records the moves at splits inside blocks and on the edges, grouped by instruction and edge. */
+    private void resolve(Liveness live) {
+        int size = f.size();
+        int groups = size + cfg.edgeCount();
+        int[] group = new int[16];
+        moveSource = new int[16];
+        moveFrom = new int[16];
+        moveTo = new int[16];
+        moveKind = new int[16];
+        int count = 0;
+        for (int r = 0; r < f.registerCount(); r++) {
+            for (int prev = r, iv = next[r]; iv >= 0; prev = iv, iv = next[iv]) {
+                int at = start(iv);
+                int i = at >> 1;
+                if ((at & 1) != 0 || cfg.start(cfg.blockOf(i)) == i || end(prev) != at || location[prev] == location[iv]) {
+                    continue;
+                }
+                group = grow(group, count);
+                group[count] = i;
+                count = addMove(count, r, location[prev], location[iv], f.registerKind(r));
+            }
+        }
+        int[] registers = new int[live.globalCount()];
+        int[] entry = new int[live.globalCount()];
+        boolean[] through = new boolean[live.globalCount()];
+        pieceCursor = Arrays.copyOf(pieceStart, f.registerCount());
+        for (int b = 0; b < cfg.blockCount(); b++) {
+            if (!cfg.isReachable(b)) {
+                continue;
+            }
+            int first = 2 * cfg.start(b);
+            // a register never split is in one place everywhere
+            int n = 0;
+            int m = live.liveIn(b, registers);
+            for (int j = 0; j < m; j++) {
+                int r = registers[j];
+                if (pieceStart[r + 1] - pieceStart[r] > 1) {
+                    registers[n] = r;
+                    entry[n] = locationNear(r, first);
+                    // a piece that began earlier also holds the value at the end of the block laid out before
+                    through[n++] = pieceFrom[pieceCursor[r]] < first;
+                }
+            }
+            for (int k = 0; k < cfg.predecessorCount(b); k++) {
+                int p = cfg.predecessor(b, k);
+                if (!cfg.isReachable(p)) {
+                    continue;
+                }
+                int last = 2 * cfg.end(p) - 1;
+                int edge = size + cfg.predecessorEdge(b, k);
+                boolean adjacent = cfg.end(p) == cfg.start(b);
+                for (int j = 0; j < n; j++) {
+                    if (adjacent && through[j]) {
+                        continue;
+                    }
+                    int from = locationNear(registers[j], last);
+                    if (from != entry[j]) {
+                        group = grow(group, count);
+                        group[count] = edge;
+                        count = addMove(count, registers[j], from, entry[j], f.registerKind(registers[j]));
+                    }
+                }
+                for (int i = cfg.start(b); i < cfg.end(b) && f.op(i) == Ir.PHI; i++) {
+                    int x = f.phiArg(i, k);
+                    int from = Ir.isRegister(x) ? locationNear(x, last) : Ir.NONE;
+                    int to = locationNear(f.dst(i), first);
+                    if (from != to) {
+                        group = grow(group, count);
+                        group[count] = edge;
+                        count = addMove(count, x, from, to, f.kind(i));
+                    }
+                }
+            }
+        }
+        // counting sort by group, keeping each group's moves in order
+        moveStart = new int[groups + 1];
+        for (int m = 0; m < count; m++) {
+            moveStart[group[m] + 1]++;
+        }
+        for (int g = 0; g < groups; g++) {
+            moveStart[g + 1] += moveStart[g];
+        }
+        int[] fill = Arrays.copyOf(moveStart, groups);
+        int[] source = new int[count];
+        int[] from = new int[count];
+        int[] to = new int[count];
+        int[] kind = new int[count];
+        for (int m = 0; m < count; m++) {
+            int at = fill[group[m]]++;
+            source[at] = moveSource[m];
+            from[at] = moveFrom[m];
+            to[at] = moveTo[m];
+            kind[at] = moveKind[m];
+        }
+        moveSource = source;
+        moveFrom = from;
+        moveTo = to;
+        moveKind = kind;
+    }
+
+    /**
+     * {@link #locationAt} for a register known to be live at
+     * {@code position}, walking from the piece last looked at: blocks are
+     * resolved in order, so the piece wanted is mostly the same one or the
+     * next, and being live the register is in the last piece to start there.
+     */
+    private int locationNear(int r, int position) {
+        int k = pieceCursor[r];
+        while (k + 1 < pieceStart[r + 1] && pieceFrom[k + 1] <= position) {
+            k++;
+        }
+        while (k > pieceStart[r] && pieceFrom[k] > position) {
+            k--;
+        }
+        pieceCursor[r] = k;
+        return location[pieces[k]];
+    }
+
+    private static int[] grow(int[] list, int n) {
+        return n == list.length ? Arrays.copyOf(list, n * 2) : list;
+    }
+
+    private int addMove(int count, int source, int from, int to, int kind) {
+        moveSource = grow(moveSource, count);
+        moveFrom = grow(moveFrom, count);
+        moveTo = grow(moveTo, count);
+        moveKind = grow(moveKind, count);
+        moveSource[count] = source;
+        moveFrom[count] = from;
+        moveTo[count] = to;
+        moveKind[count] = kind;
+        return count + 1;
+    }
+
+    // ---------------------------------------------------------------- results
+
+    /** Whether {@code location} is a stack slot rather than a physical register. */
+    public static boolean isSlot(int location) {
+        return location < 0 && location != Ir.NONE;
+    }
+
+    /** Slot number of a stack slot location. */
+    public static int slotOf(int location) {
+        return -location - 1;
+    }
+
+    /**
+     * Where register {@code r} is at {@code position}: a physical register
+     * number, a slot as {@link #isSlot} tells, or {@link Ir#NONE} where the
+     * register is dead.
+     */
+    public int locationAt(int r, int position) {
+        // the pieces are disjoint and in order: only the last to start by position can cover it
+        int lo = pieceStart[r];
+        int hi = pieceStart[r + 1];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (pieceFrom[mid] <= position) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo > pieceStart[r] && covers(pieces[lo - 1], position) ? location[pieces[lo - 1]] : Ir.NONE;
+    }
+
+    /** Where instruction {@code i} reads its operand register {@code r}. */
+    public int useLocation(int r, int i) {
+        return locationAt(r, 2 * i);
+    }
+
+    /** Where instruction {@code i} writes its result. */
+    public int defLocation(int i) {
+        return locationAt(f.dst(i), f.op(i) == Ir.PHI ? 2 * cfg.start(cfg.blockOf(i)) : 2 * i + 1);
+    }
+
+    /** Number of stack slots spilled registers need, one word each. */
+    public int slotCount() {
+        return slotCount;
+    }
+
+    /** Physical registers given to some interval, as a bit mask. */
+    public long usedRegisters() {
+        return used;
+    }
+
+    /** Number of times an interval was split. */
+    public int splitCount() {
+        return splitCount;
+    }
+
+    /** Number of intervals or pieces placed in a stack slot. */
+    public int spillCount() {
+        return spillCount;
+    }
+
+    /** Moves to make just before instruction {@code i} start at this index. */
+    public int moveStart(int i) {
+        return moveStart[i];
+    }
+
+    public int moveEnd(int i) {
+        return moveStart[i + 1];
+    }
+
+    /** Moves to make on edge {@code e}, after the source block's last instruction, start at this index. */
+    public int edgeMoveStart(int e) {
+        return moveStart[f.size() + e];
+    }
+
+    public int edgeMoveEnd(int e) {
+        return moveStart[f.size() + e + 1];
+    }
+
+    /** The register, or for a phi operand possibly the constant, that move {@code m} copies. */
+    public int moveSource(int m) {
+        return moveSource[m];
+    }
+
+    /** Location move {@code m} copies from, {@link Ir#NONE} when the source is a constant. */
+    public int moveFrom(int m) {
+        return moveFrom[m];
+    }
+
+    public int moveTo(int m) {
+        return moveTo[m];
+    }
+
+    /** Kind of the value move {@code m} copies. */
+    public int moveKind(int m) {
+        return moveKind[m];
+    }
+}
@@ -0,0 +1,312 @@
+import java.util.Arrays;
+
+/**
+ * Rewrites an {@link IrFunction} into static single assignment form.
+ *
+ * The registers the generator assigns more than once are the C locals that
+ * never had their address taken (address-taken ones live in frame slots and
+ * are reached only through loads and stores), plus the results of
+ * conditional expressions. Phis go at the iterated dominance frontiers of
+ * their definitions, as in Cytron et al., but only for registers that are
+ * used in some block before being defined there (semi-pruned SSA, Briggs
+ * et al.); a temporary used only in its own block never needs one. Renaming
+ * walks the dominator tree with an explicit stack, keeping one current name
+ * per register and an undo log instead of a stack per register, so the
+ * whole construction is near linear in the size of the function. The
+ * first definition of a register keeps its number, so registers that were
+ * already single-assignment are left alone.
+ *
+ * A use that no definition reaches reads an uninitialized local and becomes
+ * the constant 0. Blocks unreachable from the entry are dropped. Phis go
+ * at the start of their block, which keeps block boundaries, so the
+ * returned graph has the same shape minus those blocks.
+ */
+public final class SsaBuilder {
+    private final IrFunction f;
+    private final ControlFlowGraph cfg;
+    private final DominatorTree dom;
+    private final int registers;
+
+    /** Phis of each block as a linked list: the register each merges and its new name and operands. */
+    private final int[] phiHead;
+    private int[] phiNext = new int[16];
+    private int[] phiReg = new int[16];
+    private int[] phiDst = new int[16];
+    private int[] phiArgs = new int[16];
+    private int phiCount;
+
+    /** Current name of each original register, {@link Ir#NONE} before any definition. */
+    private final int[] names;
+    private final boolean[] renamed;
+    private int[] log = new int[32];
+    private int logSize;
+
+    private SsaBuilder(IrFunction f) {
+        this.f = f;
+        this.cfg = ControlFlowGraph.build(f);
+        this.dom = DominatorTree.compute(cfg);
+        this.registers = f.registerCount();
+        this.phiHead = new int[cfg.blockCount()];
+        this.names = new int[registers];
+        this.renamed = new boolean[registers];
+        Arrays.fill(phiHead, -1);
+        Arrays.fill(names, Ir.NONE);
+    }
+
+    /** Converts {@code f} to SSA form and returns its control-flow graph. */
+    public static ControlFlowGraph build(IrFunction f) {
+        SsaBuilder b = new SsaBuilder(f);
+        b.placePhis();
+        b.rename();
+        b.emit();
+        return ControlFlowGraph.build(f);
+    }
+
+    private void placePhis() {
+        int blocks = cfg.blockCount();
+        // registers live into some block, and the blocks defining each register
+        boolean[] crossing = new boolean[registers];
+        int[] definedIn = new int[registers];
+        Arrays.fill(definedIn, -1);
+        int[] defHead = new int[registers];
+        Arrays.fill(defHead, -1);
+        int[] defNext = new int[f.size()];
+        int[] defBlock = new int[f.size()];
+        int defs = 0;
+        for (int b = 0; b < blocks; b++) {
+            if (!cfg.isReachable(b)) {
+                continue;
+            }
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                int op = f.op(i);
+                if (Ir.hasOperandA(op)) {
+                    markUse(f.a(i), b, definedIn, crossing);
+                }
+                if (Ir.hasOperandB(op)) {
+                    markUse(f.b(i), b, definedIn, crossing);
+                }
+                if (op == Ir.CALL || op == Ir.CALLI) {
+                    for (int k = 0; k < f.argCount(i); k++) {
+                        markUse(f.arg(i, k), b, definedIn, crossing);
+                    }
+                }
+                int d = f.dst(i);
+                if (Ir.defines(op) && d >= 0) {
+                    definedIn[d] = b;
+                    defBlock[defs] = b;
+                    defNext[defs] = defHead[d];
+                    defHead[d] = defs++;
+                }
+            }
+        }
+
+        int[] hasPhi = new int[blocks];
+        int[] queued = new int[blocks];
+        Arrays.fill(hasPhi, -1);
+        Arrays.fill(queued, -1);
+        int[] work = new int[blocks];
+        for (int r = 0; r < registers; r++) {
+            if (!crossing[r] || defHead[r] < 0) {
+                continue;
+            }
+            int top = 0;
+            for (int e = defHead[r]; e >= 0; e = defNext[e]) {
+                if (queued[defBlock[e]] != r) {
+                    queued[defBlock[e]] = r;
+                    work[top++] = defBlock[e];
+                }
+            }
+            while (top > 0) {
+                int b = work[--top];
+                for (int k = 0; k < dom.frontierCount(b); k++) {
+                    int y = dom.frontier(b, k);
+                    if (hasPhi[y] == r) {
+                        continue;
+                    }
+                    hasPhi[y] = r;
+                    addPhi(y, r);
+                    if (queued[y] != r) {
+                        queued[y] = r;
+                        work[top++] = y;
+                    }
+                }
+            }
+        }
+    }
+
+    private static void markUse(int operand, int b, int[] definedIn, boolean[] crossing) {
+        if (Ir.isRegister(operand) && definedIn[operand] != b) {
+            crossing[operand] = true;
+        }
+    }
+
+    private void addPhi(int b, int r) {
+        if (phiCount == phiNext.length) {
+            int n = phiCount * 2;
+            phiNext = Arrays.copyOf(phiNext, n);
+            phiReg = Arrays.copyOf(phiReg, n);
+            phiDst = Arrays.copyOf(phiDst, n);
+            phiArgs = Arrays.copyOf(phiArgs, n);
+        }
+        int preds = cfg.predecessorCount(b);
+        int base = f.allocateAux(1 + preds);
+        f.setAux(base, preds);
+        for (int k = 0; k < preds; k++) {
+            f.setAux(base + 1 + k, Ir.NONE);
+        }
+        phiReg[phiCount] = r;
+        phiArgs[phiCount] = base;
+        phiNext[phiCount] = phiHead[b];
+        phiHead[b] = phiCount++;
+    }
+
+    private void rename() {
+        int blocks = cfg.blockCount();
+        int[] stack = new int[blocks];
+        int[] nextChild = new int[blocks];
+        int[] marks = new int[blocks];
+        int depth = 0;
+        if (dom.size() == 0) {
+            return;
+        }
+        stack[depth++] = 0;
+        marks[0] = enter(0);
+        while (depth > 0) {
+            int b = stack[depth - 1];
+            if (nextChild[b] < dom.childCount(b)) {
+                int c = dom.child(b, nextChild[b]++);
+                marks[c] = enter(c);
+                stack[depth++] = c;
+            } else {
+                undo(marks[b]);
+                depth--;
+            }
+        }
+    }
+
+    /** Renames block {@code b} and the phi operands it feeds; returns the log position to undo to. */
+    private int enter(int b) {
+        int mark = logSize;
+        for (int p = phiHead[b]; p >= 0; p = phiNext[p]) {
+            phiDst[p] = define(phiReg[p]);
+        }
+        for (int i = cfg.start(b); i < cfg.end(b); i++) {
+            int op = f.op(i);
+            if (Ir.hasOperandA(op)) {
+                f.setA(i, use(f.a(i)));
+            }
+            if (Ir.hasOperandB(op)) {
+                f.setB(i, use(f.b(i)));
+            }
+            if (op == Ir.CALL || op == Ir.CALLI) {
+                for (int k = 0; k < f.argCount(i); k++) {
+                    f.setArg(i, k, use(f.arg(i, k)));
+                }
+            }
+            if (Ir.defines(op) && f.dst(i) >= 0) {
+                f.setDst(i, define(f.dst(i)));
+            }
+        }
+        for (int k = 0; k < cfg.successorCount(b); k++) {
+            int s = cfg.successor(b, k);
+            int index = cfg.predecessorIndexOfSuccessor(b, k);
+            for (int p = phiHead[s]; p >= 0; p = phiNext[p]) {
+                f.setAux(phiArgs[p] + 1 + index, use(phiReg[p]));
+            }
+        }
+        return mark;
+    }
+
+    private int use(int operand) {
+        if (!Ir.isRegister(operand)) {
+            return operand;
+        }
+        int name = names[operand];
+        return name == Ir.NONE ? f.constant(0) : name;
+    }
+
+    /** A fresh name for a definition of original register {@code r}, which becomes current. */
+    private int define(int r) {
+        int name;
+        if (!renamed[r]) {
+            renamed[r] = true;
+            name = r;
+        } else {
+            name = f.newRegister(f.registerKind(r));
+        }
+        if (logSize + 2 > log.length) {
+            log = Arrays.copyOf(log, log.length * 2);
+        }
+        log[logSize++] = r;
+        log[logSize++] = names[r];
+        names[r] = name;
+        return name;
+    }
+
+    private void undo(int mark) {
+        while (logSize > mark) {
+            int previous = log[--logSize];
+            names[log[--logSize]] = previous;
+        }
+    }
+
+    /** Re-lays the code: reachable blocks in their original order, each starting with its phis. */
+    private void emit() {
+        int n = f.size();
+        int[] ops = new int[n];
+        int[] kinds = new int[n];
+        int[] dsts = new int[n];
+        int[] as = new int[n];
+        int[] bs = new int[n];
+        for (int i = 0; i < n; i++) {
+            ops[i] = f.op(i);
+            kinds[i] = f.kind(i);
+            dsts[i] = f.dst(i);
+            as[i] = f.a(i);
+            bs[i] = f.b(i);
+        }
+        f.truncate(0);
+        int[] newStart = new int[cfg.blockCount()];
+        for (int b = 0; b < cfg.blockCount(); b++) {
+            if (!cfg.isReachable(b)) {
+                continue;
+            }
+            newStart[b] = f.size();
+            for (int p = phiHead[b]; p >= 0; p = phiNext[p]) {
+                emitPhi(b, p);
+            }
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                f.emit(ops[i], kinds[i], dsts[i], as[i], bs[i]);
+            }
+        }
+        for (int i = 0; i < f.size(); i++) {
+            for (int k = 0; k < f.targetCount(i); k++) {
+                f.setTarget(i, k, newStart[cfg.blockOf(f.target(i, k))]);
+            }
+        }
+    }
+
+    /** Emits phi {@code p} of block {@code b} with the operands of unreachable predecessors left out. */
+    private void emitPhi(int b, int p) {
+        int preds = cfg.predecessorCount(b);
+        int live = 0;
+        for (int k = 0; k < preds; k++) {
+            if (cfg.isReachable(cfg.predecessor(b, k))) {
+                live++;
+            }
+        }
+        int base = phiArgs[p];
+        if (live < preds) {
+            int packed = f.allocateAux(1 + live);
+            f.setAux(packed, live);
+            int j = 0;
+            for (int k = 0; k < preds; k++) {
+                if (cfg.isReachable(cfg.predecessor(b, k))) {
+                    f.setAux(packed + 1 + j++, f.aux(base + 1 + k));
+                }
+            }
+            base = packed;
+        }
+        f.emit(Ir.PHI, f.registerKind(phiReg[p]), phiDst[p], Ir.NONE, base);
+    }
+}
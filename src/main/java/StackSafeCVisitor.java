@@ -0,0 +1,92 @@
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.RuleNode;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * {@link CBaseVisitor} whose default traversal uses an explicit stack.
+ *
+ * Rules whose visit method is not overridden are handled by
+ * {@link #visitChildren} without any Java recursion, aggregating results
+ * exactly like {@code AbstractParseTreeVisitor.visitChildren}. Only nodes
+ * whose visit method a subclass overrides are dispatched through
+ * {@code accept}, so stack use grows with the nesting of overridden rules
+ * (statements, say) and not with the 17 pass-through levels of every
+ * expression operand.
+ */
+public class StackSafeCVisitor<T> extends CBaseVisitor<T> {
+    private static final ClassValue<boolean[]> OVERRIDDEN = new ClassValue<boolean[]>() {
+        @Override
+        protected boolean[] computeValue(Class<?> type) {
+            boolean[] overridden = new boolean[CParser.ruleNames.length];
+            for (Method m : type.getMethods()) {
+                Class<?>[] params = m.getParameterTypes();
+                if (!m.getName().startsWith("visit") || params.length != 1 || m.isBridge()
+                        || m.getDeclaringClass() == CBaseVisitor.class) {
+                    continue;
+                }
+                int rule = ruleIndexOf(params[0]);
+                if (rule >= 0) {
+                    overridden[rule] = true;
+                }
+            }
+            return overridden;
+        }
+    };
+
+    private final boolean[] overridden = OVERRIDDEN.get(getClass());
+
+    @Override
+    public T visitChildren(RuleNode root) {
+        RuleNode[] nodes = new RuleNode[32];
+        int[] next = new int[32];
+        Object[] results = new Object[32];
+        int sp = 0;
+        nodes[0] = root;
+        results[0] = defaultResult();
+        sp++;
+        while (true) {
+            RuleNode node = nodes[sp - 1];
+            @SuppressWarnings("unchecked")
+            T result = (T) results[sp - 1];
+            int i = next[sp - 1];
+            if (i < node.getChildCount() && shouldVisitNextChild(node, result)) {
+                next[sp - 1] = i + 1;
+                ParseTree child = node.getChild(i);
+                if (child instanceof RuleNode
+                        && !overridden[((RuleNode) child).getRuleContext().getRuleIndex()]) {
+                    if (sp == nodes.length) {
+                        nodes = Arrays.copyOf(nodes, sp * 2);
+                        next = Arrays.copyOf(next, sp * 2);
+                        results = Arrays.copyOf(results, sp * 2);
+                    }
+                    nodes[sp] = (RuleNode) child;
+                    next[sp] = 0;
+                    results[sp] = defaultResult();
+                    sp++;
+                } else {
+                    results[sp - 1] = aggregateResult(result, child.accept(this));
+                }
+                continue;
+            }
+            nodes[--sp] = null;
+            results[sp] = null;
+            if (sp == 0) {
+                return result;
+            }
+            @SuppressWarnings("unchecked")
+            T parent = (T) results[sp - 1];
+            results[sp - 1] = aggregateResult(parent, result);
+        }
+    }
+
+    private static int ruleIndexOf(Class<?> contextType) {
+        String name = contextType.getSimpleName();
+        if (contextType.getEnclosingClass() != CParser.class || !name.endsWith("Context")) {
+            return -1;
+        }
+        String rule = Character.toLowerCase(name.charAt(0)) + name.substring(1, name.length() - "Context".length());
+        return Arrays.asList(CParser.ruleNames).indexOf(rule);
+    }
+}
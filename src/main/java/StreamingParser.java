@@ -0,0 +1,123 @@
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenFactory;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.RuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.UnbufferedCharStream;
+import org.antlr.v4.runtime.UnbufferedTokenStream;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.io.Reader;
+
+/**
+ * Parses without building a parse tree and reports selected rules to a
+ * {@link ParseEventSink} while the parser runs.
+ *
+ * The parser is run with {@code setBuildParseTree(false)} and this listener
+ * attached through {@code addParseListener}, so a context becomes garbage as
+ * soon as its rule returns. Combined with the unbuffered char and token
+ * streams used by {@link #parse(Reader, ParseEventSink)}, memory use grows
+ * with the nesting depth of the input rather than with its size. The
+ * parser still hands every token to its rule's context so the listener
+ * can see it; the listener removes it again at once, or the commas of a
+ * long initializer list would stay until the list ends.
+ */
+public class StreamingParser extends CBaseListener {
+    /** function_definition, declaration and struct_or_union_specifier. */
+    public static final int[] DEFAULT_RULES = {
+            CParser.RULE_function_definition,
+            CParser.RULE_declaration,
+            CParser.RULE_struct_or_union_specifier,
+    };
+
+    private final ParseEventSink sink;
+    private final boolean[] selected = new boolean[CParser.ruleNames.length];
+
+    public StreamingParser(ParseEventSink sink, int... rules) {
+        this.sink = sink;
+        for (int rule : rules.length == 0 ? DEFAULT_RULES : rules) {
+            selected[rule] = true;
+        }
+    }
+
+    /** Streams {@code input} through a parser that keeps no tree and no token history. */
+    public static void parse(Reader input, ParseEventSink sink, int... rules) {
+        parse(new UnbufferedCharStream(input), sink, rules);
+    }
+
+    public static void parse(CharStream input, ParseEventSink sink, int... rules) {
+        CLexer lexer = new CLexer(input);
+        // Unbuffered streams drop the char buffer, so tokens must copy their text.
+        lexer.setTokenFactory(new CommonTokenFactory(true));
+        CParser parser = new CParser(new UnbufferedTokenStream<Token>(lexer));
+        parse(parser, sink, rules);
+    }
+
+    public static void parse(CParser parser, ParseEventSink sink, int... rules) {
+        StreamingParser listener = new StreamingParser(sink, rules);
+        parser.setBuildParseTree(false);
+        parser.addParseListener(listener);
+        try {
+            parser.translation_unit();
+        } finally {
+            parser.removeParseListener(listener);
+        }
+    }
+
+    @Override
+    public void enterEveryRule(ParserRuleContext ctx) {
+        if (selected[ctx.getRuleIndex()]) {
+            sink.enter(ctx.getRuleIndex(), ctx.getStart());
+        }
+    }
+
+    @Override
+    public void exitEveryRule(ParserRuleContext ctx) {
+        if (selected[ctx.getRuleIndex()]) {
+            sink.exit(ctx.getRuleIndex(), ctx.getStart(), ctx.getStop());
+        }
+    }
+
+    @Override
+    public void visitTerminal(TerminalNode node) {
+        report(node);
+        ((ParserRuleContext) node.getParent()).removeLastChild();
+    }
+
+    @Override
+    public void visitErrorNode(ErrorNode node) {
+        ((ParserRuleContext) node.getParent()).removeLastChild();
+    }
+
+    private void report(TerminalNode node) {
+        Token t = node.getSymbol();
+        if (t.getType() != CParser.IDENTIFIER) {
+            return;
+        }
+        RuleContext ctx = (RuleContext) node.getParent();
+        int rule = ctx.getRuleIndex();
+        if (rule == CParser.RULE_struct_or_union_specifier) {
+            if (selected[rule]) {
+                sink.name(rule, t);
+            }
+            return;
+        }
+        if (rule != CParser.RULE_direct_declarator) {
+            return;
+        }
+        // Climb through the declarator nesting; a parameter or member
+        // declarator ends the climb before reaching a selected rule.
+        for (RuleContext p = ctx.parent; p != null; p = p.parent) {
+            int r = p.getRuleIndex();
+            if (r == CParser.RULE_declarator || r == CParser.RULE_direct_declarator
+                    || r == CParser.RULE_init_declarator || r == CParser.RULE_init_declarator_list) {
+                continue;
+            }
+            if ((r == CParser.RULE_function_definition || r == CParser.RULE_declaration) && selected[r]) {
+                sink.name(r, t);
+            }
+            return;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+import java.util.Arrays;
+
+/**
+ * Emits the dispatch of a switch statement once the positions of its case
+ * labels are known.
+ *
+ * The case values are sorted and partitioned into clusters: a run of
+ * consecutive values that share a target is one range, and a stretch of
+ * values at least {@link #MIN_DENSITY} percent of whose span are cases
+ * becomes a jump table, where the holes go to the default. The partition
+ * with the fewest clusters is found by dynamic programming over the sorted
+ * values, so dense blocks of a state machine become tables while isolated
+ * values in between stay single compares. The clusters are then searched
+ * with a balanced binary tree of comparisons, splitting at the first value
+ * of the middle cluster; a few single-value clusters at a leaf are simply
+ * tested in turn. Each comparison narrows the range the value is known to
+ * lie in, and the bound checks of a range or table that this range already
+ * implies are left out.
+ *
+ * Values are compared through a key that orders them as the kind does:
+ * the value itself when signed, zero-extended when unsigned 32-bit and
+ * with the sign bit flipped when unsigned 64-bit.
+ */
+public final class SwitchLowering {
+    /** Fewest cases worth a jump table. */
+    static final int MIN_TABLE_CASES = 4;
+    /** Smallest percentage of a table's entries that must be cases. */
+    static final int MIN_DENSITY = 40;
+    /** Most entries in one jump table. */
+    static final int MAX_TABLE = 1 << 16;
+    /** Most single-value clusters tested one after another instead of split further. */
+    static final int LINEAR_LIMIT = 3;
+
+    private final IrFunction f;
+    private final int kind;
+    private final int value;
+    private final int defaultTarget;
+    /** Sorted keys of the distinct case values and their targets. */
+    private final long[] keys;
+    private final int[] targets;
+    private final int count;
+    /** Clusters as ranges of {@link #keys}: {@code clusterStart[c] .. clusterStart[c + 1]}. */
+    private int[] clusterStart;
+    private boolean[] table;
+    private int clusterCount;
+
+    private SwitchLowering(IrFunction f, int kind, int value, long[] keys, int[] targets, int count, int defaultTarget) {
+        this.f = f;
+        this.kind = kind;
+        this.value = value;
+        this.keys = keys;
+        this.targets = targets;
+        this.count = count;
+        this.defaultTarget = defaultTarget;
+    }
+
+    /**
+     * Emits code that jumps to {@code caseTargets[i]} when register
+     * {@code value} of {@code kind} equals {@code caseValues[i]}, for i in
+     * {@code from .. to}, and to {@code defaultTarget} when it equals none.
+     * The values must be distinct once converted to {@code kind}, which the
+     * type checker ensures for the labels of one switch.
+     */
+    public static void lower(IrFunction f, int kind, int value, long[] caseValues, int[] caseTargets,
+            int from, int to, int defaultTarget) {
+        int n = to - from;
+        if (n == 0) {
+            f.emit(Ir.JMP, Ir.VOID, defaultTarget, Ir.NONE, Ir.NONE);
+            return;
+        }
+        Integer[] order = new Integer[n];
+        long[] unsorted = new long[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+            unsorted[i] = key(Ir.normalize(caseValues[from + i], kind), kind);
+        }
+        Arrays.sort(order, (x, y) -> Long.compare(unsorted[x], unsorted[y]));
+        long[] keys = new long[n];
+        int[] targets = new int[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = unsorted[order[i]];
+            targets[i] = caseTargets[from + order[i]];
+            assert i == 0 || keys[i - 1] != keys[i] : "duplicate case value " + caseValues[from + order[i]];
+        }
+        SwitchLowering s = new SwitchLowering(f, kind, value, keys, targets, n, defaultTarget);
+        s.cluster();
+        s.search(0, s.clusterCount, minKey(kind), maxKey(kind));
+    }
+
+    /**
+     * Emits the dispatch {@link #lower} replaces: one equality compare per
+     * case in the order given, then a jump to {@code defaultTarget}.
+     */
+    static void compareEach(IrFunction f, int kind, int value, long[] caseValues, int[] caseTargets,
+            int from, int to, int defaultTarget) {
+        for (int i = from; i < to; i++) {
+            f.emit(Ir.JEQ, kind, caseTargets[i], value, f.constant(Ir.normalize(caseValues[i], kind)));
+        }
+        f.emit(Ir.JMP, Ir.VOID, defaultTarget, Ir.NONE, Ir.NONE);
+    }
+
+    // ------------------------------------------------------------------ keys
+
+    private static long key(long v, int kind) {
+        switch (kind) {
+            case Ir.U32:
+                return v & 0xffffffffL;
+            case Ir.U64:
+                return v ^ Long.MIN_VALUE;
+            default:
+                return v;
+        }
+    }
+
+    private long valueOf(long key) {
+        return kind == Ir.U64 ? key ^ Long.MIN_VALUE : Ir.normalize(key, kind);
+    }
+
+    private static long minKey(int kind) {
+        switch (kind) {
+            case Ir.I32:
+                return Integer.MIN_VALUE;
+            case Ir.U32:
+                return 0;
+            default:
+                return Long.MIN_VALUE;
+        }
+    }
+
+    private static long maxKey(int kind) {
+        switch (kind) {
+            case Ir.I32:
+                return Integer.MAX_VALUE;
+            case Ir.U32:
+                return 0xffffffffL;
+            default:
+                return Long.MAX_VALUE;
+        }
+    }
+
+    // ------------------------------------------------------------ clustering
+
+    /**
+     * Fewest clusters covering {@code keys[i ..]}, computed from the last
+     * key backwards: either the run of consecutive keys with the target of
+     * key i, or a table from key i to some later key dense enough.
+     */
+    private void cluster() {
+        int[] best = new int[count + 1];
+        int[] end = new int[count + 1];
+        int[] runEnd = new int[count];
+        for (int i = count - 1; i >= 0; i--) {
+            boolean continues = i + 1 < count && keys[i + 1] == keys[i] + 1 && targets[i + 1] == targets[i];
+            runEnd[i] = continues ? runEnd[i + 1] : i + 1;
+        }
+        boolean[] isTable = new boolean[count + 1];
+        for (int i = count - 1; i >= 0; i--) {
+            best[i] = 1 + best[runEnd[i]];
+            end[i] = runEnd[i];
+            for (int j = i + MIN_TABLE_CASES - 1; j < count; j++) {
+                long span = keys[j] - keys[i];
+                if (Long.compareUnsigned(span, MAX_TABLE) >= 0
+                        || (long) (count - i) * 100 < MIN_DENSITY * (span + 1)) {
+                    break;
+                }
+                if ((long) (j - i + 1) * 100 >= MIN_DENSITY * (span + 1) && 1 + best[j + 1] < best[i]) {
+                    best[i] = 1 + best[j + 1];
+                    end[i] = j + 1;
+                    isTable[i] = true;
+                }
+            }
+        }
+        clusterCount = best[0];
+        clusterStart = new int[clusterCount + 1];
+        table = new boolean[clusterCount];
+        int c = 0;
+        for (int i = 0; i < count; i = end[i]) {
+            table[c] = isTable[i];
+            clusterStart[c++] = i;
+        }
+        clusterStart[c] = count;
+    }
+
+    // -------------------------------------------------------------- emission
+
+    /** Dispatches among clusters {@code lo .. hi} for a value whose key lies in {@code [low, high]}. */
+    private void search(int lo, int hi, long low, long high) {
+        if (hi - lo == 1) {
+            emitCluster(lo, low, high);
+            return;
+        }
+        if (hi - lo <= LINEAR_LIMIT && singleValues(lo, hi)) {
+            for (int c = lo; c < hi; c++) {
+                int i = clusterStart[c];
+                f.emit(Ir.JEQ, kind, targets[i], value, f.constant(valueOf(keys[i])));
+            }
+            f.emit(Ir.JMP, Ir.VOID, defaultTarget, Ir.NONE, Ir.NONE);
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        long pivot = keys[clusterStart[mid]];
+        int branch = f.emit(Ir.JGE, kind, -1, value, f.constant(valueOf(pivot)));
+        search(lo, mid, low, pivot - 1);
+        f.setDst(branch, f.size());
+        search(mid, hi, pivot, high);
+    }
+
+    private boolean singleValues(int lo, int hi) {
+        for (int c = lo; c < hi; c++) {
+            if (table[c] || clusterStart[c + 1] - clusterStart[c] != 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void emitCluster(int c, long low, long high) {
+        int first = clusterStart[c];
+        int last = clusterStart[c + 1] - 1;
+        long min = keys[first];
+        long max = keys[last];
+        if (!table[c]) {
+            if (min == max && (low < min || max < high)) {
+                f.emit(Ir.JEQ, kind, targets[first], value, f.constant(valueOf(min)));
+                f.emit(Ir.JMP, Ir.VOID, defaultTarget, Ir.NONE, Ir.NONE);
+                return;
+            }
+            boundChecks(value, low, high, min, max);
+            f.emit(Ir.JMP, Ir.VOID, targets[first], Ir.NONE, Ir.NONE);
+            return;
+        }
+        int wide = Ir.regKind(kind) == Ir.I64 ? Ir.U64 : Ir.U32;
+        int index = f.newRegister(Ir.regKind(kind));
+        if (low < min && max < high) {
+            // one unsigned compare checks both ends
+            f.emit(Ir.SUB, kind, index, value, f.constant(valueOf(min)));
+            f.emit(Ir.JGT, wide, defaultTarget, index, f.constant(Ir.normalize(max - min, wide)));
+        } else {
+            boundChecks(value, low, high, min, max);
+            f.emit(Ir.SUB, kind, index, value, f.constant(valueOf(min)));
+        }
+        int length = (int) (max - min + 1);
+        int aux = f.allocateAux(1 + length);
+        f.setAux(aux, length);
+        for (int k = 0; k < length; k++) {
+            f.setAux(aux + 1 + k, defaultTarget);
+        }
+        for (int i = first; i <= last; i++) {
+            f.setAux(aux + 1 + (int) (keys[i] - min), targets[i]);
+        }
+        f.emit(Ir.SWITCH, wide, Ir.NONE, index, aux);
+    }
+
+    /** Sends values outside {@code [min, max]} to the default, where {@code [low, high]} does not rule them out. */
+    private void boundChecks(int v, long low, long high, long min, long max) {
+        if (low < min) {
+            f.emit(Ir.JLT, kind, defaultTarget, v, f.constant(valueOf(min)));
+        }
+        if (max < high) {
+            f.emit(Ir.JGT, kind, defaultTarget, v, f.constant(valueOf(max)));
+        }
+    }
+}
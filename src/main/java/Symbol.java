@@ -0,0 +1,51 @@
+/**
+ * A declared entity: object, function, typedef, enumerator, tag or label.
+ * Symbols are created by {@link NameResolver} and numbered densely in
+ * creation order, so later passes can index arrays by {@link #id}.
+ */
+public final class Symbol {
+    public enum Kind {
+        VARIABLE,
+        PARAMETER,
+        FUNCTION,
+        TYPEDEF,
+        ENUM_CONSTANT,
+        TAG,
+        LABEL
+    }
+
+    public final int id;
+    public final Kind kind;
+    public final String name;
+    /** Interned id of {@link #name}, -1 for anonymous tags. */
+    public final int nameId;
+    /** Nesting depth of the declaring scope; 0 is file scope. */
+    public final int depth;
+    /**
+     * The declaring node: a {@link Ast.Decl}, or the {@link Ast.LabeledStmt}
+     * of a label. For tags and functions this is replaced by the definition
+     * once one is seen.
+     */
+    public Ast.Node node;
+    /** Function called without a visible declaration (C89 implicit int). */
+    public final boolean implicit;
+
+    Symbol(int id, Kind kind, String name, int nameId, int depth, Ast.Node node, boolean implicit) {
+        this.id = id;
+        this.kind = kind;
+        this.name = name;
+        this.nameId = nameId;
+        this.depth = depth;
+        this.node = node;
+        this.implicit = implicit;
+    }
+
+    public boolean isGlobal() {
+        return depth == 0;
+    }
+
+    @Override
+    public String toString() {
+        return kind.name().toLowerCase() + " " + (name == null ? "<anonymous>" : name) + "#" + id;
+    }
+}
@@ -0,0 +1,152 @@
+import java.util.Arrays;
+
+/**
+ * Block-structured symbol table over interned names.
+ *
+ * C has separate namespaces for ordinary identifiers, tags and labels; a
+ * binding is keyed by (name id, namespace). One open-addressing map holds,
+ * for every key ever declared, the index of its innermost live binding.
+ * Bindings themselves sit on a stack together with the binding they shadow,
+ * so popping a scope just walks its bindings back and restores the shadowed
+ * ones. Lookup is a single probe sequence regardless of nesting depth, and
+ * push/pop allocate nothing once the arrays have grown to the program's
+ * size.
+ */
+public final class SymbolTable {
+    public static final int ORDINARY = 0;
+    public static final int TAG = 1;
+    public static final int LABEL = 2;
+
+    public static final int FILE_SCOPE = 0;
+    public static final int FUNCTION_SCOPE = 1;
+    public static final int BLOCK_SCOPE = 2;
+
+    private static final int NAMESPACES = 3;
+    private static final int EMPTY = -1;
+
+    // key -> innermost binding, open addressing with linear probing
+    private int[] keys = new int[256];
+    private int[] top = new int[256];
+    private int used;
+
+    // binding stack
+    private Symbol[] bound = new Symbol[64];
+    private int[] boundKey = new int[64];
+    private int[] shadowed = new int[64];
+    private int bindings;
+
+    // scope stack: first binding and kind of each open scope
+    private int[] scopeStart = new int[16];
+    private int[] scopeKind = new int[16];
+    private int depth = -1;
+
+    public SymbolTable() {
+        Arrays.fill(keys, EMPTY);
+        pushScope(FILE_SCOPE);
+    }
+
+    public void pushScope(int kind) {
+        if (++depth == scopeStart.length) {
+            scopeStart = Arrays.copyOf(scopeStart, depth * 2);
+            scopeKind = Arrays.copyOf(scopeKind, depth * 2);
+        }
+        scopeStart[depth] = bindings;
+        scopeKind[depth] = kind;
+    }
+
+    public void popScope() {
+        if (depth == 0) {
+            throw new IllegalStateException("cannot pop file scope");
+        }
+        int start = scopeStart[depth--];
+        for (int b = bindings - 1; b >= start; b--) {
+            top[slot(boundKey[b])] = shadowed[b];
+            bound[b] = null;
+        }
+        bindings = start;
+    }
+
+    /** Nesting depth of the innermost scope; 0 is file scope. */
+    public int depth() {
+        return depth;
+    }
+
+    public int scopeKind() {
+        return scopeKind[depth];
+    }
+
+    /** Innermost visible binding of {@code nameId} in {@code namespace}, or null. */
+    public Symbol lookup(int namespace, int nameId) {
+        int s = slot(key(namespace, nameId));
+        int b = keys[s] == EMPTY ? EMPTY : top[s];
+        return b < 0 ? null : bound[b];
+    }
+
+    /** Binding of {@code nameId} made in the innermost scope itself, or null. */
+    public Symbol lookupLocal(int namespace, int nameId) {
+        int s = slot(key(namespace, nameId));
+        int b = keys[s] == EMPTY ? EMPTY : top[s];
+        return b < scopeStart[depth] ? null : bound[b];
+    }
+
+    /**
+     * Binds {@code symbol} in the innermost scope. If the name is already
+     * bound in that scope, nothing changes and the existing symbol is
+     * returned; otherwise {@code symbol} is returned.
+     */
+    public Symbol declare(int namespace, Symbol symbol) {
+        int key = key(namespace, symbol.nameId);
+        int s = slot(key);
+        if (keys[s] == EMPTY) {
+            keys[s] = key;
+            top[s] = EMPTY;
+            if (++used * 2 > keys.length) {
+                rehash();
+                s = slot(key);
+            }
+        }
+        int previous = top[s];
+        if (previous >= scopeStart[depth]) {
+            return bound[previous];
+        }
+        if (bindings == bound.length) {
+            bound = Arrays.copyOf(bound, bindings * 2);
+            boundKey = Arrays.copyOf(boundKey, bindings * 2);
+            shadowed = Arrays.copyOf(shadowed, bindings * 2);
+        }
+        bound[bindings] = symbol;
+        boundKey[bindings] = key;
+        shadowed[bindings] = previous;
+        top[s] = bindings++;
+        return symbol;
+    }
+
+    private static int key(int namespace, int nameId) {
+        return nameId * NAMESPACES + namespace;
+    }
+
+    /** Slot holding {@code key}, or the empty slot where it would go. */
+    private int slot(int key) {
+        int mask = keys.length - 1;
+        int i = Interner.mix(key) & mask;
+        while (keys[i] != key && keys[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys;
+        int[] oldTop = top;
+        keys = new int[oldKeys.length * 2];
+        top = new int[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int s = slot(oldKeys[i]);
+                keys[s] = oldKeys[i];
+                top[s] = oldTop[i];
+            }
+        }
+    }
+}
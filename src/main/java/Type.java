@@ -0,0 +1,335 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Semantic C type. Types are hash-consed by {@link Types}: two types are the
+ * same exactly when they are the same object, so type equality is
+ * {@code ==} and types can key identity maps.
+ *
+ * Scalar sizes follow LP64. Enumerated types are represented as int.
+ * Struct and union types are nominal: one type per tag {@link Symbol}, with
+ * members attached once the definition has been checked.
+ */
+public final class Type {
+    public enum Kind {
+        VOID, BOOL, CHAR, SCHAR, UCHAR, SHORT, USHORT, INT, UINT, LONG, ULONG, LLONG, ULLONG,
+        FLOAT, DOUBLE, LDOUBLE, POINTER, ARRAY, FUNCTION, STRUCT, UNION,
+        /** Result of an ill-typed expression; accepted everywhere to avoid cascading errors. */
+        ERROR
+    }
+
+    public static final Type VOID = new Type(Kind.VOID);
+    public static final Type BOOL = new Type(Kind.BOOL);
+    public static final Type CHAR = new Type(Kind.CHAR);
+    public static final Type SCHAR = new Type(Kind.SCHAR);
+    public static final Type UCHAR = new Type(Kind.UCHAR);
+    public static final Type SHORT = new Type(Kind.SHORT);
+    public static final Type USHORT = new Type(Kind.USHORT);
+    public static final Type INT = new Type(Kind.INT);
+    public static final Type UINT = new Type(Kind.UINT);
+    public static final Type LONG = new Type(Kind.LONG);
+    public static final Type ULONG = new Type(Kind.ULONG);
+    public static final Type LLONG = new Type(Kind.LLONG);
+    public static final Type ULLONG = new Type(Kind.ULLONG);
+    public static final Type FLOAT = new Type(Kind.FLOAT);
+    public static final Type DOUBLE = new Type(Kind.DOUBLE);
+    public static final Type LDOUBLE = new Type(Kind.LDOUBLE);
+    public static final Type ERROR = new Type(Kind.ERROR);
+
+    /** A struct or union member. */
+    public static final class Field {
+        public final String name;
+        public final Type type;
+        /** Bit-field width, or -1 for an ordinary member. */
+        public final int bitWidth;
+        /** Position among the members of its struct or union. */
+        public final int index;
+        /** _Alignas operand: a {@link Type}, a {@link Long} byte count, or null. */
+        public final Object alignment;
+        public final Ast.FieldDecl decl;
+
+        Field(String name, Type type, int bitWidth, int index, Object alignment, Ast.FieldDecl decl) {
+            this.name = name;
+            this.type = type;
+            this.bitWidth = bitWidth;
+            this.index = index;
+            this.alignment = alignment;
+            this.decl = decl;
+        }
+    }
+
+    public final Kind kind;
+    public final int qualifiers;
+    /** Pointee, array element or function result. */
+    public final Type base;
+    /** Array length, -1 when unknown. */
+    public final long length;
+    final Type[] params;
+    public final boolean variadic;
+    /** False for {@code f()} and K&amp;R declarations, whose calls are not checked. */
+    public final boolean prototyped;
+    /** Tag of a struct or union type. */
+    public final Symbol tag;
+    final Type unqualified;
+    final int hash;
+    private List<Field> fields;
+
+    private Type(Kind kind) {
+        this(kind, 0, null, -1, null, false, false, null, null);
+    }
+
+    Type(Kind kind, int qualifiers, Type base, long length, Type[] params, boolean variadic,
+         boolean prototyped, Symbol tag, Type unqualified) {
+        this.kind = kind;
+        this.qualifiers = qualifiers;
+        this.base = base;
+        this.length = length;
+        this.params = params;
+        this.variadic = variadic;
+        this.prototyped = prototyped;
+        this.tag = tag;
+        this.unqualified = unqualified == null ? this : unqualified;
+        this.hash = hash(kind, qualifiers, base, length, params, variadic, prototyped, tag);
+    }
+
+    static int hash(Kind kind, int qualifiers, Type base, long length, Type[] params, boolean variadic,
+                    boolean prototyped, Symbol tag) {
+        int h = kind.ordinal() * 31 + qualifiers;
+        h = h * 31 + (base == null ? 0 : base.hash);
+        h = h * 31 + Long.hashCode(length);
+        if (params != null) {
+            for (Type p : params) {
+                h = h * 31 + p.hash;
+            }
+        }
+        h = h * 31 + (variadic ? 1 : 0) + (prototyped ? 2 : 0);
+        return h * 31 + (tag == null ? 0 : tag.id + 1);
+    }
+
+    /** The same type without qualifiers. */
+    public Type unqualified() {
+        return unqualified;
+    }
+
+    public boolean isConst() {
+        return (qualifiers & Ast.TypeRef.CONST) != 0;
+    }
+
+    public int getParamCount() {
+        return params == null ? 0 : params.length;
+    }
+
+    public Type getParam(int i) {
+        return params[i];
+    }
+
+    /** Members of a complete struct or union, null while incomplete. */
+    public List<Field> getFields() {
+        return fields;
+    }
+
+    void complete(List<Field> fields) {
+        this.fields = Collections.unmodifiableList(fields);
+    }
+
+    /** The member named {@code name}, searching anonymous members too; null if absent. */
+    public Field getField(String name) {
+        if (fields == null) {
+            return null;
+        }
+        for (Field f : fields) {
+            if (name.equals(f.name)) {
+                return f;
+            }
+            if (f.name == null && f.type.isRecord()) {
+                Field inner = f.type.getField(name);
+                if (inner != null) {
+                    return inner;
+                }
+            }
+        }
+        return null;
+    }
+
+    public boolean isInteger() {
+        return kind.compareTo(Kind.BOOL) >= 0 && kind.compareTo(Kind.ULLONG) <= 0;
+    }
+
+    public boolean isFloating() {
+        return kind == Kind.FLOAT || kind == Kind.DOUBLE || kind == Kind.LDOUBLE;
+    }
+
+    public boolean isArithmetic() {
+        return isInteger() || isFloating();
+    }
+
+    public boolean isPointer() {
+        return kind == Kind.POINTER;
+    }
+
+    public boolean isScalar() {
+        return isArithmetic() || kind == Kind.POINTER;
+    }
+
+    public boolean isRecord() {
+        return kind == Kind.STRUCT || kind == Kind.UNION;
+    }
+
+    public boolean isVoid() {
+        return kind == Kind.VOID;
+    }
+
+    public boolean isError() {
+        return kind == Kind.ERROR;
+    }
+
+    /** Unsigned integer type; plain char is signed on the targets we follow. */
+    public boolean isUnsigned() {
+        switch (kind) {
+            case BOOL:
+            case UCHAR:
+            case USHORT:
+            case UINT:
+            case ULONG:
+            case ULLONG:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** Integer conversion rank, C11 6.3.1.1. */
+    public int rank() {
+        switch (kind) {
+            case BOOL:
+                return 0;
+            case CHAR:
+            case SCHAR:
+            case UCHAR:
+                return 1;
+            case SHORT:
+            case USHORT:
+                return 2;
+            case INT:
+            case UINT:
+                return 3;
+            case LONG:
+            case ULONG:
+                return 4;
+            default:
+                return 5;
+        }
+    }
+
+    /** Size in bytes of a scalar type under LP64; -1 for other types. */
+    public int scalarSize() {
+        switch (kind) {
+            case BOOL:
+            case CHAR:
+            case SCHAR:
+            case UCHAR:
+                return 1;
+            case SHORT:
+            case USHORT:
+                return 2;
+            case INT:
+            case UINT:
+            case FLOAT:
+                return 4;
+            case LONG:
+            case ULONG:
+            case LLONG:
+            case ULLONG:
+            case DOUBLE:
+            case POINTER:
+                return 8;
+            case LDOUBLE:
+                return 16;
+            default:
+                return -1;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return declare("");
+    }
+
+    /** C spelling of a declaration of {@code name} with this type. */
+    private String declare(String name) {
+        String q = qualifierPrefix();
+        switch (kind) {
+            case POINTER: {
+                String inner = "*" + q + name;
+                return base.declare(base.kind == Kind.ARRAY || base.kind == Kind.FUNCTION ? "(" + inner + ")" : inner);
+            }
+            case ARRAY:
+                return base.declare(name + "[" + (length < 0 ? "" : Long.toString(length)) + "]");
+            case FUNCTION: {
+                StringBuilder sb = new StringBuilder(name).append('(');
+                for (int i = 0; i < getParamCount(); i++) {
+                    sb.append(i == 0 ? "" : ", ").append(params[i]);
+                }
+                if (variadic) {
+                    sb.append(getParamCount() == 0 ? "..." : ", ...");
+                } else if (prototyped && getParamCount() == 0) {
+                    sb.append("void");
+                }
+                return base.declare(sb.append(')').toString());
+            }
+            default: {
+                String spelled = q + spelling();
+                return name.isEmpty() ? spelled : spelled + " " + name;
+            }
+        }
+    }
+
+    private String qualifierPrefix() {
+        StringBuilder sb = new StringBuilder();
+        if ((qualifiers & Ast.TypeRef.CONST) != 0) {
+            sb.append("const ");
+        }
+        if ((qualifiers & Ast.TypeRef.VOLATILE) != 0) {
+            sb.append("volatile ");
+        }
+        if ((qualifiers & Ast.TypeRef.RESTRICT) != 0) {
+            sb.append("restrict ");
+        }
+        return sb.toString();
+    }
+
+    private String spelling() {
+        switch (kind) {
+            case BOOL:
+                return "_Bool";
+            case SCHAR:
+                return "signed char";
+            case UCHAR:
+                return "unsigned char";
+            case USHORT:
+                return "unsigned short";
+            case UINT:
+                return "unsigned int";
+            case ULONG:
+                return "unsigned long";
+            case LLONG:
+                return "long long";
+            case ULLONG:
+                return "unsigned long long";
+            case LDOUBLE:
+                return "long double";
+            case STRUCT:
+            case UNION:
+                return kind.name().toLowerCase() + " " + (tag.name == null ? "<anonymous>" : tag.name);
+            case ERROR:
+                return "<error>";
+            default:
+                return kind.name().toLowerCase();
+        }
+    }
+}
@@ -0,0 +1,1100 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Computes the {@link Type} of every expression and declared symbol of a
+ * resolved translation unit and reports the constraint violations of C11
+ * chapter 6.5: operand types of arithmetic, pointer arithmetic, member
+ * access, calls against prototypes, assignment compatibility and so on.
+ *
+ * Expression types are stored by {@link Ast.Expr#id} as written, before
+ * lvalue, array and function conversion; {@link Types#decay} gives the value
+ * type. Like {@link NameResolver} the checker records errors instead of
+ * throwing, and an ill-typed expression gets {@link Type#ERROR} so one
+ * mistake is reported once.
+ */
+public final class TypeChecker extends Ast.Scanner<Type> {
+    private final NameResolver resolver;
+    private final Ast.TranslationUnit unit;
+    private final Types types;
+    private final Type[] exprTypes;
+    private final Type.Field[] memberFields;
+    private final Type[] symbolTypes;
+    private final Object[] symbolAlignments;
+    /** Type named in a cast or sizeof, by expression id. */
+    private final Type[] writtenTypes;
+    private final LayoutEngine layout = new LayoutEngine();
+    private final ConstantEvaluator constants;
+    /** Checking the initializer of an object with static storage duration. */
+    private boolean staticInit;
+    private final List<String> errors = new ArrayList<>();
+    private Type returnType;
+    /** Promoted type of the innermost switch; null outside a switch. */
+    private Type switchType;
+    /** Case values of the innermost switch, converted to {@link #switchType}. */
+    private Set<Long> caseValues;
+    private boolean switchHasDefault;
+    /** Loops enclosing the statement being checked, within the current function. */
+    private int loopDepth;
+
+    private TypeChecker(NameResolver resolver, Types types) {
+        this.resolver = resolver;
+        this.unit = resolver.getUnit();
+        this.types = types;
+        this.exprTypes = new Type[unit.exprCount];
+        this.memberFields = new Type.Field[unit.exprCount];
+        this.symbolTypes = new Type[resolver.getSymbols().size()];
+        this.symbolAlignments = new Object[symbolTypes.length];
+        this.writtenTypes = new Type[unit.exprCount];
+        this.constants = new ConstantEvaluator(this, layout, unit.exprCount, symbolTypes.length);
+    }
+
+    public static TypeChecker check(NameResolver resolver) {
+        return check(resolver, new Types());
+    }
+
+    public static TypeChecker check(NameResolver resolver, Types types) {
+        TypeChecker c = new TypeChecker(resolver, types);
+        c.scan(c.unit);
+        return c;
+    }
+
+    public NameResolver getResolver() {
+        return resolver;
+    }
+
+    public Types getTypes() {
+        return types;
+    }
+
+    public LayoutEngine getLayout() {
+        return layout;
+    }
+
+    public ConstantEvaluator getConstants() {
+        return constants;
+    }
+
+    public List<String> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    /** Type of {@code e} before lvalue, array-to-pointer and function-to-pointer conversion. */
+    public Type typeOf(Ast.Expr e) {
+        return exprTypes[e.id];
+    }
+
+    public Type typeOf(Symbol s) {
+        return symbolTypes[s.id];
+    }
+
+    /** The type named by a cast or by a sizeof of a type name; null for other expressions. */
+    public Type writtenTypeOf(Ast.Expr e) {
+        return writtenTypes[e.id];
+    }
+
+    /** _Alignas operand of a variable: a {@link Type}, a {@link Long} byte count, or null. */
+    public Object alignmentOf(Symbol s) {
+        return symbolAlignments[s.id];
+    }
+
+    /** The member a member access selects, null if it did not check. */
+    public Type.Field fieldOf(Ast.MemberExpr e) {
+        return memberFields[e.id];
+    }
+
+    void error(Ast.Node at, String message) {
+        int offset = at.begin();
+        errors.add("line " + unit.line(offset) + ":" + unit.column(offset) + " " + message);
+    }
+
+    // ------------------------------------------------------ written types
+
+    /** The semantic type of a written type; {@code site} locates errors. */
+    Type resolve(Ast.TypeRef t, Ast.Node site) {
+        Type r;
+        if (t instanceof Ast.BuiltinTypeRef) {
+            r = builtin(((Ast.BuiltinTypeRef) t).specifiers, site);
+        } else if (t instanceof Ast.TagTypeRef) {
+            Symbol tag = resolver.symbolOf((Ast.TagTypeRef) t);
+            if (tag == null) {
+                r = Type.ERROR;
+            } else if (tag.node instanceof Ast.EnumDecl) {
+                r = Type.INT;
+            } else {
+                r = types.record(tag, ((Ast.StructDecl) tag.node).union);
+            }
+        } else if (t instanceof Ast.TypedefTypeRef) {
+            Symbol s = resolver.symbolOf((Ast.TypedefTypeRef) t);
+            r = s == null || symbolTypes[s.id] == null ? Type.ERROR : symbolTypes[s.id];
+        } else if (t instanceof Ast.PointerTypeRef) {
+            r = types.pointer(resolve(((Ast.PointerTypeRef) t).target, site));
+        } else if (t instanceof Ast.ArrayTypeRef) {
+            Ast.ArrayTypeRef a = (Ast.ArrayTypeRef) t;
+            Type element = resolve(a.element, site);
+            if (element.kind == Type.Kind.FUNCTION || element.isVoid()) {
+                error(site, "array of " + element);
+            }
+            r = types.array(element, a.size == null ? -1 : arrayLength(a.size));
+        } else {
+            r = function((Ast.FunctionTypeRef) t, site);
+        }
+        return types.addQualifiers(r, t.qualifiers);
+    }
+
+    private Type function(Ast.FunctionTypeRef f, Ast.Node site) {
+        Type result = resolve(f.result, site);
+        if (result.kind == Type.Kind.ARRAY || result.kind == Type.Kind.FUNCTION) {
+            error(site, "function returning " + result);
+        }
+        Type[] params = new Type[f.params.size()];
+        for (int i = 0; i < params.length; i++) {
+            Ast.ParamDecl p = f.params.get(i);
+            // C11 6.7.6.3p7-8: array and function parameters are adjusted to pointers
+            Type t = resolve(p.type, p);
+            if (t.kind == Type.Kind.ARRAY) {
+                t = types.addQualifiers(types.pointer(t.base), t.qualifiers);
+            } else if (t.kind == Type.Kind.FUNCTION) {
+                t = types.pointer(t);
+            }
+            params[i] = t;
+            Symbol s = resolver.symbolOf(p);
+            if (s != null) {
+                symbolTypes[s.id] = t;
+            }
+        }
+        return types.function(result.unqualified(), params, false, !f.oldStyle);
+    }
+
+    private Type builtin(int bits, Ast.Node site) {
+        bits &= ~Ast.BuiltinTypeRef.COMPLEX;
+        boolean unsigned = (bits & Ast.BuiltinTypeRef.UNSIGNED) != 0;
+        int base = bits & ~(Ast.BuiltinTypeRef.SIGNED | Ast.BuiltinTypeRef.UNSIGNED);
+        switch (base) {
+            case Ast.BuiltinTypeRef.VOID:
+                return Type.VOID;
+            case Ast.BuiltinTypeRef.BOOL:
+                return Type.BOOL;
+            case Ast.BuiltinTypeRef.CHAR:
+                return unsigned ? Type.UCHAR : (bits & Ast.BuiltinTypeRef.SIGNED) != 0 ? Type.SCHAR : Type.CHAR;
+            case Ast.BuiltinTypeRef.SHORT:
+            case Ast.BuiltinTypeRef.SHORT | Ast.BuiltinTypeRef.INT:
+                return unsigned ? Type.USHORT : Type.SHORT;
+            case 0:
+            case Ast.BuiltinTypeRef.INT:
+                return unsigned ? Type.UINT : Type.INT;
+            case Ast.BuiltinTypeRef.LONG:
+            case Ast.BuiltinTypeRef.LONG | Ast.BuiltinTypeRef.INT:
+                return unsigned ? Type.ULONG : Type.LONG;
+            case Ast.BuiltinTypeRef.LONG | Ast.BuiltinTypeRef.LONG_LONG:
+            case Ast.BuiltinTypeRef.LONG | Ast.BuiltinTypeRef.LONG_LONG | Ast.BuiltinTypeRef.INT:
+                return unsigned ? Type.ULLONG : Type.LLONG;
+            case Ast.BuiltinTypeRef.FLOAT:
+                return Type.FLOAT;
+            case Ast.BuiltinTypeRef.DOUBLE:
+                return Type.DOUBLE;
+            case Ast.BuiltinTypeRef.LONG | Ast.BuiltinTypeRef.DOUBLE:
+                return Type.LDOUBLE;
+            default:
+                error(site, "invalid combination of type specifiers");
+                return Type.ERROR;
+        }
+    }
+
+    /** Length of an array declarator; -1 when it is not a constant (a variable length array). */
+    private long arrayLength(Ast.Expr size) {
+        Type t = check(size);
+        if (!t.isInteger() && !t.isError()) {
+            error(size, "size of array has non-integer type '" + t + "'");
+            return -1;
+        }
+        if (!constants.isIntegerConstant(size)) {
+            return -1;
+        }
+        long n = constants.longValue(size);
+        if (n < 0 && !t.isUnsigned()) {
+            error(size, "size of array is negative");
+            return -1;
+        }
+        return n;
+    }
+
+    /** Value of an integer constant expression, or null after reporting {@code what} is not one. */
+    private Long integerConstant(Ast.Expr e, String what) {
+        Type t = check(e);
+        if (t.isError()) {
+            return null;
+        }
+        if (!t.isInteger() || !constants.isIntegerConstant(e)) {
+            error(e, what + " is not an integer constant expression");
+            return null;
+        }
+        return constants.longValue(e);
+    }
+
+    /** Resolves an _Alignas operand to a {@link Type} or a {@link Long} byte count. */
+    private Object alignment(Object operand, Ast.Node site) {
+        if (operand instanceof Ast.TypeRef) {
+            return resolve((Ast.TypeRef) operand, site);
+        }
+        if (operand == null) {
+            return null;
+        }
+        Ast.Expr e = (Ast.Expr) operand;
+        Long value = integerConstant(e, "alignment");
+        if (value == null) {
+            return null;
+        }
+        if (value < 0 || value != 0 && Long.bitCount(value) != 1) {
+            error(e, "requested alignment is not a power of 2");
+            return null;
+        }
+        return value;
+    }
+
+    private int bitWidth(Ast.FieldDecl f, Type t) {
+        if (f.width == null) {
+            return -1;
+        }
+        Long value = integerConstant(f.width, "bit-field width");
+        if (!t.isInteger()) {
+            error(f, "bit-field '" + f.name + "' has non-integral type '" + t + "'");
+            return 0;
+        }
+        long width = value == null ? 0 : value;
+        if (width < 0 || width > t.scalarSize() * 8L || width == 0 && f.name != null) {
+            error(f.width, "invalid width for bit-field '" + f.name + "'");
+            return 0;
+        }
+        return (int) width;
+    }
+
+    // ------------------------------------------------------- declarations
+
+    @Override
+    public Type visitFunctionDecl(Ast.FunctionDecl n) {
+        Type t = resolve(n.type, n);
+        Symbol s = resolver.symbolOf(n);
+        if (s != null) {
+            Type previous = symbolTypes[s.id];
+            if (previous != null && !types.compatible(previous, t)) {
+                error(n, "conflicting types for '" + n.name + "'");
+            } else if (previous == null || !previous.prototyped) {
+                symbolTypes[s.id] = t;
+            }
+        }
+        if (n.body != null) {
+            returnType = t.base;
+            scan(n.body);
+            returnType = null;
+        }
+        return null;
+    }
+
+    @Override
+    public Type visitVarDecl(Ast.VarDecl n) {
+        Type t = resolve(n.type, n);
+        if (n.init != null) {
+            Symbol declared = resolver.symbolOf(n);
+            staticInit = declared != null && declared.isGlobal() || (n.flags & Ast.Decl.STATIC) != 0;
+            t = initializer(t, n.init);
+            staticInit = false;
+        } else if (!isComplete(t) && (n.flags & Ast.Decl.EXTERN) == 0 && resolver.symbolOf(n) != null
+                && !resolver.symbolOf(n).isGlobal()) {
+            error(n, "variable '" + n.name + "' has incomplete type '" + t + "'");
+        }
+        Object alignment = alignment(n.alignment, n);
+        Symbol s = resolver.symbolOf(n);
+        if (s != null) {
+            Type previous = symbolTypes[s.id];
+            if (previous != null && !types.compatible(previous, t)) {
+                error(n, "conflicting types for '" + n.name + "'");
+            } else if (previous == null || previous.kind == Type.Kind.ARRAY && previous.length < 0) {
+                symbolTypes[s.id] = t;
+            }
+            if (alignment != null) {
+                symbolAlignments[s.id] = alignment;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Type visitTypedefDecl(Ast.TypedefDecl n) {
+        Symbol s = resolver.symbolOf(n);
+        Type t = resolve(n.type, n);
+        if (s != null) {
+            symbolTypes[s.id] = t;
+        }
+        return null;
+    }
+
+    @Override
+    public Type visitStructDecl(Ast.StructDecl n) {
+        Symbol tag = resolver.symbolOf(n);
+        if (!n.isDefinition() || tag == null || tag.node != n) {
+            return null;
+        }
+        Type record = types.record(tag, n.union);
+        List<Type.Field> fields = new ArrayList<>();
+        for (int i = 0; i < n.fields.size(); i++) {
+            Ast.FieldDecl f = n.fields.get(i);
+            Type t = resolve(f.type, f);
+            boolean lastFlexible = t.kind == Type.Kind.ARRAY && t.length < 0 && i == n.fields.size() - 1 && i > 0
+                    && !n.union;
+            if (t == record || !lastFlexible && !isComplete(t) || t.kind == Type.Kind.FUNCTION) {
+                error(f, "field '" + f.name + "' has incomplete type '" + t + "'");
+                t = Type.ERROR;
+            }
+            fields.add(new Type.Field(f.name, t, bitWidth(f, t), i, alignment(f.alignment, f), f));
+        }
+        record.complete(fields);
+        return null;
+    }
+
+    @Override
+    public Type visitEnumDecl(Ast.EnumDecl n) {
+        if (n.constants != null) {
+            long next = 0;
+            for (Ast.EnumConstantDecl c : n.constants) {
+                if (c.value != null) {
+                    Long value = integerConstant(c.value, "enumerator value");
+                    if (value != null) {
+                        next = value;
+                    }
+                }
+                if (next != (int) next) {
+                    error(c, "enumerator value " + next + " is not representable in 'int'");
+                }
+                Symbol s = resolver.symbolOf(c);
+                if (s != null) {
+                    symbolTypes[s.id] = Type.INT;
+                    constants.defineEnumerator(s, (int) next);
+                }
+                next = (int) next + 1L;
+            }
+        }
+        return null;
+    }
+
+    static boolean isComplete(Type t) {
+        switch (t.kind) {
+            case VOID:
+                return false;
+            case ARRAY:
+                return t.length >= 0 && isComplete(t.base);
+            case STRUCT:
+            case UNION:
+                return t.getFields() != null;
+            default:
+                return true;
+        }
+    }
+
+    /** Checks an initializer against the declared type; returns the type, completed for {@code T x[] = ...}. */
+    private Type initializer(Type target, Ast.Expr init) {
+        if (target.isError()) {
+            check(init);
+            return target;
+        }
+        if (target.kind == Type.Kind.ARRAY && init instanceof Ast.StringLiteral && target.base.isInteger()
+                && target.base.scalarSize() == 1) {
+            int length = ((Ast.StringLiteral) init).length();
+            check(init);
+            if (target.length < 0) {
+                return types.array(target.base, length + 1);
+            }
+            if (target.length < length) {
+                error(init, "initializer-string for char array is too long");
+            }
+            return target;
+        }
+        if (!(init instanceof Ast.InitList)) {
+            if (target.kind == Type.Kind.ARRAY) {
+                check(init);
+                error(init, "array initializer must be an initializer list");
+                return target;
+            }
+            assign(target, init, "initializing");
+            if (staticInit && target.isArithmetic() && exprTypes[init.id].isArithmetic()
+                    && !constants.isConstant(init)) {
+                error(init, "initializer element is not a compile-time constant");
+            }
+            return target;
+        }
+        List<Ast.Expr> items = ((Ast.InitList) init).items;
+        Type result = target;
+        if (target.kind == Type.Kind.ARRAY) {
+            for (Ast.Expr item : items) {
+                initializer(target.base, item);
+            }
+            if (target.length < 0) {
+                result = types.array(target.base, items.size());
+            } else if (items.size() > target.length) {
+                error(init, "excess elements in array initializer");
+            }
+        } else if (target.isRecord()) {
+            List<Type.Field> fields = target.getFields();
+            if (fields == null) {
+                error(init, "initializing incomplete type '" + target + "'");
+            } else {
+                int limit = target.kind == Type.Kind.UNION ? Math.min(1, fields.size()) : fields.size();
+                for (int i = 0; i < items.size(); i++) {
+                    if (i < limit) {
+                        initializer(fields.get(i).type, items.get(i));
+                    } else {
+                        check(items.get(i));
+                        if (i == limit) {
+                            error(items.get(i), "excess elements in " + target.kind.name().toLowerCase()
+                                    + " initializer");
+                        }
+                    }
+                }
+            }
+        } else if (items.size() == 1) {
+            initializer(target, items.get(0));
+        } else {
+            for (Ast.Expr item : items) {
+                check(item);
+            }
+            error(init, items.isEmpty() ? "empty scalar initializer" : "excess elements in scalar initializer");
+        }
+        exprTypes[init.id] = result;
+        return result;
+    }
+
+    // --------------------------------------------------------- statements
+
+    private void condition(Ast.Expr cond) {
+        Type t = types.decay(check(cond));
+        if (!t.isScalar() && !t.isError()) {
+            error(cond, "used type '" + t + "' where scalar is required");
+        }
+    }
+
+    @Override
+    public Type visitIfStmt(Ast.IfStmt n) {
+        condition(n.cond);
+        scan(n.then);
+        return scan(n.otherwise);
+    }
+
+    @Override
+    public Type visitWhileStmt(Ast.WhileStmt n) {
+        condition(n.cond);
+        return loopBody(n.body);
+    }
+
+    @Override
+    public Type visitDoWhileStmt(Ast.DoWhileStmt n) {
+        loopBody(n.body);
+        condition(n.cond);
+        return null;
+    }
+
+    @Override
+    public Type visitForStmt(Ast.ForStmt n) {
+        if (n.init != null) {
+            check(n.init);
+        }
+        if (n.cond != null) {
+            condition(n.cond);
+        }
+        if (n.step != null) {
+            check(n.step);
+        }
+        return loopBody(n.body);
+    }
+
+    private Type loopBody(Ast.Stmt body) {
+        loopDepth++;
+        scan(body);
+        loopDepth--;
+        return null;
+    }
+
+    @Override
+    public Type visitSwitchStmt(Ast.SwitchStmt n) {
+        Type t = check(n.cond);
+        if (!t.isInteger() && !t.isError()) {
+            error(n.cond, "statement requires expression of integer type ('" + t + "' invalid)");
+        }
+        Type outerType = switchType;
+        Set<Long> outerValues = caseValues;
+        boolean outerDefault = switchHasDefault;
+        switchType = Types.promote(t);
+        caseValues = new HashSet<>();
+        switchHasDefault = false;
+        scan(n.body);
+        switchType = outerType;
+        caseValues = outerValues;
+        switchHasDefault = outerDefault;
+        return null;
+    }
+
+    @Override
+    public Type visitCaseStmt(Ast.CaseStmt n) {
+        Long v = integerConstant(n.value, "case label");
+        if (caseValues == null) {
+            error(n, "'case' statement not in switch statement");
+        }
+        if (v != null && caseValues != null && switchType.isInteger()
+                && !caseValues.add(ConstantEvaluator.normalize(v, switchType))) {
+            error(n.value, "duplicate case value '" + v + "'");
+        }
+        return scan(n.body);
+    }
+
+    @Override
+    public Type visitDefaultStmt(Ast.DefaultStmt n) {
+        if (caseValues == null) {
+            error(n, "'default' statement not in switch statement");
+        } else if (switchHasDefault) {
+            error(n, "multiple default labels in one switch");
+        }
+        switchHasDefault = true;
+        return scan(n.body);
+    }
+
+    @Override
+    public Type visitBreakStmt(Ast.BreakStmt n) {
+        if (loopDepth == 0 && caseValues == null) {
+            error(n, "'break' statement not in loop or switch statement");
+        }
+        return null;
+    }
+
+    @Override
+    public Type visitContinueStmt(Ast.ContinueStmt n) {
+        if (loopDepth == 0) {
+            error(n, "'continue' statement not in loop statement");
+        }
+        return null;
+    }
+
+    @Override
+    public Type visitExprStmt(Ast.ExprStmt n) {
+        if (n.expr != null) {
+            check(n.expr);
+        }
+        return null;
+    }
+
+    @Override
+    public Type visitReturnStmt(Ast.ReturnStmt n) {
+        if (n.value == null) {
+            if (returnType != null && !returnType.isVoid()) {
+                error(n, "non-void function should return a value");
+            }
+        } else if (returnType != null && returnType.isVoid()) {
+            check(n.value);
+            error(n, "void function should not return a value");
+        } else if (returnType != null) {
+            assign(returnType, n.value, "returning");
+        }
+        return null;
+    }
+
+    // -------------------------------------------------------- expressions
+
+    private Type check(Ast.Expr e) {
+        Type t = e.accept(this);
+        exprTypes[e.id] = t;
+        return t;
+    }
+
+    /** Type of {@code e} after lvalue conversion and decay. */
+    private Type value(Ast.Expr e) {
+        return types.decay(check(e)).unqualified();
+    }
+
+    private boolean isLvalue(Ast.Expr e) {
+        if (e instanceof Ast.NameExpr) {
+            Symbol s = resolver.symbolOf((Ast.NameExpr) e);
+            return s != null && (s.kind == Symbol.Kind.VARIABLE || s.kind == Symbol.Kind.PARAMETER);
+        }
+        if (e instanceof Ast.UnaryExpr) {
+            return ((Ast.UnaryExpr) e).op == Ast.UnaryOp.DEREF;
+        }
+        if (e instanceof Ast.MemberExpr) {
+            Ast.MemberExpr m = (Ast.MemberExpr) e;
+            return m.arrow || isLvalue(m.base);
+        }
+        return e instanceof Ast.IndexExpr || e instanceof Ast.StringLiteral;
+    }
+
+    private boolean isBitField(Ast.Expr e) {
+        return e instanceof Ast.MemberExpr && memberFields[e.id] != null && memberFields[e.id].bitWidth >= 0;
+    }
+
+    /** Checks that {@code e}, already checked, designates a modifiable lvalue. */
+    private boolean modifiable(Ast.Expr e, String what) {
+        Type t = exprTypes[e.id];
+        if (t.isError()) {
+            return false;
+        }
+        if (!isLvalue(e)) {
+            error(e, "expression is not assignable");
+            return false;
+        }
+        if (t.isConst() || t.kind == Type.Kind.ARRAY || t.kind == Type.Kind.FUNCTION || !isComplete(t)) {
+            error(e, "cannot " + what + " a value of type '" + t + "'");
+            return false;
+        }
+        return true;
+    }
+
+    /** C11 6.3.2.3p3: an integer constant expression with value 0, optionally cast to void *. */
+    private boolean isNullPointerConstant(Ast.Expr e) {
+        Type t = exprTypes[e.id];
+        if (t != null && t.isInteger()) {
+            return constants.isIntegerConstant(e) && constants.longValue(e) == 0;
+        }
+        if (e instanceof Ast.CastExpr) {
+            Ast.CastExpr c = (Ast.CastExpr) e;
+            return c.type instanceof Ast.PointerTypeRef
+                    && ((Ast.PointerTypeRef) c.type).target instanceof Ast.BuiltinTypeRef
+                    && ((Ast.BuiltinTypeRef) ((Ast.PointerTypeRef) c.type).target).specifiers == Ast.BuiltinTypeRef.VOID
+                    && isNullPointerConstant(c.operand);
+        }
+        return false;
+    }
+
+    /** Checks {@code value} and its conversion to {@code target} as if by assignment, C11 6.5.16.1. */
+    private void assign(Type target, Ast.Expr value, String action) {
+        Type v = value(value);
+        String problem = assignable(target.unqualified(), v, value);
+        if (problem != null) {
+            error(value, problem + " " + action + " '" + target + "' with an expression of type '" + v + "'");
+        }
+    }
+
+    private String assignable(Type target, Type v, Ast.Expr value) {
+        if (target.isError() || v.isError()) {
+            return null;
+        }
+        if (target.isArithmetic() && v.isArithmetic()) {
+            return null;
+        }
+        if (target.isRecord()) {
+            return target == v ? null : "incompatible types";
+        }
+        if (target.kind == Type.Kind.BOOL && v.isPointer()) {
+            return null;
+        }
+        if (target.isPointer()) {
+            if (isNullPointerConstant(value)) {
+                return null;
+            }
+            if (!v.isPointer()) {
+                return "incompatible integer to pointer conversion";
+            }
+            Type to = target.base;
+            Type from = v.base;
+            if ((from.qualifiers & ~to.qualifiers) != 0) {
+                return "discards qualifiers";
+            }
+            if (to.isVoid() && from.kind != Type.Kind.FUNCTION || from.isVoid() && to.kind != Type.Kind.FUNCTION
+                    || types.compatible(to, from)) {
+                return null;
+            }
+            return "incompatible pointer types";
+        }
+        if (target.isInteger() && v.isPointer()) {
+            return "incompatible pointer to integer conversion";
+        }
+        return "incompatible types";
+    }
+
+    @Override
+    public Type visitIntLiteral(Ast.IntLiteral n) {
+        if ((n.flags & Ast.IntLiteral.CHAR) != 0) {
+            return Type.INT;
+        }
+        boolean unsigned = (n.flags & Ast.IntLiteral.UNSIGNED) != 0;
+        boolean isLong = (n.flags & (Ast.IntLiteral.LONG | Ast.IntLiteral.LONG_LONG)) != 0;
+        if (n.value < 0) {
+            return (n.flags & Ast.IntLiteral.LONG_LONG) != 0 ? Type.ULLONG : Type.ULONG;
+        }
+        if (!isLong && n.value <= (unsigned ? 0xffffffffL : Integer.MAX_VALUE)) {
+            return unsigned ? Type.UINT : Type.INT;
+        }
+        if ((n.flags & Ast.IntLiteral.LONG_LONG) != 0) {
+            return unsigned ? Type.ULLONG : Type.LLONG;
+        }
+        return unsigned ? Type.ULONG : Type.LONG;
+    }
+
+    @Override
+    public Type visitFloatLiteral(Ast.FloatLiteral n) {
+        return n.single ? Type.FLOAT : Type.DOUBLE;
+    }
+
+    @Override
+    public Type visitStringLiteral(Ast.StringLiteral n) {
+        return types.array(Type.CHAR, n.length() + 1);
+    }
+
+    @Override
+    public Type visitNameExpr(Ast.NameExpr n) {
+        Symbol s = resolver.symbolOf(n);
+        if (s == null) {
+            return Type.ERROR;
+        }
+        if (s.implicit && symbolTypes[s.id] == null) {
+            symbolTypes[s.id] = types.function(Type.INT, new Type[0], false, false);
+        }
+        Type t = symbolTypes[s.id];
+        return t == null ? Type.ERROR : t;
+    }
+
+    @Override
+    public Type visitUnaryExpr(Ast.UnaryExpr n) {
+        switch (n.op) {
+            case PLUS:
+            case MINUS: {
+                Type t = value(n.operand);
+                return t.isArithmetic() || t.isError() ? Types.promote(t) : invalidOperand(n, t);
+            }
+            case BIT_NOT: {
+                Type t = value(n.operand);
+                return t.isInteger() || t.isError() ? Types.promote(t) : invalidOperand(n, t);
+            }
+            case NOT: {
+                Type t = value(n.operand);
+                return t.isScalar() || t.isError() ? Type.INT : invalidOperand(n, t);
+            }
+            case ADDRESS: {
+                Type t = check(n.operand);
+                if (t.isError()) {
+                    return t;
+                }
+                if (t.kind != Type.Kind.FUNCTION && !isLvalue(n.operand)) {
+                    error(n, "cannot take the address of an rvalue of type '" + t + "'");
+                    return Type.ERROR;
+                }
+                if (isBitField(n.operand)) {
+                    error(n, "address of bit-field requested");
+                    return Type.ERROR;
+                }
+                return types.pointer(t);
+            }
+            case DEREF: {
+                Type t = value(n.operand);
+                if (t.isError()) {
+                    return t;
+                }
+                return t.isPointer() ? t.base : invalidOperand(n, t);
+            }
+            case SIZEOF: {
+                Type t = check(n.operand);
+                if (t.kind == Type.Kind.FUNCTION || !t.isError() && !isComplete(t) || isBitField(n.operand)) {
+                    error(n, "invalid application of 'sizeof' to type '" + t + "'");
+                }
+                return Type.ULONG;
+            }
+            default: {
+                Type t = check(n.operand);
+                if (!modifiable(n.operand, n.op.name().endsWith("INC") ? "increment" : "decrement")) {
+                    return Type.ERROR;
+                }
+                Type u = t.unqualified();
+                if (!u.isArithmetic() && !(u.isPointer() && isComplete(u.base))) {
+                    return invalidOperand(n, t);
+                }
+                return u;
+            }
+        }
+    }
+
+    private Type invalidOperand(Ast.UnaryExpr n, Type t) {
+        error(n, "invalid argument type '" + t + "' to unary expression '" + n.op.symbol + "'");
+        return Type.ERROR;
+    }
+
+    @Override
+    public Type visitBinaryExpr(Ast.BinaryExpr n) {
+        Type l = value(n.left);
+        Type r = value(n.right);
+        if (n.op == Ast.BinaryOp.COMMA) {
+            return r;
+        }
+        return binary(n, n.op, l, r, n.left, n.right);
+    }
+
+    /** Result type of {@code l op r}; the operand expressions are needed to spot null pointer constants. */
+    private Type binary(Ast.Expr at, Ast.BinaryOp op, Type l, Type r, Ast.Expr left, Ast.Expr right) {
+        if (l.isError() || r.isError()) {
+            return Type.ERROR;
+        }
+        switch (op) {
+            case MUL:
+            case DIV:
+                if (l.isArithmetic() && r.isArithmetic()) {
+                    return Types.usualArithmetic(l, r);
+                }
+                break;
+            case MOD:
+            case BIT_AND:
+            case BIT_XOR:
+            case BIT_OR:
+                if (l.isInteger() && r.isInteger()) {
+                    return Types.usualArithmetic(l, r);
+                }
+                break;
+            case SHL:
+            case SHR:
+                if (l.isInteger() && r.isInteger()) {
+                    return Types.promote(l);
+                }
+                break;
+            case ADD:
+                if (l.isArithmetic() && r.isArithmetic()) {
+                    return Types.usualArithmetic(l, r);
+                }
+                if (l.isPointer() && r.isInteger()) {
+                    return pointerArithmetic(at, l);
+                }
+                if (l.isInteger() && r.isPointer()) {
+                    return pointerArithmetic(at, r);
+                }
+                break;
+            case SUB:
+                if (l.isArithmetic() && r.isArithmetic()) {
+                    return Types.usualArithmetic(l, r);
+                }
+                if (l.isPointer() && r.isInteger()) {
+                    return pointerArithmetic(at, l);
+                }
+                if (l.isPointer() && r.isPointer() && types.compatible(l.base.unqualified(), r.base.unqualified())) {
+                    return pointerArithmetic(at, l).isError() ? Type.ERROR : Type.LONG;
+                }
+                break;
+            case LT:
+            case GT:
+            case LE:
+            case GE:
+                if (l.isArithmetic() && r.isArithmetic()) {
+                    return Type.INT;
+                }
+                if (l.isPointer() && r.isPointer() && types.compatible(l.base.unqualified(), r.base.unqualified())) {
+                    return Type.INT;
+                }
+                break;
+            case EQ:
+            case NE:
+                if (l.isArithmetic() && r.isArithmetic()) {
+                    return Type.INT;
+                }
+                if (l.isPointer() && r.isPointer() && (l.base.isVoid() || r.base.isVoid()
+                        || types.compatible(l.base.unqualified(), r.base.unqualified()))) {
+                    return Type.INT;
+                }
+                if (l.isPointer() && r.isInteger() && isNullPointerConstant(right)
+                        || l.isInteger() && r.isPointer() && isNullPointerConstant(left)) {
+                    return Type.INT;
+                }
+                break;
+            case AND:
+            case OR:
+                if (l.isScalar() && r.isScalar()) {
+                    return Type.INT;
+                }
+                break;
+            default:
+                break;
+        }
+        error(at, "invalid operands to binary expression ('" + l + "' and '" + r + "')");
+        return Type.ERROR;
+    }
+
+    private Type pointerArithmetic(Ast.Expr at, Type pointer) {
+        if (!isComplete(pointer.base)) {
+            error(at, "arithmetic on a pointer to an incomplete type '" + pointer.base + "'");
+            return Type.ERROR;
+        }
+        return pointer;
+    }
+
+    @Override
+    public Type visitAssignExpr(Ast.AssignExpr n) {
+        Type t = check(n.target);
+        if (!modifiable(n.target, "assign to")) {
+            check(n.value);
+            return Type.ERROR;
+        }
+        if (n.op == null) {
+            assign(t, n.value, "assigning to");
+        } else {
+            Type result = binary(n, n.op, types.decay(t).unqualified(), value(n.value), n.target, n.value);
+            if (!result.isError() && !(t.isPointer() || t.isArithmetic() && result.isArithmetic())) {
+                error(n, "invalid compound assignment to '" + t + "'");
+            }
+        }
+        return t.unqualified();
+    }
+
+    @Override
+    public Type visitConditionalExpr(Ast.ConditionalExpr n) {
+        condition(n.cond);
+        Type a = value(n.then);
+        Type b = value(n.otherwise);
+        if (a.isError() || b.isError()) {
+            return Type.ERROR;
+        }
+        if (a.isArithmetic() && b.isArithmetic()) {
+            return Types.usualArithmetic(a, b);
+        }
+        if (a == b && (a.isRecord() || a.isVoid())) {
+            return a;
+        }
+        if (a.isPointer() && isNullPointerConstant(n.otherwise)) {
+            return a;
+        }
+        if (b.isPointer() && isNullPointerConstant(n.then)) {
+            return b;
+        }
+        if (a.isPointer() && b.isPointer()) {
+            int qualifiers = a.base.qualifiers | b.base.qualifiers;
+            if (a.base.isVoid() || b.base.isVoid()) {
+                return types.pointer(types.qualified(Type.VOID, qualifiers));
+            }
+            if (types.compatible(a.base.unqualified(), b.base.unqualified())) {
+                return types.pointer(types.addQualifiers(a.base, qualifiers));
+            }
+        }
+        error(n, "incompatible operand types ('" + a + "' and '" + b + "')");
+        return Type.ERROR;
+    }
+
+    @Override
+    public Type visitCallExpr(Ast.CallExpr n) {
+        Type callee = value(n.callee);
+        List<Type> args = new ArrayList<>(n.args.size());
+        for (Ast.Expr a : n.args) {
+            args.add(value(a));
+        }
+        if (callee.isError()) {
+            return Type.ERROR;
+        }
+        if (!callee.isPointer() || callee.base.kind != Type.Kind.FUNCTION) {
+            error(n, "called object type '" + callee + "' is not a function or function pointer");
+            return Type.ERROR;
+        }
+        Type f = callee.base;
+        if (f.prototyped) {
+            int count = f.getParamCount();
+            if (n.args.size() < count || n.args.size() > count && !f.variadic) {
+                error(n, "too " + (n.args.size() < count ? "few" : "many") + " arguments to function call, expected "
+                        + count + ", have " + n.args.size());
+            }
+            for (int i = 0; i < Math.min(count, n.args.size()); i++) {
+                Type param = f.getParam(i).unqualified();
+                String problem = assignable(param, args.get(i), n.args.get(i));
+                if (problem != null) {
+                    error(n.args.get(i), problem + " passing '" + args.get(i) + "' to parameter of type '"
+                            + param + "'");
+                }
+            }
+        }
+        for (int i = 0; i < args.size(); i++) {
+            if (args.get(i).isVoid() || args.get(i).isRecord() && !isComplete(args.get(i))) {
+                error(n.args.get(i), "argument has incomplete type '" + args.get(i) + "'");
+            }
+        }
+        if (!f.base.isVoid() && !isComplete(f.base)) {
+            error(n, "calling function with incomplete return type '" + f.base + "'");
+        }
+        return f.base;
+    }
+
+    @Override
+    public Type visitIndexExpr(Ast.IndexExpr n) {
+        Type b = value(n.base);
+        Type i = value(n.index);
+        if (b.isError() || i.isError()) {
+            return Type.ERROR;
+        }
+        Type pointer = b.isPointer() && i.isInteger() ? b : i.isPointer() && b.isInteger() ? i : null;
+        if (pointer == null) {
+            error(n, "subscripted value is not an array or pointer");
+            return Type.ERROR;
+        }
+        if (!isComplete(pointer.base)) {
+            error(n, "subscript of pointer to incomplete type '" + pointer.base + "'");
+            return Type.ERROR;
+        }
+        return pointer.base;
+    }
+
+    @Override
+    public Type visitMemberExpr(Ast.MemberExpr n) {
+        Type b = check(n.base);
+        if (b.isError()) {
+            return b;
+        }
+        if (n.arrow) {
+            b = types.decay(b);
+            if (!b.isPointer()) {
+                error(n, "member reference type '" + b + "' is not a pointer");
+                return Type.ERROR;
+            }
+            b = b.base;
+        }
+        if (!b.isRecord()) {
+            error(n, "member reference base type '" + b + "' is not a structure or union");
+            return Type.ERROR;
+        }
+        if (b.getFields() == null) {
+            error(n, "incomplete definition of type '" + b + "'");
+            return Type.ERROR;
+        }
+        Type.Field f = b.getField(n.member);
+        if (f == null) {
+            error(n, "no member named '" + n.member + "' in '" + b + "'");
+            return Type.ERROR;
+        }
+        memberFields[n.id] = f;
+        return types.addQualifiers(f.type, b.qualifiers);
+    }
+
+    @Override
+    public Type visitCastExpr(Ast.CastExpr n) {
+        Type target = resolve(n.type, n);
+        writtenTypes[n.id] = target;
+        Type v = value(n.operand);
+        if (target.isError() || v.isError() || target.isVoid()) {
+            return target.unqualified();
+        }
+        Type t = target.unqualified();
+        boolean ok = t.isScalar() && v.isScalar()
+                && !(t.isFloating() && v.isPointer() || t.isPointer() && v.isFloating());
+        if (!ok) {
+            error(n, "cannot cast '" + v + "' to '" + target + "'");
+            return Type.ERROR;
+        }
+        return t;
+    }
+
+    @Override
+    public Type visitSizeofTypeExpr(Ast.SizeofTypeExpr n) {
+        Type t = resolve(n.type, n);
+        writtenTypes[n.id] = t;
+        if (t.kind == Type.Kind.FUNCTION || !t.isError() && !isComplete(t)) {
+            error(n, "invalid application of 'sizeof' to type '" + t + "'");
+        }
+        return Type.ULONG;
+    }
+
+    @Override
+    public Type visitInitList(Ast.InitList n) {
+        for (Ast.Expr item : n.items) {
+            check(item);
+        }
+        error(n, "initializer list is not an expression");
+        return Type.ERROR;
+    }
+}
@@ -0,0 +1,237 @@
+import java.util.Arrays;
+
+/**
+ * Hash-consing factory for derived and qualified types. Every distinct type
+ * is created once; asking again returns the same object. The canonical
+ * table is open addressing over the types themselves, probed with their
+ * structural hash and compared component by component with {@code ==},
+ * which is sound because the components are canonical already.
+ */
+public final class Types {
+    private Type[] table = new Type[256];
+    private int size;
+
+    public Type pointer(Type target) {
+        return intern(Type.Kind.POINTER, 0, target, -1, null, false, false, null);
+    }
+
+    /** Array of {@code length} elements, or of unknown length when negative. */
+    public Type array(Type element, long length) {
+        return intern(Type.Kind.ARRAY, 0, element, length < 0 ? -1 : length, null, false, false, null);
+    }
+
+    public Type function(Type result, Type[] params, boolean variadic, boolean prototyped) {
+        return intern(Type.Kind.FUNCTION, 0, result, -1, params.clone(), variadic, prototyped, null);
+    }
+
+    /** The struct or union type declared by {@code tag}. */
+    public Type record(Symbol tag, boolean union) {
+        return intern(union ? Type.Kind.UNION : Type.Kind.STRUCT, 0, null, -1, null, false, false, tag);
+    }
+
+    /** {@code t} with exactly the given qualifiers. */
+    public Type qualified(Type t, int qualifiers) {
+        Type u = t.unqualified();
+        if (qualifiers == 0 || u.isError()) {
+            return u;
+        }
+        return intern(u.kind, qualifiers, u.base, u.length, u.params, u.variadic, u.prototyped, u.tag);
+    }
+
+    /** {@code t} with {@code qualifiers} added to its own. */
+    public Type addQualifiers(Type t, int qualifiers) {
+        return (t.qualifiers | qualifiers) == t.qualifiers ? t : qualified(t, t.qualifiers | qualifiers);
+    }
+
+    /** Array-to-pointer and function-to-pointer conversion, C11 6.3.2.1. */
+    public Type decay(Type t) {
+        if (t.kind == Type.Kind.ARRAY) {
+            return pointer(t.base);
+        }
+        if (t.kind == Type.Kind.FUNCTION) {
+            return pointer(t);
+        }
+        return t;
+    }
+
+    /** Integer promotions; enumerations are already int. */
+    public static Type promote(Type t) {
+        t = t.unqualified();
+        return t.isInteger() && t.rank() < Type.INT.rank() ? Type.INT : t;
+    }
+
+    /** Common real type of two arithmetic operands, C11 6.3.1.8. */
+    public static Type usualArithmetic(Type a, Type b) {
+        a = promote(a);
+        b = promote(b);
+        if (a.isError() || b.isError()) {
+            return Type.ERROR;
+        }
+        if (a.kind == Type.Kind.LDOUBLE || b.kind == Type.Kind.LDOUBLE) {
+            return Type.LDOUBLE;
+        }
+        if (a.kind == Type.Kind.DOUBLE || b.kind == Type.Kind.DOUBLE) {
+            return Type.DOUBLE;
+        }
+        if (a.kind == Type.Kind.FLOAT || b.kind == Type.Kind.FLOAT) {
+            return Type.FLOAT;
+        }
+        if (a == b) {
+            return a;
+        }
+        if (a.isUnsigned() == b.isUnsigned()) {
+            return a.rank() >= b.rank() ? a : b;
+        }
+        Type unsigned = a.isUnsigned() ? a : b;
+        Type signed = a.isUnsigned() ? b : a;
+        if (unsigned.rank() >= signed.rank()) {
+            return unsigned;
+        }
+        if (signed.scalarSize() > unsigned.scalarSize()) {
+            return signed;
+        }
+        return toUnsigned(signed);
+    }
+
+    static Type toUnsigned(Type t) {
+        switch (t.kind) {
+            case CHAR:
+            case SCHAR:
+                return Type.UCHAR;
+            case SHORT:
+                return Type.USHORT;
+            case INT:
+                return Type.UINT;
+            case LONG:
+                return Type.ULONG;
+            case LLONG:
+                return Type.ULLONG;
+            default:
+                return t;
+        }
+    }
+
+    /**
+     * Compatible types, C11 6.2.7, ignoring top-level qualifiers: the same
+     * type, or types differing only in array lengths left unknown or in
+     * function prototypes left out.
+     */
+    public boolean compatible(Type a, Type b) {
+        a = a.unqualified();
+        b = b.unqualified();
+        if (a == b || a.isError() || b.isError()) {
+            return true;
+        }
+        if (a.kind != b.kind) {
+            return false;
+        }
+        switch (a.kind) {
+            case POINTER:
+                return a.base.qualifiers == b.base.qualifiers && compatible(a.base, b.base);
+            case ARRAY:
+                return (a.length < 0 || b.length < 0 || a.length == b.length) && compatible(a.base, b.base);
+            case FUNCTION:
+                if (!compatible(a.base, b.base)) {
+                    return false;
+                }
+                if (!a.prototyped || !b.prototyped) {
+                    return true;
+                }
+                if (a.variadic != b.variadic || a.getParamCount() != b.getParamCount()) {
+                    return false;
+                }
+                for (int i = 0; i < a.getParamCount(); i++) {
+                    if (!compatible(a.getParam(i), b.getParam(i))) {
+                        return false;
+                    }
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** Number of distinct derived and qualified types created so far. */
+    public int size() {
+        return size;
+    }
+
+    private Type intern(Type.Kind kind, int qualifiers, Type base, long length, Type[] params, boolean variadic,
+                        boolean prototyped, Symbol tag) {
+        Type unqualified = null;
+        if (qualifiers != 0) {
+            unqualified = kind.ordinal() <= Type.Kind.LDOUBLE.ordinal() || kind == Type.Kind.ERROR
+                    ? builtin(kind) : intern(kind, 0, base, length, params, variadic, prototyped, tag);
+        }
+        int h = Type.hash(kind, qualifiers, base, length, params, variadic, prototyped, tag);
+        int mask = table.length - 1;
+        int i = Interner.mix(h) & mask;
+        for (Type t; (t = table[i]) != null; i = (i + 1) & mask) {
+            if (t.hash == h && t.kind == kind && t.qualifiers == qualifiers && t.base == base && t.length == length
+                    && Arrays.equals(t.params, params) && t.variadic == variadic && t.prototyped == prototyped
+                    && t.tag == tag) {
+                return t;
+            }
+        }
+        Type t = new Type(kind, qualifiers, base, length, params, variadic, prototyped, tag, unqualified);
+        table[i] = t;
+        if (++size * 2 > table.length) {
+            rehash();
+        }
+        return t;
+    }
+
+    private static Type builtin(Type.Kind kind) {
+        switch (kind) {
+            case VOID:
+                return Type.VOID;
+            case BOOL:
+                return Type.BOOL;
+            case CHAR:
+                return Type.CHAR;
+            case SCHAR:
+                return Type.SCHAR;
+            case UCHAR:
+                return Type.UCHAR;
+            case SHORT:
+                return Type.SHORT;
+            case USHORT:
+                return Type.USHORT;
+            case INT:
+                return Type.INT;
+            case UINT:
+                return Type.UINT;
+            case LONG:
+                return Type.LONG;
+            case ULONG:
+                return Type.ULONG;
+            case LLONG:
+                return Type.LLONG;
+            case ULLONG:
+                return Type.ULLONG;
+            case FLOAT:
+                return Type.FLOAT;
+            case DOUBLE:
+                return Type.DOUBLE;
+            case LDOUBLE:
+                return Type.LDOUBLE;
+            default:
+                return Type.ERROR;
+        }
+    }
+
+    private void rehash() {
+        Type[] old = table;
+        table = new Type[old.length * 2];
+        int mask = table.length - 1;
+        for (Type t : old) {
+            if (t != null) {
+                int i = Interner.mix(t.hash) & mask;
+                while (table[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = t;
+            }
+        }
+    }
+}
@@ -0,0 +1,375 @@
+import java.util.Arrays;
+
+/**
+ * Dominator-scoped global value numbering over a function in SSA form.
+ *
+ * The dominator tree is walked in preorder with a hash table of the
+ * expressions computed so far on the way down: an instruction whose
+ * operator, kind and (already numbered) operands match an entry in a
+ * dominating block is redundant, and its register is replaced everywhere
+ * by the earlier one. Entries are removed again when the walk leaves the
+ * block that made them; the table uses linear probing, and since removal
+ * is strictly last in, first out, a slot can simply be cleared. Moves are
+ * propagated as copies, commutative operands are put in a fixed order,
+ * operations on constants are folded, simple identities such as
+ * {@code x + 0} and {@code x ^ x} are applied, and phis whose operands all
+ * agree are replaced by that operand.
+ *
+ * Loads are keyed by a memory version as well as their address, so
+ * {@code a.b[i] * a.b[i]} loads once but a load is never merged across a
+ * store or call that might change the memory. Every store and call starts
+ * a new version, and so does entering a block with more than one
+ * predecessor, since another path into it may have written memory. A
+ * full-width store also records its value, so a load of the same address
+ * and kind right after it reuses the stored register.
+ */
+public final class ValueNumbering {
+    private final IrFunction f;
+    private final ControlFlowGraph cfg;
+    private final DominatorTree dom;
+    /** Operand each register was found equal to, or the register itself. */
+    private final int[] replacement;
+    /** Memory version at the end of each block. */
+    private final int[] memoryAtEnd;
+    private int memory;
+    private int versions;
+
+    private int[] keyOps = new int[256];
+    private int[] keyKinds = new int[256];
+    private int[] keyAs = new int[256];
+    private int[] keyBs = new int[256];
+    private int[] keyMemory = new int[256];
+    /** Operand holding the value of each entry, {@link Ir#NONE} for an empty slot. */
+    private int[] results = new int[256];
+    private int entries;
+    /** Slots in the order they were filled, for undoing a scope. */
+    private int[] log = new int[64];
+    private int logSize;
+
+    private int removed;
+
+    private ValueNumbering(IrFunction f) {
+        this.f = f;
+        this.cfg = ControlFlowGraph.build(f);
+        this.dom = DominatorTree.compute(cfg);
+        this.replacement = new int[f.registerCount()];
+        for (int r = 0; r < replacement.length; r++) {
+            replacement[r] = r;
+        }
+        this.memoryAtEnd = new int[cfg.blockCount()];
+        Arrays.fill(results, Ir.NONE);
+    }
+
+    /** Removes redundant computations from {@code f} and returns how many instructions went. */
+    public static int run(IrFunction f) {
+        if (f.size() == 0) {
+            return 0;
+        }
+        ValueNumbering v = new ValueNumbering(f);
+        v.walk();
+        v.rewrite();
+        return v.removed;
+    }
+
+    private void walk() {
+        int blocks = cfg.blockCount();
+        int[] stack = new int[blocks];
+        int[] nextChild = new int[blocks];
+        int[] marks = new int[blocks];
+        int depth = 0;
+        stack[depth++] = 0;
+        marks[0] = enter(0);
+        while (depth > 0) {
+            int b = stack[depth - 1];
+            if (nextChild[b] < dom.childCount(b)) {
+                int c = dom.child(b, nextChild[b]++);
+                marks[c] = enter(c);
+                stack[depth++] = c;
+            } else {
+                while (logSize > marks[b]) {
+                    results[log[--logSize]] = Ir.NONE;
+                    entries--;
+                }
+                depth--;
+            }
+        }
+    }
+
+    /** Numbers the instructions of block {@code b}; returns the log position of its scope. */
+    private int enter(int b) {
+        int mark = logSize;
+        if (cfg.predecessorCount(b) == 1) {
+            memory = memoryAtEnd[cfg.predecessor(b, 0)];
+        } else {
+            memory = ++versions;
+        }
+        for (int i = cfg.start(b); i < cfg.end(b); i++) {
+            number(i);
+        }
+        memoryAtEnd[b] = memory;
+        return mark;
+    }
+
+    private void number(int i) {
+        int op = f.op(i);
+        for (int k = 0; k < f.operandCount(i); k++) {
+            f.setOperand(i, k, valueOf(f.operand(i, k)));
+        }
+        if (op == Ir.STORE) {
+            memory = ++versions;
+            int kind = f.kind(i);
+            if (Ir.size(kind) == Ir.size(Ir.regKind(kind))) {
+                insert(Ir.LOAD, kind, f.a(i), Ir.NONE, f.b(i));
+            }
+            return;
+        }
+        if (op == Ir.CALL || op == Ir.CALLI) {
+            memory = ++versions;
+            return;
+        }
+        int dst = f.dst(i);
+        if (!Ir.defines(op) || dst < 0 || op == Ir.PARAM) {
+            return;
+        }
+        int kind = f.kind(i);
+        int a = f.a(i);
+        int b = f.b(i);
+        int simple = Ir.NONE;
+        switch (op) {
+            case Ir.MOV:
+                simple = a;
+                break;
+            case Ir.PHI:
+                simple = samePhiOperand(i);
+                break;
+            case Ir.CONV:
+                if (Ir.isConstant(a)) {
+                    simple = f.constant(Ir.convert(f.constantValue(a), b, kind));
+                }
+                break;
+            case Ir.LOAD:
+            case Ir.LOCAL:
+            case Ir.GLOBAL:
+                break;
+            default:
+                simple = simplify(op, kind, a, b);
+                if (commutative(op) && a > b) {
+                    f.setA(i, b);
+                    f.setB(i, a);
+                    a = f.a(i);
+                    b = f.b(i);
+                }
+                break;
+        }
+        if (simple != Ir.NONE) {
+            replace(i, dst, simple);
+            return;
+        }
+        if (op == Ir.PHI) {
+            return;
+        }
+        int found = lookup(op, kind, a, b, op == Ir.LOAD ? memory : 0);
+        if (found != Ir.NONE) {
+            replace(i, dst, found);
+        } else {
+            insert(op, kind, a, b, dst);
+        }
+    }
+
+    private static boolean commutative(int op) {
+        switch (op) {
+            case Ir.ADD:
+            case Ir.MUL:
+            case Ir.AND:
+            case Ir.OR:
+            case Ir.XOR:
+            case Ir.EQ:
+            case Ir.NE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** The surviving operand for {@code operand}, following chains of replacements. */
+    private int valueOf(int operand) {
+        int x = operand;
+        while (Ir.isRegister(x) && replacement[x] != x) {
+            x = replacement[x];
+        }
+        return x;
+    }
+
+    private void replace(int i, int dst, int operand) {
+        replacement[dst] = operand;
+        f.remove(i);
+        removed++;
+    }
+
+    /** The operand every operand of phi {@code i} is, or {@link Ir#NONE}. */
+    private int samePhiOperand(int i) {
+        int same = Ir.NONE;
+        for (int k = 0; k < f.phiCount(i); k++) {
+            int x = f.phiArg(i, k);
+            if (x == f.dst(i)) {
+                continue;
+            }
+            if (same != Ir.NONE && x != same) {
+                return Ir.NONE;
+            }
+            same = x;
+        }
+        return same;
+    }
+
+    /** The operand {@code a op b} is known to equal without computing it, or {@link Ir#NONE}. */
+    private int simplify(int op, int kind, int a, int b) {
+        boolean unary = op == Ir.NEG || op == Ir.NOT;
+        if (Ir.isConstant(a) && (unary || Ir.isConstant(b))) {
+            long y = unary ? 0 : f.constantValue(b);
+            if (!Ir.canFold(op, kind, y)) {
+                return Ir.NONE;
+            }
+            long v = Ir.fold(op, kind, f.constantValue(a), y);
+            return f.constant(v);
+        }
+        if (Ir.isFloat(kind) || unary) {
+            return Ir.NONE;
+        }
+        // commutative operators have not been ordered yet, so a constant may be either operand
+        boolean zeroA = isConstant(a, 0);
+        boolean zeroB = isConstant(b, 0);
+        switch (op) {
+            case Ir.ADD:
+            case Ir.OR:
+            case Ir.XOR:
+                if (zeroB || zeroA) {
+                    return zeroB ? a : b;
+                }
+                if (a == b && op != Ir.ADD) {
+                    return op == Ir.OR ? a : f.constant(0);
+                }
+                return Ir.NONE;
+            case Ir.SUB:
+                return zeroB ? a : a == b ? f.constant(0) : Ir.NONE;
+            case Ir.SHL:
+            case Ir.SHR:
+                return zeroB ? a : Ir.NONE;
+            case Ir.MUL:
+                if (isConstant(b, 1) || isConstant(a, 1)) {
+                    return isConstant(b, 1) ? a : b;
+                }
+                return zeroA || zeroB ? f.constant(0) : Ir.NONE;
+            case Ir.DIV:
+                return isConstant(b, 1) ? a : Ir.NONE;
+            case Ir.AND:
+                return zeroA || zeroB ? f.constant(0) : a == b ? a : Ir.NONE;
+            case Ir.EQ:
+            case Ir.LE:
+            case Ir.GE:
+                return a == b ? f.constant(1) : Ir.NONE;
+            case Ir.NE:
+            case Ir.LT:
+            case Ir.GT:
+                return a == b ? f.constant(0) : Ir.NONE;
+            default:
+                return Ir.NONE;
+        }
+    }
+
+    private boolean isConstant(int operand, long value) {
+        return Ir.isConstant(operand) && f.constantValue(operand) == value;
+    }
+
+    private int slot(int op, int kind, int a, int b, int mem) {
+        int h = op;
+        h = h * 31 + kind;
+        h = h * 31 + a;
+        h = h * 31 + b;
+        h = h * 31 + mem;
+        return Interner.mix(h) & (results.length - 1);
+    }
+
+    private int lookup(int op, int kind, int a, int b, int mem) {
+        int mask = results.length - 1;
+        for (int s = slot(op, kind, a, b, mem); results[s] != Ir.NONE; s = (s + 1) & mask) {
+            if (keyOps[s] == op && keyKinds[s] == kind && keyAs[s] == a && keyBs[s] == b && keyMemory[s] == mem) {
+                return results[s];
+            }
+        }
+        return Ir.NONE;
+    }
+
+    private void insert(int op, int kind, int a, int b, int result) {
+        if ((entries + 1) * 2 > results.length) {
+            grow();
+        }
+        int mem = op == Ir.LOAD ? memory : 0;
+        int mask = results.length - 1;
+        int s = slot(op, kind, a, b, mem);
+        while (results[s] != Ir.NONE) {
+            s = (s + 1) & mask;
+        }
+        keyOps[s] = op;
+        keyKinds[s] = kind;
+        keyAs[s] = a;
+        keyBs[s] = b;
+        keyMemory[s] = mem;
+        results[s] = result;
+        entries++;
+        if (logSize == log.length) {
+            log = Arrays.copyOf(log, logSize * 2);
+        }
+        log[logSize++] = s;
+    }
+
+    /**
+     * Doubles the table. Entries are reinserted in log order, so each
+     * still sits at or after the slots of the entries logged before it and
+     * last in, first out removal stays valid; the log is rewritten with the
+     * new slots.
+     */
+    private void grow() {
+        int[] ops = keyOps;
+        int[] kinds = keyKinds;
+        int[] as = keyAs;
+        int[] bs = keyBs;
+        int[] mems = keyMemory;
+        int[] old = results;
+        int n = old.length * 2;
+        keyOps = new int[n];
+        keyKinds = new int[n];
+        keyAs = new int[n];
+        keyBs = new int[n];
+        keyMemory = new int[n];
+        results = new int[n];
+        Arrays.fill(results, Ir.NONE);
+        int mask = n - 1;
+        for (int k = 0; k < logSize; k++) {
+            int o = log[k];
+            int s = slot(ops[o], kinds[o], as[o], bs[o], mems[o]);
+            while (results[s] != Ir.NONE) {
+                s = (s + 1) & mask;
+            }
+            keyOps[s] = ops[o];
+            keyKinds[s] = kinds[o];
+            keyAs[s] = as[o];
+            keyBs[s] = bs[o];
+            keyMemory[s] = mems[o];
+            results[s] = old[o];
+            log[k] = s;
+        }
+    }
+
+    /** Points the remaining uses, phi operands on back edges included, at the surviving values. */
+    private void rewrite() {
+        for (int i = 0; i < f.size(); i++) {
+            for (int k = 0; k < f.operandCount(i); k++) {
+                f.setOperand(i, k, valueOf(f.operand(i, k)));
+            }
+        }
+        if (removed > 0) {
+            f.removeNops();
+        }
+    }
+}
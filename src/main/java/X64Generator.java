@@ -0,0 +1,1209 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Translates an {@link IrModule} into x86-64 assembly in GNU as syntax,
+ * following the System V calling convention, so that {@code gcc} links it
+ * with the C library into an executable.
+ *
+ * Each function goes through the {@link RegisterAllocator}, which hands out
+ * rsi, rdi, r8 to r10, rbx and r12 to r15 and xmm0 to xmm14; calls clobber
+ * all but rbx and r12 to r15. rax, rcx, rdx, r11 and xmm15 stay
+ * scratch registers for the code of single instructions: division, shift
+ * counts, call set-up, operands left in stack slots, and the temporary of
+ * a cycle of moves. rbp is the frame pointer, and every slot, spill slot
+ * and incoming stack argument is addressed from it. The frame holds the
+ * callee-saved registers the allocator used, then the IR's frame slots,
+ * then the spill slots.
+ *
+ * Instructions are chosen one at a time, with no pattern matching across
+ * them: a two-operand x86 instruction computes into the result's register
+ * when it has one and into a scratch register otherwise. A register holds
+ * an integer narrower than 32 bits extended as its kind says, so the
+ * arithmetic on one is followed by an extension. The moves the allocator
+ * places on a control flow edge go at the end of the block when the edge
+ * is its only way out or the fall-through, and otherwise in a stub after
+ * the function that the branch jumps to instead.
+ */
+public final class X64Generator {
+    private static final int RAX = 0;
+    private static final int RCX = 1;
+    private static final int RDX = 2;
+    private static final int RBX = 3;
+    private static final int RSI = 6;
+    private static final int RDI = 7;
+    private static final int R8 = 8;
+    private static final int R9 = 9;
+    private static final int R10 = 10;
+    private static final int R11 = 11;
+    private static final int R12 = 12;
+    private static final int R13 = 13;
+    private static final int R14 = 14;
+    private static final int R15 = 15;
+    /** xmm registers are numbered from 16. */
+    private static final int XMM0 = 16;
+    private static final int XMM15 = 31;
+
+    private static final String[] NAMES64 = {
+        "rax", "rcx", "rdx", "rbx", "rsp", "rbp", "rsi", "rdi", "r8", "r9", "r10", "r11", "r12", "r13", "r14", "r15"
+    };
+    private static final String[] NAMES32 = {
+        "eax", "ecx", "edx", "ebx", "esp", "ebp", "esi", "edi", "r8d", "r9d", "r10d", "r11d", "r12d", "r13d", "r14d",
+        "r15d"
+    };
+    private static final String[] NAMES16 = {
+        "ax", "cx", "dx", "bx", "sp", "bp", "si", "di", "r8w", "r9w", "r10w", "r11w", "r12w", "r13w", "r14w", "r15w"
+    };
+    private static final String[] NAMES8 = {
+        "al", "cl", "dl", "bl", "spl", "bpl", "sil", "dil", "r8b", "r9b", "r10b", "r11b", "r12b", "r13b", "r14b",
+        "r15b"
+    };
+
+    /** The allocator's general registers, those calls clobber first. */
+    private static final int[] GENERAL = {RSI, RDI, R8, R9, R10, RBX, R12, R13, R14, R15};
+    private static final int FLOATS = 15;
+    public static final RegisterAllocator.Target TARGET =
+            new RegisterAllocator.Target(GENERAL.length, 0x1f, FLOATS, (1L << FLOATS) - 1);
+    private static final int[] ARGUMENTS = {RDI, RSI, RDX, RCX, R8, R9};
+    private static final int FLOAT_ARGUMENTS = 8;
+
+    private final IrModule module;
+    private final StringBuilder out = new StringBuilder();
+    /** Labels of the floating-point constants, by kind and bits. */
+    private final Map<String, String> literals = new HashMap<>();
+    private final StringBuilder rodata = new StringBuilder();
+    private int labelCount;
+
+    // the function being generated
+    private IrFunction f;
+    private ControlFlowGraph cfg;
+    private RegisterAllocator ra;
+    private String prefix;
+    private int[] slotOffset;
+    private int spillBase;
+    private int homeBase;
+    private boolean homed;
+    private int[] saved;
+    private final StringBuilder stubs = new StringBuilder();
+
+    private X64Generator(IrModule module) {
+        this.module = module;
+    }
+
+    /** Assembly text for the whole module: its functions, data and constants. */
+    public static String generate(IrModule module) {
+        X64Generator g = new X64Generator(module);
+        g.out.append("\t.text\n");
+        for (IrFunction f : module.getFunctions()) {
+            g.function(f);
+        }
+        for (IrModule.Global global : module.getGlobals()) {
+            if (!global.function && global.isDefined()) {
+                g.data(global);
+            }
+        }
+        g.out.append(g.rodata);
+        g.out.append("\t.section .note.GNU-stack,\"\",@progbits\n");
+        return g.out.toString();
+    }
+
+    // ------------------------------------------------------------------- data
+
+    private void data(IrModule.Global g) {
+        boolean zero = !g.hasData() && g.relocationCount() == 0;
+        out.append(g.isReadOnly() ? "\t.section .rodata\n" : zero ? "\t.bss\n" : "\t.data\n");
+        if (!g.isLocal()) {
+            out.append("\t.globl ").append(g.name).append('\n');
+        }
+        out.append("\t.balign ").append(Math.max(1, g.getAlign())).append('\n');
+        out.append("\t.type ").append(g.name).append(", @object\n");
+        out.append("\t.size ").append(g.name).append(", ").append(g.getSize()).append('\n');
+        out.append(g.name).append(":\n");
+        if (zero) {
+            out.append("\t.zero ").append(Math.max(1, g.getSize())).append('\n');
+            return;
+        }
+        Map<Long, Integer> relocations = new HashMap<>();
+        for (int k = 0; k < g.relocationCount(); k++) {
+            relocations.put(g.relocationOffset(k), k);
+        }
+        int column = 0;
+        for (long i = 0; i < g.getSize(); i++) {
+            Integer k = relocations.get(i);
+            if (k != null) {
+                long addend = g.relocationAddend(k);
+                out.append(column > 0 ? "\n" : "").append("\t.quad ").append(module.getGlobal(g.relocationTarget(k)).name)
+                        .append(addend == 0 ? "" : (addend > 0 ? "+" : "") + addend).append('\n');
+                column = 0;
+                i += 7;
+                continue;
+            }
+            out.append(column == 0 ? "\t.byte " : ", ").append(g.byteAt(i) & 0xff);
+            if (++column == 16) {
+                out.append('\n');
+                column = 0;
+            }
+        }
+        if (column > 0) {
+            out.append('\n');
+        }
+    }
+
+    /** A read-only copy of a float or double constant, or of a 16-byte sign mask when {@code mask} is set. */
+    private String literal(int kind, long bits, boolean mask) {
+        String key = mask ? "mask " + kind : kind + " " + bits;
+        String label = literals.get(key);
+        if (label == null) {
+            label = ".LC" + literals.size();
+            literals.put(key, label);
+            if (mask) {
+                String half = kind == Ir.F32 ? "\t.long 0x80000000, 0x80000000\n" : "\t.quad 0x8000000000000000\n";
+                rodata.append("\t.section .rodata\n\t.balign 16\n").append(label).append(":\n").append(half).append(half);
+            } else if (kind == Ir.F32) {
+                rodata.append("\t.section .rodata\n\t.balign 4\n").append(label).append(":\n\t.long ")
+                        .append((int) bits).append('\n');
+            } else {
+                rodata.append("\t.section .rodata\n\t.balign 8\n").append(label).append(":\n\t.quad ")
+                        .append(bits).append('\n');
+            }
+        }
+        return label + "(%rip)";
+    }
+
+    // -------------------------------------------------------------- functions
+
+    private void function(IrFunction function) {
+        f = function;
+        cfg = ControlFlowGraph.build(f);
+        ra = RegisterAllocator.allocate(cfg, TARGET);
+        prefix = ".L" + labelCount++ + "_";
+        stubs.setLength(0);
+
+        int count = 0;
+        saved = new int[GENERAL.length];
+        for (int k = 0; k < GENERAL.length; k++) {
+            if ((ra.usedRegisters() & 1L << k) != 0 && (TARGET.generalClobbered & 1L << k) == 0) {
+                saved[count++] = GENERAL[k];
+            }
+        }
+        saved = Arrays.copyOf(saved, count);
+        int offset = 8 * count;
+        slotOffset = new int[f.slotCount()];
+        for (int s = 0; s < f.slotCount(); s++) {
+            offset += (int) Math.max(1, f.slotSize(s));
+            int align = Math.max(1, f.slotAlign(s));
+            offset = (offset + align - 1) / align * align;
+            slotOffset[s] = offset;
+        }
+        spillBase = (offset + 7) & ~7;
+        offset = spillBase + 8 * ra.slotCount();
+        homed = !paramsInPrologue();
+        homeBase = offset;
+        if (homed) {
+            offset += 8 * f.getParamCount();
+        }
+        int frame = offset - 8 * count;
+        frame += (offset & 15) == 0 ? 0 : 16 - (offset & 15);
+
+        if (!module.getGlobal(f.name).isLocal()) {
+            out.append("\t.globl ").append(f.name).append('\n');
+        }
+        out.append("\t.type ").append(f.name).append(", @function\n").append(f.name).append(":\n");
+        ins("pushq %rbp");
+        ins("movq %rsp, %rbp");
+        for (int r : saved) {
+            ins("pushq %" + NAMES64[r]);
+        }
+        if (frame > 0) {
+            ins("subq $" + frame + ", %rsp");
+        }
+        prologue();
+
+        for (int b = 0; b < cfg.blockCount(); b++) {
+            if (!cfg.isReachable(b)) {
+                continue;
+            }
+            out.append(label(cfg.start(b))).append(":\n");
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                moves(ra.moveStart(i), ra.moveEnd(i));
+                instruction(i);
+            }
+            leave(b);
+        }
+        out.append(stubs);
+        out.append("\t.size ").append(f.name).append(", .-").append(f.name).append('\n');
+    }
+
+    /**
+     * Whether the parameters can be moved from where the caller put them
+     * straight to their registers on entry: every {@link Ir#PARAM} comes
+     * before any other instruction, with no moves between them, so no
+     * argument register is needed for anything else yet.
+     */
+    private boolean paramsInPrologue() {
+        int i = 0;
+        while (i < cfg.end(0) && (f.op(i) == Ir.PARAM || f.op(i) == Ir.NOP) && ra.moveStart(i) == ra.moveEnd(i)) {
+            i++;
+        }
+        for (; i < f.size(); i++) {
+            if (f.op(i) == Ir.PARAM) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Where parameter {@code k} arrives: an argument register, or {@code -(index + 1)} of its stack word. */
+    private int parameterLocation(int k) {
+        int general = 0;
+        int floats = 0;
+        int stack = 0;
+        for (int j = 0; j <= k; j++) {
+            int where;
+            if (Ir.isFloat(f.getParamKind(j))) {
+                where = floats < FLOAT_ARGUMENTS ? XMM0 + floats++ : -++stack;
+            } else {
+                where = general < ARGUMENTS.length ? ARGUMENTS[general++] : -++stack;
+            }
+            if (j == k) {
+                return where;
+            }
+        }
+        throw new IllegalArgumentException("parameter " + k);
+    }
+
+    private void prologue() {
+        int n = f.getParamCount();
+        if (homed) {
+            for (int k = 0; k < n; k++) {
+                int where = parameterLocation(k);
+                if (where >= 0) {
+                    store(f.getParamKind(k), where, -(homeBase + 8 * (k + 1)) + "(%rbp)");
+                }
+            }
+            return;
+        }
+        int[] from = new int[n];
+        int[] to = new int[n];
+        int[] kinds = new int[n];
+        long[] values = new long[n];
+        int count = 0;
+        int end = 0;
+        while (f.op(end) == Ir.PARAM || f.op(end) == Ir.NOP) {
+            end++;
+        }
+        for (int i = 0; i < end; i++) {
+            // where the parameter is once they have all arrived, as a dead one may share a live one's register
+            int d = f.op(i) == Ir.PARAM && f.dst(i) >= 0 ? location(ra.locationAt(f.dst(i), 2 * end - 1)) : Ir.NONE;
+            if (d == Ir.NONE) {
+                continue;
+            }
+            int where = parameterLocation(f.a(i));
+            if (where < 0) {
+                load(f.kind(i), 16 + 8 * (-where - 1) + "(%rbp)", d);
+            } else {
+                from[count] = where;
+                to[count] = d;
+                kinds[count++] = f.kind(i);
+            }
+        }
+        parallel(count, from, values, to, kinds);
+    }
+
+    private String label(int i) {
+        return prefix + i;
+    }
+
+    private void ins(String s) {
+        out.append('\t').append(s).append('\n');
+    }
+
+    // ------------------------------------------------------------ locations
+
+    /** Machine location of an allocator location: a register number, a spill slot as the allocator encodes it, or NONE. */
+    private static int location(int allocated) {
+        if (allocated == Ir.NONE || RegisterAllocator.isSlot(allocated)) {
+            return allocated;
+        }
+        return allocated < GENERAL.length ? GENERAL[allocated] : XMM0 + allocated - GENERAL.length;
+    }
+
+    private int use(int x, int i) {
+        return location(ra.useLocation(x, i));
+    }
+
+    private static boolean isRegister(int loc) {
+        return loc >= 0;
+    }
+
+    private static boolean isGeneral(int loc) {
+        return loc >= 0 && loc < XMM0;
+    }
+
+    private static boolean wide(int kind) {
+        return Ir.regKind(kind) == Ir.I64;
+    }
+
+    private static String suffix(int kind) {
+        return wide(kind) ? "q" : "l";
+    }
+
+    private static String floatSuffix(int kind) {
+        return kind == Ir.F32 ? "ss" : "sd";
+    }
+
+    private static boolean fits(long v) {
+        return v == (int) v;
+    }
+
+    private static String name(int r, int kind) {
+        if (r >= XMM0) {
+            return "%xmm" + (r - XMM0);
+        }
+        return "%" + (wide(kind) ? NAMES64[r] : NAMES32[r]);
+    }
+
+    /** General register {@code r} in the width of a {@code size}-byte store. */
+    private static String sized(int r, int size) {
+        switch (size) {
+            case 1:
+                return "%" + NAMES8[r];
+            case 2:
+                return "%" + NAMES16[r];
+            case 4:
+                return "%" + NAMES32[r];
+            default:
+                return "%" + NAMES64[r];
+        }
+    }
+
+    private String text(int loc, int kind) {
+        if (isRegister(loc)) {
+            return name(loc, kind);
+        }
+        return -(spillBase + 8 * (RegisterAllocator.slotOf(loc) + 1)) + "(%rbp)";
+    }
+
+    /**
+     * Operand {@code x} of instruction {@code i} as an x86 source operand
+     * of {@code kind}: its register or slot, an immediate, or a float
+     * constant in memory. A 64-bit constant too wide for an immediate goes
+     * through {@code scratch}.
+     */
+    private String source(int x, int i, int kind, int scratch) {
+        if (Ir.isRegister(x)) {
+            return text(use(x, i), kind);
+        }
+        long v = f.constantValue(x);
+        if (Ir.isFloat(kind)) {
+            return literal(kind, v, false);
+        }
+        if (wide(kind) && !fits(v)) {
+            ins("movabsq $" + v + ", %" + NAMES64[scratch]);
+            return "%" + NAMES64[scratch];
+        }
+        return "$" + (wide(kind) ? v : (int) v);
+    }
+
+    // ----------------------------------------------------------------- moves
+
+    /** Copies a value of {@code kind} between two registers or slots. */
+    private void move(int kind, int from, int to) {
+        if (from == to || to == Ir.NONE) {
+            return;
+        }
+        boolean fl = Ir.isFloat(kind);
+        if (isRegister(from) && isRegister(to)) {
+            ins(fl ? "movaps " + name(from, kind) + ", " + name(to, kind)
+                    : "mov" + suffix(kind) + " " + name(from, kind) + ", " + name(to, kind));
+        } else if (isRegister(from) || isRegister(to)) {
+            ins((fl ? "mov" + floatSuffix(kind) : "mov" + suffix(kind)) + " " + text(from, kind) + ", " + text(to, kind));
+        } else {
+            ins("movq " + text(from, Ir.I64) + ", %r11");
+            ins("movq %r11, " + text(to, Ir.I64));
+        }
+    }
+
+    /** Puts constant {@code v} of {@code kind} in a register or slot. */
+    private void constant(int kind, long v, int to) {
+        if (to == Ir.NONE) {
+            return;
+        }
+        if (Ir.isFloat(kind) && isRegister(to)) {
+            ins(v == 0 ? "xorps " + name(to, kind) + ", " + name(to, kind)
+                    : "mov" + floatSuffix(kind) + " " + literal(kind, v, false) + ", " + name(to, kind));
+            return;
+        }
+        boolean w = wide(kind) || kind == Ir.F64;
+        if (!w) {
+            ins("movl $" + (int) v + ", " + text(to, Ir.I32));
+        } else if (fits(v)) {
+            ins("movq $" + v + ", " + text(to, Ir.I64));
+        } else if (isRegister(to)) {
+            ins("movabsq $" + v + ", " + name(to, Ir.I64));
+        } else {
+            ins("movabsq $" + v + ", %r11");
+            ins("movq %r11, " + text(to, Ir.I64));
+        }
+    }
+
+    /** Copies operand {@code x} of instruction {@code i} to a register or slot. */
+    private void copy(int x, int i, int kind, int to) {
+        if (Ir.isRegister(x)) {
+            move(kind, use(x, i), to);
+        } else if (x != Ir.NONE) {
+            constant(kind, f.constantValue(x), to);
+        }
+    }
+
+    private void load(int kind, String memory, int to) {
+        if (isRegister(to)) {
+            ins((Ir.isFloat(kind) ? "mov" + floatSuffix(kind) : "mov" + suffix(kind)) + " " + memory + ", "
+                    + name(to, kind));
+        } else {
+            ins("movq " + memory + ", %r11");
+            ins("movq %r11, " + text(to, Ir.I64));
+        }
+    }
+
+    private void store(int kind, int from, String memory) {
+        ins((Ir.isFloat(kind) ? "mov" + floatSuffix(kind) : "mov" + suffix(kind)) + " " + name(from, kind) + ", "
+                + memory);
+    }
+
+    /** The allocator's moves {@code start .. end} as one parallel copy. */
+    private void moves(int start, int end) {
+        int n = end - start;
+        if (n == 0) {
+            return;
+        }
+        int[] from = new int[n];
+        int[] to = new int[n];
+        int[] kinds = new int[n];
+        long[] values = new long[n];
+        for (int m = start; m < end; m++) {
+            from[m - start] = location(ra.moveFrom(m));
+            to[m - start] = location(ra.moveTo(m));
+            kinds[m - start] = ra.moveKind(m);
+            if (from[m - start] == Ir.NONE) {
+                values[m - start] = f.constantValue(ra.moveSource(m));
+            }
+        }
+        parallel(n, from, values, to, kinds);
+    }
+
+    /**
+     * Makes the copies {@code from[k] -> to[k]} as if all at once, a source
+     * of NONE standing for the constant {@code values[k]}. A copy goes as
+     * soon as no other pending copy still reads its destination; when only
+     * cycles are left one source is saved in rax or xmm15 and read from
+     * there instead, which frees its location.
+     */
+    private void parallel(int n, int[] from, long[] values, int[] to, int[] kinds) {
+        boolean[] done = new boolean[n];
+        int left = 0;
+        for (int k = 0; k < n; k++) {
+            done[k] = from[k] == to[k] || to[k] == Ir.NONE;
+            left += done[k] ? 0 : 1;
+        }
+        while (left > 0) {
+            boolean progress = false;
+            for (int k = 0; k < n; k++) {
+                if (done[k] || reads(n, from, done, k, to[k])) {
+                    continue;
+                }
+                if (from[k] == Ir.NONE) {
+                    constant(kinds[k], values[k], to[k]);
+                } else {
+                    move(kinds[k], from[k], to[k]);
+                }
+                done[k] = true;
+                left--;
+                progress = true;
+            }
+            if (!progress) {
+                for (int k = 0; k < n; k++) {
+                    if (!done[k]) {
+                        int saved = from[k];
+                        int temp = Ir.isFloat(kinds[k]) ? XMM15 : RAX;
+                        move(kinds[k], saved, temp);
+                        for (int j = 0; j < n; j++) {
+                            if (!done[j] && from[j] == saved) {
+                                from[j] = temp;
+                            }
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean reads(int n, int[] from, boolean[] done, int self, int loc) {
+        for (int j = 0; j < n; j++) {
+            if (j != self && !done[j] && from[j] == loc) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // --------------------------------------------------------- instructions
+
+    private void instruction(int i) {
+        int op = f.op(i);
+        int kind = f.kind(i);
+        int d = Ir.defines(op) && f.dst(i) >= 0 ? location(ra.defLocation(i)) : Ir.NONE;
+        if (op != Ir.PHI && d != Ir.NONE && i + 1 < cfg.end(cfg.blockOf(i))
+                && ra.locationAt(f.dst(i), 2 * i + 2) == Ir.NONE) {
+            // nothing reads the result; a phi reads the last one of a block right where it is written
+            d = Ir.NONE;
+        }
+        if (d == Ir.NONE && op != Ir.CALL && op != Ir.CALLI && (Ir.defines(op) || op == Ir.NOP)) {
+            return;
+        }
+        switch (op) {
+            case Ir.MOV:
+                copy(f.a(i), i, kind, d);
+                break;
+            case Ir.ADD:
+                arithmetic(i, d, "add", true);
+                break;
+            case Ir.SUB:
+                arithmetic(i, d, "sub", false);
+                break;
+            case Ir.MUL:
+                arithmetic(i, d, Ir.isFloat(kind) ? "mul" : "imul", true);
+                break;
+            case Ir.DIV:
+            case Ir.REM:
+                if (Ir.isFloat(kind)) {
+                    arithmetic(i, d, "div", false);
+                } else {
+                    divide(i, d);
+                }
+                break;
+            case Ir.AND:
+                arithmetic(i, d, "and", true);
+                break;
+            case Ir.OR:
+                arithmetic(i, d, "or", true);
+                break;
+            case Ir.XOR:
+                arithmetic(i, d, "xor", true);
+                break;
+            case Ir.SHL:
+            case Ir.SHR:
+                shift(i, d);
+                break;
+            case Ir.NEG:
+            case Ir.NOT:
+                unary(i, d);
+                break;
+            case Ir.CONV:
+                convert(i, d);
+                break;
+            case Ir.LOAD: {
+                String address = address(f.a(i), i);
+                int r = isRegister(d) ? d : Ir.isFloat(kind) ? XMM15 : RAX;
+                switch (kind) {
+                    case Ir.I8:
+                        ins("movsbl " + address + ", " + name(r, Ir.I32));
+                        break;
+                    case Ir.U8:
+                        ins("movzbl " + address + ", " + name(r, Ir.I32));
+                        break;
+                    case Ir.I16:
+                        ins("movswl " + address + ", " + name(r, Ir.I32));
+                        break;
+                    case Ir.U16:
+                        ins("movzwl " + address + ", " + name(r, Ir.I32));
+                        break;
+                    default:
+                        load(kind, address, r);
+                }
+                move(kind, r, d);
+                break;
+            }
+            case Ir.STORE:
+                store(i);
+                break;
+            case Ir.LOCAL: {
+                int r = isGeneral(d) ? d : RAX;
+                ins("leaq " + -slotOffset[f.a(i)] + "(%rbp), " + name(r, Ir.I64));
+                move(Ir.I64, r, d);
+                break;
+            }
+            case Ir.GLOBAL: {
+                IrModule.Global g = module.getGlobal(f.a(i));
+                int r = isGeneral(d) ? d : RAX;
+                ins((g.isDefined() ? "leaq " + g.name : "movq " + g.name + "@GOTPCREL") + "(%rip), " + name(r, Ir.I64));
+                move(Ir.I64, r, d);
+                break;
+            }
+            case Ir.PARAM:
+                if (homed) {
+                    int where = parameterLocation(f.a(i));
+                    load(kind, where >= 0 ? -(homeBase + 8 * (f.a(i) + 1)) + "(%rbp)"
+                            : 16 + 8 * (-where - 1) + "(%rbp)", d);
+                }
+                break;
+            case Ir.CALL:
+            case Ir.CALLI:
+                call(i, d);
+                break;
+            case Ir.RET:
+                if (f.a(i) != Ir.NONE) {
+                    copy(f.a(i), i, kind, Ir.isFloat(kind) ? XMM0 : RAX);
+                }
+                if (saved.length > 0) {
+                    ins("leaq " + -8 * saved.length + "(%rbp), %rsp");
+                    for (int k = saved.length - 1; k >= 0; k--) {
+                        ins("popq %" + NAMES64[saved[k]]);
+                    }
+                    ins("popq %rbp");
+                } else {
+                    ins("leave");
+                }
+                ins("ret");
+                break;
+            case Ir.JMP:
+            case Ir.PHI:
+                // phis are the moves on the edges into the block
+                break;
+            case Ir.SWITCH:
+                jumpTable(i);
+                break;
+            default:
+                if (Ir.isCompare(op)) {
+                    compareValue(i, d);
+                } else if (!Ir.isBranch(op)) {
+                    throw new IllegalStateException("cannot generate " + Ir.opName(op));
+                }
+        }
+    }
+
+    /** {@code a op b} of an integer or float kind, computed in the result's register if it has one. */
+    private void arithmetic(int i, int d, String mnemonic, boolean commutative) {
+        int kind = f.kind(i);
+        boolean fl = Ir.isFloat(kind);
+        int a = f.a(i);
+        int b = f.b(i);
+        int scratch = fl ? XMM15 : RAX;
+        int r = isRegister(d) ? d : scratch;
+        if (Ir.isRegister(b) && use(b, i) == r && !(Ir.isRegister(a) && use(a, i) == r)) {
+            if (commutative) {
+                a = f.b(i);
+                b = f.a(i);
+            } else {
+                r = scratch;
+            }
+        }
+        copy(a, i, kind, r);
+        ins(mnemonic + (fl ? floatSuffix(kind) : suffix(kind)) + " " + source(b, i, kind, R11) + ", " + name(r, kind));
+        extend(kind, r);
+        move(kind, r, d);
+    }
+
+    /** Extends the low bits of general register {@code r} the way a register of {@code kind} holds them. */
+    private void extend(int kind, int r) {
+        switch (kind) {
+            case Ir.I8:
+                ins("movsbl %" + NAMES8[r] + ", %" + NAMES32[r]);
+                break;
+            case Ir.U8:
+                ins("movzbl %" + NAMES8[r] + ", %" + NAMES32[r]);
+                break;
+            case Ir.I16:
+                ins("movswl %" + NAMES16[r] + ", %" + NAMES32[r]);
+                break;
+            case Ir.U16:
+                ins("movzwl %" + NAMES16[r] + ", %" + NAMES32[r]);
+                break;
+            default:
+        }
+    }
+
+    private void divide(int i, int d) {
+        int kind = f.kind(i);
+        int b = f.b(i);
+        if (!Ir.isRegister(b)) {
+            long v = Ir.normalize(f.constantValue(b), kind);
+            v = wide(kind) ? v : v & 0xffffffffL;
+            if (v > 1 && (v & v - 1) == 0 && v <= 1L << 31) {
+                divideByPowerOfTwo(i, d, Long.numberOfTrailingZeros(v));
+                return;
+            }
+        }
+        String divisor;
+        if (Ir.isRegister(b)) {
+            divisor = text(use(b, i), kind);
+        } else {
+            copy(b, i, kind, RCX);
+            divisor = name(RCX, kind);
+        }
+        copy(f.a(i), i, kind, RAX);
+        if (Ir.isSigned(kind)) {
+            ins(wide(kind) ? "cqto" : "cltd");
+            ins("idiv" + suffix(kind) + " " + divisor);
+        } else {
+            ins("xorl %edx, %edx");
+            ins("div" + suffix(kind) + " " + divisor);
+        }
+        int r = f.op(i) == Ir.DIV ? RAX : RDX;
+        extend(kind, r);
+        move(kind, r, d);
+    }
+
+    /**
+     * Division by {@code 2^k} as shifts and masks. A signed dividend is
+     * first biased by {@code 2^k - 1} when negative, so that the shift
+     * rounds toward zero as division does.
+     */
+    private void divideByPowerOfTwo(int i, int d, int k) {
+        int kind = f.kind(i);
+        String s = suffix(kind);
+        int bits = wide(kind) ? 64 : 32;
+        boolean div = f.op(i) == Ir.DIV;
+        copy(f.a(i), i, kind, RAX);
+        if (!Ir.isSigned(kind)) {
+            ins(div ? "shr" + s + " $" + k + ", " + name(RAX, kind) : "and" + s + " $" + ((1L << k) - 1) + ", "
+                    + name(RAX, kind));
+        } else {
+            ins("mov" + s + " " + name(RAX, kind) + ", " + name(RDX, kind));
+            ins("sar" + s + " $" + (bits - 1) + ", " + name(RDX, kind));
+            ins("shr" + s + " $" + (bits - k) + ", " + name(RDX, kind));
+            ins("add" + s + " " + name(RDX, kind) + ", " + name(RAX, kind));
+            if (div) {
+                ins("sar" + s + " $" + k + ", " + name(RAX, kind));
+            } else {
+                ins("and" + s + " $" + ((1L << k) - 1) + ", " + name(RAX, kind));
+                ins("sub" + s + " " + name(RDX, kind) + ", " + name(RAX, kind));
+            }
+        }
+        extend(kind, RAX);
+        move(kind, RAX, d);
+    }
+
+    private void shift(int i, int d) {
+        int kind = f.kind(i);
+        int b = f.b(i);
+        String count;
+        if (Ir.isRegister(b)) {
+            ins("movl " + text(use(b, i), Ir.I32) + ", %ecx");
+            count = "%cl";
+        } else {
+            count = "$" + (f.constantValue(b) & (wide(kind) ? 63 : 31));
+        }
+        int r = isRegister(d) ? d : RAX;
+        copy(f.a(i), i, kind, r);
+        String mnemonic = f.op(i) == Ir.SHL ? "shl" : Ir.isSigned(kind) ? "sar" : "shr";
+        ins(mnemonic + suffix(kind) + " " + count + ", " + name(r, kind));
+        extend(kind, r);
+        move(kind, r, d);
+    }
+
+    private void unary(int i, int d) {
+        int kind = f.kind(i);
+        boolean fl = Ir.isFloat(kind);
+        int r = isRegister(d) ? d : fl ? XMM15 : RAX;
+        copy(f.a(i), i, kind, r);
+        if (fl) {
+            // only NEG applies to floats: flip the sign bit
+            ins((kind == Ir.F32 ? "xorps " : "xorpd ") + literal(kind, 0, true) + ", " + name(r, kind));
+        } else {
+            ins((f.op(i) == Ir.NEG ? "neg" : "not") + suffix(kind) + " " + name(r, kind));
+            extend(kind, r);
+        }
+        move(kind, r, d);
+    }
+
+    private void convert(int i, int d) {
+        int to = f.kind(i);
+        int from = f.b(i);
+        int a = f.a(i);
+        if (!Ir.isRegister(a)) {
+            constant(to, Ir.convert(f.constantValue(a), from, to), d);
+            return;
+        }
+        int x = use(a, i);
+        if (Ir.isFloat(from) && Ir.isFloat(to)) {
+            int r = isRegister(d) ? d : XMM15;
+            if (from == to) {
+                move(to, x, d);
+                return;
+            }
+            ins((from == Ir.F32 ? "cvtss2sd " : "cvtsd2ss ") + text(x, from) + ", " + name(r, to));
+            move(to, r, d);
+        } else if (Ir.isFloat(to)) {
+            int r = isRegister(d) ? d : XMM15;
+            String cvt = "cvtsi2" + floatSuffix(to);
+            ins("xorps " + name(r, to) + ", " + name(r, to));
+            if (from == Ir.U64) {
+                String big = prefix + "c" + i;
+                String done = prefix + "d" + i;
+                ins("movq " + text(x, Ir.I64) + ", %rax");
+                ins("testq %rax, %rax");
+                ins("js " + big);
+                ins(cvt + "q %rax, " + name(r, to));
+                ins("jmp " + done);
+                out.append(big).append(":\n");
+                // halve, keeping the low bit so the rounding is right, then double
+                ins("movq %rax, %rcx");
+                ins("shrq %rcx");
+                ins("andl $1, %eax");
+                ins("orq %rax, %rcx");
+                ins(cvt + "q %rcx, " + name(r, to));
+                ins("add" + floatSuffix(to) + " " + name(r, to) + ", " + name(r, to));
+                out.append(done).append(":\n");
+            } else if (from == Ir.U32) {
+                ins("movl " + text(x, Ir.I32) + ", %eax");
+                ins(cvt + "q %rax, " + name(r, to));
+            } else {
+                ins(cvt + suffix(from) + " " + text(x, from) + ", " + name(r, to));
+            }
+            move(to, r, d);
+        } else if (Ir.isFloat(from)) {
+            int r = isGeneral(d) ? d : RAX;
+            String cvt = "cvtt" + floatSuffix(from) + "2si";
+            if (to == Ir.U64) {
+                String big = prefix + "c" + i;
+                String done = prefix + "d" + i;
+                if (from == Ir.F32) {
+                    ins("cvtss2sd " + text(x, from) + ", %xmm15");
+                } else {
+                    move(from, x, XMM15);
+                }
+                String limit = literal(Ir.F64, Double.doubleToRawLongBits(0x1p63), false);
+                ins("ucomisd " + limit + ", %xmm15");
+                ins("jae " + big);
+                ins("cvttsd2siq %xmm15, " + name(r, Ir.I64));
+                ins("jmp " + done);
+                out.append(big).append(":\n");
+                ins("subsd " + limit + ", %xmm15");
+                ins("cvttsd2siq %xmm15, " + name(r, Ir.I64));
+                ins("btcq $63, " + name(r, Ir.I64));
+                out.append(done).append(":\n");
+            } else if (to == Ir.I64 || to == Ir.U32) {
+                ins(cvt + "q " + text(x, from) + ", " + name(r, Ir.I64));
+            } else {
+                ins(cvt + "l " + text(x, from) + ", " + name(r, Ir.I32));
+                extend(to, r);
+            }
+            move(to, r, d);
+        } else {
+            int r = isGeneral(d) ? d : RAX;
+            if (wide(to)) {
+                if (wide(from)) {
+                    move(to, x, d);
+                    return;
+                }
+                ins((Ir.isSigned(from) ? "movslq " : "movl ") + text(x, Ir.I32) + ", "
+                        + name(r, Ir.isSigned(from) ? Ir.I64 : Ir.I32));
+            } else {
+                ins("movl " + text(x, Ir.I32) + ", " + name(r, Ir.I32));
+                extend(to, r);
+            }
+            move(to, r, d);
+        }
+    }
+
+    /** Operand {@code x} of instruction {@code i} as a memory operand at the address it holds. */
+    private String address(int x, int i) {
+        if (Ir.isRegister(x) && isGeneral(use(x, i))) {
+            return "(%" + NAMES64[use(x, i)] + ")";
+        }
+        copy(x, i, Ir.I64, R11);
+        return "(%r11)";
+    }
+
+    private void store(int i) {
+        int kind = f.kind(i);
+        int size = Ir.size(kind);
+        int b = f.b(i);
+        String address = address(f.a(i), i);
+        if (Ir.isRegister(b) && isRegister(use(b, i))) {
+            int r = use(b, i);
+            if (r >= XMM0) {
+                store(kind, r, address);
+            } else {
+                ins("mov" + "bwlq".charAt(Integer.numberOfTrailingZeros(size)) + " " + sized(r, size) + ", " + address);
+            }
+            return;
+        }
+        if (!Ir.isRegister(b) && (size < 8 || fits(f.constantValue(b)))) {
+            long v = f.constantValue(b);
+            ins("mov" + "bwlq".charAt(Integer.numberOfTrailingZeros(size)) + " $"
+                    + (size == 8 ? v : size == 4 ? (int) v : size == 2 ? (short) v : (byte) v) + ", " + address);
+            return;
+        }
+        // in a slot, or a constant too wide for an immediate: through rax, bits and all
+        int bits = size == 8 ? Ir.I64 : Ir.I32;
+        if (Ir.isRegister(b)) {
+            ins("mov" + suffix(bits) + " " + text(use(b, i), bits) + ", " + name(RAX, bits));
+        } else {
+            constant(Ir.I64, f.constantValue(b), RAX);
+        }
+        ins("mov" + "bwlq".charAt(Integer.numberOfTrailingZeros(size)) + " " + sized(RAX, size) + ", " + address);
+    }
+
+    // ------------------------------------------------------------ comparisons
+
+    /**
+     * Compares the operands of comparison or branch {@code i} and returns
+     * the condition code suffix that holds when it is true; for floats,
+     * "e" and "ne" still need the parity flag, which {@link #setFlag} and
+     * {@link #branch} test.
+     */
+    private String compare(int i) {
+        int op = Ir.isBranch(f.op(i)) ? Ir.compareOf(f.op(i)) : f.op(i);
+        int kind = f.kind(i);
+        int a = f.a(i);
+        int b = f.b(i);
+        if (Ir.isFloat(kind)) {
+            // a < b is b > a: "a" and "ae" are false when unordered, "b" and "be" would not be
+            if (op == Ir.LT || op == Ir.LE) {
+                a = f.b(i);
+                b = f.a(i);
+                op = Ir.swapCompare(op);
+            }
+            int r = Ir.isRegister(a) && isRegister(use(a, i)) ? use(a, i) : XMM15;
+            copy(a, i, kind, r);
+            ins("ucomi" + floatSuffix(kind) + " " + source(b, i, kind, R11) + ", " + name(r, kind));
+            return op == Ir.EQ ? "e" : op == Ir.NE ? "ne" : op == Ir.GT ? "a" : "ae";
+        }
+        if (!Ir.isRegister(a) && Ir.isRegister(b)) {
+            a = f.b(i);
+            b = f.a(i);
+            op = Ir.swapCompare(op);
+        }
+        String left;
+        if (!Ir.isRegister(a) || !isRegister(use(a, i)) && Ir.isRegister(b) && !isRegister(use(b, i))) {
+            copy(a, i, kind, RAX);
+            left = name(RAX, kind);
+        } else {
+            left = text(use(a, i), kind);
+        }
+        ins("cmp" + suffix(kind) + " " + source(b, i, kind, R11) + ", " + left);
+        boolean signed = Ir.isSigned(kind);
+        switch (op) {
+            case Ir.EQ:
+                return "e";
+            case Ir.NE:
+                return "ne";
+            case Ir.LT:
+                return signed ? "l" : "b";
+            case Ir.LE:
+                return signed ? "le" : "be";
+            case Ir.GT:
+                return signed ? "g" : "a";
+            default:
+                return signed ? "ge" : "ae";
+        }
+    }
+
+    private void compareValue(int i, int d) {
+        String cc = compare(i);
+        setFlag(Ir.isFloat(f.kind(i)), cc);
+        ins("movzbl %al, %eax");
+        move(Ir.I32, RAX, d);
+    }
+
+    /** Sets al to whether condition {@code cc} holds, the parity flag marking an unordered float comparison. */
+    private void setFlag(boolean fl, String cc) {
+        ins("set" + cc + " %al");
+        if (fl && cc.equals("e")) {
+            ins("setnp %cl");
+            ins("andb %cl, %al");
+        } else if (fl && cc.equals("ne")) {
+            ins("setp %cl");
+            ins("orb %cl, %al");
+        }
+    }
+
+    /** Jumps to {@code target} if condition {@code cc} holds. */
+    private void branch(boolean fl, String cc, String target, int i) {
+        if (fl && cc.equals("e")) {
+            String skip = prefix + "p" + i;
+            ins("jp " + skip);
+            ins("je " + target);
+            out.append(skip).append(":\n");
+        } else if (fl && cc.equals("ne")) {
+            ins("jp " + target);
+            ins("jne " + target);
+        } else {
+            ins("j" + cc + " " + target);
+        }
+    }
+
+    // ---------------------------------------------------------- control flow
+
+    /** Ends block {@code b}: branches, the moves of its edges, and the jump to where it goes next. */
+    private void leave(int b) {
+        int last = cfg.end(b) - 1;
+        int op = f.op(last);
+        if (op == Ir.RET || op == Ir.SWITCH) {
+            return;
+        }
+        int next = b + 1;
+        if (op == Ir.JMP) {
+            int s = cfg.blockOf(f.dst(last));
+            edgeMoves(b, s);
+            if (s != next) {
+                ins("jmp " + label(cfg.start(s)));
+            }
+            return;
+        }
+        if (Ir.isBranch(op)) {
+            int s = cfg.blockOf(f.dst(last));
+            if (s != next) {
+                String cc = compare(last);
+                branch(Ir.isFloat(f.kind(last)), cc, edgeLabel(b, s), last);
+            }
+        }
+        edgeMoves(b, next);
+    }
+
+    private int edge(int b, int s) {
+        for (int k = 0; k < cfg.successorCount(b); k++) {
+            if (cfg.successor(b, k) == s) {
+                return cfg.successorEdge(b, k);
+            }
+        }
+        throw new IllegalStateException("no edge " + b + " -> " + s);
+    }
+
+    private void edgeMoves(int b, int s) {
+        int e = edge(b, s);
+        moves(ra.edgeMoveStart(e), ra.edgeMoveEnd(e));
+    }
+
+    /**
+     * Where a branch from {@code b} to {@code s} should jump: the block
+     * itself, or a stub that makes the edge's moves first.
+     */
+    private String edgeLabel(int b, int s) {
+        int e = edge(b, s);
+        if (ra.edgeMoveStart(e) == ra.edgeMoveEnd(e)) {
+            return label(cfg.start(s));
+        }
+        String stub = prefix + "e" + e;
+        if (stubs.indexOf(stub + ":") < 0) {
+            StringBuilder body = out;
+            int mark = out.length();
+            out.append(stub).append(":\n");
+            moves(ra.edgeMoveStart(e), ra.edgeMoveEnd(e));
+            ins("jmp " + label(cfg.start(s)));
+            stubs.append(body, mark, body.length());
+            body.setLength(mark);
+        }
+        return stub;
+    }
+
+    private void jumpTable(int i) {
+        int b = cfg.blockOf(i);
+        String table = prefix + "t" + i;
+        ins("movl " + source(f.a(i), i, Ir.I32, R11) + ", %ecx");
+        ins("leaq " + table + "(%rip), %rdx");
+        ins("movslq (%rdx,%rcx,4), %rax");
+        ins("addq %rdx, %rax");
+        ins("jmp *%rax");
+        String[] targets = new String[f.targetCount(i)];
+        for (int k = 0; k < targets.length; k++) {
+            targets[k] = edgeLabel(b, cfg.blockOf(f.target(i, k)));
+        }
+        ins(".balign 4");
+        out.append(table).append(":\n");
+        for (String target : targets) {
+            ins(".long " + target + " - " + table);
+        }
+    }
+
+    // ------------------------------------------------------------------ calls
+
+    /**
+     * A call: arguments past the registers are pushed right to left, the
+     * rest reach their registers in one parallel copy, and al gets the
+     * number of vector registers used, as a variadic callee expects.
+     */
+    private void call(int i, int d) {
+        int n = f.argCount(i);
+        int[] from = new int[n];
+        int[] to = new int[n];
+        int[] kinds = new int[n];
+        long[] values = new long[n];
+        int[] stack = new int[n];
+        int count = 0;
+        int stacked = 0;
+        int general = 0;
+        int floats = 0;
+        for (int k = 0; k < n; k++) {
+            int kind = f.argKind(i, k);
+            int where;
+            if (Ir.isFloat(kind)) {
+                where = floats < FLOAT_ARGUMENTS ? XMM0 + floats++ : Ir.NONE;
+            } else {
+                where = general < ARGUMENTS.length ? ARGUMENTS[general++] : Ir.NONE;
+            }
+            if (where == Ir.NONE) {
+                stack[stacked++] = k;
+                continue;
+            }
+            int x = f.arg(i, k);
+            from[count] = Ir.isRegister(x) ? use(x, i) : Ir.NONE;
+            values[count] = Ir.isRegister(x) ? 0 : f.constantValue(x);
+            to[count] = where;
+            kinds[count++] = kind;
+        }
+        IrModule.Global callee = f.op(i) == Ir.CALL ? module.getGlobal(f.a(i)) : null;
+        if (callee == null) {
+            // r11 is not an argument register, and the parallel copy below never needs it
+            copy(f.a(i), i, Ir.I64, R11);
+        }
+        int padding = stacked & 1;
+        if (padding != 0) {
+            ins("subq $8, %rsp");
+        }
+        for (int j = stacked - 1; j >= 0; j--) {
+            push(f.arg(i, stack[j]), i, f.argKind(i, stack[j]));
+        }
+        parallel(count, from, values, to, kinds);
+        if (callee == null || !callee.isDefined()) {
+            ins("movl $" + floats + ", %eax");
+        }
+        ins(callee == null ? "call *%r11" : "call " + callee.name + (callee.isDefined() ? "" : "@PLT"));
+        if (stacked > 0) {
+            ins("addq $" + 8 * (stacked + padding) + ", %rsp");
+        }
+        int kind = f.kind(i);
+        if (d != Ir.NONE) {
+            if (Ir.isFloat(kind)) {
+                move(kind, XMM0, d);
+            } else {
+                extend(kind, RAX);
+                move(kind, RAX, d);
+            }
+        }
+    }
+
+    private void push(int x, int i, int kind) {
+        if (!Ir.isRegister(x)) {
+            long v = f.constantValue(x);
+            if (fits(v) || !wide(kind) && kind != Ir.F64) {
+                ins("pushq $" + (wide(kind) || kind == Ir.F64 ? v : (int) v));
+            } else {
+                ins("movabsq $" + v + ", %rax");
+                ins("pushq %rax");
+            }
+            return;
+        }
+        int loc = use(x, i);
+        if (loc >= XMM0) {
+            ins("subq $8, %rsp");
+            store(kind, loc, "(%rsp)");
+        } else {
+            ins("pushq " + text(loc, Ir.I64));
+        }
+    }
+}
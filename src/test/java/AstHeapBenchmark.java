@@ -0,0 +1,90 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+/**
+ * Reports the heap the {@link CParser} tree of a program retains and the
+ * heap its {@link Ast} retains, measured as the used heap after
+ * {@link System#gc} with only that structure kept alive, less the used
+ * heap before it was built. The tree's tokens keep the input text alive
+ * as well, and that counts towards the tree, since it is what holding
+ * the tree costs.
+ *
+ * Each program is parsed and lowered once before it is measured, so that
+ * the DFA cache ANTLR shares between parsers, which would otherwise be
+ * charged to whichever program grows it, has already been grown.
+ *
+ * Usage: {@code AstHeapBenchmark [file.c...]}; without arguments it uses
+ * examples/*.c and a generated unit of {@link #FUNCTIONS} functions.
+ */
+public class AstHeapBenchmark {
+    private static final int FUNCTIONS = 3000;
+    /** Collections per measurement, keeping the smallest used heap seen. */
+    private static final int COLLECTIONS = 5;
+
+    /** The structure being measured, kept reachable through the collections. */
+    private static Object retained;
+
+    public static void main(String[] args) throws Exception {
+        List<Workload> programs = new ArrayList<>(args.length == 0 ? Workload.examples() : Workload.files(args));
+        if (args.length == 0) {
+            programs.add(Workload.sample("generated", source(FUNCTIONS)));
+        }
+        for (Workload program : programs) {
+            report(program.name, program.source);
+        }
+    }
+
+    /** Functions with locals, loops, calls, pointers and struct accesses, as ordinary code has. */
+    static String source(int functions) {
+        StringBuilder sb = new StringBuilder("struct Node { int key; long value; struct Node *next; };\n");
+        for (int k = 0; k < functions; k++) {
+            sb.append("long f").append(k).append("(struct Node *list, int limit) {\n")
+                    .append("    long total = 0;\n")
+                    .append("    int count = 0;\n")
+                    .append("    while (list != 0 && count < limit) {\n")
+                    .append("        if (list->key % ").append(k % 7 + 2).append(" == 0)\n")
+                    .append("            total = total + list->value * ").append(k).append(";\n")
+                    .append("        else\n")
+                    .append("            total = total - (list->value >> 1);\n")
+                    .append("        list = list->next;\n")
+                    .append("        count++;\n")
+                    .append("    }\n");
+            if (k > 0) {
+                sb.append("    total = total + f").append(k - 1).append("(list, limit / 2);\n");
+            }
+            sb.append("    return total;\n")
+                    .append("}\n");
+        }
+        return sb.toString();
+    }
+
+    private static void report(String name, String source) {
+        // parse once first, so the parser's shared DFA cache is already grown for this program
+        AstLowering.lower(parse(source));
+        long base = usedHeap();
+        retained = parse(source);
+        long treeBytes = usedHeap() - base;
+        retained = AstLowering.lower((CParser.Translation_unitContext) retained);
+        long astBytes = usedHeap() - base;
+        retained = null;
+        System.out.printf("%-24s %8d chars: parse tree %10d bytes, AST %10d bytes (%.1fx)%n", name,
+                source.length(), treeBytes, astBytes, (double) treeBytes / Math.max(1, astBytes));
+    }
+
+    private static CParser.Translation_unitContext parse(String source) {
+        return new CParser(new CommonTokenStream(new CLexer(CharStreams.fromString(source)))).translation_unit();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int k = 0; k < COLLECTIONS; k++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+/**
+ * Reports how many IR instructions {@link ConstantPropagation} removes
+ * from programs just put in SSA form by {@link SsaBuilder}, and how long
+ * the pass takes.
+ *
+ * Usage: {@code ConstantPropagationBenchmark [file.c...]}; without
+ * arguments it uses examples/*.c and the programs of {@link #SAMPLES}.
+ */
+public class ConstantPropagationBenchmark {
+    private static final int ITERATIONS = 50;
+
+    /** Programs whose constants decide branches. */
+    static final String[][] SAMPLES = {
+        // a 4000-state machine, each of whose cases sets the next state to a constant
+        {"states-4000", SwitchBenchmark.stateMachine(4000, 50000)},
+        // debug output and a scale factor fixed by constant locals
+        {"flags",
+            "int scale(int x) {\n"
+            + "    int debug = 0, factor = 4, shift = 2;\n"
+            + "    int y = x * factor;\n"
+            + "    if (debug) printf(\"scale %d\\n\", y);\n"
+            + "    if (factor == 4) y = y >> shift; else y = y / factor;\n"
+            + "    return y;\n"
+            + "}\n"
+            + "int main() {\n"
+            + "    int i, s = 0, verbose = 0;\n"
+            + "    for (i = 0; i < 10; i++) {\n"
+            + "        s = s + scale(i);\n"
+            + "        if (verbose) printf(\"%d\\n\", s);\n"
+            + "    }\n"
+            + "    printf(\"%d\\n\", s);\n"
+            + "    return 0;\n"
+            + "}\n"},
+    };
+
+    public static void main(String[] args) throws Exception {
+        List<String[]> programs = new ArrayList<>();
+        for (Workload program : args.length == 0 ? Workload.examples() : Workload.files(args)) {
+            programs.add(new String[] {program.name, program.source});
+        }
+        if (args.length == 0) {
+            programs.addAll(Arrays.asList(SAMPLES));
+        }
+        int before = 0;
+        int after = 0;
+        for (String[] program : programs) {
+            int[] counts = report(program[0], CharStreams.fromString(program[1]));
+            before += counts[0];
+            after += counts[1];
+        }
+        System.out.printf("%-24s %7d -> %7d (-%.1f%%)%n", "total", before, after, percent(before, after));
+    }
+
+    private static int[] report(String name, CharStream input) {
+        CParser parser = new CParser(new CommonTokenStream(new CLexer(input)));
+        TypeChecker checker = TypeChecker.check(NameResolver.resolve(AstLowering.lower(parser.translation_unit())));
+        int[] counts = new int[2];
+        long nanos = 0;
+        for (int round = 0; round < ITERATIONS; round++) {
+            int before = 0;
+            int after = 0;
+            for (IrFunction f : IrGenerator.generate(checker).getModule().getFunctions()) {
+                SsaBuilder.build(f);
+                before += f.size();
+                long start = System.nanoTime();
+                ConstantPropagation.run(f);
+                nanos += System.nanoTime() - start;
+                after += f.size();
+            }
+            counts[0] = before;
+            counts[1] = after;
+        }
+        System.out.printf("%-24s %7d -> %7d (-%.1f%%) %8d us%n", name, counts[0], counts[1],
+                percent(counts[0], counts[1]), nanos / 1000 / ITERATIONS);
+        return counts;
+    }
+
+    private static double percent(int before, int after) {
+        return before == 0 ? 0 : 100.0 * (before - after) / before;
+    }
+}
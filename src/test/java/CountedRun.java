@@ -0,0 +1,35 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A run of a module on {@link IrInterpreter} that counts the IR
+ * instructions executed, for the benchmarks that measure a pass by what
+ * the code it leaves executes with and without it.
+ */
+final class CountedRun {
+    private static final int MEMORY = 64 << 20;
+
+    /** What the program printed and returned, or how it failed. */
+    final String result;
+    final long executed;
+
+    private CountedRun(String result, long executed) {
+        this.result = result;
+        this.executed = executed;
+    }
+
+    static CountedRun of(IrModule module, String input) {
+        IrInterpreter interpreter = IrInterpreter.counting(module, MEMORY, Long.MAX_VALUE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String result;
+        try {
+            int status = interpreter.run(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), out);
+            result = "exit " + status + ", " + new String(out.toByteArray(), StandardCharsets.UTF_8).replace("\n", "\\n");
+        } catch (IOException | RuntimeException e) {
+            result = "failure " + e;
+        }
+        return new CountedRun(result, interpreter.executed());
+    }
+}
@@ -0,0 +1,101 @@
+import java.util.Arrays;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+/**
+ * Times {@link Liveness}, {@link ReachingDefinitions} and
+ * {@link AvailableExpressions} on every function of a program, as the
+ * generator leaves it and again in SSA form with dead phis removed, as the
+ * register allocator sees it.
+ *
+ * Usage: {@code DataflowBenchmark [file.c...]}; without arguments it uses
+ * examples/*.c and a generated function with over ten thousand variables
+ * and blocks, most of them short-lived, inside a loop.
+ */
+public class DataflowBenchmark {
+    private static final int WARMUP = 10;
+    private static final int ITERATIONS = 20;
+
+    public static void main(String[] args) throws Exception {
+        for (Workload program : args.length == 0 ? Workload.examples() : Workload.files(args)) {
+            report(program.name, CharStreams.fromString(program.source));
+        }
+        if (args.length == 0) {
+            report("generated", CharStreams.fromString(source(5000, 64)));
+        }
+    }
+
+    /**
+     * A loop whose body is a chain of {@code statements} branches, each
+     * defining a fresh variable from the last few and adding it to or
+     * subtracting from one of {@code accumulators} variables carried around
+     * the loop.
+     */
+    static String source(int statements, int accumulators) {
+        StringBuilder sb = new StringBuilder("int big(int n) {\n");
+        for (int k = 0; k < accumulators; k++) {
+            sb.append("    int a").append(k).append(" = n + ").append(k).append(";\n");
+        }
+        sb.append("    while (n > 0) {\n        int v0 = n;\n        int v1 = a0;\n        int v2 = a1;\n");
+        for (int k = 3; k < statements; k++) {
+            int a = k % accumulators;
+            sb.append("        int v").append(k).append(" = v").append(k - 1).append(" + v").append(k - 3).append(";\n")
+                    .append("        if (v").append(k).append(" < v").append(k - 2).append(") a").append(a)
+                    .append(" = a").append(a).append(" + v").append(k).append("; else a").append(a)
+                    .append(" = a").append(a).append(" - v").append(k - 1).append(";\n");
+        }
+        sb.append("        n = n - 1;\n    }\n    return a0");
+        for (int k = 1; k < accumulators; k++) {
+            sb.append(" + a").append(k);
+        }
+        return sb.append(";\n}\n").toString();
+    }
+
+    private static void report(String name, CharStream input) {
+        CParser parser = new CParser(new CommonTokenStream(new CLexer(input)));
+        TypeChecker checker = TypeChecker.check(NameResolver.resolve(AstLowering.lower(parser.translation_unit())));
+        for (int form = 0; form < 2; form++) {
+            int blocks = 0;
+            int registers = 0;
+            int globals = 0;
+            int definitions = 0;
+            int expressions = 0;
+            long[] nanos = new long[3];
+            for (int round = -WARMUP; round < ITERATIONS; round++) {
+                if (round == 0) {
+                    Arrays.fill(nanos, 0);
+                }
+                blocks = 0;
+                registers = 0;
+                globals = 0;
+                definitions = 0;
+                expressions = 0;
+                for (IrFunction f : IrGenerator.generate(checker).getModule().getFunctions()) {
+                    if (form == 1) {
+                        SsaBuilder.build(f);
+                        DeadCodeElimination.run(f);
+                    }
+                    ControlFlowGraph cfg = ControlFlowGraph.build(f);
+                    blocks += cfg.blockCount();
+                    registers += f.registerCount();
+                    long start = System.nanoTime();
+                    globals += Liveness.compute(cfg).globalCount();
+                    long live = System.nanoTime();
+                    definitions += ReachingDefinitions.compute(cfg).definitionCount();
+                    long reaching = System.nanoTime();
+                    expressions += AvailableExpressions.compute(cfg).expressionCount();
+                    long available = System.nanoTime();
+                    nanos[0] += live - start;
+                    nanos[1] += reaching - live;
+                    nanos[2] += available - reaching;
+                }
+            }
+            System.out.printf("%-24s %-4s %6d blocks %6d registers: liveness %6d us (%d global), "
+                    + "reaching %6d us (%d defs), available %6d us (%d exprs)%n",
+                    name, form == 0 ? "ir" : "ssa", blocks, registers, nanos[0] / 1000 / ITERATIONS, globals,
+                    nanos[1] / 1000 / ITERATIONS, definitions, nanos[2] / 1000 / ITERATIONS, expressions);
+        }
+    }
+}
@@ -0,0 +1,340 @@
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.junit.Test;
+
+/**
+ * Checks {@link Liveness}, {@link ReachingDefinitions} and
+ * {@link AvailableExpressions} against a naive solver.
+ *
+ * The naive solver keeps a dense {@link BitSet} per block for each side
+ * of each problem, sweeps every block until nothing changes and kills a
+ * register's definitions or an expression's readers by scanning the whole
+ * function. Its reaching definitions and available expressions are not
+ * limited to live registers; the framework's answers are compared with
+ * them only where the documented queries hold, for registers and operands
+ * live on entry to the block. Every function is checked as the generator
+ * leaves it, in SSA form with dead phis removed, and after {@code -O}.
+ *
+ * The programs are examples/*.c, those of {@link Workload} and
+ * {@link DeadCodeBenchmark}, and a small instance of the generated loop of
+ * {@link DataflowBenchmark}.
+ */
+public class DataflowTest {
+    /** Mismatches listed in the message; the rest are only counted. */
+    private static final int SHOWN = 10;
+
+    @Test
+    public void generatedIr() throws IOException {
+        check(0);
+    }
+
+    @Test
+    public void ssaForm() throws IOException {
+        check(1);
+    }
+
+    @Test
+    public void optimizedIr() throws IOException {
+        check(2);
+    }
+
+    /** Checks every program in form 0 (as generated), 1 (SSA) or 2 ({@code -O}). */
+    private static void check(int form) throws IOException {
+        List<String[]> programs = new ArrayList<>();
+        for (Workload workload : Workload.all()) {
+            programs.add(new String[] {workload.name, workload.source});
+        }
+        for (String[] sample : DeadCodeBenchmark.SAMPLES) {
+            programs.add(sample);
+        }
+        programs.add(new String[] {"generated", DataflowBenchmark.source(200, 8)});
+        List<String> mismatches = new ArrayList<>();
+        for (String[] program : programs) {
+            IrModule module = Compiler.module(CharStreams.fromString(program[1]), form == 2);
+            for (IrFunction f : module.getFunctions()) {
+                if (form == 1) {
+                    SsaBuilder.build(f);
+                    DeadCodeElimination.run(f);
+                }
+                check(ControlFlowGraph.build(f), program[0] + " ", mismatches);
+            }
+        }
+        StringBuilder message = new StringBuilder(mismatches.size() + " mismatches");
+        for (String mismatch : mismatches.subList(0, Math.min(SHOWN, mismatches.size()))) {
+            message.append("\n  ").append(mismatch);
+        }
+        assertTrue(message.toString(), mismatches.isEmpty());
+    }
+
+    private static void check(ControlFlowGraph cfg, String program, List<String> mismatches) {
+        IrFunction f = cfg.function;
+        String where = program + f.name + ": ";
+        BitSet[][] live = liveness(cfg);
+        BitSet[] liveIn = live[0];
+        BitSet[] liveOut = live[1];
+        Liveness liveness = Liveness.compute(cfg);
+        int[] buffer = new int[f.registerCount() + f.size()];
+        for (int b = 0; b < cfg.blockCount(); b++) {
+            if (!cfg.isReachable(b)) {
+                continue;
+            }
+            for (int r = 0; r < f.registerCount(); r++) {
+                if (liveness.isLiveIn(b, r) != liveIn[b].get(r) || liveness.isLiveOut(b, r) != liveOut[b].get(r)) {
+                    mismatches.add(where + "liveness of r" + r + " at block " + b);
+                }
+            }
+            if (!toBitSet(buffer, liveness.liveIn(b, buffer)).equals(liveIn[b])
+                    || !toBitSet(buffer, liveness.liveOut(b, buffer)).equals(liveOut[b])) {
+                mismatches.add(where + "live set listing of block " + b);
+            }
+        }
+
+        BitSet[] reachingIn = reaching(cfg);
+        ReachingDefinitions definitions = ReachingDefinitions.compute(cfg);
+        for (int b = 0; b < cfg.blockCount(); b++) {
+            if (!cfg.isReachable(b)) {
+                continue;
+            }
+            for (int i = 0; i < f.size(); i++) {
+                if (writes(f, i) && liveIn[b].get(f.dst(i))
+                        && definitions.reaches(i, b) != reachingIn[b].get(i)) {
+                    mismatches.add(where + "definition " + i + " reaching block " + b);
+                }
+            }
+            for (int r = 0; r < f.registerCount(); r++) {
+                if (!liveIn[b].get(r)) {
+                    continue;
+                }
+                BitSet expected = new BitSet();
+                for (int i = reachingIn[b].nextSetBit(0); i >= 0; i = reachingIn[b].nextSetBit(i + 1)) {
+                    if (f.dst(i) == r) {
+                        expected.set(i);
+                    }
+                }
+                if (!toBitSet(buffer, definitions.reachingIn(b, r, buffer)).equals(expected)) {
+                    mismatches.add(where + "definitions of r" + r + " reaching block " + b);
+                }
+            }
+        }
+
+        int[] expressionOf = new int[f.size()];
+        int expressions = numberExpressions(f, expressionOf);
+        BitSet[] availableIn = available(cfg, expressionOf, expressions);
+        AvailableExpressions available = AvailableExpressions.compute(cfg);
+        if (available.expressionCount() != expressions) {
+            mismatches.add(where + available.expressionCount() + " expressions, expected " + expressions);
+        }
+        for (int b = 0; b < cfg.blockCount(); b++) {
+            if (!cfg.isReachable(b)) {
+                continue;
+            }
+            for (int i = 0; i < f.size(); i++) {
+                if (expressionOf[i] >= 0 && operandsLive(f, i, liveIn[b])
+                        && available.isAvailableIn(b, i) != availableIn[b].get(expressionOf[i])) {
+                    mismatches.add(where + "expression of " + i + " available at block " + b);
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------- naive solvers
+
+    /** Live-in and live-out registers of every block; a phi operand is used at the end of its predecessor. */
+    private static BitSet[][] liveness(ControlFlowGraph cfg) {
+        IrFunction f = cfg.function;
+        int blocks = cfg.blockCount();
+        BitSet[] in = newSets(blocks, 0);
+        BitSet[] out = newSets(blocks, 0);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = blocks - 1; b >= 0; b--) {
+                if (!cfg.isReachable(b)) {
+                    continue;
+                }
+                BitSet exit = new BitSet();
+                for (int k = 0; k < cfg.successorCount(b); k++) {
+                    int s = cfg.successor(b, k);
+                    exit.or(in[s]);
+                    int index = cfg.predecessorIndexOfSuccessor(b, k);
+                    for (int i = cfg.start(s); i < cfg.end(s) && f.op(i) == Ir.PHI; i++) {
+                        if (Ir.isRegister(f.phiArg(i, index))) {
+                            exit.set(f.phiArg(i, index));
+                        }
+                    }
+                }
+                BitSet entry = (BitSet) exit.clone();
+                for (int i = cfg.end(b) - 1; i >= cfg.start(b); i--) {
+                    if (writes(f, i)) {
+                        entry.clear(f.dst(i));
+                    }
+                    if (f.op(i) == Ir.PHI) {
+                        continue;
+                    }
+                    for (int k = 0; k < f.operandCount(i); k++) {
+                        if (Ir.isRegister(f.operand(i, k))) {
+                            entry.set(f.operand(i, k));
+                        }
+                    }
+                }
+                if (!entry.equals(in[b]) || !exit.equals(out[b])) {
+                    in[b] = entry;
+                    out[b] = exit;
+                    changed = true;
+                }
+            }
+        }
+        return new BitSet[][] {in, out};
+    }
+
+    /** Instructions whose definition reaches the entry of every block, live or not. */
+    private static BitSet[] reaching(ControlFlowGraph cfg) {
+        IrFunction f = cfg.function;
+        int blocks = cfg.blockCount();
+        BitSet[] in = newSets(blocks, 0);
+        BitSet[] out = newSets(blocks, 0);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = 0; b < blocks; b++) {
+                if (!cfg.isReachable(b)) {
+                    continue;
+                }
+                BitSet entry = new BitSet();
+                for (int k = 0; k < cfg.predecessorCount(b); k++) {
+                    entry.or(out[cfg.predecessor(b, k)]);
+                }
+                BitSet exit = (BitSet) entry.clone();
+                for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                    if (!writes(f, i)) {
+                        continue;
+                    }
+                    for (int j = 0; j < f.size(); j++) {
+                        if (writes(f, j) && f.dst(j) == f.dst(i)) {
+                            exit.clear(j);
+                        }
+                    }
+                    exit.set(i);
+                }
+                if (!entry.equals(in[b]) || !exit.equals(out[b])) {
+                    in[b] = entry;
+                    out[b] = exit;
+                    changed = true;
+                }
+            }
+        }
+        return in;
+    }
+
+    /** Numbers the expressions by opcode, kind and operands as written; returns how many there are. */
+    private static int numberExpressions(IrFunction f, int[] expressionOf) {
+        Map<String, Integer> numbers = new HashMap<>();
+        for (int i = 0; i < f.size(); i++) {
+            int op = f.op(i);
+            expressionOf[i] = -1;
+            if ((op >= Ir.ADD && op <= Ir.NOT || Ir.isCompare(op) || op == Ir.CONV) && f.dst(i) >= 0) {
+                String key = op + " " + f.kind(i) + " " + f.a(i) + " " + f.b(i);
+                Integer number = numbers.get(key);
+                if (number == null) {
+                    number = numbers.size();
+                    numbers.put(key, number);
+                }
+                expressionOf[i] = number;
+            }
+        }
+        return numbers.size();
+    }
+
+    /** Expressions available on entry to every block, whether or not their operands are live. */
+    private static BitSet[] available(ControlFlowGraph cfg, int[] expressionOf, int expressions) {
+        IrFunction f = cfg.function;
+        int blocks = cfg.blockCount();
+        BitSet[] in = newSets(blocks, expressions);
+        BitSet[] out = newSets(blocks, expressions);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = 0; b < blocks; b++) {
+                if (!cfg.isReachable(b)) {
+                    continue;
+                }
+                BitSet entry = new BitSet();
+                if (b != 0) {
+                    entry.set(0, expressions);
+                }
+                for (int k = 0; k < cfg.predecessorCount(b); k++) {
+                    entry.and(out[cfg.predecessor(b, k)]);
+                }
+                BitSet exit = (BitSet) entry.clone();
+                for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                    if (expressionOf[i] >= 0) {
+                        exit.set(expressionOf[i]);
+                    }
+                    if (!writes(f, i)) {
+                        continue;
+                    }
+                    for (int j = 0; j < f.size(); j++) {
+                        if (expressionOf[j] >= 0 && reads(f, j, f.dst(i))) {
+                            exit.clear(expressionOf[j]);
+                        }
+                    }
+                }
+                if (!entry.equals(in[b]) || !exit.equals(out[b])) {
+                    in[b] = entry;
+                    out[b] = exit;
+                    changed = true;
+                }
+            }
+        }
+        return in;
+    }
+
+    // ------------------------------------------------------------- helpers
+
+    private static BitSet[] newSets(int count, int full) {
+        BitSet[] sets = new BitSet[count];
+        for (int b = 0; b < count; b++) {
+            sets[b] = new BitSet();
+            sets[b].set(0, full);
+        }
+        return sets;
+    }
+
+    private static BitSet toBitSet(int[] values, int count) {
+        BitSet set = new BitSet();
+        for (int k = 0; k < count; k++) {
+            set.set(values[k]);
+        }
+        return set;
+    }
+
+    private static boolean writes(IrFunction f, int i) {
+        return Ir.defines(f.op(i)) && f.dst(i) >= 0;
+    }
+
+    private static boolean reads(IrFunction f, int i, int r) {
+        for (int k = 0; k < f.operandCount(i); k++) {
+            if (f.operand(i, k) == r) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean operandsLive(IrFunction f, int i, BitSet live) {
+        for (int k = 0; k < f.operandCount(i); k++) {
+            if (Ir.isRegister(f.operand(i, k)) && !live.get(f.operand(i, k))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,121 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+/**
+ * Reports how many IR instructions {@link DeadStoreElimination} and then
+ * {@link DeadCodeElimination} remove from programs that have already been
+ * through {@link SsaBuilder}, {@link ConstantPropagation} and
+ * {@link ValueNumbering}, how many stores the first of them drops, and how
+ * long the two passes take.
+ *
+ * Usage: {@code DeadCodeBenchmark [file.c...]}; without arguments it uses
+ * examples/*.c and the programs of {@link #SAMPLES}.
+ */
+public class DeadCodeBenchmark {
+    private static final int ITERATIONS = 50;
+
+    /** Small programs with dead stores and dead code of the kinds the passes look for. */
+    static final String[][] SAMPLES = {
+        // fields and elements written and never read, one of them twice, and a store whose address escapes
+        {"dead-stores",
+            "struct P { int x; int y; };\n"
+            + "int g(int *q);\n"
+            + "int f(int n) {\n"
+            + "    struct P p;\n"
+            + "    int arr[4];\n"
+            + "    int k;\n"
+            + "    int unused = n * 3;\n"
+            + "    p.x = 1;\n"
+            + "    p.x = 2;\n"
+            + "    p.y = n;\n"
+            + "    arr[0] = 5;\n"
+            + "    arr[1] = 6;\n"
+            + "    k = 0;\n"
+            + "    while (k < n) { unused = unused + k; k = k + 1; }\n"
+            + "    int e;\n"
+            + "    e = 7;\n"
+            + "    g(&e);\n"
+            + "    return p.x + arr[n];\n"
+            + "}\n"},
+        // results computed and dropped next to gotos, nested switches and calls through pointers
+        {"mixed",
+            "int sq(int x) { return x * x; }\n"
+            + "int apply(int (*fn)(int), int v) { return fn(v); }\n"
+            + "int main() {\n"
+            + "    int (*fp)(int) = sq;\n"
+            + "    int n = 0, m;\n"
+            + "    char *s = \"abc\";\n"
+            + "    char c = 'z';\n"
+            + "    top:\n"
+            + "    n++;\n"
+            + "    if (n < 3) goto top;\n"
+            + "    switch (n) { case 3: switch (c) { case 'z': n = 10; break; } break; default: n = 0; }\n"
+            + "    m = apply(fp, n) + fp(2) + sizeof n + sizeof(s);\n"
+            + "    s = n ? s + 1 : (char *) 0;\n"
+            + "    c = c + 1;\n"
+            + "    m = s[1] - *s;\n"
+            + "    m = (s - s) + !s;\n"
+            + "    return m << 2 >> n;\n"
+            + "}\n"},
+    };
+
+    public static void main(String[] args) throws Exception {
+        int before = 0;
+        int after = 0;
+        List<String[]> programs = new ArrayList<>();
+        for (Workload program : args.length == 0 ? Workload.examples() : Workload.files(args)) {
+            programs.add(new String[] {program.name, program.source});
+        }
+        if (args.length == 0) {
+            programs.addAll(Arrays.asList(SAMPLES));
+        }
+        for (String[] program : programs) {
+            int[] counts = report(program[0], CharStreams.fromString(program[1]));
+            before += counts[0];
+            after += counts[2];
+        }
+        System.out.printf("%-24s %7d -> %7d (-%.1f%%)%n", "total", before, after, percent(before, after));
+    }
+
+    /** Instructions before, after dead store elimination and after dead code elimination, then stores removed. */
+    private static int[] report(String name, CharStream input) {
+        CParser parser = new CParser(new CommonTokenStream(new CLexer(input)));
+        TypeChecker checker = TypeChecker.check(NameResolver.resolve(AstLowering.lower(parser.translation_unit())));
+        int[] counts = new int[4];
+        long nanos = 0;
+        for (int round = 0; round < ITERATIONS; round++) {
+            int before = 0;
+            int stored = 0;
+            int stores = 0;
+            int after = 0;
+            for (IrFunction f : IrGenerator.generate(checker).getModule().getFunctions()) {
+                SsaBuilder.build(f);
+                ConstantPropagation.run(f);
+                ValueNumbering.run(f);
+                before += f.size();
+                long start = System.nanoTime();
+                stores += DeadStoreElimination.run(f);
+                stored += f.size();
+                DeadCodeElimination.run(f);
+                nanos += System.nanoTime() - start;
+                after += f.size();
+            }
+            counts[0] = before;
+            counts[1] = stored;
+            counts[2] = after;
+            counts[3] = stores;
+        }
+        System.out.printf("%-24s %7d -> %7d -> %7d (-%.1f%%, %d stores) %8d us%n", name, counts[0], counts[1],
+                counts[2], percent(counts[0], counts[2]), counts[3], nanos / 1000 / ITERATIONS);
+        return counts;
+    }
+
+    private static double percent(int before, int after) {
+        return before == 0 ? 0 : 100.0 * (before - after) / before;
+    }
+}
@@ -0,0 +1,89 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** Runs native programs for {@link NativeCompilerTest} and {@link NativeBenchmark}. */
+final class Executables {
+    private Executables() {
+    }
+
+    /** What a process printed and its exit status, with how long it took. */
+    static final class Result {
+        final String output;
+        final int status;
+        final long nanos;
+
+        Result(String output, int status, long nanos) {
+            this.output = output;
+            this.status = status;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Result && ((Result) o).output.equals(output) && ((Result) o).status == status;
+        }
+
+        @Override
+        public int hashCode() {
+            return output.hashCode() * 31 + status;
+        }
+
+        @Override
+        public String toString() {
+            return "exit " + status + ", " + output.replace("\n", "\\n");
+        }
+    }
+
+    /** Whether gcc can be run, and the code it links is the x86-64 {@link X64Generator} emits. */
+    static boolean gccAvailable() {
+        String arch = System.getProperty("os.arch");
+        if (!System.getProperty("os.name").startsWith("Linux") || !(arch.equals("amd64") || arch.equals("x86_64"))) {
+            return false;
+        }
+        try {
+            return run(null, "gcc", "--version").status == 0;
+        } catch (IOException | InterruptedException e) {
+            return false;
+        }
+    }
+
+    /** Runs {@code command} with {@code input} as its standard input, or none if null. */
+    static Result run(File input, String... command) throws IOException, InterruptedException {
+        ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true);
+        if (input != null) {
+            builder.redirectInput(input);
+        }
+        long start = System.nanoTime();
+        Process process = builder.start();
+        process.getOutputStream().close();
+        String output;
+        try (InputStream stdout = process.getInputStream()) {
+            output = new String(readAll(stdout), StandardCharsets.UTF_8);
+        }
+        int status = process.waitFor();
+        return new Result(output, status, System.nanoTime() - start);
+    }
+
+    /** Deletes {@code directory} and the files in it. */
+    static void delete(File directory) {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        int length = 0;
+        for (int n; (n = in.read(buffer, length, buffer.length - length)) > 0; ) {
+            length += n;
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.antlr.v4.runtime.CharStreams;
+
+/**
+ * Reports what {@link Inliner} saves at run time: how many IR instructions
+ * each program executes on {@link IrInterpreter} when built with
+ * {@code -O}, with the inliner left out and with it in. Both builds must
+ * print the same and return the same status; the exit status is 1 if any
+ * program differs.
+ *
+ * Usage: {@code InlineBenchmark [file.c...]}; without arguments it uses
+ * the programs of {@link Workload} on their interpreter inputs and the
+ * call-heavy programs of {@link #SAMPLES}.
+ */
+public class InlineBenchmark {
+    /** Small functions called from loops. */
+    static final Workload[] SAMPLES = {
+        // getters and setters of a struct, leaves the inliner always takes
+        Workload.sample("accessors",
+            "struct Point { int x; int y; };\n"
+            + "struct Point points[1000];\n"
+            + "int getX(struct Point *p) { return p->x; }\n"
+            + "int getY(struct Point *p) { return p->y; }\n"
+            + "void setX(struct Point *p, int x) { p->x = x; }\n"
+            + "void setY(struct Point *p, int y) { p->y = y; }\n"
+            + "int dot(struct Point *p, struct Point *q) { return getX(p) * getX(q) + getY(p) * getY(q); }\n"
+            + "int main() {\n"
+            + "    int i, r;\n"
+            + "    long s = 0;\n"
+            + "    for (i = 0; i < 1000; i++) { setX(&points[i], i); setY(&points[i], 1000 - i); }\n"
+            + "    for (r = 0; r < 20; r++)\n"
+            + "        for (i = 1; i < 1000; i++) {\n"
+            + "            s = s + dot(&points[i - 1], &points[i]);\n"
+            + "            setX(&points[i], getX(&points[i]) + 1);\n"
+            + "        }\n"
+            + "    printf(\"%ld\\n\", s);\n"
+            + "    return 0;\n"
+            + "}\n"),
+        // a non-leaf helper declared inline, and one too big to take
+        Workload.sample("helpers",
+            "int clamp(int v, int lo, int hi) { return v < lo ? lo : v > hi ? hi : v; }\n"
+            + "inline int mix(int a, int b) {\n"
+            + "    int t = clamp(a - b, -100, 100);\n"
+            + "    if (t < 0) t = -t;\n"
+            + "    return (a * 31 + b * 17 + t) & 1023;\n"
+            + "}\n"
+            + "int main() {\n"
+            + "    int i, h = 1;\n"
+            + "    for (i = 0; i < 100000; i++) h = mix(h, i) + clamp(i % 300, 10, 200);\n"
+            + "    printf(\"%d\\n\", h);\n"
+            + "    return 0;\n"
+            + "}\n"),
+    };
+
+    public static void main(String[] args) throws Exception {
+        List<Workload> programs = new ArrayList<>();
+        if (args.length == 0) {
+            programs.addAll(Arrays.asList(Workload.PROGRAMS));
+            programs.addAll(Arrays.asList(SAMPLES));
+        } else {
+            programs.addAll(Workload.files(args));
+        }
+        boolean failed = false;
+        for (Workload program : programs) {
+            IrModule without = Compiler.module(CharStreams.fromString(program.source), false);
+            Compiler.optimize(without, Inliner.class);
+            CountedRun before = CountedRun.of(without, program.interpreterInput);
+            CountedRun after = CountedRun.of(Compiler.module(CharStreams.fromString(program.source), true),
+                    program.interpreterInput);
+            if (!before.result.equals(after.result)) {
+                System.out.printf("%-24s MISMATCH%n  without: %s%n  with:    %s%n", program.name, before.result,
+                        after.result);
+                failed = true;
+                continue;
+            }
+            System.out.printf("%-24s %12d -> %12d instructions (%.2fx)%n", program.name, before.executed,
+                    after.executed, (double) before.executed / after.executed);
+        }
+        System.exit(failed ? 1 : 0);
+    }
+}
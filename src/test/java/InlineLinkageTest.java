@@ -0,0 +1,43 @@
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.junit.Test;
+
+/** Checks that {@link IrGenerator} gives functions the linkage C99 6.7.4 asks of inline definitions. */
+public class InlineLinkageTest {
+    private static final String SOURCE = "inline int sq(int x) { return x * x; }\n"
+            + "inline int cube(int x) { return x * x * x; }\n"
+            + "int cube(int x);\n"
+            + "extern inline int twice(int x) { return x + x; }\n"
+            + "inline int thrice(int x);\n"
+            + "extern int thrice(int x);\n"
+            + "inline int thrice(int x) { return 3 * x; }\n"
+            + "int plain(int x) { return x; }\n"
+            + "int main() { return sq(3) + cube(2) + twice(1) + thrice(1) + plain(0); }\n";
+
+    @Test
+    public void inlineDefinitionIsInternal() {
+        assertTrue(global("sq").isLocal());
+    }
+
+    @Test
+    public void declarationWithoutInlineMakesDefinitionExternal() {
+        assertFalse(global("cube").isLocal());
+    }
+
+    @Test
+    public void externMakesDefinitionExternal() {
+        assertFalse(global("twice").isLocal());
+        assertFalse(global("thrice").isLocal());
+    }
+
+    @Test
+    public void ordinaryDefinitionIsExternal() {
+        assertFalse(global("plain").isLocal());
+    }
+
+    private static IrModule.Global global(String name) {
+        return Compiler.module(CharStreams.fromString(SOURCE), false).getGlobal(name);
+    }
+}
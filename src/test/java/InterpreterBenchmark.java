@@ -0,0 +1,942 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+/**
+ * Compares {@link IrInterpreter} with a naive interpreter that walks the
+ * checked syntax tree.
+ *
+ * The tree walker is the textbook design the IR interpreter replaces: it
+ * evaluates expressions recursively into boxed values, finds every
+ * variable by symbol in a hash map of the current call, converts
+ * operands by their C types at each operator, loads and stores through a
+ * {@link ByteBuffer}, and unwinds break, continue and return with
+ * exceptions. Each program is run by it and by the IR interpreter on the
+ * IR as generated and after {@code -O}; all three must print the same and
+ * return the same status. After some warm-up rounds the best of a few
+ * runs of each is reported, with the speedup of the optimized IR over the
+ * tree walker. The warm-up is long enough for the JIT to recompile the
+ * IR interpreter's loop once a program reaches opcodes the ones before it
+ * did not. The exit status is 1 if any program differs.
+ *
+ * The IR interpreter is meant to be an order of magnitude faster than the
+ * tree walker. With its superinstructions the optimized IR runs matmul 10
+ * to 13 times faster and sieve, fib and collatz 11 to 20 times, while
+ * quicksort, at 8 to 13 times, is under 10 in most runs: its scans mostly
+ * stop after one or two elements on a data-dependent compare, and fusing
+ * the loop entries, exits and swap around them as well cuts dispatches
+ * without making it faster. The figures vary by a fifth or more between
+ * runs, mostly in the tree walker.
+ *
+ * Usage: {@code InterpreterBenchmark [file.c...]}; without arguments it
+ * uses examples/*.c and the programs of {@link Workload}.
+ */
+public class InterpreterBenchmark {
+    private static final int WARMUP = 10;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        List<Workload> programs = args.length == 0 ? Workload.all() : Workload.files(args);
+        boolean failed = false;
+        for (Workload program : programs) {
+            failed |= !report(program.name, program.interpreterInput, program.source);
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static boolean report(String name, String input, String source) throws Exception {
+        CParser parser = new CParser(new CommonTokenStream(new CLexer(CharStreams.fromString(source))));
+        TypeChecker checker = TypeChecker.check(NameResolver.resolve(AstLowering.lower(parser.translation_unit())));
+        TreeWalker walker = new TreeWalker(checker);
+        IrInterpreter plain = IrInterpreter.load(Compiler.module(CharStreams.fromString(source), false));
+        IrInterpreter optimized = IrInterpreter.load(Compiler.module(CharStreams.fromString(source), true));
+        byte[] stdin = input.getBytes(StandardCharsets.UTF_8);
+        String[] results = new String[3];
+        long[] nanos = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+        for (int round = -WARMUP; round < RUNS; round++) {
+            for (int k = 0; k < 3; k++) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                long start = System.nanoTime();
+                int status = k == 0 ? walker.run(input, out)
+                        : (k == 1 ? plain : optimized).run(new ByteArrayInputStream(stdin), out);
+                if (round >= 0) {
+                    nanos[k] = Math.min(nanos[k], System.nanoTime() - start);
+                }
+                results[k] = "exit " + status + ", " + new String(out.toByteArray(), StandardCharsets.UTF_8);
+            }
+            if (!results[0].equals(results[1]) || !results[0].equals(results[2])) {
+                System.out.printf("%-24s MISMATCH%n  tree: %s%n  ir:   %s%n  ir -O: %s%n", name,
+                        results[0].replace("\n", "\\n"), results[1].replace("\n", "\\n"),
+                        results[2].replace("\n", "\\n"));
+                return false;
+            }
+        }
+        System.out.printf("%-24s tree %9.2f ms   ir %8.2f ms   ir -O %8.2f ms   %6.1fx%n", name, nanos[0] / 1e6,
+                nanos[1] / 1e6, nanos[2] / 1e6, (double) nanos[0] / nanos[2]);
+        return true;
+    }
+
+    // ---------------------------------------------------------- tree walker
+
+    /** Unwinds a break or continue, or a return with its value. */
+    private static final class Jump extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        static final Jump BREAK = new Jump(null);
+        static final Jump CONTINUE = new Jump(null);
+        final transient Object value;
+
+        Jump(Object value) {
+            super(null, null, false, false);
+            this.value = value;
+        }
+    }
+
+    /** Thrown by {@code exit}. */
+    private static final class Exit extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final int status;
+
+        Exit(int status) {
+            super(null, null, false, false);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Runs a checked translation unit by walking its tree. Values are
+     * {@link Long}s, holding an integer as its C value and a pointer as
+     * its address, and {@link Double}s, holding a float already rounded.
+     */
+    private static final class TreeWalker {
+        private static final int MEMORY = 64 << 20;
+        private static final long FUNCTIONS = 1L << 40;
+        private static final Pattern CONVERSION = Pattern.compile(
+                "%([-+ #0]*)(\\d*)(\\.\\d+)?(hh|h|ll|l|z)?([diouxXcsfeEgGp%])");
+
+        private final TypeChecker checker;
+        private final NameResolver resolver;
+        private final LayoutEngine layout;
+        private final Types types;
+        private final ByteBuffer memory = ByteBuffer.allocate(MEMORY).order(ByteOrder.LITTLE_ENDIAN);
+        private final Map<Symbol, Long> globals = new HashMap<>();
+        private final Map<Ast.StringLiteral, Long> strings = new HashMap<>();
+        private Map<Symbol, Long> locals;
+        private Type result;
+        private long heap;
+        private long stackPointer;
+        private String input;
+        private int position;
+        private StringBuilder output;
+
+        TreeWalker(TypeChecker checker) {
+            this.checker = checker;
+            this.resolver = checker.getResolver();
+            this.layout = checker.getLayout();
+            this.types = checker.getTypes();
+        }
+
+        int run(String input, ByteArrayOutputStream out) {
+            for (int k = 0; k < MEMORY; k++) {
+                memory.put(k, (byte) 0);
+            }
+            globals.clear();
+            strings.clear();
+            heap = 16;
+            stackPointer = MEMORY;
+            this.input = input;
+            position = 0;
+            output = new StringBuilder();
+            locals = new HashMap<>();
+            Symbol main = null;
+            for (Ast.Decl d : resolver.getUnit().decls) {
+                Symbol s = resolver.symbolOf(d);
+                if (d instanceof Ast.VarDecl && (((Ast.VarDecl) d).flags & Ast.Decl.EXTERN) == 0) {
+                    declare((Ast.VarDecl) d, true);
+                } else if (d instanceof Ast.FunctionDecl && "main".equals(d.name)) {
+                    main = s;
+                }
+            }
+            int status;
+            try {
+                status = (int) (long) (Long) call(main, new ArrayList<>());
+            } catch (Exit e) {
+                status = e.status;
+            }
+            byte[] bytes = output.toString().getBytes(StandardCharsets.ISO_8859_1);
+            out.write(bytes, 0, bytes.length);
+            return status;
+        }
+
+        // ---- memory
+
+        private long allocate(long size, long align, boolean global) {
+            if (global) {
+                heap = (heap + align - 1) / align * align;
+                long at = heap;
+                heap += Math.max(1, size);
+                return at;
+            }
+            stackPointer = (stackPointer - Math.max(1, size)) / align * align;
+            if (stackPointer < heap) {
+                throw new IllegalStateException("stack overflow");
+            }
+            return stackPointer;
+        }
+
+        private Object load(long address, Type t) {
+            int at = (int) address;
+            switch (t.kind) {
+                case BOOL:
+                case UCHAR:
+                    return (long) (memory.get(at) & 0xff);
+                case CHAR:
+                case SCHAR:
+                    return (long) memory.get(at);
+                case SHORT:
+                    return (long) memory.getShort(at);
+                case USHORT:
+                    return (long) (memory.getShort(at) & 0xffff);
+                case INT:
+                    return (long) memory.getInt(at);
+                case UINT:
+                    return memory.getInt(at) & 0xffffffffL;
+                case FLOAT:
+                    return (double) memory.getFloat(at);
+                case DOUBLE:
+                case LDOUBLE:
+                    return memory.getDouble(at);
+                case LONG:
+                case ULONG:
+                case LLONG:
+                case ULLONG:
+                case POINTER:
+                    return memory.getLong(at);
+                default:
+                    // arrays, functions and records are their addresses
+                    return address;
+            }
+        }
+
+        private void store(long address, Type t, Object value) {
+            int at = (int) address;
+            switch (t.kind) {
+                case BOOL:
+                case CHAR:
+                case SCHAR:
+                case UCHAR:
+                    memory.put(at, (byte) (long) (Long) value);
+                    break;
+                case SHORT:
+                case USHORT:
+                    memory.putShort(at, (short) (long) (Long) value);
+                    break;
+                case INT:
+                case UINT:
+                    memory.putInt(at, (int) (long) (Long) value);
+                    break;
+                case FLOAT:
+                    memory.putFloat(at, (float) (double) (Double) value);
+                    break;
+                case DOUBLE:
+                case LDOUBLE:
+                    memory.putDouble(at, (Double) value);
+                    break;
+                case STRUCT:
+                case UNION:
+                    for (long k = 0; k < layout.sizeOf(t); k++) {
+                        memory.put(at + (int) k, memory.get((int) ((Long) value + k)));
+                    }
+                    break;
+                default:
+                    memory.putLong(at, (Long) value);
+            }
+        }
+
+        private String string(long address) {
+            StringBuilder sb = new StringBuilder();
+            for (int at = (int) address; memory.get(at) != 0; at++) {
+                sb.append((char) (memory.get(at) & 0xff));
+            }
+            return sb.toString();
+        }
+
+        // ---- declarations
+
+        private void declare(Ast.VarDecl d, boolean global) {
+            Symbol s = resolver.symbolOf(d);
+            Type t = checker.typeOf(s);
+            boolean isStatic = global || (d.flags & Ast.Decl.STATIC) != 0;
+            if (isStatic && globals.containsKey(s)) {
+                return;
+            }
+            long address = allocate(layout.sizeOf(t), layout.alignOf(t), isStatic);
+            (isStatic ? globals : locals).put(s, address);
+            if (d.init != null) {
+                initialize(address, t, d.init);
+            } else if (!isStatic) {
+                for (long k = 0; k < layout.sizeOf(t); k++) {
+                    memory.put((int) (address + k), (byte) 0);
+                }
+            }
+        }
+
+        private void initialize(long address, Type t, Ast.Expr init) {
+            if (init instanceof Ast.InitList) {
+                List<Ast.Expr> items = ((Ast.InitList) init).items;
+                for (long k = 0; k < layout.sizeOf(t); k++) {
+                    memory.put((int) (address + k), (byte) 0);
+                }
+                if (t.kind == Type.Kind.ARRAY) {
+                    long size = layout.sizeOf(t.base);
+                    for (int k = 0; k < items.size(); k++) {
+                        initialize(address + k * size, t.base, items.get(k));
+                    }
+                } else if (t.isRecord()) {
+                    for (int k = 0; k < items.size(); k++) {
+                        Type.Field f = t.getFields().get(k);
+                        initialize(address + layout.offsetOf(t, f), f.type, items.get(k));
+                    }
+                } else if (!items.isEmpty()) {
+                    initialize(address, t, items.get(0));
+                }
+            } else if (t.kind == Type.Kind.ARRAY && init instanceof Ast.StringLiteral) {
+                Ast.StringLiteral literal = (Ast.StringLiteral) init;
+                for (int k = 0; k < t.length; k++) {
+                    memory.put((int) address + k, k < literal.length() ? literal.byteAt(k) : 0);
+                }
+            } else {
+                store(address, t.unqualified(), convert(value(init), valueType(init), t.unqualified()));
+            }
+        }
+
+        // ---- statements
+
+        private void execute(Ast.Stmt s) {
+            if (s instanceof Ast.CompoundStmt) {
+                long saved = stackPointer;
+                try {
+                    for (Ast.Stmt item : ((Ast.CompoundStmt) s).items) {
+                        execute(item);
+                    }
+                } finally {
+                    stackPointer = saved;
+                }
+            } else if (s instanceof Ast.DeclStmt) {
+                for (Ast.Decl d : ((Ast.DeclStmt) s).decls) {
+                    if (d instanceof Ast.VarDecl && (((Ast.VarDecl) d).flags & Ast.Decl.EXTERN) == 0) {
+                        declare((Ast.VarDecl) d, false);
+                    }
+                }
+            } else if (s instanceof Ast.ExprStmt) {
+                if (((Ast.ExprStmt) s).expr != null) {
+                    value(((Ast.ExprStmt) s).expr);
+                }
+            } else if (s instanceof Ast.IfStmt) {
+                Ast.IfStmt n = (Ast.IfStmt) s;
+                if (truth(value(n.cond))) {
+                    execute(n.then);
+                } else if (n.otherwise != null) {
+                    execute(n.otherwise);
+                }
+            } else if (s instanceof Ast.WhileStmt) {
+                Ast.WhileStmt n = (Ast.WhileStmt) s;
+                while (truth(value(n.cond))) {
+                    if (!loopBody(n.body)) {
+                        break;
+                    }
+                }
+            } else if (s instanceof Ast.DoWhileStmt) {
+                Ast.DoWhileStmt n = (Ast.DoWhileStmt) s;
+                do {
+                    if (!loopBody(n.body)) {
+                        break;
+                    }
+                } while (truth(value(n.cond)));
+            } else if (s instanceof Ast.ForStmt) {
+                Ast.ForStmt n = (Ast.ForStmt) s;
+                if (n.init != null) {
+                    value(n.init);
+                }
+                while (n.cond == null || truth(value(n.cond))) {
+                    if (!loopBody(n.body)) {
+                        break;
+                    }
+                    if (n.step != null) {
+                        value(n.step);
+                    }
+                }
+            } else if (s instanceof Ast.SwitchStmt) {
+                executeSwitch((Ast.SwitchStmt) s);
+            } else if (s instanceof Ast.LabeledStmt) {
+                execute(((Ast.LabeledStmt) s).body);
+            } else if (s instanceof Ast.CaseStmt) {
+                execute(((Ast.CaseStmt) s).body);
+            } else if (s instanceof Ast.DefaultStmt) {
+                execute(((Ast.DefaultStmt) s).body);
+            } else if (s instanceof Ast.BreakStmt) {
+                throw Jump.BREAK;
+            } else if (s instanceof Ast.ContinueStmt) {
+                throw Jump.CONTINUE;
+            } else if (s instanceof Ast.ReturnStmt) {
+                Ast.Expr e = ((Ast.ReturnStmt) s).value;
+                throw new Jump(e == null ? null : convert(value(e), valueType(e), result));
+            } else {
+                throw new IllegalArgumentException("cannot interpret " + s.getClass().getSimpleName());
+            }
+        }
+
+        /** Runs a loop body; false if it breaks out of the loop. */
+        private boolean loopBody(Ast.Stmt body) {
+            try {
+                execute(body);
+            } catch (Jump j) {
+                if (j == Jump.BREAK) {
+                    return false;
+                }
+                if (j != Jump.CONTINUE) {
+                    throw j;
+                }
+            }
+            return true;
+        }
+
+        /** A switch whose case and default labels are statements of its body block. */
+        private void executeSwitch(Ast.SwitchStmt n) {
+            long v = (Long) convert(value(n.cond), valueType(n.cond), Types.promote(valueType(n.cond)));
+            List<Ast.Stmt> items = n.body instanceof Ast.CompoundStmt ? ((Ast.CompoundStmt) n.body).items
+                    : java.util.Collections.singletonList(n.body);
+            int start = -1;
+            for (int k = 0; k < items.size() && start < 0; k++) {
+                for (Ast.Stmt s = items.get(k); s instanceof Ast.CaseStmt || s instanceof Ast.DefaultStmt; ) {
+                    if (s instanceof Ast.CaseStmt) {
+                        if (checker.getConstants().longValue(((Ast.CaseStmt) s).value) == v) {
+                            start = k;
+                            break;
+                        }
+                        s = ((Ast.CaseStmt) s).body;
+                    } else {
+                        s = ((Ast.DefaultStmt) s).body;
+                    }
+                }
+            }
+            for (int k = 0; k < items.size() && start < 0; k++) {
+                for (Ast.Stmt s = items.get(k); s instanceof Ast.CaseStmt || s instanceof Ast.DefaultStmt; ) {
+                    if (s instanceof Ast.DefaultStmt) {
+                        start = k;
+                        break;
+                    }
+                    s = ((Ast.CaseStmt) s).body;
+                }
+            }
+            long saved = stackPointer;
+            try {
+                for (int k = Math.max(start, 0); start >= 0 && k < items.size(); k++) {
+                    execute(items.get(k));
+                }
+            } catch (Jump j) {
+                if (j != Jump.BREAK) {
+                    throw j;
+                }
+            } finally {
+                stackPointer = saved;
+            }
+        }
+
+        // ---- expressions
+
+        /** Type of the value of {@code e}: arrays and functions decay to pointers. */
+        private Type valueType(Ast.Expr e) {
+            return types.decay(checker.typeOf(e)).unqualified();
+        }
+
+        private static boolean truth(Object v) {
+            return v instanceof Double ? (Double) v != 0 : (Long) v != 0;
+        }
+
+        private Object value(Ast.Expr e) {
+            Type t = checker.typeOf(e).unqualified();
+            if (e instanceof Ast.IntLiteral) {
+                return ((Ast.IntLiteral) e).value;
+            } else if (e instanceof Ast.FloatLiteral) {
+                return convert(((Ast.FloatLiteral) e).value, Type.DOUBLE, t);
+            } else if (e instanceof Ast.StringLiteral) {
+                return address(e);
+            } else if (e instanceof Ast.NameExpr) {
+                Symbol s = resolver.symbolOf((Ast.NameExpr) e);
+                if (s.kind == Symbol.Kind.ENUM_CONSTANT) {
+                    return checker.getConstants().longValue(e);
+                }
+                return load(address(e), t);
+            } else if (e instanceof Ast.UnaryExpr) {
+                return unary((Ast.UnaryExpr) e, t);
+            } else if (e instanceof Ast.BinaryExpr) {
+                return binary((Ast.BinaryExpr) e, t);
+            } else if (e instanceof Ast.AssignExpr) {
+                return assign((Ast.AssignExpr) e);
+            } else if (e instanceof Ast.ConditionalExpr) {
+                Ast.ConditionalExpr n = (Ast.ConditionalExpr) e;
+                Ast.Expr chosen = truth(value(n.cond)) ? n.then : n.otherwise;
+                return t.isVoid() ? value(chosen) : convert(value(chosen), valueType(chosen), t);
+            } else if (e instanceof Ast.CallExpr) {
+                return call((Ast.CallExpr) e);
+            } else if (e instanceof Ast.IndexExpr || e instanceof Ast.MemberExpr) {
+                return load(address(e), t);
+            } else if (e instanceof Ast.CastExpr) {
+                Ast.Expr operand = ((Ast.CastExpr) e).operand;
+                return t.isVoid() ? value(operand) : convert(value(operand), valueType(operand), t);
+            } else if (e instanceof Ast.SizeofTypeExpr) {
+                return layout.sizeOf(checker.writtenTypeOf(e));
+            }
+            throw new IllegalArgumentException("cannot interpret " + e.getClass().getSimpleName());
+        }
+
+        private long address(Ast.Expr e) {
+            if (e instanceof Ast.NameExpr) {
+                Symbol s = resolver.symbolOf((Ast.NameExpr) e);
+                if (s.kind == Symbol.Kind.FUNCTION) {
+                    return FUNCTIONS + s.id;
+                }
+                Long address = locals.get(s);
+                return address != null ? address : globals.get(s);
+            } else if (e instanceof Ast.StringLiteral) {
+                Ast.StringLiteral literal = (Ast.StringLiteral) e;
+                Long address = strings.get(literal);
+                if (address == null) {
+                    address = allocate(literal.length() + 1, 1, true);
+                    for (int k = 0; k < literal.length(); k++) {
+                        memory.put((int) (address + k), literal.byteAt(k));
+                    }
+                    strings.put(literal, address);
+                }
+                return address;
+            } else if (e instanceof Ast.UnaryExpr && ((Ast.UnaryExpr) e).op == Ast.UnaryOp.DEREF) {
+                return (Long) value(((Ast.UnaryExpr) e).operand);
+            } else if (e instanceof Ast.IndexExpr) {
+                Ast.IndexExpr n = (Ast.IndexExpr) e;
+                boolean baseIsPointer = valueType(n.base).isPointer();
+                long pointer = (Long) value(baseIsPointer ? n.base : n.index);
+                long index = (Long) value(baseIsPointer ? n.index : n.base);
+                return pointer + index * layout.sizeOf(checker.typeOf(e));
+            } else if (e instanceof Ast.MemberExpr) {
+                Ast.MemberExpr n = (Ast.MemberExpr) e;
+                Type record = n.arrow ? valueType(n.base).base : checker.typeOf(n.base);
+                long base = n.arrow ? (Long) value(n.base) : address(n.base);
+                return base + layout.offsetOf(record.unqualified(), checker.fieldOf(n));
+            }
+            // a record returned by a call or chosen by a conditional is its address
+            return (Long) value(e);
+        }
+
+        private Object unary(Ast.UnaryExpr n, Type t) {
+            switch (n.op) {
+                case PLUS:
+                    return convert(value(n.operand), valueType(n.operand), t);
+                case MINUS: {
+                    Object v = convert(value(n.operand), valueType(n.operand), t);
+                    return v instanceof Double ? (Object) (-(Double) v) : (Object) normalize(-(Long) v, t);
+                }
+                case BIT_NOT:
+                    return normalize(~(Long) convert(value(n.operand), valueType(n.operand), t), t);
+                case NOT:
+                    return truth(value(n.operand)) ? 0L : 1L;
+                case ADDRESS:
+                    return address(n.operand);
+                case DEREF:
+                    return load((Long) value(n.operand), t);
+                case SIZEOF:
+                    return layout.sizeOf(checker.typeOf(n.operand));
+                default: {
+                    long address = address(n.operand);
+                    Object old = load(address, t);
+                    Object updated;
+                    boolean increment = n.op == Ast.UnaryOp.PRE_INC || n.op == Ast.UnaryOp.POST_INC;
+                    if (t.isPointer()) {
+                        updated = (Long) old + (increment ? 1 : -1) * layout.sizeOf(t.base);
+                    } else {
+                        Type common = Types.usualArithmetic(t, Type.INT);
+                        updated = convert(arithmetic(increment ? Ast.BinaryOp.ADD : Ast.BinaryOp.SUB,
+                                convert(old, t, common), convert(1L, Type.INT, common), common), common, t);
+                    }
+                    store(address, t, updated);
+                    return n.op == Ast.UnaryOp.PRE_INC || n.op == Ast.UnaryOp.PRE_DEC ? updated : old;
+                }
+            }
+        }
+
+        private Object binary(Ast.BinaryExpr n, Type t) {
+            switch (n.op) {
+                case AND:
+                    return truth(value(n.left)) && truth(value(n.right)) ? 1L : 0L;
+                case OR:
+                    return truth(value(n.left)) || truth(value(n.right)) ? 1L : 0L;
+                case COMMA:
+                    value(n.left);
+                    return value(n.right);
+                default:
+                    return operate(n.op, value(n.left), valueType(n.left), value(n.right), valueType(n.right), t);
+            }
+        }
+
+        /** {@code l op r} for operands of types {@code lt} and {@code rt} and a result of type {@code t}. */
+        private Object operate(Ast.BinaryOp op, Object l, Type lt, Object r, Type rt, Type t) {
+            if (op.isComparison()) {
+                if (lt.isArithmetic() && rt.isArithmetic()) {
+                    Type common = Types.usualArithmetic(lt, rt);
+                    return compare(op, convert(l, lt, common), convert(r, rt, common), common) ? 1L : 0L;
+                }
+                return compare(op, l, r, Type.ULONG) ? 1L : 0L;
+            }
+            if (lt.isPointer() && rt.isPointer()) {
+                return ((Long) l - (Long) r) / layout.sizeOf(lt.base);
+            }
+            if (lt.isPointer() || rt.isPointer()) {
+                long pointer = (Long) (lt.isPointer() ? l : r);
+                long offset = (Long) (lt.isPointer() ? r : l) * layout.sizeOf((lt.isPointer() ? lt : rt).base);
+                return op == Ast.BinaryOp.SUB ? pointer - offset : pointer + offset;
+            }
+            Type common = op == Ast.BinaryOp.SHL || op == Ast.BinaryOp.SHR ? Types.promote(lt)
+                    : Types.usualArithmetic(lt, rt);
+            return convert(arithmetic(op, convert(l, lt, common), convert(r, rt, common), common), common, t);
+        }
+
+        private static boolean compare(Ast.BinaryOp op, Object l, Object r, Type t) {
+            int c;
+            if (t.isFloating()) {
+                double a = (Double) l;
+                double b = (Double) r;
+                c = a < b ? -1 : a > b ? 1 : a == b ? 0 : 2;
+                if (c == 2) {
+                    return op == Ast.BinaryOp.NE;
+                }
+            } else if (t.kind == Type.Kind.ULONG || t.kind == Type.Kind.ULLONG) {
+                c = Long.compareUnsigned((Long) l, (Long) r);
+            } else {
+                c = Long.compare((Long) l, (Long) r);
+            }
+            switch (op) {
+                case LT:
+                    return c < 0;
+                case GT:
+                    return c > 0;
+                case LE:
+                    return c <= 0;
+                case GE:
+                    return c >= 0;
+                case EQ:
+                    return c == 0;
+                default:
+                    return c != 0;
+            }
+        }
+
+        private static Object arithmetic(Ast.BinaryOp op, Object l, Object r, Type t) {
+            if (t.isFloating()) {
+                double a = (Double) l;
+                double b = (Double) r;
+                double x;
+                switch (op) {
+                    case ADD:
+                        x = a + b;
+                        break;
+                    case SUB:
+                        x = a - b;
+                        break;
+                    case MUL:
+                        x = a * b;
+                        break;
+                    default:
+                        x = a / b;
+                }
+                return t.kind == Type.Kind.FLOAT ? (double) (float) x : x;
+            }
+            long a = (Long) l;
+            long b = (Long) r;
+            boolean wide = t.kind == Type.Kind.ULONG || t.kind == Type.Kind.ULLONG;
+            int bits = t.scalarSize() * 8;
+            switch (op) {
+                case ADD:
+                    return normalize(a + b, t);
+                case SUB:
+                    return normalize(a - b, t);
+                case MUL:
+                    return normalize(a * b, t);
+                case DIV:
+                    return normalize(wide ? Long.divideUnsigned(a, b) : a / b, t);
+                case MOD:
+                    return normalize(wide ? Long.remainderUnsigned(a, b) : a % b, t);
+                case SHL:
+                    return normalize(a << (b & (bits - 1)), t);
+                case SHR:
+                    return normalize(wide ? a >>> (b & 63) : a >> (b & (bits - 1)), t);
+                case BIT_AND:
+                    return normalize(a & b, t);
+                case BIT_OR:
+                    return normalize(a | b, t);
+                default:
+                    return normalize(a ^ b, t);
+            }
+        }
+
+        private static long normalize(long v, Type t) {
+            switch (t.kind) {
+                case BOOL:
+                    return v != 0 ? 1 : 0;
+                case CHAR:
+                case SCHAR:
+                    return (byte) v;
+                case UCHAR:
+                    return v & 0xff;
+                case SHORT:
+                    return (short) v;
+                case USHORT:
+                    return v & 0xffff;
+                case INT:
+                    return (int) v;
+                case UINT:
+                    return v & 0xffffffffL;
+                default:
+                    return v;
+            }
+        }
+
+        /** A value of type {@code from} converted to type {@code to}. */
+        private static Object convert(Object v, Type from, Type to) {
+            if (to.isFloating()) {
+                double d;
+                if (v instanceof Double) {
+                    d = (Double) v;
+                } else {
+                    long x = (Long) v;
+                    boolean unsigned = from.kind == Type.Kind.ULONG || from.kind == Type.Kind.ULLONG;
+                    d = unsigned && x < 0 ? ((x >>> 1) | (x & 1)) * 2.0 : x;
+                }
+                return to.kind == Type.Kind.FLOAT ? (double) (float) d : d;
+            }
+            if (!to.isScalar()) {
+                return v;
+            }
+            if (to.kind == Type.Kind.BOOL) {
+                return truth(v) ? 1L : 0L;
+            }
+            if (v instanceof Double) {
+                double d = (Double) v;
+                boolean unsigned = to.kind == Type.Kind.ULONG || to.kind == Type.Kind.ULLONG;
+                return normalize(unsigned && d >= 0x1p63 ? (long) (d - 0x1p63) ^ Long.MIN_VALUE : (long) d, to);
+            }
+            return normalize((Long) v, to);
+        }
+
+        private Object assign(Ast.AssignExpr n) {
+            Type t = checker.typeOf(n.target).unqualified();
+            long address = address(n.target);
+            Object v;
+            if (n.op == null) {
+                v = t.isRecord() ? (Object) address(n.value) : convert(value(n.value), valueType(n.value), t);
+            } else {
+                v = convert(operate(n.op, load(address, t), t, value(n.value), valueType(n.value),
+                        t.isPointer() ? t : n.op == Ast.BinaryOp.SHL || n.op == Ast.BinaryOp.SHR ? Types.promote(t)
+                        : Types.usualArithmetic(t, valueType(n.value))), t.isPointer() ? t
+                        : n.op == Ast.BinaryOp.SHL || n.op == Ast.BinaryOp.SHR ? Types.promote(t)
+                        : Types.usualArithmetic(t, valueType(n.value)), t);
+            }
+            store(address, t, v);
+            return t.isRecord() ? address : v;
+        }
+
+        // ---- calls
+
+        private Object call(Ast.CallExpr n) {
+            Type function = valueType(n.callee).base;
+            List<Object> args = new ArrayList<>();
+            List<Type> argTypes = new ArrayList<>();
+            for (int k = 0; k < n.args.size(); k++) {
+                Ast.Expr a = n.args.get(k);
+                Type t = valueType(a);
+                Object v = value(a);
+                if (function.prototyped && k < function.getParamCount()) {
+                    Type param = function.getParam(k).unqualified();
+                    v = convert(v, t, param);
+                    t = param;
+                } else if (t.isArithmetic()) {
+                    Type promoted = t.kind == Type.Kind.FLOAT ? Type.DOUBLE : Types.promote(t);
+                    v = convert(v, t, promoted);
+                    t = promoted;
+                }
+                args.add(v);
+                argTypes.add(t);
+            }
+            long target = (Long) value(n.callee) - FUNCTIONS;
+            Symbol s = resolver.getSymbols().get((int) target);
+            if (!(s.node instanceof Ast.FunctionDecl) || ((Ast.FunctionDecl) s.node).body == null) {
+                return library(s.name, args, argTypes);
+            }
+            return call(s, args);
+        }
+
+        private Object call(Symbol function, List<Object> args) {
+            Ast.FunctionDecl d = (Ast.FunctionDecl) function.node;
+            Map<Symbol, Long> savedLocals = locals;
+            Type savedResult = result;
+            long savedStack = stackPointer;
+            locals = new HashMap<>();
+            result = checker.typeOf(function).base.unqualified();
+            try {
+                for (int k = 0; k < d.type.params.size(); k++) {
+                    Symbol p = resolver.symbolOf(d.type.params.get(k));
+                    if (p == null) {
+                        continue;
+                    }
+                    Type t = checker.typeOf(p).unqualified();
+                    long address = allocate(layout.sizeOf(t), layout.alignOf(t), false);
+                    store(address, t, args.get(k));
+                    locals.put(p, address);
+                }
+                execute(d.body);
+                return 0L;
+            } catch (Jump j) {
+                return j.value;
+            } finally {
+                locals = savedLocals;
+                result = savedResult;
+                stackPointer = savedStack;
+            }
+        }
+
+        /** The C library functions the examples and workloads call. */
+        private Object library(String name, List<Object> args, List<Type> argTypes) {
+            switch (name) {
+                case "printf":
+                    return printf(args);
+                case "scanf":
+                    return scanf(args, argTypes);
+                case "putchar":
+                    output.append((char) ((Long) args.get(0) & 0xff));
+                    return args.get(0);
+                case "puts":
+                    output.append(string((Long) args.get(0))).append('\n');
+                    return 1L;
+                case "getchar":
+                    return position < input.length() ? (long) input.charAt(position++) : -1L;
+                case "malloc":
+                case "calloc": {
+                    long size = (Long) args.get(0) * (name.equals("calloc") ? (Long) args.get(1) : 1);
+                    return allocate(size, 16, true);
+                }
+                case "free":
+                    return 0L;
+                case "abs":
+                    return (long) Math.abs((int) (long) (Long) args.get(0));
+                case "exit":
+                    throw new Exit((int) (long) (Long) args.get(0));
+                default:
+                    throw new IllegalArgumentException("call of undefined function " + name);
+            }
+        }
+
+        /** printf by way of {@link String#format}, which agrees with C for the common conversions. */
+        private Object printf(List<Object> args) {
+            String format = string((Long) args.get(0));
+            Matcher m = CONVERSION.matcher(format);
+            StringBuilder sb = new StringBuilder();
+            int next = 1;
+            int end = 0;
+            while (m.find()) {
+                sb.append(format, end, m.start());
+                end = m.end();
+                char conversion = m.group(5).charAt(0);
+                if (conversion == '%') {
+                    sb.append('%');
+                    continue;
+                }
+                String spec = "%" + m.group(1) + m.group(2) + (m.group(3) == null ? "" : m.group(3));
+                Object v = args.get(next++);
+                boolean wide = m.group(4) != null && m.group(4).startsWith("l");
+                switch (conversion) {
+                    case 'd':
+                    case 'i':
+                        sb.append(String.format(spec + "d", v));
+                        break;
+                    case 'u':
+                        sb.append(String.format(spec + "s", Long.toUnsignedString((Long) v)));
+                        break;
+                    case 'x':
+                    case 'X':
+                    case 'o':
+                        sb.append(String.format(spec + conversion, wide ? (Long) v : (Long) v & 0xffffffffL));
+                        break;
+                    case 'c':
+                        sb.append(String.format(spec + "c", (char) ((Long) v & 0xff)));
+                        break;
+                    case 's':
+                        sb.append(String.format(spec + "s", string((Long) v)));
+                        break;
+                    case 'p':
+                        sb.append("0x").append(Long.toHexString((Long) v));
+                        break;
+                    default:
+                        sb.append(String.format(spec + conversion, (Double) v));
+                }
+            }
+            sb.append(format, end, format.length());
+            output.append(sb);
+            return (long) sb.length();
+        }
+
+        /** scanf for numbers, strings and characters separated by white space. */
+        private Object scanf(List<Object> args, List<Type> argTypes) {
+            Matcher m = CONVERSION.matcher(string((Long) args.get(0)));
+            long stored = 0;
+            for (int next = 1; m.find() && next < args.size(); next++) {
+                char conversion = m.group(5).charAt(0);
+                if (conversion != 'c') {
+                    while (position < input.length() && Character.isWhitespace(input.charAt(position))) {
+                        position++;
+                    }
+                }
+                if (position == input.length()) {
+                    return stored == 0 ? -1L : stored;
+                }
+                int start = position;
+                if (conversion == 'c') {
+                    position++;
+                } else {
+                    while (position < input.length() && !Character.isWhitespace(input.charAt(position))) {
+                        position++;
+                    }
+                }
+                String token = input.substring(start, position);
+                Type target = argTypes.get(next).base.unqualified();
+                Object v;
+                if (conversion == 'c') {
+                    v = (long) token.charAt(0);
+                } else if (conversion == 's') {
+                    long address = (Long) args.get(next);
+                    for (int k = 0; k < token.length(); k++) {
+                        memory.put((int) address + k, (byte) token.charAt(k));
+                    }
+                    memory.put((int) address + token.length(), (byte) 0);
+                    stored++;
+                    continue;
+                } else if (target.isFloating()) {
+                    v = Double.parseDouble(token);
+                } else {
+                    v = Long.parseLong(token);
+                }
+                store((Long) args.get(next), target, convert(v, target.isFloating() ? Type.DOUBLE : Type.LONG, target));
+                stored++;
+            }
+            return stored;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.antlr.v4.runtime.CharStreams;
+
+/**
+ * Reports what {@link LoopOptimizer} saves at run time: how many IR
+ * instructions each program executes on {@link IrInterpreter} when built
+ * with {@code -O}, with the loop optimizer left out and with it in. Both
+ * builds must print the same and return the same status; the exit status
+ * is 1 if any program differs.
+ *
+ * Usage: {@code LoopBenchmark [file.c...]}; without arguments it uses
+ * the programs of {@link Workload} on their interpreter inputs and the
+ * loop-heavy programs of {@link #SAMPLES}.
+ */
+public class LoopBenchmark {
+    /** Loops with invariant arithmetic in their bodies and arrays indexed by induction variables. */
+    static final Workload[] SAMPLES = {
+        // the row offset and the scaled bound are the same for every j
+        Workload.sample("invariant",
+            "int a[100][100];\n"
+            + "int main() {\n"
+            + "    int n = 100, k = 7, r, i, j;\n"
+            + "    long s = 0;\n"
+            + "    for (r = 0; r < 20; r++)\n"
+            + "        for (i = 0; i < n; i++)\n"
+            + "            for (j = 0; j < n; j++) {\n"
+            + "                a[i][j] = a[i][j] + (k * r + i * n) / 3;\n"
+            + "                s = s + a[i][j];\n"
+            + "            }\n"
+            + "    printf(\"%ld\\n\", s);\n"
+            + "    return 0;\n"
+            + "}\n"),
+        // the element index is scaled by 8 for every access
+        Workload.sample("stencil",
+            "double u[10000], w[10000];\n"
+            + "int main() {\n"
+            + "    int n = 10000, t, i;\n"
+            + "    for (i = 0; i < n; i++) u[i] = i % 17;\n"
+            + "    for (t = 0; t < 50; t++) {\n"
+            + "        for (i = 1; i < n - 1; i++) w[i] = (u[i - 1] + u[i] + u[i + 1]) / 3;\n"
+            + "        for (i = 1; i < n - 1; i++) u[i] = w[i];\n"
+            + "    }\n"
+            + "    printf(\"%.4f\\n\", u[n / 2]);\n"
+            + "    return 0;\n"
+            + "}\n"),
+        // a struct array walked by a stride and a histogram indexed through a mask
+        Workload.sample("strided",
+            "struct P { int x; int y; int z; };\n"
+            + "struct P p[4096];\n"
+            + "int h[64];\n"
+            + "int main() {\n"
+            + "    int i, r, m = 63;\n"
+            + "    for (i = 0; i < 4096; i++) { p[i].x = i; p[i].y = i * 3; p[i].z = i ^ 5; }\n"
+            + "    for (r = 0; r < 30; r++)\n"
+            + "        for (i = 0; i < 4096; i += 2) h[(p[i].x + p[i].y + p[i].z + r) & m]++;\n"
+            + "    printf(\"%d %d\\n\", h[0], h[m]);\n"
+            + "    return 0;\n"
+            + "}\n"),
+    };
+
+    public static void main(String[] args) throws Exception {
+        List<Workload> programs = new ArrayList<>();
+        if (args.length == 0) {
+            programs.addAll(Arrays.asList(Workload.PROGRAMS));
+            programs.addAll(Arrays.asList(SAMPLES));
+        } else {
+            programs.addAll(Workload.files(args));
+        }
+        boolean failed = false;
+        for (Workload program : programs) {
+            IrModule without = Compiler.module(CharStreams.fromString(program.source), false);
+            Compiler.optimize(without, LoopOptimizer.class);
+            CountedRun before = CountedRun.of(without, program.interpreterInput);
+            CountedRun after = CountedRun.of(Compiler.module(CharStreams.fromString(program.source), true),
+                    program.interpreterInput);
+            if (!before.result.equals(after.result)) {
+                System.out.printf("%-24s MISMATCH%n  without: %s%n  with:    %s%n", program.name, before.result,
+                        after.result);
+                failed = true;
+                continue;
+            }
+            System.out.printf("%-24s %12d -> %12d instructions (%.2fx)%n", program.name, before.executed,
+                    after.executed, (double) before.executed / after.executed);
+        }
+        System.exit(failed ? 1 : 0);
+    }
+}
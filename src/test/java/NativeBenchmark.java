@@ -0,0 +1,65 @@
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.antlr.v4.runtime.CharStreams;
+
+/**
+ * Times the executables {@link X64Generator} produces against those of
+ * {@code gcc -O0}; {@link NativeCompilerTest} checks that they agree.
+ *
+ * Every program is built by gcc at -O0 and by {@link Compiler} with
+ * {@code -O}, and the best of a few runs of each on the program's native
+ * input is reported side by side. A program whose builds print
+ * differently is reported instead of timed, and the exit status is then 1.
+ *
+ * Usage: {@code NativeBenchmark [file.c...]}; without arguments it uses
+ * examples/*.c and the programs of {@link Workload}.
+ */
+public class NativeBenchmark {
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        List<Workload> programs = args.length == 0 ? Workload.all() : Workload.files(args);
+        File directory = Files.createTempDirectory("native").toFile();
+        boolean failed = false;
+        try {
+            for (Workload program : programs) {
+                failed |= !report(directory, program);
+            }
+        } finally {
+            Executables.delete(directory);
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static boolean report(File directory, Workload program) throws Exception {
+        File c = new File(directory, "program.c");
+        Files.write(c.toPath(), program.source.getBytes(StandardCharsets.UTF_8));
+        File input = new File(directory, "input");
+        Files.write(input.toPath(), program.nativeInput.getBytes(StandardCharsets.UTF_8));
+        String gcc = new File(directory, "gcc").getPath();
+        String optimized = new File(directory, "optimized").getPath();
+        if (Executables.run(null, "gcc", "-O0", "-w", "-o", gcc, c.getPath(), "-lm").status != 0
+                || Compiler.link(Compiler.compile(CharStreams.fromString(program.source), true), optimized) != 0) {
+            System.out.printf("%-24s build failed%n", program.name);
+            return false;
+        }
+        Executables.Result expected = Executables.run(input, gcc);
+        Executables.Result actual = Executables.run(input, optimized);
+        if (!expected.equals(actual)) {
+            System.out.printf("%-24s MISMATCH%n  gcc -O0: %s%n  ours -O: %s%n", program.name, expected, actual);
+            return false;
+        }
+        long gccNanos = Long.MAX_VALUE;
+        long ourNanos = Long.MAX_VALUE;
+        for (int round = 0; round < RUNS; round++) {
+            gccNanos = Math.min(gccNanos, Executables.run(input, gcc).nanos);
+            ourNanos = Math.min(ourNanos, Executables.run(input, optimized).nanos);
+        }
+        System.out.printf("%-24s gcc -O0 %8.2f ms   ours -O %8.2f ms   %5.2fx%n", program.name, gccNanos / 1e6,
+                ourNanos / 1e6, (double) gccNanos / ourNanos);
+        return true;
+    }
+}
@@ -0,0 +1,66 @@
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.junit.Test;
+
+/**
+ * Checks the executables {@link X64Generator} produces against those of
+ * {@code gcc -O0}.
+ *
+ * Every program of {@link Workload#all} is built three ways: by gcc at
+ * -O0, by {@link Compiler} without optimization and by {@link Compiler}
+ * with {@code -O}. All three run on the program's check input and must
+ * print the same and exit with the same status. The test is skipped where
+ * gcc cannot be run or cannot link x86-64 code.
+ */
+public class NativeCompilerTest {
+    @Test
+    public void matchesGcc() throws Exception {
+        assumeTrue("gcc for x86-64 Linux is needed", Executables.gccAvailable());
+        List<String> failures = new ArrayList<>();
+        File directory = Files.createTempDirectory("native").toFile();
+        try {
+            for (Workload program : Workload.all()) {
+                String failure = check(directory, program);
+                if (failure != null) {
+                    failures.add(program.name + ": " + failure);
+                }
+            }
+        } finally {
+            Executables.delete(directory);
+        }
+        assertTrue(failures.size() + " failures\n  " + String.join("\n  ", failures), failures.isEmpty());
+    }
+
+    /** How {@code program}'s builds disagree, or null if they do not. */
+    private static String check(File directory, Workload program) throws Exception {
+        File c = new File(directory, "program.c");
+        Files.write(c.toPath(), program.source.getBytes(StandardCharsets.UTF_8));
+        File input = new File(directory, "input");
+        Files.write(input.toPath(), program.checkInput.getBytes(StandardCharsets.UTF_8));
+        String gcc = new File(directory, "gcc").getPath();
+        String plain = new File(directory, "plain").getPath();
+        String optimized = new File(directory, "optimized").getPath();
+        if (Executables.run(null, "gcc", "-O0", "-w", "-o", gcc, c.getPath(), "-lm").status != 0) {
+            return "gcc failed";
+        }
+        if (Compiler.link(Compiler.compile(CharStreams.fromString(program.source), false), plain) != 0
+                || Compiler.link(Compiler.compile(CharStreams.fromString(program.source), true), optimized) != 0) {
+            return "build failed";
+        }
+        Executables.Result expected = Executables.run(input, gcc);
+        Executables.Result unoptimized = Executables.run(input, plain);
+        Executables.Result actual = Executables.run(input, optimized);
+        if (!expected.equals(unoptimized) || !expected.equals(actual)) {
+            return "gcc -O0 " + expected + "; ours " + unoptimized + "; ours -O " + actual;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,342 @@
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.junit.Test;
+
+/**
+ * Checks {@link RegisterAllocator} by running programs through the
+ * locations it assigns.
+ *
+ * Every function is rewritten into the code its allocation describes,
+ * with one IR register for each physical register and each spill slot:
+ * an instruction reads each operand from where the allocation has it at
+ * that instruction and writes its result where the allocation puts it,
+ * the moves before instructions and on edges are made as parallel copies,
+ * and the phis are gone, their operands having become edge moves. After
+ * every call the caller-saved registers are overwritten with junk,
+ * different for each call and register, before the call's result is
+ * written. A value the allocation loses track of is then read as whatever
+ * its location last held. The rewritten module must print the same and
+ * exit with the same status on {@link IrInterpreter} as the IR it came
+ * from; an operand read from no location, or from a register of the other
+ * class, fails at once, and a run that executes {@link #SLOWDOWN} times
+ * the instructions of the original is taken to be stuck in a loop.
+ *
+ * The allocation is repeated for targets of 1 to {@link #MAX_REGISTERS}
+ * registers per class, with the lower half of the general registers and
+ * all float registers clobbered by calls, on examples/*.c and the programs
+ * of {@link Workload} on their check inputs.
+ */
+public class RegisterAllocatorTest {
+    private static final int MAX_REGISTERS = 16;
+    /** Failures listed in the message; the rest are only counted. */
+    private static final int SHOWN = 10;
+    private static final int MEMORY = 16 << 20;
+    /** How many times the original's instructions a rewritten run may execute. */
+    private static final int SLOWDOWN = 20;
+
+    @Test
+    public void generatedIr() throws IOException {
+        check(0);
+    }
+
+    @Test
+    public void ssaForm() throws IOException {
+        check(1);
+    }
+
+    @Test
+    public void optimizedIr() throws IOException {
+        check(2);
+    }
+
+    /** Checks every program in form 0 (as generated), 1 (SSA) or 2 ({@code -O}). */
+    private static void check(int form) throws IOException {
+        List<String> failures = new ArrayList<>();
+        for (Workload program : Workload.all()) {
+            IrInterpreter original = IrInterpreter.counting(module(program, form), MEMORY, Long.MAX_VALUE);
+            String expected = run(original, program.checkInput);
+            long limit = SLOWDOWN * (original.executed() + 1000);
+            for (int count = 1; count <= MAX_REGISTERS; count++) {
+                RegisterAllocator.Target target =
+                        new RegisterAllocator.Target(count, (1L << (count + 1) / 2) - 1, count, (1L << count) - 1);
+                IrModule module = module(program, form);
+                List<String> mismatches = new ArrayList<>();
+                for (IrFunction f : module.getFunctions()) {
+                    new Rewriter(f, target, mismatches).rewrite();
+                }
+                String where = program.name + " with " + count + "+" + count + " registers: ";
+                if (!mismatches.isEmpty()) {
+                    for (String mismatch : mismatches) {
+                        failures.add(where + mismatch);
+                    }
+                    continue;
+                }
+                String actual = run(IrInterpreter.counting(module, MEMORY, limit), program.checkInput);
+                if (!actual.equals(expected)) {
+                    failures.add(where + "expected " + expected + ", got " + actual);
+                }
+            }
+        }
+        StringBuilder message = new StringBuilder(failures.size() + " failures");
+        for (String failure : failures.subList(0, Math.min(SHOWN, failures.size()))) {
+            message.append("\n  ").append(failure);
+        }
+        assertTrue(message.toString(), failures.isEmpty());
+    }
+
+    private static IrModule module(Workload program, int form) {
+        IrModule module = Compiler.module(CharStreams.fromString(program.source), form == 2);
+        if (form == 1) {
+            for (IrFunction f : module.getFunctions()) {
+                SsaBuilder.build(f);
+                DeadCodeElimination.run(f);
+            }
+        }
+        return module;
+    }
+
+    /** What {@code interpreter}'s program prints and returns on {@code input}, or how it failed. */
+    private static String run(IrInterpreter interpreter, String input) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            int status = interpreter.run(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), out);
+            return "exit " + status + ", " + new String(out.toByteArray(), StandardCharsets.UTF_8).replace("\n", "\\n");
+        } catch (IOException | RuntimeException | StackOverflowError e) {
+            return "failure " + e;
+        }
+    }
+
+    /**
+     * Rewrites a function into the code of its allocation. The new code is
+     * appended after the old, which the allocation's answers depend on,
+     * and moved down over it at the end.
+     */
+    private static final class Rewriter {
+        private final IrFunction f;
+        private final RegisterAllocator.Target target;
+        private final List<String> mismatches;
+        private final ControlFlowGraph cfg;
+        private final RegisterAllocator allocation;
+        /** Caller-saved physical registers. */
+        private final long clobbered;
+        private final Random random;
+        private final int size;
+        /** The IR register standing for each physical register, then for each spill slot. */
+        private final int[] locations;
+        /** Registers a parallel copy holds its values in, grown as needed. */
+        private int[] temporaries = new int[0];
+        /** Receives the results the allocation gives no location. */
+        private final int sink;
+        /** Where each old instruction, then each stub, starts in the new code. */
+        private int[] placed;
+        /** The moves of each edge, {@code edgeMoves[e] .. edgeMoves[e + 1]}, taken before f grows. */
+        private final int[] edgeMoves;
+        /** The stub making the moves of each edge, -1 for none yet. */
+        private final int[] stubOf;
+        private final List<Integer> stubs = new ArrayList<>();
+
+        Rewriter(IrFunction f, RegisterAllocator.Target target, List<String> mismatches) {
+            this.f = f;
+            this.target = target;
+            this.mismatches = mismatches;
+            cfg = ControlFlowGraph.build(f);
+            allocation = RegisterAllocator.allocate(cfg, target);
+            clobbered = target.generalClobbered & ((1L << target.generalCount) - 1)
+                    | (target.floatClobbered & ((1L << target.floatCount) - 1)) << target.generalCount;
+            random = new Random(f.name.hashCode());
+            size = f.size();
+            locations = new int[target.registerCount() + allocation.slotCount()];
+            for (int p = 0; p < locations.length; p++) {
+                locations[p] = f.newRegister(p >= target.generalCount && p < target.registerCount() ? Ir.F64 : Ir.I64);
+            }
+            sink = f.newRegister(Ir.I64);
+            placed = new int[size];
+            edgeMoves = new int[cfg.edgeCount() + 1];
+            for (int e = 0; e < cfg.edgeCount(); e++) {
+                edgeMoves[e] = allocation.edgeMoveStart(e);
+                edgeMoves[e + 1] = allocation.edgeMoveEnd(e);
+            }
+            stubOf = new int[cfg.edgeCount()];
+            Arrays.fill(stubOf, -1);
+        }
+
+        void rewrite() {
+            for (int b = 0; b < cfg.blockCount(); b++) {
+                for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                    placed[i] = f.size() - size;
+                    if (cfg.isReachable(b) && f.op(i) != Ir.PHI) {
+                        moves(allocation.moveStart(i), allocation.moveEnd(i));
+                        instruction(b, i);
+                    }
+                }
+                int op = f.op(cfg.end(b) - 1);
+                if (cfg.isReachable(b) && op != Ir.RET && op != Ir.JMP && op != Ir.SWITCH) {
+                    edgeMoves(b, b + 1);
+                }
+            }
+            placed = Arrays.copyOf(placed, size + stubs.size());
+            for (int k = 0; k < stubs.size(); k++) {
+                int e = stubs.get(k);
+                placed[size + k] = f.size() - size;
+                moves(edgeMoves[e], edgeMoves[e + 1]);
+                f.emit(Ir.JMP, Ir.VOID, cfg.start(cfg.edgeTarget(e)), Ir.NONE, Ir.NONE);
+            }
+            int end = f.size();
+            for (int j = size; j < end; j++) {
+                f.set(j - size, f.op(j), f.kind(j), f.dst(j), f.a(j), f.b(j));
+                for (int k = 0; k < f.targetCount(j - size); k++) {
+                    f.setTarget(j - size, k, placed[f.target(j - size, k)]);
+                }
+            }
+            f.truncate(end - size);
+        }
+
+        private void instruction(int b, int i) {
+            int op = f.op(i);
+            int kind = f.kind(i);
+            switch (op) {
+                case Ir.NOP:
+                    return;
+                case Ir.CALL:
+                case Ir.CALLI: {
+                    int n = f.argCount(i);
+                    int args = f.allocateAux(1 + 2 * n);
+                    f.setAux(args, n);
+                    for (int k = 0; k < n; k++) {
+                        f.setAux(args + 1 + 2 * k, use(f.arg(i, k), i));
+                        f.setAux(args + 2 + 2 * k, f.argKind(i, k));
+                    }
+                    int callee = op == Ir.CALLI ? use(f.a(i), i) : f.a(i);
+                    f.emit(op, kind, f.dst(i) >= 0 ? sink : Ir.NONE, callee, args);
+                    for (int p = 0; p < target.registerCount(); p++) {
+                        if ((clobbered >> p & 1) != 0) {
+                            f.emit(Ir.MOV, Ir.I64, locations[p], f.constant(random.nextLong()), Ir.NONE);
+                        }
+                    }
+                    if (f.dst(i) >= 0) {
+                        f.emit(Ir.MOV, kind, def(i), sink, Ir.NONE);
+                    }
+                    return;
+                }
+                case Ir.JMP:
+                    edgeMoves(b, cfg.blockOf(f.dst(i)));
+                    f.emit(Ir.JMP, Ir.VOID, f.dst(i), Ir.NONE, Ir.NONE);
+                    return;
+                case Ir.SWITCH: {
+                    int n = f.targetCount(i);
+                    int table = f.allocateAux(1 + n);
+                    f.setAux(table, n);
+                    for (int k = 0; k < n; k++) {
+                        f.setAux(table + 1 + k, edgeTarget(b, f.target(i, k)));
+                    }
+                    f.emit(Ir.SWITCH, kind, Ir.NONE, use(f.a(i), i), table);
+                    return;
+                }
+                default:
+            }
+            int a = Ir.hasOperandA(op) ? use(f.a(i), i) : f.a(i);
+            int bOperand = Ir.hasOperandB(op) ? use(f.b(i), i) : f.b(i);
+            if (Ir.isBranch(op)) {
+                f.emit(op, kind, edgeTarget(b, f.dst(i)), a, bOperand);
+            } else {
+                f.emit(op, kind, Ir.defines(op) && f.dst(i) >= 0 ? def(i) : f.dst(i), a, bOperand);
+            }
+        }
+
+        /** The register standing for where instruction {@code i} reads operand {@code x}. */
+        private int use(int x, int i) {
+            if (!Ir.isRegister(x)) {
+                return x;
+            }
+            return at(allocation.useLocation(x, i), f.registerKind(x), "r" + x + " read by " + i);
+        }
+
+        /** The register standing for where instruction {@code i} writes its result. */
+        private int def(int i) {
+            int location = allocation.defLocation(i);
+            return location == Ir.NONE ? sink : at(location, f.registerKind(f.dst(i)), "r" + f.dst(i) + " written by " + i);
+        }
+
+        private int at(int location, int kind, String what) {
+            if (location == Ir.NONE) {
+                mismatches.add(f.name + ": " + what + " has no location");
+                return sink;
+            }
+            if (RegisterAllocator.isSlot(location)) {
+                return locations[target.registerCount() + RegisterAllocator.slotOf(location)];
+            }
+            if (Ir.isFloat(kind) != (location >= target.generalCount)) {
+                mismatches.add(f.name + ": " + what + " is in register " + location + " of the other class");
+            }
+            return locations[location];
+        }
+
+        /**
+         * Where a branch from block {@code b} to instruction {@code to}
+         * goes: there, or to a stub making the moves of the edge first.
+         */
+        private int edgeTarget(int b, int to) {
+            int e = edge(b, cfg.blockOf(to));
+            if (edgeMoves[e] == edgeMoves[e + 1]) {
+                return to;
+            }
+            if (stubOf[e] < 0) {
+                stubOf[e] = stubs.size();
+                stubs.add(e);
+            }
+            return size + stubOf[e];
+        }
+
+        private void edgeMoves(int b, int s) {
+            int e = edge(b, s);
+            moves(edgeMoves[e], edgeMoves[e + 1]);
+        }
+
+        private int edge(int b, int s) {
+            for (int k = 0; k < cfg.successorCount(b); k++) {
+                if (cfg.successor(b, k) == s) {
+                    return cfg.successorEdge(b, k);
+                }
+            }
+            throw new IllegalStateException(f.name + ": no edge from block " + b + " to " + s);
+        }
+
+        /** Makes moves {@code from .. to} as one parallel copy: every source is read before any target is written. */
+        private void moves(int from, int to) {
+            if (temporaries.length < to - from) {
+                int n = temporaries.length;
+                temporaries = Arrays.copyOf(temporaries, to - from);
+                for (int k = n; k < temporaries.length; k++) {
+                    temporaries[k] = f.newRegister(Ir.I64);
+                }
+            }
+            for (int m = from; m < to; m++) {
+                int source = allocation.moveSource(m);
+                int kind = allocation.moveKind(m);
+                if (allocation.moveFrom(m) != Ir.NONE) {
+                    source = at(allocation.moveFrom(m), kind, "r" + source + " moved");
+                } else if (Ir.isRegister(source)) {
+                    mismatches.add(f.name + ": r" + source + " moved from no location");
+                    source = sink;
+                }
+                f.emit(Ir.MOV, kind, temporaries[m - from], source, Ir.NONE);
+            }
+            for (int m = from; m < to; m++) {
+                if (allocation.moveTo(m) != Ir.NONE) {
+                    int kind = allocation.moveKind(m);
+                    f.emit(Ir.MOV, kind, at(allocation.moveTo(m), kind, "move"), temporaries[m - from], Ir.NONE);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+/**
+ * Reports what {@link SwitchLowering} saves at run time: how many IR
+ * instructions each program executes on {@link IrInterpreter} when every
+ * switch compares its value with the cases one by one and when the
+ * switches are lowered to jump tables and compare trees, as generated and
+ * with {@code -O}. Both builds must print the same and return the same
+ * status; the exit status is 1 if any program differs.
+ *
+ * Usage: {@code SwitchBenchmark [file.c...]}; without arguments it uses
+ * generated state machines of 4000 and of 60 states.
+ */
+public class SwitchBenchmark {
+    private static final int STEPS = 50000;
+
+    public static void main(String[] args) throws Exception {
+        List<Workload> programs = new ArrayList<>();
+        if (args.length == 0) {
+            programs.add(Workload.sample("states-4000", stateMachine(4000, STEPS)));
+            programs.add(Workload.sample("states-60", stateMachine(60, STEPS)));
+        } else {
+            programs.addAll(Workload.files(args));
+        }
+        boolean failed = false;
+        for (Workload program : programs) {
+            for (int form = 0; form < 2; form++) {
+                String name = program.name + (form == 0 ? "" : " -O");
+                CountedRun before = CountedRun.of(module(program.source, false, form == 1), program.interpreterInput);
+                CountedRun after = CountedRun.of(module(program.source, true, form == 1), program.interpreterInput);
+                if (!before.result.equals(after.result)) {
+                    System.out.printf("%-24s MISMATCH%n  compares: %s%n  tables:   %s%n", name, before.result,
+                            after.result);
+                    failed = true;
+                    continue;
+                }
+                System.out.printf("%-24s %12d -> %12d instructions (%.2fx)%n", name, before.executed,
+                        after.executed, (double) before.executed / after.executed);
+            }
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    /** The IR of {@code source}, with or without jump tables, optimized as for {@code -O} if {@code optimize}. */
+    static IrModule module(String source, boolean jumpTables, boolean optimize) {
+        CParser parser = new CParser(new CommonTokenStream(new CLexer(CharStreams.fromString(source))));
+        TypeChecker checker = TypeChecker.check(NameResolver.resolve(AstLowering.lower(parser.translation_unit())));
+        IrModule module = IrGenerator.generate(checker, jumpTables).getModule();
+        if (optimize) {
+            Compiler.optimize(module);
+        }
+        return module;
+    }
+
+    /**
+     * A loop running {@code steps} transitions of a machine of
+     * {@code states} states, dispatched by one switch. State k is the case
+     * value {@code k + k / 8}, so the values have a hole every eight; each
+     * state adds its number to a trace and moves to another, and one in
+     * fifty moves to a value no case has, whose default restarts at 0.
+     */
+    static String stateMachine(int states, int steps) {
+        StringBuilder sb = new StringBuilder("int main() {\n")
+                .append("    int state = 0, i;\n")
+                .append("    long trace = 0;\n")
+                .append("    for (i = 0; i < ").append(steps).append("; i++) {\n")
+                .append("        switch (state) {\n");
+        for (int k = 0; k < states; k++) {
+            int next = (k * 37 + 11) % states;
+            sb.append("        case ").append(k + k / 8).append(": trace = trace + ").append(k)
+                    .append("; state = ").append(k % 50 == 49 ? -1 : next + next / 8).append("; break;\n");
+        }
+        return sb.append("        default: trace = trace - 1; state = 0; break;\n")
+                .append("        }\n")
+                .append("    }\n")
+                .append("    printf(\"%ld %d\\n\", trace, state);\n")
+                .append("    return 0;\n")
+                .append("}\n").toString();
+    }
+}
@@ -0,0 +1,183 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Checks that switches lowered by {@link SwitchLowering} dispatch as
+ * comparing the value with each case in turn does.
+ *
+ * Each test generates switches on int, unsigned, long and unsigned long
+ * whose case values follow one pattern, gives every value a body that
+ * either breaks or falls through into the next, and calls them on every
+ * case value, its neighbours, the extremes of the type and random values.
+ * The program must print the same on {@link IrInterpreter} with jump
+ * tables and with compares only, as generated and with {@code -O}.
+ */
+public class SwitchLoweringTest {
+    private static final String[] TYPES = {"int", "unsigned", "long", "unsigned long"};
+    private static final int SEEDS = 5;
+    private static final int RANDOM_PROBES = 20;
+
+    /** Runs of cases a few values apart, dense enough for tables, anywhere in the type's range. */
+    @Test
+    public void dense() {
+        check((random, values) -> {
+            long base = base(random);
+            for (int k = 0, n = 5 + random.nextInt(60); k < n; k++) {
+                if (random.nextInt(5) != 0) {
+                    values.add(base + k);
+                }
+            }
+        });
+    }
+
+    /** Cases scattered over the whole range, too far apart for tables. */
+    @Test
+    public void sparse() {
+        check((random, values) -> {
+            for (int k = 0, n = 1 + random.nextInt(30); k < n; k++) {
+                values.add(random.nextLong() >> random.nextInt(64));
+            }
+        });
+    }
+
+    /** Runs of consecutive values sharing one body, as {@code case 1: case 2: case 3:} are. */
+    @Test
+    public void ranges() {
+        check((random, values) -> {
+            long next = base(random);
+            for (int k = 0, n = 1 + random.nextInt(8); k < n; k++) {
+                next += random.nextInt(20);
+                values.add(Long.MIN_VALUE);
+                for (int length = 2 + random.nextInt(8); length > 0; length--) {
+                    values.add(next++);
+                }
+            }
+        });
+    }
+
+    /** Chooses case values; {@link Long#MIN_VALUE} starts a run that shares one body. */
+    private interface Pattern {
+        void values(Random random, List<Long> values);
+    }
+
+    private static long base(Random random) {
+        switch (random.nextInt(5)) {
+            case 0:
+                return 0;
+            case 1:
+                return -30;
+            case 2:
+                return Integer.MAX_VALUE - 40L;
+            case 3:
+                return 0xffffffffL - 40;
+            default:
+                return random.nextLong();
+        }
+    }
+
+    private static void check(Pattern pattern) {
+        for (int seed = 0; seed < SEEDS; seed++) {
+            Random random = new Random(seed);
+            for (int type = 0; type < TYPES.length; type++) {
+                String source = program(random, type, pattern);
+                String expected = CountedRun.of(SwitchBenchmark.module(source, false, false), "").result;
+                assertEquals(source, expected, CountedRun.of(SwitchBenchmark.module(source, true, false), "").result);
+                assertEquals(source, expected, CountedRun.of(SwitchBenchmark.module(source, true, true), "").result);
+            }
+        }
+    }
+
+    /** A switch on {@code TYPES[type]} with the pattern's cases and a main calling it on the probes. */
+    private static String program(Random random, int type, Pattern pattern) {
+        List<Long> chosen = new ArrayList<>();
+        pattern.values(random, chosen);
+        Set<Long> seen = new LinkedHashSet<>();
+        StringBuilder sb = new StringBuilder("long f(").append(TYPES[type]).append(" x) {\n")
+                .append("    long r = 0;\n")
+                .append("    switch (x) {\n");
+        boolean run = false;
+        for (long raw : chosen) {
+            if (raw == Long.MIN_VALUE) {
+                run = true;
+                continue;
+            }
+            long value = normalize(raw, type);
+            if (!seen.add(value)) {
+                continue;
+            }
+            sb.append("    case ").append(literal(value, type)).append(":");
+            if (run && random.nextInt(8) != 0) {
+                sb.append("\n");
+                continue;
+            }
+            run = false;
+            sb.append(" r = r * 3 + ").append(seen.size()).append(";")
+                    .append(random.nextInt(4) == 0 ? "\n" : " break;\n");
+        }
+        sb.append("    default: r = r - 1;\n")
+                .append("    }\n")
+                .append("    return r;\n")
+                .append("}\n");
+
+        Set<Long> probes = new LinkedHashSet<>();
+        for (long value : seen) {
+            probes.add(value);
+            probes.add(normalize(value - 1, type));
+            probes.add(normalize(value + 1, type));
+        }
+        for (long extreme : new long[] {0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE, 0xffffffffL, Long.MIN_VALUE,
+                Long.MAX_VALUE}) {
+            probes.add(normalize(extreme, type));
+        }
+        for (int k = 0; k < RANDOM_PROBES; k++) {
+            probes.add(normalize(random.nextLong(), type));
+        }
+        sb.append(TYPES[type]).append(" probes[] = {");
+        String separator = "";
+        for (long probe : probes) {
+            sb.append(separator).append(literal(probe, type));
+            separator = ", ";
+        }
+        return sb.append("};\n")
+                .append("int main() {\n")
+                .append("    int i;\n")
+                .append("    for (i = 0; i < ").append(probes.size()).append("; i++) printf(\"%ld\\n\", f(probes[i]));\n")
+                .append("    return 0;\n")
+                .append("}\n").toString();
+    }
+
+    /** {@code raw} as a value of {@code TYPES[type]}, kept in a long the way the type orders it. */
+    private static long normalize(long raw, int type) {
+        switch (type) {
+            case 0:
+                return (int) raw;
+            case 1:
+                return raw & 0xffffffffL;
+            default:
+                return raw;
+        }
+    }
+
+    /**
+     * A constant of {@code TYPES[type]} for {@code value}. The grammar takes
+     * one suffix letter at most, so an unsigned long is written as the long
+     * with the same bits, which converts to it.
+     */
+    private static String literal(long value, int type) {
+        switch (type) {
+            case 0:
+                return value == Integer.MIN_VALUE ? "(-2147483647 - 1)" : Long.toString(value);
+            case 1:
+                return value + "u";
+            default:
+                return value == Long.MIN_VALUE ? "(-9223372036854775807L - 1)" : value + "L";
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Compares the recursive ParseTreeWalker and CBaseVisitor with
+ * {@link IterativeParseTreeWalker} and {@link StackSafeCVisitor} on
+ * generated inputs with deeply parenthesised expressions.
+ *
+ * Usage: {@code TreeWalkBenchmark [depth...]}
+ */
+public class TreeWalkBenchmark {
+    private static final int ITERATIONS = 200;
+
+    public static void main(String[] args) throws Exception {
+        int[] depths = {100, 1000, 5000};
+        if (args.length > 0) {
+            depths = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                depths[i] = Integer.parseInt(args[i]);
+            }
+        }
+        for (int depth : depths) {
+            ParserRuleContext tree = parseOnLargeStack(source(depth));
+            System.out.printf("depth %d (%d tree levels)%n", depth, height(tree));
+            report("ParseTreeWalker", () -> ParseTreeWalker.DEFAULT.walk(new CountingListener(), tree));
+            report("IterativeParseTreeWalker", () -> IterativeParseTreeWalker.DEFAULT.walk(new CountingListener(), tree));
+            report("CBaseVisitor", () -> new CBaseVisitor<Integer>() {
+                @Override
+                protected Integer aggregateResult(Integer aggregate, Integer next) {
+                    return next == null ? aggregate : next;
+                }
+            }.visit(tree));
+            report("StackSafeCVisitor", () -> new StackSafeCVisitor<Integer>() {
+                @Override
+                protected Integer aggregateResult(Integer aggregate, Integer next) {
+                    return next == null ? aggregate : next;
+                }
+            }.visit(tree));
+        }
+    }
+
+    private static String source(int depth) {
+        StringBuilder sb = new StringBuilder("int f(int a) { return ");
+        for (int i = 0; i < depth; i++) {
+            sb.append("(a + ");
+        }
+        sb.append('1');
+        for (int i = 0; i < depth; i++) {
+            sb.append(')');
+        }
+        return sb.append("; }\n").toString();
+    }
+
+    /** The ANTLR parser itself recurses per level, so give it room. */
+    private static ParserRuleContext parseOnLargeStack(String source) throws InterruptedException {
+        AtomicReference<ParserRuleContext> result = new AtomicReference<>();
+        Thread t = new Thread(null, () -> {
+            CParser parser = new CParser(new CommonTokenStream(new CLexer(CharStreams.fromString(source))));
+            result.set(parser.translation_unit());
+        }, "parser", 1L << 30);
+        t.start();
+        t.join();
+        return result.get();
+    }
+
+    private static int height(ParserRuleContext tree) {
+        int[] depth = new int[2];
+        IterativeParseTreeWalker.DEFAULT.walk(new CBaseListener() {
+            @Override
+            public void enterEveryRule(ParserRuleContext ctx) {
+                depth[1] = Math.max(depth[1], ++depth[0]);
+            }
+
+            @Override
+            public void exitEveryRule(ParserRuleContext ctx) {
+                depth[0]--;
+            }
+        }, tree);
+        return depth[1];
+    }
+
+    private static void report(String name, Runnable walk) {
+        try {
+            for (int i = 0; i < ITERATIONS; i++) {
+                walk.run();
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                walk.run();
+            }
+            long micros = (System.nanoTime() - start) / 1000 / ITERATIONS;
+            System.out.printf("  %-26s %8d us%n", name, micros);
+        } catch (StackOverflowError e) {
+            System.out.printf("  %-26s StackOverflowError%n", name);
+        }
+    }
+
+    private static final class CountingListener implements ParseTreeListener {
+        int events;
+
+        @Override
+        public void visitTerminal(TerminalNode node) {
+            events++;
+        }
+
+        @Override
+        public void visitErrorNode(ErrorNode node) {
+            events++;
+        }
+
+        @Override
+        public void enterEveryRule(ParserRuleContext ctx) {
+            events++;
+        }
+
+        @Override
+        public void exitEveryRule(ParserRuleContext ctx) {
+            events++;
+        }
+    }
+}
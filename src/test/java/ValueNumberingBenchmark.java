@@ -0,0 +1,79 @@
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+/**
+ * Reports how many IR instructions {@link ValueNumbering} removes from
+ * programs that have already been through {@link SsaBuilder} and
+ * {@link ConstantPropagation}, and how long the pass takes.
+ *
+ * Usage: {@code ValueNumberingBenchmark [file.c...]}; without arguments it
+ * uses examples/*.c and a generated program full of repeated field and
+ * element accesses.
+ */
+public class ValueNumberingBenchmark {
+    private static final int ITERATIONS = 50;
+
+    public static void main(String[] args) throws Exception {
+        int before = 0;
+        int after = 0;
+        for (Workload program : args.length == 0 ? Workload.examples() : Workload.files(args)) {
+            int[] counts = report(program.name, CharStreams.fromString(program.source));
+            before += counts[0];
+            after += counts[1];
+        }
+        if (args.length == 0) {
+            int[] counts = report("generated", CharStreams.fromString(source(200)));
+            before += counts[0];
+            after += counts[1];
+        }
+        System.out.printf("%-24s %7d -> %7d (-%.1f%%)%n", "total", before, after, percent(before, after));
+    }
+
+    /** Functions that read the same fields and elements over and over, as accessor-heavy code does. */
+    private static String source(int functions) {
+        StringBuilder sb = new StringBuilder("struct S { int n; int b[16]; struct S *next; };\n");
+        for (int k = 0; k < functions; k++) {
+            sb.append("int f").append(k).append("(struct S *p, struct S a, int i) {\n")
+                    .append("    int s = a.b[i] * a.b[i] + p->n * p->n;\n")
+                    .append("    while (i < p->n) {\n")
+                    .append("        s = s + p->next->b[i] - p->next->b[i + 1] + (i + 1) * (1 + i);\n")
+                    .append("        p->b[i] = s;\n")
+                    .append("        s = s ^ p->b[i];\n")
+                    .append("        i = i + 1;\n")
+                    .append("    }\n")
+                    .append("    return s + a.b[i] * a.b[i];\n")
+                    .append("}\n");
+        }
+        return sb.toString();
+    }
+
+    private static int[] report(String name, CharStream input) {
+        CParser parser = new CParser(new CommonTokenStream(new CLexer(input)));
+        TypeChecker checker = TypeChecker.check(NameResolver.resolve(AstLowering.lower(parser.translation_unit())));
+        int[] counts = new int[2];
+        long nanos = 0;
+        for (int round = 0; round < ITERATIONS; round++) {
+            int before = 0;
+            int after = 0;
+            for (IrFunction f : IrGenerator.generate(checker).getModule().getFunctions()) {
+                SsaBuilder.build(f);
+                ConstantPropagation.run(f);
+                before += f.size();
+                long start = System.nanoTime();
+                ValueNumbering.run(f);
+                nanos += System.nanoTime() - start;
+                after += f.size();
+            }
+            counts[0] = before;
+            counts[1] = after;
+        }
+        System.out.printf("%-24s %7d -> %7d (-%.1f%%) %8d us%n", name, counts[0], counts[1],
+                percent(counts[0], counts[1]), nanos / 1000 / ITERATIONS);
+        return counts;
+    }
+
+    private static double percent(int before, int after) {
+        return before == 0 ? 0 : 100.0 * (before - after) / before;
+    }
+}
@@ -0,0 +1,169 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A C program the benchmarks and checks run, with what each of them gives
+ * it on standard input.
+ *
+ * The programs of {@link #PROGRAMS} are compute-bound and read their
+ * problem size, so nothing folds the work away; a native run gets the
+ * largest size, an interpreted one a smaller size and the checks, which
+ * are slower still, the smallest. The examples read a few numbers at most
+ * and get {@link #EXAMPLE_INPUT} everywhere.
+ */
+final class Workload {
+    static final String EXAMPLE_INPUT = "5 3 7 1 2 4 6 8 9 10\n";
+
+    /** Compute-bound programs, each with its native, interpreted and check problem size. */
+    static final Workload[] PROGRAMS = {
+        program("sieve", "2000000", "100000", "3000",
+            "char composite[2000001];\n"
+            + "int main() {\n"
+            + "    int n, i, j, count = 0, round;\n"
+            + "    scanf(\"%d\", &n);\n"
+            + "    for (round = 0; round < 10; round++) {\n"
+            + "        count = 0;\n"
+            + "        for (i = 0; i <= n; i++) composite[i] = 0;\n"
+            + "        for (i = 2; i <= n; i++) {\n"
+            + "            if (composite[i]) continue;\n"
+            + "            count++;\n"
+            + "            for (j = i + i; j <= n; j += i) composite[j] = 1;\n"
+            + "        }\n"
+            + "    }\n"
+            + "    printf(\"%d primes\\n\", count);\n"
+            + "    return 0;\n"
+            + "}\n"),
+        program("matmul", "160", "60", "10",
+            "double a[160][160], b[160][160], c[160][160];\n"
+            + "int main() {\n"
+            + "    int n, i, j, k;\n"
+            + "    double trace = 0;\n"
+            + "    scanf(\"%d\", &n);\n"
+            + "    for (i = 0; i < n; i++)\n"
+            + "        for (j = 0; j < n; j++) {\n"
+            + "            a[i][j] = i + j;\n"
+            + "            b[i][j] = i - j;\n"
+            + "            b[i][j] = b[i][j] / n;\n"
+            + "        }\n"
+            + "    for (i = 0; i < n; i++)\n"
+            + "        for (j = 0; j < n; j++) {\n"
+            + "            double s = 0;\n"
+            + "            for (k = 0; k < n; k++) s = s + a[i][k] * b[k][j];\n"
+            + "            c[i][j] = s;\n"
+            + "        }\n"
+            + "    for (i = 0; i < n; i++) trace = trace + c[i][i];\n"
+            + "    printf(\"%.4f\\n\", trace);\n"
+            + "    return 0;\n"
+            + "}\n"),
+        program("fib", "32", "24", "15",
+            "int fib(int n) { return n < 2 ? n : fib(n - 1) + fib(n - 2); }\n"
+            + "int main() {\n"
+            + "    int n;\n"
+            + "    scanf(\"%d\", &n);\n"
+            + "    printf(\"%d\\n\", fib(n));\n"
+            + "    return 0;\n"
+            + "}\n"),
+        program("quicksort", "1000000", "100000", "3000",
+            "int v[1000000];\n"
+            + "void sort(int *a, int lo, int hi) {\n"
+            + "    while (lo < hi) {\n"
+            + "        int p = a[(lo + hi) / 2], i = lo, j = hi, t;\n"
+            + "        while (i <= j) {\n"
+            + "            while (a[i] < p) i++;\n"
+            + "            while (a[j] > p) j--;\n"
+            + "            if (i <= j) { t = a[i]; a[i] = a[j]; a[j] = t; i++; j--; }\n"
+            + "        }\n"
+            + "        if (j - lo < hi - i) { sort(a, lo, j); lo = i; } else { sort(a, i, hi); hi = j; }\n"
+            + "    }\n"
+            + "}\n"
+            + "int main() {\n"
+            + "    int n, i;\n"
+            + "    unsigned seed = 12345;\n"
+            + "    long check = 0;\n"
+            + "    scanf(\"%d\", &n);\n"
+            + "    for (i = 0; i < n; i++) { seed = seed * 1103515245 + 12345; v[i] = seed >> 8; }\n"
+            + "    sort(v, 0, n - 1);\n"
+            + "    for (i = 1; i < n; i++) if (v[i - 1] > v[i]) return 1;\n"
+            + "    for (i = 0; i < n; i += 1000) check = check + v[i];\n"
+            + "    printf(\"%ld\\n\", check);\n"
+            + "    return 0;\n"
+            + "}\n"),
+        program("collatz", "1000000", "30000", "300",
+            "int main() {\n"
+            + "    int n, i, best = 0, length, longest = 0;\n"
+            + "    long x;\n"
+            + "    scanf(\"%d\", &n);\n"
+            + "    for (i = 1; i < n; i++) {\n"
+            + "        x = i;\n"
+            + "        length = 1;\n"
+            + "        while (x != 1) {\n"
+            + "            if (x % 2 == 0) x = x / 2; else x = 3 * x + 1;\n"
+            + "            length++;\n"
+            + "        }\n"
+            + "        if (length > longest) { longest = length; best = i; }\n"
+            + "    }\n"
+            + "    printf(\"%d %d\\n\", best, longest);\n"
+            + "    return 0;\n"
+            + "}\n"),
+    };
+
+    final String name;
+    final String nativeInput;
+    final String interpreterInput;
+    final String checkInput;
+    final String source;
+
+    private Workload(String name, String nativeInput, String interpreterInput, String checkInput, String source) {
+        this.name = name;
+        this.nativeInput = nativeInput;
+        this.interpreterInput = interpreterInput;
+        this.checkInput = checkInput;
+        this.source = source;
+    }
+
+    private static Workload program(String name, String nativeSize, String interpreterSize, String checkSize,
+            String source) {
+        return new Workload(name, nativeSize + "\n", interpreterSize + "\n", checkSize + "\n", source);
+    }
+
+    /** A program that needs no input, given {@link #EXAMPLE_INPUT} like the examples. */
+    static Workload sample(String name, String source) {
+        return new Workload(name, EXAMPLE_INPUT, EXAMPLE_INPUT, EXAMPLE_INPUT, source);
+    }
+
+    /** C files, each on {@link #EXAMPLE_INPUT} whatever the run. */
+    static List<Workload> files(String... files) throws IOException {
+        List<Workload> programs = new ArrayList<>();
+        for (String file : files) {
+            programs.add(sample(file, read(file)));
+        }
+        return programs;
+    }
+
+    /** examples/*.c in name order. */
+    static List<Workload> examples() throws IOException {
+        List<String> files = new ArrayList<>();
+        File[] listed = new File("examples").listFiles((directory, name) -> name.endsWith(".c"));
+        for (File file : listed == null ? new File[0] : listed) {
+            files.add(file.getPath());
+        }
+        files.sort(null);
+        return files(files.toArray(new String[0]));
+    }
+
+    /** The examples, then {@link #PROGRAMS}. */
+    static List<Workload> all() throws IOException {
+        List<Workload> programs = examples();
+        programs.addAll(Arrays.asList(PROGRAMS));
+        return programs;
+    }
+
+    static String read(String file) throws IOException {
+        return new String(Files.readAllBytes(new File(file).toPath()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,49 @@
+struct P { int x; int y; char c; long l; };
+union U { int i; char b[4]; };
+int g = 5;
+int arr[10] = {1,2,3};
+char msg[] = "abc";
+static int counter;
+int add(int a, int b) { return a + b; }
+inline int sq(int x) { return x * x; }
+int fact(int n) { if (n <= 1) return 1; return n * fact(n - 1); }
+void fill(int *p, int n) { int i; for (i = 0; i < n; i++) p[i] = i * i; }
+int sw(int x) {
+  switch (x) {
+    case 0: return 10;
+    case 1: case 2: return 20;
+    case 5: x += 3;
+    case 6: return x;
+    case 100: return 100;
+    default: return -1;
+  }
+}
+int main() {
+  struct P p; struct P *pp = &p;
+  union U u;
+  int a[5]; int i; unsigned int uu = 4000000000u; long big = 1L << 40;
+  p.x = 3; pp->y = 4; p.c = 'z'; p.l = -7;
+  printf("%d %d %c %ld\n", p.x, pp->y, p.c, p.l);
+  u.i = 0x01020304; printf("%d %d\n", u.b[0], u.b[3]);
+  fill(a, 5); for (i = 0; i < 5; i++) printf("%d ", a[i]); printf("\n");
+  printf("%d %d %d\n", add(g, 2), sq(7), fact(10));
+  for (i = -1; i < 8; i++) printf("%d ", sw(i)); printf("\n");
+  printf("%u %ld %d\n", uu / 3, big >> 3, (int)uu);
+  printf("%d %d %d\n", -7 / 2, -7 % 2, 7 % -3);
+  printf("%d %d\n", (unsigned)-1 > 0, -1 < 0u);
+  printf("%s %d %d\n", msg, arr[2], arr[7]);
+  counter++; counter += 10; printf("%d\n", counter);
+  i = 0; printf("%d %d\n", i++ + i++, i);
+  { int x = 0; int k = 5; while (k--) { if (k == 2) continue; x += k; } printf("%d\n", x); }
+  { int x = 0; do { x++; } while (x < 10); printf("%d\n", x); }
+  { double d = 3.7; float f = 2.5f; printf("%f %d %f\n", d * f, (int)d, d / 0.5); }
+  { char c = 200; unsigned char uc = 200; printf("%d %d\n", c, uc); }
+  { short s = 70000; printf("%d\n", s); }
+  { int x = 5; x <<= 2; x |= 1; x ^= 3; x &= 0xff; x >>= 1; printf("%d\n", x); }
+  { int t = 3; int r = t > 2 ? t * 2 : t - 1; printf("%d\n", r); }
+  { int a1 = 0, b1 = 0; if (a1++ || b1++) ; if (a1 && b1++) ; printf("%d %d\n", a1, b1); }
+  goto end;
+  printf("skipped\n");
+end:
+  return fact(3);
+}